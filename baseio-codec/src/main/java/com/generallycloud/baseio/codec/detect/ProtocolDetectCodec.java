@@ -0,0 +1,197 @@
+/*
+ * Copyright 2015-2017 GenerallyCloud.com
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *  
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.generallycloud.baseio.codec.detect;
+
+import java.io.IOException;
+
+import com.generallycloud.baseio.buffer.ByteBuf;
+import com.generallycloud.baseio.codec.http11.ServerHttpCodec;
+import com.generallycloud.baseio.codec.http2.Http2Codec;
+import com.generallycloud.baseio.component.ChannelContext;
+import com.generallycloud.baseio.component.NioSocketChannel;
+import com.generallycloud.baseio.component.ssl.ApplicationProtocolNames;
+import com.generallycloud.baseio.component.ssl.SSLUtil;
+import com.generallycloud.baseio.protocol.AbstractFuture;
+import com.generallycloud.baseio.protocol.Future;
+import com.generallycloud.baseio.protocol.ProtocolCodec;
+import com.generallycloud.baseio.protocol.SslFuture;
+
+/**
+ * 同一个端口支持多种协议，根据连接上的第一段数据选择codec并替换channel的codec，
+ * 之后该连接的编解码都由选中的codec完成
+ * <pre>
+ *  TLS            : ALPN协商为h2时使用http2，为http/1.1时使用http1.1，未协商时按明文检测
+ *  PRI * HTTP/2.0 : http2(prior knowledge)
+ *  GET / ...      : http1.1，设置了http2Codec时同时支持h2c upgrade
+ *  其它            : defaultCodec，例如protobase(B0-B3为报文长度)
+ * </pre>
+ * 明文和TLS共用一个端口时需要开启ChannelContext.setEnableSslDetect
+ * @author wangkai
+ *
+ */
+public class ProtocolDetectCodec implements ProtocolCodec {
+
+    private static final int    MAX_METHOD_LENGTH = 7;
+    private static final byte[] PREFACE           = "PRI * HTTP/2.0\r\n\r\nSM\r\n\r\n".getBytes();
+    private ProtocolCodec       defaultCodec;
+    private Http2Codec          http2Codec;
+    private ServerHttpCodec     http11Codec;
+
+    public ProtocolDetectCodec(ServerHttpCodec http11Codec, Http2Codec http2Codec) {
+        this.http11Codec = http11Codec;
+        this.http2Codec = http2Codec;
+        if (http11Codec != null && http11Codec.getHttp2Codec() == null) {
+            http11Codec.setHttp2Codec(http2Codec);
+        }
+    }
+
+    @Override
+    public Future createPINGPacket(NioSocketChannel channel) {
+        return null;
+    }
+
+    @Override
+    public Future createPONGPacket(NioSocketChannel channel, Future ping) {
+        return null;
+    }
+
+    // 检测完成之前每个连接只会创建一个DetectFuture(数据不足时作为readFuture保留)
+    @Override
+    public Future decode(NioSocketChannel channel, ByteBuf buffer) throws IOException {
+        return new DetectFuture(this);
+    }
+
+    /**
+     * @return 数据不足以判断协议时返回null
+     */
+    protected ProtocolCodec detect(NioSocketChannel channel, ByteBuf buf) throws IOException {
+        if (channel.isEnableSsl()) {
+            String protocol = SSLUtil.getApplicationProtocol(channel.getSSLEngine());
+            if (ApplicationProtocolNames.HTTP_2.equals(protocol)) {
+                return require(http2Codec, protocol);
+            }
+            if (ApplicationProtocolNames.HTTP_1_1.equals(protocol)) {
+                return require(http11Codec, protocol);
+            }
+        }
+        int pos = buf.position();
+        int len = Math.min(buf.remaining(), PREFACE.length);
+        int i = 0;
+        for (; i < len && buf.getByte(pos + i) == PREFACE[i]; i++) {
+        }
+        if (i == PREFACE.length) {
+            return require(http2Codec, "h2c");
+        }
+        if (i == len) {
+            return null;
+        }
+        // http1.1的请求行以大写字母组成的method和空格开始
+        len = Math.min(buf.remaining(), MAX_METHOD_LENGTH + 1);
+        for (i = 0; i < len; i++) {
+            byte b = buf.getByte(pos + i);
+            if (b < 'A' || b > 'Z') {
+                if (b == ' ' && i > 0) {
+                    return require(http11Codec, "http/1.1");
+                }
+                break;
+            }
+        }
+        if (i == len && len <= MAX_METHOD_LENGTH) {
+            return null;
+        }
+        if (buf.getByte(pos) == SslFuture.SSL_CONTENT_TYPE_HANDSHAKE && !channel.isEnableSsl()) {
+            throw new IOException("tls handshake received but ssl is not enabled");
+        }
+        return require(defaultCodec, "unknown");
+    }
+
+    private static ProtocolCodec require(ProtocolCodec codec, String protocol)
+            throws IOException {
+        if (codec == null) {
+            throw new IOException("unsupported protocol: " + protocol);
+        }
+        return codec;
+    }
+
+    @Override
+    public void encode(NioSocketChannel channel, Future future) throws IOException {
+        throw new IOException("protocol not detected");
+    }
+
+    @Override
+    public String getProtocolId() {
+        return "ProtocolDetect";
+    }
+
+    @Override
+    public void initialize(ChannelContext context) {
+        if (http11Codec != null) {
+            http11Codec.initialize(context);
+        }
+        // h2c upgrade使用同一个http2Codec时已经由http11Codec初始化
+        if (http2Codec != null
+                && (http11Codec == null || http11Codec.getHttp2Codec() != http2Codec)) {
+            http2Codec.initialize(context);
+        }
+        if (defaultCodec != null) {
+            defaultCodec.initialize(context);
+        }
+    }
+
+    public ProtocolCodec getDefaultCodec() {
+        return defaultCodec;
+    }
+
+    public Http2Codec getHttp2Codec() {
+        return http2Codec;
+    }
+
+    public ServerHttpCodec getHttp11Codec() {
+        return http11Codec;
+    }
+
+    /**
+     * 既不是http也不是TLS的连接使用defaultCodec，为null时关闭连接
+     */
+    public void setDefaultCodec(ProtocolCodec defaultCodec) {
+        this.defaultCodec = defaultCodec;
+    }
+
+    /**
+     * 只检测协议，不消费数据，检测完成后替换channel的codec，剩余的数据由新的codec解码
+     */
+    static class DetectFuture extends AbstractFuture {
+
+        private final ProtocolDetectCodec codec;
+
+        DetectFuture(ProtocolDetectCodec codec) {
+            this.codec = codec;
+            this.setSilent(true);
+        }
+
+        @Override
+        public boolean read(NioSocketChannel channel, ByteBuf buffer) throws IOException {
+            ProtocolCodec detected = codec.detect(channel, buffer);
+            if (detected == null) {
+                return false;
+            }
+            channel.setProtocolCodec(detected);
+            return true;
+        }
+
+    }
+
+}
@@ -15,6 +15,9 @@
  */
 package com.generallycloud.baseio.codec.http11;
 
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.HashMap;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
@@ -33,15 +36,87 @@ public abstract class AbstractHttpCodec implements ProtocolCodec {
     protected static final byte COLON = ':';
     protected static final byte SPACE = ' ';
 
-    protected void writeBuf(ByteBuf buf, byte[] array) {
-        writeBuf(buf, array, 0, array.length);
+    private static final byte[] HEX   = "0123456789abcdef".getBytes();
+
+    // 响应头名称 => "name: "
+    private static final Map<String, byte[]> HEADER_NAMES = new HashMap<>();
+
+    static {
+        try {
+            for (Field f : HttpHeader.class.getDeclaredFields()) {
+                if (f.getType() == String.class && Modifier.isStatic(f.getModifiers())
+                        && !f.getName().startsWith("Req_")) {
+                    String name = (String) f.get(null);
+                    HEADER_NAMES.put(name, (name + ": ").getBytes());
+                }
+            }
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
     }
 
-    protected void writeBuf(ByteBuf buf, byte[] array, int off, int len) {
+    private static void ensureRemaining(ByteBuf buf, int len) {
         if (buf.remaining() < len) {
             buf.reallocate(buf.position() + len, true);
             buf.limit(buf.capacity());
         }
+    }
+
+    /**
+     * 将ASCII字符串直接写入buf，包含非ASCII字符时按照默认编码写入
+     */
+    protected void writeAscii(ByteBuf buf, String value) {
+        int len = value.length();
+        for (int i = 0; i < len; i++) {
+            if (value.charAt(i) >= 0x80) {
+                writeBuf(buf, value.getBytes());
+                return;
+            }
+        }
+        ensureRemaining(buf, len);
+        for (int i = 0; i < len; i++) {
+            buf.putByte((byte) value.charAt(i));
+        }
+    }
+
+    /**
+     * 将value[off, end)按照UTF-8直接写入buf，不创建中间的byte[]
+     */
+    protected void writeUtf8(ByteBuf buf, String value, int off, int end) {
+        // 每个char最多3个字节(代理对2个char共4个字节)
+        ensureRemaining(buf, (end - off) * 3);
+        for (int i = off; i < end; i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                buf.putByte((byte) c);
+            } else if (c < 0x800) {
+                buf.putByte((byte) (0xc0 | (c >> 6)));
+                buf.putByte((byte) (0x80 | (c & 0x3f)));
+            } else if (Character.isSurrogate(c)) {
+                if (Character.isHighSurrogate(c) && i + 1 < end
+                        && Character.isLowSurrogate(value.charAt(i + 1))) {
+                    int cp = Character.toCodePoint(c, value.charAt(++i));
+                    buf.putByte((byte) (0xf0 | (cp >> 18)));
+                    buf.putByte((byte) (0x80 | ((cp >> 12) & 0x3f)));
+                    buf.putByte((byte) (0x80 | ((cp >> 6) & 0x3f)));
+                    buf.putByte((byte) (0x80 | (cp & 0x3f)));
+                } else {
+                    buf.putByte((byte) '?');
+                }
+            } else {
+                buf.putByte((byte) (0xe0 | (c >> 12)));
+                buf.putByte((byte) (0x80 | ((c >> 6) & 0x3f)));
+                buf.putByte((byte) (0x80 | (c & 0x3f)));
+            }
+        }
+    }
+
+    protected void writeBuf(ByteBuf buf, byte[] array) {
+        writeBuf(buf, array, 0, array.length);
+    }
+
+    protected void writeBuf(ByteBuf buf, byte[] array, int off, int len) {
+        ensureRemaining(buf, len);
         buf.put(array, off, len);
     }
 
@@ -54,19 +129,74 @@ public abstract class AbstractHttpCodec implements ProtocolCodec {
     }
 
     protected void writeHeaders(HttpFuture f, ByteBuf buf) {
-        Map<String, String> headers = f.getResponseHeaders();
+        writeHeaders(f.getResponseHeaders(), buf);
+    }
+
+    protected void writeHeaders(Map<String, String> headers, ByteBuf buf) {
         if (headers == null) {
             return;
         }
         Set<Entry<String, String>> hs = headers.entrySet();
         for (Entry<String, String> header : hs) {
-            writeBuf(buf, header.getKey().getBytes());
-            writeBuf(buf, COLON);
-            writeBuf(buf, SPACE);
-            writeBuf(buf, header.getValue().getBytes());
+            String name = header.getKey();
+            byte[] nameBytes = HEADER_NAMES.get(name);
+            if (nameBytes == null) {
+                writeAscii(buf, name);
+                writeBuf(buf, COLON);
+                writeBuf(buf, SPACE);
+            } else {
+                writeBuf(buf, nameBytes);
+            }
+            writeAscii(buf, header.getValue());
             writeBuf(buf, R);
             writeBuf(buf, N);
         }
     }
 
+    /**
+     * 将非负整数的十六进制文本直接写入buf(分块传输的chunk-size)
+     */
+    protected void writeHex(ByteBuf buf, int value) {
+        ensureRemaining(buf, 8);
+        int shift = 28;
+        for (; shift > 0 && (value >>> shift) == 0;) {
+            shift -= 4;
+        }
+        for (; shift >= 0; shift -= 4) {
+            buf.putByte(HEX[(value >>> shift) & 0xf]);
+        }
+    }
+
+    /**
+     * 写入固定8位的十六进制文本(带前导0)，用于回填预先占位的chunk-size
+     */
+    protected void writeHex8(ByteBuf buf, int value) {
+        for (int shift = 28; shift >= 0; shift -= 4) {
+            buf.putByte(HEX[(value >>> shift) & 0xf]);
+        }
+    }
+
+    /**
+     * 将整数的十进制文本直接写入buf
+     */
+    protected void writeInt(ByteBuf buf, int value) {
+        writeLong(buf, value);
+    }
+
+    protected void writeLong(ByteBuf buf, long value) {
+        long v = value;
+        ensureRemaining(buf, 20);
+        if (v < 0) {
+            buf.putByte((byte) '-');
+            v = -v;
+        }
+        long divisor = 1;
+        for (; divisor <= v / 10;) {
+            divisor *= 10;
+        }
+        for (; divisor > 0; divisor /= 10) {
+            buf.putByte((byte) ('0' + v / divisor % 10));
+        }
+    }
+
 }
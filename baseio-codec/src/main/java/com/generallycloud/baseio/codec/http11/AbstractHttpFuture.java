@@ -15,8 +15,15 @@
  */
 package com.generallycloud.baseio.codec.http11;
 
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
@@ -25,17 +32,22 @@ import java.util.Map;
 import com.generallycloud.baseio.buffer.ByteBuf;
 import com.generallycloud.baseio.buffer.EmptyByteBuf;
 import com.generallycloud.baseio.common.BASE64Util;
+import com.generallycloud.baseio.common.CloseUtil;
+import com.generallycloud.baseio.common.Encoding;
 import com.generallycloud.baseio.common.KMPUtil;
 import com.generallycloud.baseio.common.SHAUtil;
 import com.generallycloud.baseio.common.StringLexer;
 import com.generallycloud.baseio.common.StringUtil;
+import com.generallycloud.baseio.component.ByteArrayInputStream;
 import com.generallycloud.baseio.component.ByteArrayOutputStream;
 import com.generallycloud.baseio.component.ChannelContext;
+import com.generallycloud.baseio.component.NioEventLoop;
 import com.generallycloud.baseio.component.NioSocketChannel;
 import com.generallycloud.baseio.protocol.AbstractFuture;
 
-//FIXME 改进header parser
 /**
+ * header直接在字节上解析，只记录每个header的名称和值的位置，
+ * 已知的请求头名称通过HttpHeaderTable查找，header的值和URL在第一次访问时才创建String
  * 
  * Content-Type: application/x-www-form-urlencoded</BR> Content-Type:
  * multipart/form-data; boundary=----WebKitFormBoundaryKA6dsRskWA4CdJek
@@ -47,24 +59,63 @@ public abstract class AbstractHttpFuture extends AbstractFuture implements HttpF
 
     protected static final KMPUtil           KMP_BOUNDARY   = new KMPUtil("boundary=");
 
-    private ByteArrayOutputStream                  binaryBuffer;
+    private static final int                 CHUNK_SIZE      = 0;
+    private static final int                 CHUNK_EXTENSION = 1;
+    private static final int                 CHUNK_DATA      = 2;
+    private static final int                 CHUNK_DATA_END  = 3;
+    private static final int                 CHUNK_TRAILER   = 4;
+
+    private ByteArrayOutputStream            binaryBuffer;
     private byte[]                           bodyArray;
+    private FileChannel                      bodyChannel;
+    private File                             bodyFile;
+    private HttpBodyHandler                  bodyHandler;
     private int                              bodyLimit;
+    private int                              bodyRead;
+    private boolean                          bodyStreaming;
+    private File                             bodyTempDir;
     private String                           boundary;
+    private boolean                          chunkedBody;
+    private int                              chunkLineLength;
+    private int                              chunkSize;
+    private int                              chunkState;
     private int                              contentLength;
     private String                           contentType;
     private ChannelContext                   context;
     private List<Cookie>                     cookieList;
     private Map<String, String>              cookies;
-    private StringBuilder                    currentHeaderLine;
+    private boolean                          cookiesParsed;
+    private StringBuilder                    cookieValue;
+    private boolean                          enableMultipart;
     private boolean                          hasBodyContent;
     private boolean                          header_complete;
+    // header原始字节(不包含\r)
+    private byte[]                           headerArray;
+    private int                              headerArrayLen;
     private int                              headerLength;
     private int                              headerLimit;
+    // 已知请求头的名称(HttpHeader中的常量)，未知为null
+    private String[]                         headerNames;
+    // 每个header四个int：nameStart,nameEnd,valueStart,valueEnd
+    private int[]                            headerOffsets;
+    private int                              headerSize;
+    private String[]                         headerValues;
+    private boolean                          headersMaterialized;
     private String                           host;
+    private int                              lineStart;
+    private int                              maxBodySize;
+    private int                              maxPartSize;
     private String                           method;
+    private MultipartHandler                 multipartHandler;
+    private MultipartParser                  multipartParser;
+    // 自己创建的map，reset时clear后继续使用，保留扩容后的容量(外部设置的map不会被clear)
+    private HashMap<String, String>          ownParams;
+    private HashMap<String, String>          ownRequestHeaders;
+    private HashMap<String, String>          ownResponseHeaders;
     private Map<String, String>              params;
+    private Map<String, String>              pathParams;
     private boolean                          parseFirstLine = true;
+    private boolean                          responseChunked;
     private String                           readText;
     private Map<String, String>              request_headers;
     private String                           requestURI;
@@ -72,14 +123,19 @@ public abstract class AbstractHttpFuture extends AbstractFuture implements HttpF
     private Map<String, String>              response_headers;
     private HttpStatus                       status         = HttpStatus.C200;
     private boolean                          updateWebSocketProtocol;
+    private int                              urlEnd;
+    private int                              urlStart       = -1;
     private String                           version;
 
     public AbstractHttpFuture(NioSocketChannel channel, int headerLimit, int bodyLimit) {
         this.context = channel.getContext();
         this.headerLimit = headerLimit;
         this.bodyLimit = bodyLimit;
-        this.request_headers = new HashMap<>();
-        this.currentHeaderLine = new StringBuilder();
+        this.maxBodySize = bodyLimit;
+        this.headerArray = new byte[256];
+        this.headerOffsets = new int[4 * 16];
+        this.headerNames = new String[16];
+        this.headerValues = new String[16];
     }
 
     public AbstractHttpFuture(ChannelContext context) {
@@ -99,11 +155,60 @@ public abstract class AbstractHttpFuture extends AbstractFuture implements HttpF
         return binaryBuffer;
     }
 
+    /**
+     * 请求体写入了临时文件时会读取整个文件，大的请求体请使用getBodyInputStream()
+     */
     @Override
     public byte[] getBodyContent() {
+        if (bodyArray == null && bodyFile != null) {
+            try (RandomAccessFile raf = new RandomAccessFile(bodyFile, "r")) {
+                byte[] array = new byte[(int) raf.length()];
+                raf.readFully(array);
+                bodyArray = array;
+            } catch (IOException e) {
+                throw new RuntimeException(e.getMessage(), e);
+            }
+        }
         return bodyArray;
     }
 
+    @Override
+    public File getBodyFile() {
+        return bodyFile;
+    }
+
+    @Override
+    public InputStream getBodyInputStream() throws IOException {
+        if (bodyArray != null) {
+            return new ByteArrayInputStream(bodyArray);
+        }
+        if (bodyFile != null) {
+            return new FileInputStream(bodyFile);
+        }
+        return null;
+    }
+
+    @Override
+    public void deleteBodyFile() {
+        CloseUtil.close(bodyChannel);
+        bodyChannel = null;
+        if (bodyFile != null) {
+            bodyFile.delete();
+            bodyFile = null;
+        }
+        if (multipartParser != null) {
+            multipartParser.deleteFiles();
+        }
+    }
+
+    @Override
+    public List<MultipartPart> getParts() {
+        if (multipartParser == null) {
+            return null;
+        }
+        return multipartParser.getParts();
+    }
+
     @Override
     public String getBoundary() {
         return boundary;
@@ -121,6 +226,13 @@ public abstract class AbstractHttpFuture extends AbstractFuture implements HttpF
 
     @Override
     public String getCookie(String name) {
+        if (!cookiesParsed) {
+            cookiesParsed = true;
+            String cookie = getRequestHeader(HttpHeader.Req_Cookie);
+            if (!StringUtil.isNullOrBlank(cookie)) {
+                parse_cookies(cookie);
+            }
+        }
         if (cookies == null) {
             return null;
         }
@@ -139,6 +251,9 @@ public abstract class AbstractHttpFuture extends AbstractFuture implements HttpF
 
     @Override
     public String getHost() {
+        if (host == null) {
+            host = getRequestHeader(HttpHeader.Req_Host);
+        }
         return host;
     }
 
@@ -161,40 +276,108 @@ public abstract class AbstractHttpFuture extends AbstractFuture implements HttpF
         if (_name == null) {
             _name = name.toLowerCase();
         }
-        return request_headers.get(_name);
+        if (request_headers != null) {
+            String value = request_headers.get(_name);
+            if (value != null || headersMaterialized) {
+                return value;
+            }
+        }
+        int index = indexOfHeader(_name);
+        if (index == -1) {
+            return null;
+        }
+        return getHeaderValue(index);
     }
 
     @Override
     public Map<String, String> getRequestHeaders() {
+        if (!headersMaterialized && headerArray != null) {
+            headersMaterialized = true;
+            // 通过setRequestHeader设置的header优先
+            Map<String, String> set = null;
+            if (request_headers != null) {
+                set = new HashMap<>(request_headers);
+            }
+            Map<String, String> headers = ownRequestHeaders();
+            headers.clear();
+            for (int i = 0; i < headerSize; i++) {
+                headers.put(getHeaderName(i), getHeaderValue(i));
+            }
+            if (set != null) {
+                headers.putAll(set);
+            }
+            request_headers = headers;
+        }
         return request_headers;
     }
 
     @Override
     public String getRequestParam(String key) {
+        materializeURL();
+        if (params == null) {
+            return null;
+        }
         return params.get(key);
     }
 
     @Override
     public Map<String, String> getRequestParams() {
+        materializeURL();
         return params;
     }
 
     @Override
     public String getRequestURI() {
+        materializeURL();
         return requestURI;
     }
 
     @Override
     public String getRequestURL() {
+        materializeURL();
         return requestURL;
     }
 
     @Override
     public Map<String, String> getResponseHeaders() {
         if (response_headers == null) {
-            response_headers = new HashMap<>();
-            setDefaultResponseHeaders(response_headers);
+            newResponseHeaders();
+        }
+        return response_headers;
+    }
+
+    private void newResponseHeaders() {
+        if (ownResponseHeaders == null) {
+            ownResponseHeaders = new HashMap<>();
+        }
+        response_headers = ownResponseHeaders;
+        setDefaultResponseHeaders(response_headers);
+    }
+
+    private Map<String, String> ownRequestHeaders() {
+        if (ownRequestHeaders == null) {
+            ownRequestHeaders = new HashMap<>();
+        }
+        return ownRequestHeaders;
+    }
+
+    /**
+     * 返回请求参数的map，不存在时创建(reset后复用)
+     */
+    protected Map<String, String> newRequestParams() {
+        if (params == null) {
+            if (ownParams == null) {
+                ownParams = new HashMap<>();
+            }
+            params = ownParams;
         }
+        return params;
+    }
+
+    /**
+     * 返回已经设置的响应头，未设置过时返回null(此时使用默认响应头)
+     */
+    Map<String, String> getResponseHeadersIfPresent() {
         return response_headers;
     }
 
@@ -208,21 +391,132 @@ public abstract class AbstractHttpFuture extends AbstractFuture implements HttpF
         return version;
     }
 
+    @Override
+    public boolean isResponseChunked() {
+        return responseChunked;
+    }
+
+    @Override
+    public void setResponseChunked(boolean responseChunked) {
+        this.responseChunked = responseChunked;
+    }
+
     @Override
     public boolean hasBodyContent() {
         return hasBodyContent;
     }
 
+    private String getHeaderName(int index) {
+        String name = headerNames[index];
+        if (name == null) {
+            int off = headerOffsets[index * 4];
+            int end = headerOffsets[index * 4 + 1];
+            name = new String(headerArray, off, end - off, Encoding.ISO_8859_1).toLowerCase();
+            headerNames[index] = name;
+        }
+        return name;
+    }
+
+    private String getHeaderValue(int index) {
+        String value = headerValues[index];
+        if (value == null) {
+            int off = headerOffsets[index * 4 + 2];
+            int end = headerOffsets[index * 4 + 3];
+            value = new String(headerArray, off, end - off, Encoding.ISO_8859_1);
+            headerValues[index] = value;
+        }
+        return value;
+    }
+
+    /**
+     * 查找最后一个名称为name(小写)的header
+     */
+    private int indexOfHeader(String name) {
+        final String[] headerNames = this.headerNames;
+        for (int i = headerSize - 1; i >= 0; i--) {
+            String n = headerNames[i];
+            if (n == name) {
+                return i;
+            }
+            if (n == null) {
+                if (nameEquals(i, name)) {
+                    return i;
+                }
+            } else if (n.equals(name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
     public boolean isUpdateWebSocketProtocol() {
         return updateWebSocketProtocol;
     }
 
+    @Override
+    public String getPathParam(String name) {
+        if (pathParams == null) {
+            return null;
+        }
+        return pathParams.get(name);
+    }
+
+    @Override
+    public Map<String, String> getPathParams() {
+        return pathParams;
+    }
+
+    void setPathParams(Map<String, String> pathParams) {
+        this.pathParams = pathParams;
+    }
+
+    // URL还没有创建String时返回请求行所在的数组，否则返回null
+    byte[] getURLArray() {
+        return urlStart == -1 ? null : headerArray;
+    }
+
+    int getURLEnd() {
+        return urlEnd;
+    }
+
+    int getURLStart() {
+        return urlStart;
+    }
+
+    private void materializeURL() {
+        if (urlStart != -1) {
+            String url = new String(headerArray, urlStart, urlEnd - urlStart, Encoding.ISO_8859_1);
+            urlStart = -1;
+            setRequestURL(url);
+        }
+    }
+
+    private boolean nameEquals(int index, String name) {
+        int off = headerOffsets[index * 4];
+        int end = headerOffsets[index * 4 + 1];
+        if (end - off != name.length()) {
+            return false;
+        }
+        final byte[] array = this.headerArray;
+        for (int i = off; i < end; i++) {
+            if (HttpHeaderTable.toLowerCase(array[i]) != name.charAt(i - off)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     private void parse_cookies(String line) {
         if (cookies == null) {
             cookies = new HashMap<>();
         }
         StringLexer l = new StringLexer(0, StringUtil.stringToCharArray(line));
-        StringBuilder value = new StringBuilder();
+        StringBuilder value = cookieValue;
+        if (value == null) {
+            value = new StringBuilder();
+            cookieValue = value;
+        }
+        value.setLength(0);
         String k = null;
         String v = null;
         boolean findKey = true;
@@ -236,7 +530,7 @@ public abstract class AbstractHttpFuture extends AbstractFuture implements HttpF
                         throw new IllegalArgumentException();
                     }
                     k = value.toString();
-                    value = new StringBuilder();
+                    value.setLength(0);
                     findKey = false;
                     break;
                 case ';':
@@ -245,7 +539,7 @@ public abstract class AbstractHttpFuture extends AbstractFuture implements HttpF
                     }
                     findKey = true;
                     v = value.toString();
-                    value = new StringBuilder();
+                    value.setLength(0);
                     cookies.put(k, v);
                     break;
                 default:
@@ -263,7 +557,75 @@ public abstract class AbstractHttpFuture extends AbstractFuture implements HttpF
 
     protected abstract void parseFirstLine(String line);
 
+    /**
+     * 解析第一行，array[off, end)，默认转换为String后调用parseFirstLine(String)
+     */
+    protected void parseFirstLine(byte[] array, int off, int end) throws IOException {
+        parseFirstLine(new String(array, off, end - off, Encoding.ISO_8859_1));
+    }
+
+    private void parseHeaderLine(byte[] array, int off, int end) {
+        int colon = -1;
+        for (int i = off; i < end; i++) {
+            if (array[i] == ':') {
+                colon = i;
+                break;
+            }
+        }
+        if (colon == -1) {
+            return;
+        }
+        int nameStart = skipSpace(array, off, colon);
+        int nameEnd = trimSpace(array, nameStart, colon);
+        if (nameStart == nameEnd) {
+            return;
+        }
+        int valueStart = skipSpace(array, colon + 1, end);
+        int valueEnd = trimSpace(array, valueStart, end);
+        int size = headerSize;
+        if (size == headerNames.length) {
+            int newSize = size * 2;
+            headerNames = Arrays.copyOf(headerNames, newSize);
+            headerValues = Arrays.copyOf(headerValues, newSize);
+            headerOffsets = Arrays.copyOf(headerOffsets, newSize * 4);
+        }
+        int[] offsets = headerOffsets;
+        offsets[size * 4] = nameStart;
+        offsets[size * 4 + 1] = nameEnd;
+        offsets[size * 4 + 2] = valueStart;
+        offsets[size * 4 + 3] = valueEnd;
+        headerNames[size] = HttpHeaderTable.lookup(array, nameStart, nameEnd);
+        headerValues[size] = null;
+        headerSize = size + 1;
+    }
+
+    private int parseContentLength() throws IOException {
+        int index = indexOfHeader(HttpHeader.Req_Content_Length);
+        if (index == -1) {
+            return 0;
+        }
+        int off = headerOffsets[index * 4 + 2];
+        int end = headerOffsets[index * 4 + 3];
+        if (off == end || end - off > 10) {
+            throw new IOException("illegal content-length");
+        }
+        final byte[] array = this.headerArray;
+        long value = 0;
+        for (int i = off; i < end; i++) {
+            int d = array[i] - '0';
+            if (d < 0 || d > 9) {
+                throw new IOException("illegal content-length");
+            }
+            value = value * 10 + d;
+        }
+        if (value > Integer.MAX_VALUE) {
+            throw new IOException("illegal content-length");
+        }
+        return (int) value;
+    }
+
     protected void parseParamString(String paramString) {
+        Map<String, String> params = newRequestParams();
         boolean findKey = true;
         int lastIndex = 0;
         String key = null;
@@ -298,25 +660,49 @@ public abstract class AbstractHttpFuture extends AbstractFuture implements HttpF
             if (!header_complete) {
                 return false;
             }
-            host = getRequestHeader(HttpHeader.Req_Host);
-            String contentLengthStr = getRequestHeader(HttpHeader.Req_Content_Length);
-            if (!StringUtil.isNullOrBlank(contentLengthStr)) {
-                this.contentLength = Integer.parseInt(contentLengthStr);
-            }
+            this.contentLength = parseContentLength();
             String contentType = getRequestHeader(HttpHeader.Req_Content_Type);
             parseContentType(contentType);
-            String cookie = getRequestHeader(HttpHeader.Req_Cookie);
-            if (!StringUtil.isNullOrBlank(cookie)) {
-                parse_cookies(cookie);
-            }
-            if (contentLength < 1) {
+            String transferEncoding = getRequestHeader(HttpHeader.Req_Transfer_Encoding);
+            if (transferEncoding != null && transferEncoding.toLowerCase().contains("chunked")) {
+                this.chunkedBody = true;
+                this.contentLength = 0;
+            } else if (contentLength < 1) {
                 return true;
+            }
+            hasBodyContent = true;
+            if (bodyHandler != null && bodyHandler.onHeaders(this)) {
+                bodyStreaming = true;
+            } else if (enableMultipart && !StringUtil.isNullOrBlank(boundary)
+                    && CONTENT_TYPE_MULTIPART.equals(getContentType())) {
+                if (contentLength > maxBodySize) {
+                    throw new IOException("max http body length " + maxBodySize);
+                }
+                multipartParser = new MultipartParser(this, boundary, context.getEncoding(),
+                        multipartHandler, maxPartSize, headerLimit, bodyLimit, bodyTempDir);
+            } else if (chunkedBody) {
+                bodyArray = new byte[Math.min(256, bodyLimit)];
+            } else if (contentLength > bodyLimit) {
+                if (contentLength > maxBodySize) {
+                    throw new IOException("max http body length " + maxBodySize);
+                }
+                openBodyFile();
             } else {
-                hasBodyContent = true;
-                // FIXME 写入临时文件
                 setByteBuf(allocate(channel, contentLength, bodyLimit));
             }
         }
+        if (chunkedBody || bodyStreaming || bodyChannel != null || multipartParser != null) {
+            try {
+                if (chunkedBody ? readChunked(buffer) : readBodyChunk(buffer)) {
+                    completeBody();
+                    return true;
+                }
+                return false;
+            } catch (IOException e) {
+                deleteBodyFile();
+                throw e;
+            }
+        }
         ByteBuf buf = getByteBuf();
         buf.read(buffer);
         if (buf.hasRemaining()) {
@@ -324,6 +710,11 @@ public abstract class AbstractHttpFuture extends AbstractFuture implements HttpF
         }
         buf.flip();
         bodyArray = buf.getBytes();
+        parseBody();
+        return true;
+    }
+
+    private void parseBody() {
         if (CONTENT_APPLICATION_URLENCODED.equals(contentType)) {
             // FIXME encoding
             String paramString = new String(bodyArray, context.getEncoding());
@@ -332,45 +723,228 @@ public abstract class AbstractHttpFuture extends AbstractFuture implements HttpF
         } else {
             // FIXME 解析BODY中的内容
         }
-        return true;
     }
 
-    private void readHeader(ByteBuf buffer) throws IOException {
-        StringBuilder currentHeaderLine = this.currentHeaderLine;
-        for (; buffer.hasRemaining();) {
-            if (++headerLength > headerLimit) {
-                throw new IOException("max http header length " + headerLimit);
+    /**
+     * 由其它协议(例如http2)组装请求时设置完整的请求体
+     */
+    protected void setBodyContent(byte[] array) {
+        this.bodyArray = array;
+        this.bodyRead = array.length;
+        this.contentLength = array.length;
+        this.hasBodyContent = true;
+        parseBody();
+    }
+
+    private void completeBody() throws IOException {
+        if (chunkedBody) {
+            contentLength = bodyRead;
+        }
+        if (bodyStreaming) {
+            bodyHandler.onBodyComplete(this);
+        } else if (multipartParser != null) {
+            multipartParser.complete();
+        } else if (bodyChannel != null) {
+            CloseUtil.close(bodyChannel);
+            bodyChannel = null;
+        } else {
+            if (bodyArray.length != bodyRead) {
+                bodyArray = Arrays.copyOf(bodyArray, bodyRead);
             }
-            byte b = buffer.getByte();
-            if (b == '\n') {
-                if (currentHeaderLine.length() == 0) {
-                    header_complete = true;
+            parseBody();
+        }
+    }
+
+    private void openBodyFile() throws IOException {
+        bodyFile = File.createTempFile("baseio-body-", ".tmp", bodyTempDir);
+        bodyChannel = new RandomAccessFile(bodyFile, "rw").getChannel();
+    }
+
+    // 将本次读取到的请求体交给bodyHandler或者写入临时文件，不会读取下一个请求的数据
+    private boolean readBodyChunk(ByteBuf buffer) throws IOException {
+        int len = Math.min(contentLength - bodyRead, buffer.remaining());
+        if (len > 0) {
+            writeBody(buffer, len);
+        }
+        return bodyRead == contentLength;
+    }
+
+    /**
+     * Transfer-Encoding: chunked
+     * chunk-size [;ext] CRLF data CRLF ... 0 CRLF [trailer CRLF] CRLF
+     */
+    private boolean readChunked(ByteBuf buffer) throws IOException {
+        for (; buffer.hasRemaining();) {
+            switch (chunkState) {
+                case CHUNK_SIZE: {
+                    byte b = buffer.getByte();
+                    int digit = hexDigit(b);
+                    if (digit != -1) {
+                        if (chunkSize > (Integer.MAX_VALUE >> 4)) {
+                            throw new IOException("chunk size too large");
+                        }
+                        chunkSize = (chunkSize << 4) | digit;
+                    } else if (b == '\n') {
+                        chunkState = chunkSize == 0 ? CHUNK_TRAILER : CHUNK_DATA;
+                        chunkLineLength = 0;
+                    } else if (b == ';' || b == ' ' || b == '\t' || b == '\r') {
+                        chunkState = CHUNK_EXTENSION;
+                    } else {
+                        throw new IOException("illegal chunk size");
+                    }
+                    break;
+                }
+                case CHUNK_EXTENSION: {
+                    byte b = buffer.getByte();
+                    if (b == '\n') {
+                        chunkState = chunkSize == 0 ? CHUNK_TRAILER : CHUNK_DATA;
+                        chunkLineLength = 0;
+                    } else if (++chunkLineLength > headerLimit) {
+                        throw new IOException("max chunk extension length " + headerLimit);
+                    }
+                    break;
+                }
+                case CHUNK_DATA: {
+                    int len = Math.min(chunkSize, buffer.remaining());
+                    writeBody(buffer, len);
+                    chunkSize -= len;
+                    if (chunkSize == 0) {
+                        chunkState = CHUNK_DATA_END;
+                    }
+                    break;
+                }
+                case CHUNK_DATA_END: {
+                    byte b = buffer.getByte();
+                    if (b == '\n') {
+                        chunkState = CHUNK_SIZE;
+                    } else if (b != '\r') {
+                        throw new IOException("illegal chunk end");
+                    }
+                    break;
+                }
+                default: {
+                    // CHUNK_TRAILER，trailer被忽略
+                    byte b = buffer.getByte();
+                    if (b == '\n') {
+                        if (chunkLineLength == 0) {
+                            return true;
+                        }
+                        chunkLineLength = 0;
+                    } else if (b != '\r' && ++chunkLineLength > headerLimit) {
+                        throw new IOException("max http header length " + headerLimit);
+                    }
                     break;
-                } else {
-                    String line = currentHeaderLine.toString();
+                }
+            }
+        }
+        return false;
+    }
+
+    private static int hexDigit(byte b) {
+        if (b >= '0' && b <= '9') {
+            return b - '0';
+        }
+        if (b >= 'a' && b <= 'f') {
+            return b - 'a' + 10;
+        }
+        if (b >= 'A' && b <= 'F') {
+            return b - 'A' + 10;
+        }
+        return -1;
+    }
+
+    // 写入buffer中len个字节的请求体，写入完成后buffer的position后移len
+    private void writeBody(ByteBuf buffer, int len) throws IOException {
+        if (!bodyStreaming && bodyRead + len > maxBodySize) {
+            throw new IOException("max http body length " + maxBodySize);
+        }
+        int limit = buffer.limit();
+        int end = buffer.position() + len;
+        buffer.limit(end);
+        try {
+            if (bodyStreaming) {
+                bodyHandler.onBody(this, buffer);
+            } else if (multipartParser != null) {
+                multipartParser.parse(buffer);
+            } else if (bodyChannel != null) {
+                writeBodyFile(buffer.nioBuffer());
+            } else if (bodyRead + len > bodyLimit) {
+                // 分块传输的请求体超过了bodyLimit，转存到临时文件
+                openBodyFile();
+                writeBodyFile(ByteBuffer.wrap(bodyArray, 0, bodyRead));
+                writeBodyFile(buffer.nioBuffer());
+                bodyArray = null;
+            } else {
+                if (bodyRead + len > bodyArray.length) {
+                    int cap = Math.max(bodyArray.length * 2, bodyRead + len);
+                    bodyArray = Arrays.copyOf(bodyArray, Math.min(cap, bodyLimit));
+                }
+                buffer.get(bodyArray, bodyRead, len);
+            }
+        } finally {
+            buffer.limit(limit);
+            buffer.position(end);
+        }
+        bodyRead += len;
+    }
+
+    private void writeBodyFile(ByteBuffer nioBuffer) throws IOException {
+        while (nioBuffer.hasRemaining()) {
+            bodyChannel.write(nioBuffer);
+        }
+    }
+
+    private void readHeader(ByteBuf buffer) throws IOException {
+        byte[] array = this.headerArray;
+        int len = this.headerArrayLen;
+        int lineStart = this.lineStart;
+        int headerLength = this.headerLength;
+        final int headerLimit = this.headerLimit;
+        try {
+            for (; buffer.hasRemaining();) {
+                if (++headerLength > headerLimit) {
+                    throw new IOException("max http header length " + headerLimit);
+                }
+                byte b = buffer.getByte();
+                if (b == '\n') {
+                    if (len == lineStart) {
+                        header_complete = true;
+                        break;
+                    }
                     if (parseFirstLine) {
                         parseFirstLine = false;
-                        parseFirstLine(line);
+                        parseFirstLine(array, lineStart, len);
                     } else {
-                        int p = line.indexOf(":");
-                        if (p == -1) {
-                            continue;
-                        }
-                        String name = line.substring(0, p).trim();
-                        String value = line.substring(p + 1).trim();
-                        setRequestHeader(name, value);
+                        parseHeaderLine(array, lineStart, len);
+                    }
+                    lineStart = len;
+                } else if (b != '\r') {
+                    if (len == array.length) {
+                        array = Arrays.copyOf(array, Math.min(len * 2, headerLimit));
+                        this.headerArray = array;
                     }
-                    currentHeaderLine.setLength(0);
+                    array[len++] = b;
                 }
-                continue;
-            } else if (b == '\r') {
-                continue;
-            } else {
-                currentHeaderLine.append((char) b);
             }
+        } finally {
+            this.headerArrayLen = len;
+            this.lineStart = lineStart;
+            this.headerLength = headerLength;
         }
     }
 
+    private static int skipSpace(byte[] array, int off, int end) {
+        for (; off < end && (array[off] == ' ' || array[off] == '\t'); off++) {
+        }
+        return off;
+    }
+
+    private static int trimSpace(byte[] array, int off, int end) {
+        for (; end > off && (array[end - 1] == ' ' || array[end - 1] == '\t'); end--) {
+        }
+        return end;
+    }
+
     protected abstract void setDefaultResponseHeaders(Map<String, String> headers);
 
     @Override
@@ -382,12 +956,16 @@ public abstract class AbstractHttpFuture extends AbstractFuture implements HttpF
         if (_name == null) {
             _name = name.toLowerCase();
         }
+        if (request_headers == null) {
+            request_headers = ownRequestHeaders();
+        }
         request_headers.put(_name, value);
     }
 
     @Override
     public void setRequestHeaders(Map<String, String> headers) {
         this.request_headers = headers;
+        this.headersMaterialized = true;
     }
 
     @Override
@@ -395,8 +973,19 @@ public abstract class AbstractHttpFuture extends AbstractFuture implements HttpF
         this.params = params;
     }
 
+    /**
+     * 记录URL在header中的位置，第一次访问时再创建String
+     */
+    protected void setRequestURL(byte[] array, int off, int end) {
+        this.urlStart = off;
+        this.urlEnd = end;
+        this.requestURL = null;
+        this.requestURI = null;
+    }
+
     @Override
     public void setRequestURL(String url) {
+        this.urlStart = -1;
         this.requestURL = url;
         int index = url.indexOf("?");
         if (index > -1) {
@@ -411,8 +1000,7 @@ public abstract class AbstractHttpFuture extends AbstractFuture implements HttpF
     @Override
     public void setResponseHeader(String name, String value) {
         if (response_headers == null) {
-            response_headers = new HashMap<>();
-            setDefaultResponseHeaders(response_headers);
+            newResponseHeaders();
         }
         response_headers.put(name, value);
     }
@@ -424,10 +1012,7 @@ public abstract class AbstractHttpFuture extends AbstractFuture implements HttpF
 
     @Override
     public void setReuestParam(String key, String value) {
-        if (params == null) {
-            params = new HashMap<>();
-        }
-        this.params.put(key, value);
+        newRequestParams().put(key, value);
     }
 
     @Override
@@ -462,12 +1047,44 @@ public abstract class AbstractHttpFuture extends AbstractFuture implements HttpF
     @Override
     public void writeBinary(byte[] binary) {
         if (binaryBuffer == null) {
-            binaryBuffer = new ByteArrayOutputStream(binary);
+            binaryBuffer = new ByteArrayOutputStream(binary, binary.length);
             return;
         }
         binaryBuffer.write(binary);
     }
 
+    /**
+     * @param bodyHandler 流式读取请求体，为null时按照bodyLimit缓存在内存中
+     * @param maxBodySize 请求体最大长度，超过bodyLimit的请求体写入临时文件
+     * @param bodyTempDir 临时文件目录，为null时使用java.io.tmpdir
+     */
+    void setBodyOptions(HttpBodyHandler bodyHandler, int maxBodySize, File bodyTempDir) {
+        this.bodyHandler = bodyHandler;
+        this.maxBodySize = Math.max(maxBodySize, bodyLimit);
+        this.bodyTempDir = bodyTempDir;
+    }
+
+    /**
+     * @param enableMultipart 解析multipart/form-data请求体，不再缓存整个请求体
+     * @param multipartHandler 流式处理part，为null时字段保存为请求参数，文件写入临时文件
+     * @param maxPartSize 单个part的最大长度
+     */
+    void setMultipartOptions(boolean enableMultipart, MultipartHandler multipartHandler,
+            int maxPartSize) {
+        this.enableMultipart = enableMultipart;
+        this.multipartHandler = multipartHandler;
+        this.maxPartSize = maxPartSize;
+    }
+
+    @Override
+    public void release(NioEventLoop eventLoop) {
+        super.release(eventLoop);
+        if (bodyChannel != null || multipartParser != null && !multipartParser.isComplete()) {
+            // 请求体未读取完成(连接关闭或者解析出错)
+            deleteBodyFile();
+        }
+    }
+
     protected void setMethod(String method) {
         this.method = method;
     }
@@ -505,44 +1122,56 @@ public abstract class AbstractHttpFuture extends AbstractFuture implements HttpF
     protected HttpFuture reset(NioSocketChannel channel, int headerLimit, int bodyLimit) {
         this.binaryBuffer = null;
         this.bodyArray = null;
+        this.deleteBodyFile();
+        this.multipartParser = null;
+        this.bodyRead = 0;
+        this.bodyStreaming = false;
         this.boundary = null;
+        this.chunkedBody = false;
+        this.chunkLineLength = 0;
+        this.chunkSize = 0;
+        this.chunkState = CHUNK_SIZE;
         this.contentLength = 0;
         this.contentType = null;
         this.clear(cookieList);
         this.clear(cookies);
+        this.cookiesParsed = false;
         this.hasBodyContent = false;
         this.header_complete = false;
+        this.headerArrayLen = 0;
         this.headerLength = 0;
         this.headerLimit = headerLimit;
+        this.headerSize = 0;
+        this.headersMaterialized = false;
         this.host = null;
+        this.lineStart = 0;
         this.method = null;
         this.parseFirstLine = true;
+        this.params = null;
+        this.pathParams = null;
         this.readText = null;
+        this.request_headers = null;
         this.requestURI = null;
         this.requestURL = null;
-        this.clear(response_headers);
-        ;
+        this.response_headers = null;
+        this.responseChunked = false;
         this.status = HttpStatus.C200;
         this.updateWebSocketProtocol = false;
+        this.urlStart = -1;
         this.version = null;
         this.headerLimit = headerLimit;
         this.bodyLimit = bodyLimit;
+        this.maxBodySize = bodyLimit;
         this.context = channel.getContext();
-        if (currentHeaderLine == null) {
-            currentHeaderLine = new StringBuilder();
-        } else {
-            currentHeaderLine.setLength(0);
-        }
-        if (request_headers == null) {
-            request_headers = new HashMap<>();
-        } else {
-            request_headers.clear();
-        }
-        if (params == null) {
-            params = new HashMap<>();
-        } else {
-            params.clear();
+        if (headerArray == null) {
+            this.headerArray = new byte[256];
+            this.headerOffsets = new int[4 * 16];
+            this.headerNames = new String[16];
+            this.headerValues = new String[16];
         }
+        this.clear(ownParams);
+        this.clear(ownRequestHeaders);
+        this.clear(ownResponseHeaders);
         setByteBuf(EmptyByteBuf.get());
         super.reset();
         return this;
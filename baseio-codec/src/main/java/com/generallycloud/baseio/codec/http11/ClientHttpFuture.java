@@ -48,6 +48,12 @@ public class ClientHttpFuture extends AbstractHttpFuture {
         ChannelConnector connector = (ChannelConnector) getContext().getChannelService();
         NioSocketChannel channel = connector.getChannel();
         channel.setProtocolCodec(WebSocketCodec.WS_PROTOCOL_CODEC);
+        WebSocketDeflate deflate = WebSocketDeflate
+                .accept(getRequestHeader(HttpHeader.Req_Sec_WebSocket_Extensions));
+        if (deflate != null) {
+            channel.setAttribute(WebSocketDeflate.CHANNEL_KEY, deflate);
+            channel.addStreamListener(deflate);
+        }
     }
 
     @Override
@@ -0,0 +1,46 @@
+/*
+ * Copyright 2015-2017 GenerallyCloud.com
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *  
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.generallycloud.baseio.codec.http11;
+
+import java.io.IOException;
+
+import com.generallycloud.baseio.buffer.ByteBuf;
+
+/**
+ * 流式读取请求体，请求体不再整体缓存在内存或临时文件中，
+ * 而是在读取到数据时直接交给handler处理，所有方法都在EventLoop线程中调用
+ * @author wangkai
+ *
+ */
+public interface HttpBodyHandler {
+
+    /**
+     * header解析完成后调用
+     * @return true表示由该handler流式处理该请求的请求体
+     */
+    boolean onHeaders(HttpFuture future) throws IOException;
+
+    /**
+     * 读取到一段请求体，chunk只在本次调用期间有效，未读取的数据会被丢弃
+     */
+    void onBody(HttpFuture future, ByteBuf chunk) throws IOException;
+
+    /**
+     * 请求体读取完成，之后该future会像普通请求一样交给IoEventHandle
+     */
+    void onBodyComplete(HttpFuture future) throws IOException;
+
+}
@@ -0,0 +1,64 @@
+/*
+ * Copyright 2015-2017 GenerallyCloud.com
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *  
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.generallycloud.baseio.codec.http11;
+
+import java.io.IOException;
+
+import com.generallycloud.baseio.buffer.ByteBuf;
+import com.generallycloud.baseio.component.NioSocketChannel;
+import com.generallycloud.baseio.protocol.AbstractFuture;
+
+/**
+ * 分块响应(Transfer-Encoding: chunked)中的一块，用法：</BR>
+ * future.setResponseChunked(true); channel.flush(future);</BR>
+ * HttpChunkFuture chunk = new HttpChunkFuture(future); chunk.write(...); channel.flush(chunk);</BR>
+ * channel.flush(HttpChunkFuture.last(future));</BR>
+ * 每一块单独encode并写出，不需要先把整个响应缓存在内存中
+ * @author wangkai
+ *
+ */
+public class HttpChunkFuture extends AbstractFuture {
+
+    private final boolean last;
+
+    public HttpChunkFuture(HttpFuture head) {
+        this(head, false);
+    }
+
+    private HttpChunkFuture(HttpFuture head, boolean last) {
+        this.last = last;
+        // 与响应头使用同一个流水线序号，保证按顺序写出
+        this.setSequence(head.getSequence());
+        this.setSequenceEnd(last);
+    }
+
+    /**
+     * 结束分块响应的最后一块(0\r\n\r\n)
+     */
+    public static HttpChunkFuture last(HttpFuture head) {
+        return new HttpChunkFuture(head, true);
+    }
+
+    public boolean isLast() {
+        return last;
+    }
+
+    @Override
+    public boolean read(NioSocketChannel channel, ByteBuf src) throws IOException {
+        throw new UnsupportedOperationException();
+    }
+
+}
@@ -17,31 +17,50 @@ package com.generallycloud.baseio.codec.http11;
 
 import java.io.IOException;
 
-import com.generallycloud.baseio.TimeoutException;
+import com.generallycloud.baseio.component.FifoResponseCorrelator;
 import com.generallycloud.baseio.component.NioSocketChannel;
-import com.generallycloud.baseio.concurrent.Waiter;
+import com.generallycloud.baseio.concurrent.Promise;
 
+/**
+ * 同一个连接上可以同时发送多个请求(pipelining)，响应按照请求顺序返回
+ */
 public class HttpClient {
 
-    private NioSocketChannel  channel;
-    private HttpIOEventHandle ioEventHandle;
+    private NioSocketChannel                   channel;
+    private FifoResponseCorrelator<HttpFuture> correlator;
+    private long                               timeout = 3000;
 
     public HttpClient(NioSocketChannel channel) {
         this.channel = channel;
-        this.ioEventHandle = (HttpIOEventHandle) channel.getIoEventHandle();
+        this.correlator = new FifoResponseCorrelator<>(channel);
+    }
+
+    public NioSocketChannel getChannel() {
+        return channel;
+    }
+
+    public long getTimeout() {
+        return timeout;
+    }
+
+    public HttpFuture request(HttpFuture future, long timeout) throws IOException {
+        return requestAsync(future, timeout).get(timeout);
+    }
+
+    public HttpFuture request(HttpFuture future) throws IOException {
+        return request(future, timeout);
+    }
+
+    public Promise<HttpFuture> requestAsync(HttpFuture future) {
+        return requestAsync(future, timeout);
     }
 
-    public synchronized HttpFuture request(HttpFuture future, long timeout) throws IOException {
-        Waiter waiter = ioEventHandle.newWaiter();
-        channel.flush(future);
-        if (waiter.await(timeout)) {
-            throw new TimeoutException("timeout");
-        }
-        return (HttpFuture) waiter.getResponse();
+    public Promise<HttpFuture> requestAsync(HttpFuture future, long timeout) {
+        return correlator.request(future, timeout);
     }
 
-    public synchronized HttpFuture request(HttpFuture future) throws IOException {
-        return request(future, 3000);
+    public void setTimeout(long timeout) {
+        this.timeout = timeout;
     }
 
 }
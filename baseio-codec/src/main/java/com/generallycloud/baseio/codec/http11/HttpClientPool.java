@@ -0,0 +1,622 @@
+/*
+ * Copyright 2015-2017 GenerallyCloud.com
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *  
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.generallycloud.baseio.codec.http11;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import com.generallycloud.baseio.LifeCycleUtil;
+import com.generallycloud.baseio.TimeoutException;
+import com.generallycloud.baseio.common.CloseUtil;
+import com.generallycloud.baseio.component.ChannelConnector;
+import com.generallycloud.baseio.component.ChannelContext;
+import com.generallycloud.baseio.component.ChannelEventListenerAdapter;
+import com.generallycloud.baseio.component.NioEventLoopGroup;
+import com.generallycloud.baseio.component.NioSocketChannel;
+import com.generallycloud.baseio.component.ssl.SslContext;
+import com.generallycloud.baseio.concurrent.DelayTask;
+import com.generallycloud.baseio.concurrent.Promise;
+import com.generallycloud.baseio.concurrent.PromiseListener;
+import com.generallycloud.baseio.configuration.Configuration;
+import com.generallycloud.baseio.log.Logger;
+import com.generallycloud.baseio.log.LoggerFactory;
+
+/**
+ * HTTP/1.1 keep-alive连接池，所有连接共享一个NioEventLoopGroup，每个host:port一个连接池，
+ * 每个连接池最多maxPerHost个连接，没有可用连接时请求进入等待队列(最多等待acquireTimeout)，
+ * 空闲超过idleTimeout的连接被关闭，被服务端关闭的连接会立刻从连接池中移除，
+ * maxPipelined大于1时同一个连接上可以同时存在多个请求(pipelining)
+ * @author wangkai
+ *
+ */
+public class HttpClientPool implements Closeable {
+
+    private long                        acquireTimeout = 3000;
+    private final ClientHttpCodec       codec          = new ClientHttpCodec();
+    private long                        connectTimeout = 3000;
+    private ExecutorService             connectExecutor;
+    private volatile boolean            closed;
+    private final NioEventLoopGroup     group;
+    private final Map<String, HostPool> hostPools      = new ConcurrentHashMap<>();
+    private IdleTask                    idleTask;
+    private long                        idleTimeout    = 60 * 1000;
+    private final HttpIOEventHandle     ioEventHandle  = new HttpIOEventHandle();
+    private Logger                      logger         = LoggerFactory.getLogger(getClass());
+    private int                         maxPerHost     = 8;
+    private int                         maxPipelined   = 1;
+    private final boolean               ownGroup;
+    private long                        requestTimeout = 3000;
+    private volatile boolean            running;
+    private SslContext                  sslContext;
+
+    public HttpClientPool() {
+        this(new NioEventLoopGroup(Runtime.getRuntime().availableProcessors()), true);
+    }
+
+    /**
+     * @param group 未启动的NioEventLoopGroup，会被设置为sharable
+     */
+    public HttpClientPool(NioEventLoopGroup group) {
+        this(group, false);
+    }
+
+    private HttpClientPool(NioEventLoopGroup group, boolean ownGroup) {
+        this.group = group;
+        this.ownGroup = ownGroup;
+        this.group.setSharable(true);
+    }
+
+    /**
+     * 关闭后连接池不能再使用，之后的请求直接失败
+     */
+    @Override
+    public synchronized void close() {
+        closed = true;
+        if (!running) {
+            return;
+        }
+        running = false;
+        idleTask.cancel();
+        for (HostPool pool : hostPools.values()) {
+            pool.close();
+        }
+        hostPools.clear();
+        connectExecutor.shutdown();
+        if (ownGroup) {
+            LifeCycleUtil.stop(group);
+        }
+    }
+
+    private HostPool getHostPool(String host, int port) throws IOException {
+        if (!running) {
+            start();
+        }
+        String key = host + ":" + port;
+        HostPool pool = hostPools.get(key);
+        if (pool == null) {
+            synchronized (this) {
+                if (!running) {
+                    throw new IOException("client pool closed");
+                }
+                pool = hostPools.get(key);
+                if (pool == null) {
+                    pool = new HostPool(host, port);
+                    hostPools.put(key, pool);
+                }
+            }
+        }
+        return pool;
+    }
+
+    private static boolean isKeepAlive(HttpFuture response) {
+        String connection = response.getRequestHeader(HttpHeader.Req_Connection);
+        if (connection != null) {
+            return !"close".equalsIgnoreCase(connection);
+        }
+        return !"HTTP/1.0".equals(response.getVersion());
+    }
+
+    public HttpFuture request(String host, int port, HttpFuture future) throws IOException {
+        // 等待连接最多acquireTimeout，之后请求最多requestTimeout
+        return requestAsync(host, port, future).get(acquireTimeout + requestTimeout);
+    }
+
+    /**
+     * 从连接池中获取连接并发送请求，响应到达后连接回到连接池，
+     * 第一次向某个host发送请求时会在后台线程中建立连接，不会阻塞调用者
+     */
+    public Promise<HttpFuture> requestAsync(String host, int port, final HttpFuture future) {
+        final Promise<HttpFuture> result = new Promise<>();
+        final HostPool pool;
+        try {
+            pool = getHostPool(host, port);
+        } catch (IOException e) {
+            result.fail(e);
+            return result;
+        }
+        Map<String, String> headers = future.getResponseHeaders();
+        if (!headers.containsKey(HttpHeader.Host)) {
+            headers.put(HttpHeader.Host, port == 80 || port == 443 ? host : host + ":" + port);
+        }
+        pool.acquire().addListener(new PromiseListener<PooledConnection>() {
+
+            @Override
+            public void onComplete(Promise<PooledConnection> acquired) {
+                if (!acquired.isSuccess()) {
+                    result.fail(acquired.getCause());
+                    return;
+                }
+                final PooledConnection conn = acquired.getNow();
+                conn.client.requestAsync(future, requestTimeout)
+                        .addListener(new PromiseListener<HttpFuture>() {
+
+                            @Override
+                            public void onComplete(Promise<HttpFuture> response) {
+                                if (response.isSuccess()) {
+                                    HttpFuture res = response.getNow();
+                                    pool.release(conn, isKeepAlive(res));
+                                    result.complete(res);
+                                } else {
+                                    // 有序协议中超时或失败的连接无法继续使用
+                                    pool.release(conn, false);
+                                    result.fail(response.getCause());
+                                }
+                            }
+                        });
+            }
+        });
+        return result;
+    }
+
+    private synchronized void start() throws IOException {
+        if (closed) {
+            throw new IOException("client pool closed");
+        }
+        if (running) {
+            return;
+        }
+        try {
+            LifeCycleUtil.start(group);
+        } catch (Exception e) {
+            throw new IOException(e.getMessage(), e);
+        }
+        connectExecutor = Executors.newCachedThreadPool();
+        idleTask = new IdleTask(Math.max(idleTimeout / 4, 1000));
+        group.getNext().schedule(idleTask);
+        running = true;
+    }
+
+    public long getAcquireTimeout() {
+        return acquireTimeout;
+    }
+
+    public long getConnectTimeout() {
+        return connectTimeout;
+    }
+
+    public NioEventLoopGroup getGroup() {
+        return group;
+    }
+
+    public long getIdleTimeout() {
+        return idleTimeout;
+    }
+
+    public int getMaxPerHost() {
+        return maxPerHost;
+    }
+
+    public int getMaxPipelined() {
+        return maxPipelined;
+    }
+
+    public long getRequestTimeout() {
+        return requestTimeout;
+    }
+
+    public SslContext getSslContext() {
+        return sslContext;
+    }
+
+    /**
+     * 等待可用连接的最长时间(毫秒)，小于等于0表示一直等待
+     */
+    public void setAcquireTimeout(long acquireTimeout) {
+        this.acquireTimeout = acquireTimeout;
+    }
+
+    public void setConnectTimeout(long connectTimeout) {
+        this.connectTimeout = connectTimeout;
+    }
+
+    public void setIdleTimeout(long idleTimeout) {
+        this.idleTimeout = idleTimeout;
+    }
+
+    public void setMaxPerHost(int maxPerHost) {
+        this.maxPerHost = maxPerHost;
+    }
+
+    /**
+     * 每个连接上最多同时存在的请求数量，大于1时启用pipelining
+     */
+    public void setMaxPipelined(int maxPipelined) {
+        this.maxPipelined = maxPipelined;
+    }
+
+    public void setRequestTimeout(long requestTimeout) {
+        this.requestTimeout = requestTimeout;
+    }
+
+    public void setSslContext(SslContext sslContext) {
+        this.sslContext = sslContext;
+    }
+
+    class HostPool {
+
+        private final List<PooledConnection>                connections = new ArrayList<>();
+        private final String                                host;
+        private final ArrayDeque<PooledConnection>          idles       = new ArrayDeque<>();
+        private final ArrayDeque<Promise<PooledConnection>> pendings    = new ArrayDeque<>();
+        private final int                                   port;
+        // 包括正在建立的连接
+        private int                                         size;
+
+        HostPool(String host, int port) {
+            this.host = host;
+            this.port = port;
+        }
+
+        Promise<PooledConnection> acquire() {
+            Promise<PooledConnection> promise = new Promise<>();
+            PooledConnection conn;
+            boolean connect = false;
+            synchronized (this) {
+                if (!running) {
+                    promise.fail(new IOException("client pool closed"));
+                    return promise;
+                }
+                conn = poll();
+                if (conn == null) {
+                    pendings.offer(promise);
+                    if (size < maxPerHost) {
+                        size++;
+                        connect = true;
+                    }
+                }
+            }
+            if (conn != null) {
+                promise.complete(conn);
+                return promise;
+            }
+            scheduleTimeout(promise);
+            if (connect) {
+                connect();
+            }
+            return promise;
+        }
+
+        void close() {
+            List<PooledConnection> closes;
+            List<Promise<PooledConnection>> fails;
+            synchronized (this) {
+                for (PooledConnection conn : connections) {
+                    conn.removed = true;
+                }
+                closes = new ArrayList<>(connections);
+                fails = new ArrayList<>(pendings);
+                connections.clear();
+                idles.clear();
+                pendings.clear();
+                size = 0;
+            }
+            for (PooledConnection conn : closes) {
+                CloseUtil.close(conn.connector);
+            }
+            IOException cause = new IOException("client pool closed");
+            for (Promise<PooledConnection> p : fails) {
+                p.fail(cause);
+            }
+        }
+
+        // 连接被关闭(服务端关闭或者出错)
+        void closed(PooledConnection conn) {
+            boolean removed;
+            boolean connect;
+            synchronized (this) {
+                removed = !conn.removed;
+                connect = remove(conn);
+            }
+            if (removed) {
+                CloseUtil.close(conn.connector);
+            }
+            if (connect) {
+                connect();
+            }
+        }
+
+        private void connect() {
+            connectExecutor.execute(new Runnable() {
+
+                @Override
+                public void run() {
+                    PooledConnection conn;
+                    try {
+                        conn = newConnection();
+                    } catch (Throwable e) {
+                        List<Promise<PooledConnection>> fails = new ArrayList<>();
+                        synchronized (HostPool.this) {
+                            size--;
+                            if (size == 0) {
+                                // 没有可用的连接，也没有其它正在建立的连接，等待的请求都无法完成
+                                fails.addAll(pendings);
+                                pendings.clear();
+                            } else if (!pendings.isEmpty()) {
+                                fails.add(pendings.poll());
+                            }
+                        }
+                        if (fails.isEmpty()) {
+                            logger.error(e.getMessage(), e);
+                        }
+                        for (Promise<PooledConnection> p : fails) {
+                            p.fail(e);
+                        }
+                        return;
+                    }
+                    List<Promise<PooledConnection>> handoffs;
+                    synchronized (HostPool.this) {
+                        if (!running) {
+                            conn.removed = true;
+                            handoffs = null;
+                        } else {
+                            connections.add(conn);
+                            handoffs = dispatch(conn);
+                        }
+                    }
+                    if (handoffs == null) {
+                        CloseUtil.close(conn.connector);
+                        return;
+                    }
+                    handoff(conn, handoffs);
+                }
+            });
+        }
+
+        // 将连接交给等待队列中的请求，没有等待的请求时放回空闲队列
+        private List<Promise<PooledConnection>> dispatch(PooledConnection conn) {
+            List<Promise<PooledConnection>> handoffs = new ArrayList<>(1);
+            for (; !pendings.isEmpty() && conn.inflight < maxPipelined;) {
+                conn.inflight++;
+                handoffs.add(pendings.poll());
+            }
+            if (conn.inflight == 0) {
+                idles.offerFirst(conn);
+            }
+            return handoffs;
+        }
+
+        private void handoff(PooledConnection conn, List<Promise<PooledConnection>> handoffs) {
+            for (Promise<PooledConnection> p : handoffs) {
+                if (!p.complete(conn)) {
+                    // 已经超时
+                    release(conn, true);
+                }
+            }
+        }
+
+        // 关闭空闲队列尾部超过idleTimeout的连接
+        void evictIdle(long now) {
+            List<PooledConnection> evicted = null;
+            synchronized (this) {
+                for (;;) {
+                    PooledConnection conn = idles.peekLast();
+                    if (conn == null || conn.lastUsed + idleTimeout > now) {
+                        break;
+                    }
+                    idles.pollLast();
+                    remove(conn);
+                    if (evicted == null) {
+                        evicted = new ArrayList<>();
+                    }
+                    evicted.add(conn);
+                }
+            }
+            if (evicted != null) {
+                for (PooledConnection conn : evicted) {
+                    CloseUtil.close(conn.connector);
+                }
+            }
+        }
+
+        private PooledConnection newConnection() throws IOException {
+            Configuration configuration = new Configuration(host, port);
+            ChannelContext context = new ChannelContext(configuration);
+            ChannelConnector connector = new ChannelConnector(context, group.getNext());
+            context.setProtocolCodec(codec);
+            context.setIoEventHandle(ioEventHandle);
+            if (sslContext != null) {
+                context.setSslContext(sslContext);
+            }
+            connector.setTimeout(connectTimeout);
+            final PooledConnection conn = new PooledConnection(connector);
+            context.addChannelEventListener(new ChannelEventListenerAdapter() {
+
+                @Override
+                public void channelClosed(NioSocketChannel channel) {
+                    closed(conn);
+                }
+            });
+            try {
+                conn.client = new HttpClient(connector.connect());
+            } catch (IOException e) {
+                // 标记为已移除，避免之后的channelClosed再次回退size
+                synchronized (this) {
+                    conn.removed = true;
+                }
+                CloseUtil.close(connector);
+                throw e;
+            }
+            conn.lastUsed = System.currentTimeMillis();
+            return conn;
+        }
+
+        private PooledConnection poll() {
+            for (;;) {
+                PooledConnection conn = idles.pollFirst();
+                if (conn == null) {
+                    break;
+                }
+                if (conn.isOpened()) {
+                    conn.inflight++;
+                    return conn;
+                }
+                remove(conn);
+            }
+            if (maxPipelined > 1) {
+                PooledConnection best = null;
+                for (PooledConnection conn : connections) {
+                    if (conn.inflight < maxPipelined && conn.isOpened()
+                            && (best == null || conn.inflight < best.inflight)) {
+                        best = conn;
+                    }
+                }
+                if (best != null) {
+                    best.inflight++;
+                    return best;
+                }
+            }
+            return null;
+        }
+
+        void release(PooledConnection conn, boolean reusable) {
+            List<Promise<PooledConnection>> handoffs = null;
+            boolean close = false;
+            boolean connect = false;
+            synchronized (this) {
+                conn.inflight--;
+                conn.lastUsed = System.currentTimeMillis();
+                if (conn.removed) {
+                    return;
+                }
+                if (!reusable || !conn.isOpened() || !running) {
+                    close = true;
+                    connect = remove(conn);
+                } else {
+                    handoffs = dispatch(conn);
+                }
+            }
+            if (close) {
+                CloseUtil.close(conn.connector);
+            }
+            if (connect) {
+                connect();
+            }
+            if (handoffs != null) {
+                handoff(conn, handoffs);
+            }
+        }
+
+        /**
+         * 从连接池中移除，持有this锁时调用
+         * @return 是否需要为等待的请求建立新连接
+         */
+        private boolean remove(PooledConnection conn) {
+            if (conn.removed) {
+                return false;
+            }
+            conn.removed = true;
+            connections.remove(conn);
+            idles.remove(conn);
+            size--;
+            if (running && !pendings.isEmpty() && size < maxPerHost) {
+                size++;
+                return true;
+            }
+            return false;
+        }
+
+        private void scheduleTimeout(final Promise<PooledConnection> promise) {
+            if (acquireTimeout <= 0) {
+                return;
+            }
+            final DelayTask timeoutTask = new DelayTask(acquireTimeout) {
+
+                @Override
+                public void run() {
+                    boolean removed;
+                    synchronized (HostPool.this) {
+                        removed = pendings.remove(promise);
+                    }
+                    if (removed) {
+                        promise.fail(new TimeoutException(
+                                "acquire connection to " + host + ":" + port + " timeout"));
+                    }
+                }
+            };
+            promise.addListener(new PromiseListener<PooledConnection>() {
+
+                @Override
+                public void onComplete(Promise<PooledConnection> promise) {
+                    timeoutTask.cancel();
+                }
+            });
+            group.getNext().schedule(timeoutTask);
+        }
+    }
+
+    class IdleTask extends DelayTask {
+
+        IdleTask(long delay) {
+            super(delay);
+        }
+
+        @Override
+        public void run() {
+            long now = System.currentTimeMillis();
+            for (HostPool pool : hostPools.values()) {
+                pool.evictIdle(now);
+            }
+            if (running) {
+                group.getNext().schedule(this);
+            }
+        }
+    }
+
+    static class PooledConnection {
+
+        HttpClient             client;
+        final ChannelConnector connector;
+        int                    inflight;
+        long                   lastUsed;
+        boolean                removed;
+
+        PooledConnection(ChannelConnector connector) {
+            this.connector = connector;
+        }
+
+        boolean isOpened() {
+            return client != null && client.getChannel().isOpened();
+        }
+    }
+
+}
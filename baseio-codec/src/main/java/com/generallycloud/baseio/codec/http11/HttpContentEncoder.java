@@ -0,0 +1,184 @@
+/*
+ * Copyright 2015-2017 GenerallyCloud.com
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *  
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.generallycloud.baseio.codec.http11;
+
+import java.util.Arrays;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+import com.generallycloud.baseio.collection.AttributeKey;
+import com.generallycloud.baseio.component.NioEventLoop;
+import com.generallycloud.baseio.component.NioSocketChannel;
+
+/**
+ * 响应体压缩(Content-Encoding: gzip/deflate)，每个EventLoop复用一组Deflater，
+ * 压缩结果写入内部缓冲区，通过array()读取
+ * @author wangkai
+ *
+ */
+public class HttpContentEncoder {
+
+    public static final String                            DEFLATE        = "deflate";
+    public static final String                            GZIP           = "gzip";
+    public static final String[]                          COMPRESS_TYPES = new String[] {
+            "text/", "application/json", "application/javascript", "application/x-javascript",
+            "application/xml", "application/xhtml+xml", "image/svg+xml" };
+    private static final AttributeKey<HttpContentEncoder> ENCODER_KEY    = AttributeKey
+            .valueOf("HttpContentEncoder");
+    private static final byte[]                           GZIP_HEADER    = new byte[] { 0x1f,
+            (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, 0 };
+
+    private final CRC32                                   crc32          = new CRC32();
+    private final Deflater                                deflater       = new Deflater();
+    private final Deflater                                gzipDeflater   = new Deflater(
+            Deflater.DEFAULT_COMPRESSION, true);
+    private byte[]                                        out            = new byte[1024 * 8];
+
+    /**
+     * 获取当前EventLoop上的encoder，不在EventLoop线程中时返回null
+     */
+    public static HttpContentEncoder get(NioSocketChannel channel) {
+        if (!channel.inEventLoop()) {
+            return null;
+        }
+        NioEventLoop eventLoop = channel.getEventLoop();
+        HttpContentEncoder encoder = eventLoop.getAttribute(ENCODER_KEY);
+        if (encoder == null) {
+            encoder = new HttpContentEncoder();
+            eventLoop.setAttribute(ENCODER_KEY, encoder);
+        }
+        return encoder;
+    }
+
+    /**
+     * 压缩并返回新的数组，用于只压缩一次的静态内容
+     */
+    public static byte[] compress(String encoding, byte[] src) {
+        HttpContentEncoder encoder = new HttpContentEncoder();
+        try {
+            int len = encoder.compress(encoding, src, 0, src.length);
+            return Arrays.copyOf(encoder.array(), len);
+        } finally {
+            encoder.end();
+        }
+    }
+
+    public static boolean isCompressible(String contentType, String[] types) {
+        if (contentType == null) {
+            return false;
+        }
+        for (String type : types) {
+            if (contentType.regionMatches(true, 0, type, 0, type.length())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 根据Accept-Encoding选择编码，优先gzip，不支持时返回null
+     */
+    public static String select(String acceptEncoding) {
+        if (acceptEncoding == null) {
+            return null;
+        }
+        boolean deflate = false;
+        for (String s : acceptEncoding.split(",")) {
+            String name = s;
+            int index = s.indexOf(';');
+            if (index != -1) {
+                name = s.substring(0, index);
+                if (isZeroQuality(s.substring(index + 1))) {
+                    continue;
+                }
+            }
+            name = name.trim();
+            if (GZIP.equalsIgnoreCase(name) || "*".equals(name)) {
+                return GZIP;
+            }
+            if (DEFLATE.equalsIgnoreCase(name)) {
+                deflate = true;
+            }
+        }
+        return deflate ? DEFLATE : null;
+    }
+
+    // q=0, q=0.0, q=0.00 ...
+    private static boolean isZeroQuality(String params) {
+        String q = params.trim();
+        if (!q.startsWith("q=")) {
+            return false;
+        }
+        for (int i = 2; i < q.length(); i++) {
+            char c = q.charAt(i);
+            if (c != '0' && c != '.') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public byte[] array() {
+        return out;
+    }
+
+    /**
+     * 压缩到内部缓冲区
+     * @return 压缩后的长度
+     */
+    public int compress(String encoding, byte[] src, int off, int len) {
+        boolean gzip = GZIP.equals(encoding);
+        Deflater deflater = gzip ? gzipDeflater : this.deflater;
+        int pos = 0;
+        if (gzip) {
+            System.arraycopy(GZIP_HEADER, 0, out, 0, GZIP_HEADER.length);
+            pos = GZIP_HEADER.length;
+            crc32.reset();
+            crc32.update(src, off, len);
+        }
+        deflater.reset();
+        deflater.setInput(src, off, len);
+        deflater.finish();
+        for (; !deflater.finished();) {
+            if (pos == out.length) {
+                out = Arrays.copyOf(out, out.length << 1);
+            }
+            pos += deflater.deflate(out, pos, out.length - pos);
+        }
+        if (gzip) {
+            if (out.length - pos < 8) {
+                out = Arrays.copyOf(out, out.length << 1);
+            }
+            pos = writeIntLE(out, pos, (int) crc32.getValue());
+            pos = writeIntLE(out, pos, len);
+        }
+        return pos;
+    }
+
+    public void end() {
+        deflater.end();
+        gzipDeflater.end();
+    }
+
+    private static int writeIntLE(byte[] array, int pos, int v) {
+        array[pos++] = (byte) v;
+        array[pos++] = (byte) (v >>> 8);
+        array[pos++] = (byte) (v >>> 16);
+        array[pos++] = (byte) (v >>> 24);
+        return pos;
+    }
+
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright 2015-2017 GenerallyCloud.com
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *  
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.generallycloud.baseio.codec.http11;
+
+import com.generallycloud.baseio.collection.AttributeKey;
+import com.generallycloud.baseio.component.NioEventLoop;
+import com.generallycloud.baseio.concurrent.DelayTask;
+
+/**
+ * 每个EventLoop一份已经编码好的Date响应头("Date: xxx\r\n")，
+ * 由EventLoop的定时任务每秒刷新一次，encode时直接写入
+ * @author wangkai
+ *
+ */
+public class HttpDateHeaderCache extends DelayTask {
+
+    private static final AttributeKey<HttpDateHeaderCache> CACHE_KEY = AttributeKey
+            .valueOf("HttpDateHeaderCache");
+
+    private final NioEventLoop                             eventLoop;
+    private volatile byte[]                                line;
+
+    private HttpDateHeaderCache(NioEventLoop eventLoop) {
+        super(1000);
+        this.eventLoop = eventLoop;
+        this.line = format(System.currentTimeMillis());
+    }
+
+    /**
+     * 获取EventLoop上的Date缓存，不存在时创建，只能在EventLoop线程中调用
+     */
+    public static HttpDateHeaderCache get(NioEventLoop eventLoop) {
+        HttpDateHeaderCache cache = eventLoop.getAttribute(CACHE_KEY);
+        if (cache == null) {
+            cache = new HttpDateHeaderCache(eventLoop);
+            eventLoop.setAttribute(CACHE_KEY, cache);
+            eventLoop.schedule(cache);
+        }
+        return cache;
+    }
+
+    /**
+     * 获取EventLoop上已经存在的Date缓存，可以在任意线程中调用
+     */
+    public static byte[] getLine(NioEventLoop eventLoop) {
+        HttpDateHeaderCache cache = eventLoop.getAttribute(CACHE_KEY);
+        if (cache == null) {
+            return format(System.currentTimeMillis());
+        }
+        return cache.line;
+    }
+
+    private static byte[] format(long time) {
+        String date = HttpHeaderDateFormat.getFormat().format(time);
+        return (HttpHeader.Date + ": " + date + "\r\n").getBytes();
+    }
+
+    public byte[] getLine() {
+        return line;
+    }
+
+    @Override
+    public void run() {
+        line = format(System.currentTimeMillis());
+        if (eventLoop.isRunning()) {
+            eventLoop.schedule(this);
+        }
+    }
+
+}
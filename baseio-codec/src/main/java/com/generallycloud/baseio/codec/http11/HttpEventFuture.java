@@ -0,0 +1,109 @@
+/*
+ * Copyright 2015-2017 GenerallyCloud.com
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *  
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.generallycloud.baseio.codec.http11;
+
+import java.io.IOException;
+
+import com.generallycloud.baseio.buffer.ByteBuf;
+import com.generallycloud.baseio.component.NioSocketChannel;
+import com.generallycloud.baseio.protocol.AbstractFuture;
+
+/**
+ * Server-Sent Events中的一个事件，由ServerHttpCodec编码为一个chunk，
+ * 字段直接按照UTF-8写入buf，多行的data拆分为多个data行，
+ * 只有comment的事件(": xxx")不会触发客户端的onmessage，用作心跳
+ * @see HttpEventStream
+ * @author wangkai
+ *
+ */
+public class HttpEventFuture extends AbstractFuture {
+
+    private String comment;
+    private String data;
+    private String event;
+    private String id;
+    private int    retry = -1;
+
+    /**
+     * 不属于任何响应的事件，用于ChannelGroup广播
+     */
+    public HttpEventFuture() {}
+
+    public HttpEventFuture(HttpFuture head) {
+        // 与响应头使用同一个流水线序号，保证按顺序写出
+        this.setSequence(head.getSequence());
+        this.setSequenceEnd(false);
+    }
+
+    private static String checkLine(String value) {
+        if (value != null && (value.indexOf('\n') != -1 || value.indexOf('\r') != -1)) {
+            throw new IllegalArgumentException("line break in event field: " + value);
+        }
+        return value;
+    }
+
+    public String getComment() {
+        return comment;
+    }
+
+    public String getData() {
+        return data;
+    }
+
+    public String getEvent() {
+        return event;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public int getRetry() {
+        return retry;
+    }
+
+    @Override
+    public boolean read(NioSocketChannel channel, ByteBuf src) throws IOException {
+        throw new UnsupportedOperationException();
+    }
+
+    public void setComment(String comment) {
+        this.comment = checkLine(comment);
+    }
+
+    /**
+     * data中的换行(\r\n, \r, \n)会被拆分为多个data行，客户端收到后再用\n连接
+     */
+    public void setData(String data) {
+        this.data = data;
+    }
+
+    public void setEvent(String event) {
+        this.event = checkLine(event);
+    }
+
+    public void setId(String id) {
+        this.id = checkLine(id);
+    }
+
+    /**
+     * 客户端断开后的重连间隔(毫秒)
+     */
+    public void setRetry(int retry) {
+        this.retry = retry;
+    }
+
+}
@@ -0,0 +1,176 @@
+/*
+ * Copyright 2015-2017 GenerallyCloud.com
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *  
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.generallycloud.baseio.codec.http11;
+
+import com.generallycloud.baseio.collection.AttributeKey;
+import com.generallycloud.baseio.component.NioSocketChannel;
+import com.generallycloud.baseio.concurrent.DelayTask;
+
+/**
+ * Server-Sent Events(text/event-stream)响应，用法：</BR>
+ * HttpEventStream stream = HttpEventStream.open(channel, future, 15000);</BR>
+ * stream.send("tick", "hello"); ... stream.close();</BR>
+ * 响应头使用分块传输并保持打开，每个事件编码为一个chunk直接写出，
+ * 心跳(":\n\n")由EventLoop的定时任务发送，连接关闭后停止，
+ * 只支持http1.1，open需要在EventLoop线程中调用(例如IoEventHandle中)，
+ * 其他方法可以在任意线程中调用，close和事件的写出在同一个锁中进行，
+ * 最后一个chunk之后不会再写出事件
+ * @see HttpEventTopic
+ * @author wangkai
+ *
+ */
+public class HttpEventStream {
+
+    public static final AttributeKey<HttpEventStream> CHANNEL_KEY = AttributeKey
+            .valueOf("HttpEventStream");
+    private final NioSocketChannel                    channel;
+    private volatile boolean                          closed;
+    private final HttpFuture                          head;
+    private final HeartbeatTask                       heartbeat;
+    private final String                              lastEventId;
+
+    private HttpEventStream(NioSocketChannel channel, HttpFuture head, long heartbeatInterval) {
+        this.channel = channel;
+        this.head = head;
+        this.lastEventId = head.getRequestHeader(HttpHeader.Req_Last_Event_ID);
+        if (heartbeatInterval > 0) {
+            this.heartbeat = new HeartbeatTask(heartbeatInterval);
+        } else {
+            this.heartbeat = null;
+        }
+    }
+
+    public static HttpEventStream open(NioSocketChannel channel, HttpFuture future) {
+        return open(channel, future, 0);
+    }
+
+    /**
+     * 写出text/event-stream响应头，之后该请求的响应保持打开直到close或者连接关闭
+     * @param heartbeatInterval 心跳间隔(毫秒)，小于等于0时不发送心跳
+     */
+    public static HttpEventStream open(NioSocketChannel channel, HttpFuture future,
+            long heartbeatInterval) {
+        HttpEventStream stream = new HttpEventStream(channel, future, heartbeatInterval);
+        future.setResponseHeader(HttpHeader.Content_Type, HttpFuture.CONTENT_TYPE_EVENT_STREAM);
+        future.setResponseHeader(HttpHeader.Cache_Control, "no-cache");
+        future.setResponseHeader(HttpHeader.Connection, "keep-alive");
+        future.setResponseChunked(true);
+        channel.setAttribute(CHANNEL_KEY, stream);
+        channel.flush(future);
+        if (stream.heartbeat != null) {
+            channel.getEventLoop().schedule(stream.heartbeat);
+        }
+        return stream;
+    }
+
+    public synchronized void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        if (heartbeat != null) {
+            heartbeat.cancel();
+        }
+        channel.flush(HttpChunkFuture.last(head));
+    }
+
+    /**
+     * 发送注释行，客户端会忽略
+     */
+    public void comment(String comment) {
+        HttpEventFuture f = newEvent();
+        f.setComment(comment);
+        flush(f);
+    }
+
+    /**
+     * 写出事件，event已经设置了字段，需要通过{@link #newEvent()}创建
+     */
+    public synchronized void flush(HttpEventFuture event) {
+        if (!closed) {
+            channel.flush(event);
+        }
+    }
+
+    public NioSocketChannel getChannel() {
+        return channel;
+    }
+
+    public HttpFuture getHead() {
+        return head;
+    }
+
+    /**
+     * 客户端重连时带上的Last-Event-ID，首次连接时为null
+     */
+    public String getLastEventId() {
+        return lastEventId;
+    }
+
+    public boolean isOpened() {
+        return !closed && channel.isOpened();
+    }
+
+    /**
+     * 创建属于该响应的事件(使用响应头的流水线序号)
+     */
+    public HttpEventFuture newEvent() {
+        return new HttpEventFuture(head);
+    }
+
+    /**
+     * 设置客户端断开后的重连间隔(毫秒)
+     */
+    public void retry(int retry) {
+        HttpEventFuture f = newEvent();
+        f.setRetry(retry);
+        flush(f);
+    }
+
+    public void send(String data) {
+        send(null, null, data);
+    }
+
+    public void send(String event, String data) {
+        send(null, event, data);
+    }
+
+    public void send(String id, String event, String data) {
+        HttpEventFuture f = newEvent();
+        f.setId(id);
+        f.setEvent(event);
+        f.setData(data);
+        flush(f);
+    }
+
+    class HeartbeatTask extends DelayTask {
+
+        HeartbeatTask(long delay) {
+            super(delay);
+        }
+
+        @Override
+        public void run() {
+            if (!isOpened()) {
+                return;
+            }
+            comment("");
+            channel.getEventLoop().schedule(this);
+        }
+
+    }
+
+}
@@ -0,0 +1,169 @@
+/*
+ * Copyright 2015-2017 GenerallyCloud.com
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *  
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.generallycloud.baseio.codec.http11;
+
+import java.io.IOException;
+
+import com.generallycloud.baseio.component.ChannelContext;
+import com.generallycloud.baseio.component.ChannelGroup;
+import com.generallycloud.baseio.component.NioEventLoop;
+import com.generallycloud.baseio.component.NioEventLoopTask;
+import com.generallycloud.baseio.component.NioSocketChannel;
+import com.generallycloud.baseio.protocol.Future;
+
+/**
+ * Server-Sent Events的主题，事件id在主题内递增，发布时只编码一次，
+ * 通过ChannelGroup广播给所有订阅的HttpEventStream；最近的replaySize个事件
+ * 保存在环形缓冲中，客户端带着Last-Event-ID重连时补发之后的事件，
+ * 发布与订阅在同一把锁中进行，补发和广播之间不会丢失或重复事件；
+ * 广播的事件使用各个stream响应头的流水线序号写出，不会先于响应头
+ * @author wangkai
+ *
+ */
+public class HttpEventTopic {
+
+    private final ServerHttpCodec codec;
+    private final String[]        datas;
+    private final String[]        events;
+    private final ChannelGroup    group;
+    private long                  lastId;
+
+    public HttpEventTopic(ChannelContext context, ServerHttpCodec codec, String name,
+            int replaySize) {
+        this.codec = codec;
+        this.group = new EventGroup(context, name);
+        this.datas = new String[replaySize];
+        this.events = new String[replaySize];
+    }
+
+    public String getName() {
+        return group.getName();
+    }
+
+    public synchronized long getLastId() {
+        return lastId;
+    }
+
+    /**
+     * 发布事件，返回分配的事件id
+     */
+    public synchronized long publish(String event, String data) throws IOException {
+        long id = ++lastId;
+        if (datas.length > 0) {
+            int index = (int) (id % datas.length);
+            datas[index] = data;
+            events[index] = event;
+        }
+        if (group.size() > 0) {
+            HttpEventFuture f = new HttpEventFuture();
+            f.setId(String.valueOf(id));
+            f.setEvent(event);
+            f.setData(data);
+            group.broadcast(f, codec);
+        }
+        return id;
+    }
+
+    public int size() {
+        return group.size();
+    }
+
+    /**
+     * 订阅主题，stream的Last-Event-ID不为空时先补发之后的事件，
+     * 在stream所在的EventLoop中执行，保证补发的事件在广播的事件之前写出
+     */
+    public void subscribe(final HttpEventStream stream) {
+        NioEventLoop eventLoop = stream.getChannel().getEventLoop();
+        if (eventLoop.inEventLoop()) {
+            subscribe0(stream);
+        } else {
+            eventLoop.dispatchAfterLoop(new NioEventLoopTask() {
+
+                @Override
+                public void fireEvent(NioEventLoop eventLoop) {
+                    subscribe0(stream);
+                }
+            });
+            eventLoop.wakeup();
+        }
+    }
+
+    private synchronized void subscribe0(HttpEventStream stream) {
+        if (!stream.isOpened()) {
+            return;
+        }
+        long from = replayFrom(stream.getLastEventId());
+        for (long id = from; id <= lastId; id++) {
+            int index = (int) (id % datas.length);
+            HttpEventFuture f = stream.newEvent();
+            f.setId(String.valueOf(id));
+            f.setEvent(events[index]);
+            f.setData(datas[index]);
+            stream.flush(f);
+        }
+        group.add(stream.getChannel());
+    }
+
+    // 返回第一个需要补发的事件id，lastEventId无法识别时不补发
+    private long replayFrom(String lastEventId) {
+        if (lastEventId == null || datas.length == 0) {
+            return lastId + 1;
+        }
+        long id;
+        try {
+            id = Long.parseLong(lastEventId.trim());
+        } catch (NumberFormatException e) {
+            return lastId + 1;
+        }
+        long oldest = Math.max(1, lastId - datas.length + 1);
+        if (id > lastId) {
+            // 服务端重启后id重新开始，补发缓冲中所有的事件
+            return oldest;
+        }
+        return Math.max(id + 1, oldest);
+    }
+
+    public void unsubscribe(HttpEventStream stream) {
+        group.remove(stream.getChannel());
+    }
+
+    @Override
+    public String toString() {
+        return "HttpEventTopic[" + group.getName() + ",lastId=" + lastId + "]";
+    }
+
+    static class EventGroup extends ChannelGroup {
+
+        EventGroup(ChannelContext context, String name) {
+            super(context, name);
+        }
+
+        // 已经关闭的stream不再写出，channel上的下一个请求不会收到事件
+        @Override
+        protected Future duplicate(NioSocketChannel channel, Future future) {
+            HttpEventStream stream = channel.getAttribute(HttpEventStream.CHANNEL_KEY);
+            if (stream == null || !stream.isOpened()) {
+                return null;
+            }
+            Future f = super.duplicate(channel, future);
+            f.setSequence(stream.getHead().getSequence());
+            f.setSequenceEnd(false);
+            return f;
+        }
+
+    }
+
+}
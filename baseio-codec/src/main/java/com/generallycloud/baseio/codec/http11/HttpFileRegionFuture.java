@@ -0,0 +1,44 @@
+/*
+ * Copyright 2015-2017 GenerallyCloud.com
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *  
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.generallycloud.baseio.codec.http11;
+
+import java.nio.channels.FileChannel;
+
+import com.generallycloud.baseio.protocol.FileRegionFuture;
+
+/**
+ * 通过FileChannel.transferTo发送文件内容的响应，响应头(状态码、header、cookie)
+ * 取自head，Content-Length为count，用法：</BR>
+ * channel.flush(new HttpFileRegionFuture(future, fileChannel, position, count, true));
+ * @author wangkai
+ *
+ */
+public class HttpFileRegionFuture extends FileRegionFuture {
+
+    private final ServerHttpFuture head;
+
+    public HttpFileRegionFuture(ServerHttpFuture head, FileChannel fileChannel, long position,
+            long count, boolean closeOnRelease) {
+        super(fileChannel, position, count, closeOnRelease);
+        this.head = head;
+        this.setSequence(head.getSequence());
+    }
+
+    public ServerHttpFuture getHead() {
+        return head;
+    }
+
+}
@@ -15,6 +15,9 @@
  */
 package com.generallycloud.baseio.codec.http11;
 
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
 import java.util.List;
 import java.util.Map;
 
@@ -26,6 +29,7 @@ public abstract interface HttpFuture extends HttpMessage {
     public static final String CONTENT_TYPE_TEXT_PLAIN          = "text/plain;charset=utf-8";
     public static final String CONTENT_TYPE_TEXT_CSS            = "text/css;charset=utf-8";
     public static final String CONTENT_TYPE_TEXT_HTML           = "text/html;charset=utf-8";
+    public static final String CONTENT_TYPE_EVENT_STREAM        = "text/event-stream;charset=utf-8";
     public static final String CONTENT_TYPE_IMAGE_PNG           = "image/png";
     public static final String CONTENT_TYPE_IMAGE_GIF           = "image/gif";
     public static final String CONTENT_TYPE_IMAGE_JPEG          = "image/jpeg";
@@ -95,10 +99,45 @@ public abstract interface HttpFuture extends HttpMessage {
 
     public abstract void setRequestParams(Map<String, String> params);
 
+    /**
+     * HttpRouter匹配到的路径参数，例如/user/{id}中的id，未匹配时返回null
+     */
+    public abstract String getPathParam(String name);
+
+    public abstract Map<String, String> getPathParams();
+
     public abstract byte[] getBodyContent();
 
     public abstract boolean hasBodyContent();
 
+    /**
+     * 请求体超过bodyLimit时写入的临时文件，未写入临时文件时返回null
+     */
+    public abstract File getBodyFile();
+
+    /**
+     * 以流的方式读取请求体(内存或临时文件)，没有请求体或者请求体已经被流式读取时返回null
+     */
+    public abstract InputStream getBodyInputStream() throws IOException;
+
+    /**
+     * 删除请求体的临时文件，响应encode时会自动调用
+     */
+    public abstract void deleteBodyFile();
+
+    /**
+     * 开启multipart解析后multipart/form-data请求中的所有part，没有解析时返回null，
+     * 文件part写入的临时文件在deleteBodyFile时删除
+     */
+    public abstract List<MultipartPart> getParts();
+
+    /**
+     * 使用Transfer-Encoding: chunked响应，之后通过HttpChunkFuture继续写出响应内容
+     */
+    public abstract void setResponseChunked(boolean responseChunked);
+
+    public abstract boolean isResponseChunked();
+
     public abstract HttpStatus getStatus();
 
     public abstract void setStatus(HttpStatus status);
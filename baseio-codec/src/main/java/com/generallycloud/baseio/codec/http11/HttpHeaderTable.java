@@ -0,0 +1,115 @@
+/*
+ * Copyright 2015-2017 GenerallyCloud.com
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *  
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.generallycloud.baseio.codec.http11;
+
+import java.util.Collection;
+import java.util.HashSet;
+
+import com.generallycloud.baseio.common.Encoding;
+
+/**
+ * HttpHeader中Req_开头的请求头名称的完美hash表，直接在字节上查找，
+ * 命中时返回HttpHeader中的常量(小写)，不产生任何对象
+ * @author wangkai
+ *
+ */
+public final class HttpHeaderTable {
+
+    private static final byte[][] bytes;
+    private static final int      mask;
+    private static final String[] names;
+    private static final int      seed;
+
+    static {
+        Collection<String> values = new HashSet<>(HttpHeader.REQ_MAPPING.values());
+        int size = 1;
+        for (; size < values.size() * 4;) {
+            size <<= 1;
+        }
+        int s = findSeed(values, size);
+        for (; s == -1;) {
+            size <<= 1;
+            s = findSeed(values, size);
+        }
+        seed = s;
+        mask = size - 1;
+        names = new String[size];
+        bytes = new byte[size][];
+        for (String name : values) {
+            byte[] b = name.getBytes(Encoding.ISO_8859_1);
+            int index = hash(b, 0, b.length, seed) & mask;
+            names[index] = name;
+            bytes[index] = b;
+        }
+    }
+
+    private HttpHeaderTable() {}
+
+    private static int findSeed(Collection<String> values, int size) {
+        for (int s = 31; s < 31 + 1024 * 2; s += 2) {
+            boolean[] used = new boolean[size];
+            boolean collision = false;
+            for (String name : values) {
+                byte[] b = name.getBytes(Encoding.ISO_8859_1);
+                int index = hash(b, 0, b.length, s) & (size - 1);
+                if (used[index]) {
+                    collision = true;
+                    break;
+                }
+                used[index] = true;
+            }
+            if (!collision) {
+                return s;
+            }
+        }
+        return -1;
+    }
+
+    // | 0x20 将字母转换为小写，其它字符只用于hash，最终结果会逐字节比较
+    private static int hash(byte[] array, int off, int end, int seed) {
+        int h = end - off;
+        for (int i = off; i < end; i++) {
+            h = h * seed + (array[i] | 0x20);
+        }
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * 查找array[off, end)对应的请求头名称(忽略大小写)
+     * @return HttpHeader中的常量，未知的请求头返回null
+     */
+    public static String lookup(byte[] array, int off, int end) {
+        int index = hash(array, off, end, seed) & mask;
+        byte[] name = bytes[index];
+        if (name == null || name.length != end - off) {
+            return null;
+        }
+        for (int i = 0; i < name.length; i++) {
+            if (toLowerCase(array[off + i]) != name[i]) {
+                return null;
+            }
+        }
+        return names[index];
+    }
+
+    static byte toLowerCase(byte b) {
+        if (b >= 'A' && b <= 'Z') {
+            return (byte) (b + 32);
+        }
+        return b;
+    }
+
+}
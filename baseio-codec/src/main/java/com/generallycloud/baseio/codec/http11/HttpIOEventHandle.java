@@ -17,25 +17,25 @@ package com.generallycloud.baseio.codec.http11;
 
 import com.generallycloud.baseio.component.IoEventHandle;
 import com.generallycloud.baseio.component.NioSocketChannel;
-import com.generallycloud.baseio.concurrent.Waiter;
+import com.generallycloud.baseio.component.ResponseCorrelator;
 import com.generallycloud.baseio.protocol.Future;
 
 public class HttpIOEventHandle extends IoEventHandle {
 
-    private Waiter waiter;
-
     @Override
     public void accept(NioSocketChannel channel, Future future) throws Exception {
-        HttpFuture f = (HttpFuture) future;
-        Waiter waiter = this.waiter;
-        if (waiter != null) {
-            this.waiter = null;
-            waiter.response(f);
+        ResponseCorrelator<?> correlator = ResponseCorrelator.get(channel);
+        if (correlator != null) {
+            correlator.complete(future);
         }
     }
 
-    public Waiter newWaiter() {
-        this.waiter = new Waiter();
-        return this.waiter;
+    @Override
+    public void exceptionCaught(NioSocketChannel channel, Future future, Exception ex) {
+        ResponseCorrelator<?> correlator = ResponseCorrelator.get(channel);
+        if (correlator == null || !correlator.fail(future, ex)) {
+            super.exceptionCaught(channel, future, ex);
+        }
     }
+
 }
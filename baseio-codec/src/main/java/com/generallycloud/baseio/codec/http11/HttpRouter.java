@@ -0,0 +1,312 @@
+/*
+ * Copyright 2015-2017 GenerallyCloud.com
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *  
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.generallycloud.baseio.codec.http11;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import com.generallycloud.baseio.common.Encoding;
+
+/**
+ * 基于radix tree的路由表，支持静态路径、{param}参数(匹配一个完整的路径段)和
+ * 结尾的*通配符(例如/static/*或者/static/*path，匹配剩余的全部路径)，
+ * 匹配优先级：静态 &gt; 参数 &gt; 通配符，
+ * 匹配直接在请求行的URI字节上进行，只有匹配成功后才为参数创建String，
+ * 路由表在启动时构建，运行时只读
+ * @author wangkai
+ *
+ */
+public class HttpRouter<T> {
+
+    private int           maxParams;
+    private final Node<T> root = new Node<>("");
+
+    /**
+     * 添加路由，pattern必须以/开头，使用未解码的形式(与请求行中的URI一致)
+     * @throws IllegalArgumentException pattern格式错误或者与已有路由冲突
+     */
+    public synchronized void add(String pattern, T value) {
+        if (value == null || pattern == null || !pattern.startsWith("/")) {
+            throw new IllegalArgumentException("illegal route: " + pattern);
+        }
+        Node<T> node = root;
+        int params = 0;
+        int len = pattern.length();
+        for (int i = 0; i < len;) {
+            char c = pattern.charAt(i);
+            if (c == '{' || c == '*') {
+                if (pattern.charAt(i - 1) != '/') {
+                    throw new IllegalArgumentException("param must be a whole segment: " + pattern);
+                }
+            }
+            if (c == '{') {
+                int close = pattern.indexOf('}', i);
+                if (close == -1 || close == i + 1) {
+                    throw new IllegalArgumentException("illegal param: " + pattern);
+                }
+                if (close + 1 < len && pattern.charAt(close + 1) != '/') {
+                    throw new IllegalArgumentException("param must be a whole segment: " + pattern);
+                }
+                String name = pattern.substring(i + 1, close);
+                if (node.param == null) {
+                    node.param = new Node<>(null);
+                    node.param.name = name;
+                } else if (!node.param.name.equals(name)) {
+                    throw new IllegalArgumentException(
+                            "param {" + name + "} conflicts with {" + node.param.name + "}");
+                }
+                node = node.param;
+                params++;
+                i = close + 1;
+            } else if (c == '*') {
+                String name = i + 1 == len ? "*" : pattern.substring(i + 1);
+                if (name.indexOf('/') != -1) {
+                    throw new IllegalArgumentException("wildcard must be the last: " + pattern);
+                }
+                if (node.wildcard != null) {
+                    throw new IllegalArgumentException("duplicate route: " + pattern);
+                }
+                node.wildcard = new Node<>(null);
+                node.wildcard.name = name;
+                node.wildcard.value = value;
+                maxParams = Math.max(maxParams, params + 1);
+                return;
+            } else {
+                int j = i;
+                for (; j < len; j++) {
+                    char ch = pattern.charAt(j);
+                    if (ch == '{' || ch == '*') {
+                        break;
+                    }
+                }
+                node = insertStatic(node, pattern, i, j);
+                i = j;
+            }
+        }
+        if (node.value != null) {
+            throw new IllegalArgumentException("duplicate route: " + pattern);
+        }
+        node.value = value;
+        maxParams = Math.max(maxParams, params);
+    }
+
+    // 插入静态部分pattern[i, j)，必要时分裂已有节点，返回静态部分结束处的节点
+    private Node<T> insertStatic(Node<T> node, String pattern, int i, int j) {
+        for (; i < j;) {
+            Node<T> child = node.getChild((byte) pattern.charAt(i));
+            if (child == null) {
+                child = new Node<>(pattern.substring(i, j));
+                node.setChild(child);
+                return child;
+            }
+            String prefix = child.prefix;
+            int max = Math.min(prefix.length(), j - i);
+            int l = 0;
+            for (; l < max && prefix.charAt(l) == pattern.charAt(i + l); l++) {
+            }
+            if (l < prefix.length()) {
+                Node<T> split = new Node<>(prefix.substring(0, l));
+                child.prefix = prefix.substring(l);
+                split.setChild(child);
+                node.setChild(split);
+                child = split;
+            }
+            node = child;
+            i += l;
+        }
+        return node;
+    }
+
+    /**
+     * 匹配路径，匹配成功时将参数放入params(可以为null)
+     */
+    public T match(String path, Map<String, String> params) {
+        byte[] array = path.getBytes(Encoding.ISO_8859_1);
+        Captures captures = maxParams == 0 ? null : new Captures(maxParams);
+        T value = find(root, array, 0, array.length, captures);
+        if (value != null && captures != null && params != null) {
+            captures.copyTo(array, params);
+        }
+        return value;
+    }
+
+    /**
+     * 使用请求的URI(不含参数)匹配路由，匹配到的路径参数可以通过HttpFuture.getPathParam获取
+     */
+    public T route(HttpFuture future) {
+        if (future instanceof AbstractHttpFuture) {
+            AbstractHttpFuture f = (AbstractHttpFuture) future;
+            byte[] array = f.getURLArray();
+            if (array != null) {
+                int start = f.getURLStart();
+                int end = start;
+                int urlEnd = f.getURLEnd();
+                for (; end < urlEnd && array[end] != '?'; end++) {
+                }
+                return route(f, array, start, end);
+            }
+            byte[] path = f.getRequestURI().getBytes(Encoding.ISO_8859_1);
+            return route(f, path, 0, path.length);
+        }
+        return match(future.getRequestURI(), null);
+    }
+
+    private T route(AbstractHttpFuture future, byte[] array, int start, int end) {
+        Captures captures = maxParams == 0 ? null : new Captures(maxParams);
+        T value = find(root, array, start, end, captures);
+        if (value != null && captures != null && captures.size > 0) {
+            Map<String, String> params = new HashMap<>();
+            captures.copyTo(array, params);
+            future.setPathParams(params);
+        }
+        return value;
+    }
+
+    private T find(Node<T> node, byte[] array, int i, int end, Captures captures) {
+        if (i == end) {
+            if (node.value != null) {
+                return node.value;
+            }
+            if (node.wildcard != null) {
+                captures.add(node.wildcard.name, i, end);
+                return node.wildcard.value;
+            }
+            return null;
+        }
+        Node<T> child = node.getChild(array[i]);
+        if (child != null && child.matches(array, i, end)) {
+            T value = find(child, array, i + child.prefix.length(), end, captures);
+            if (value != null) {
+                return value;
+            }
+        }
+        if (node.param != null) {
+            int j = i;
+            for (; j < end && array[j] != '/'; j++) {
+            }
+            if (j > i) {
+                int size = captures.size;
+                captures.add(node.param.name, i, j);
+                T value = find(node.param, array, j, end, captures);
+                if (value != null) {
+                    return value;
+                }
+                captures.size = size;
+            }
+        }
+        if (node.wildcard != null) {
+            captures.add(node.wildcard.name, i, end);
+            return node.wildcard.value;
+        }
+        return null;
+    }
+
+    static final class Captures {
+
+        final String[] names;
+        final int[]    offsets;
+        int            size;
+
+        Captures(int capacity) {
+            this.names = new String[capacity];
+            this.offsets = new int[capacity * 2];
+        }
+
+        void add(String name, int start, int end) {
+            names[size] = name;
+            offsets[size * 2] = start;
+            offsets[size * 2 + 1] = end;
+            size++;
+        }
+
+        void copyTo(byte[] array, Map<String, String> params) {
+            for (int i = 0; i < size; i++) {
+                int start = offsets[i * 2];
+                int end = offsets[i * 2 + 1];
+                params.put(names[i], new String(array, start, end - start, Encoding.ISO_8859_1));
+            }
+        }
+    }
+
+    static final class Node<T> {
+
+        Node<T>[] children;
+        byte[]    indices;
+        String    name;
+        Node<T>   param;
+        String    prefix;
+        T         value;
+        Node<T>   wildcard;
+
+        Node(String prefix) {
+            this.prefix = prefix;
+        }
+
+        Node<T> getChild(byte b) {
+            byte[] indices = this.indices;
+            if (indices == null) {
+                return null;
+            }
+            for (int i = 0; i < indices.length; i++) {
+                if (indices[i] == b) {
+                    return children[i];
+                }
+            }
+            return null;
+        }
+
+        boolean matches(byte[] array, int off, int end) {
+            String prefix = this.prefix;
+            int len = prefix.length();
+            if (end - off < len) {
+                return false;
+            }
+            for (int i = 0; i < len; i++) {
+                if (array[off + i] != (byte) prefix.charAt(i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        // 替换首字符相同的子节点，不存在时添加
+        @SuppressWarnings("unchecked")
+        void setChild(Node<T> child) {
+            byte b = (byte) child.prefix.charAt(0);
+            if (indices == null) {
+                indices = new byte[] { b };
+                children = (Node<T>[]) new Node<?>[] { child };
+                return;
+            }
+            for (int i = 0; i < indices.length; i++) {
+                if (indices[i] == b) {
+                    children[i] = child;
+                    return;
+                }
+            }
+            int len = indices.length;
+            byte[] newIndices = new byte[len + 1];
+            Node<T>[] newChildren = (Node<T>[]) new Node<?>[len + 1];
+            System.arraycopy(indices, 0, newIndices, 0, len);
+            System.arraycopy(children, 0, newChildren, 0, len);
+            newIndices[len] = b;
+            newChildren[len] = child;
+            this.indices = newIndices;
+            this.children = newChildren;
+        }
+    }
+
+}
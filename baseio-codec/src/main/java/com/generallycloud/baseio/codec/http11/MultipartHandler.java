@@ -0,0 +1,47 @@
+/*
+ * Copyright 2015-2017 GenerallyCloud.com
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *  
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.generallycloud.baseio.codec.http11;
+
+import java.io.IOException;
+
+import com.generallycloud.baseio.buffer.ByteBuf;
+
+/**
+ * 流式处理multipart/form-data中的part，所有方法都在EventLoop线程中调用
+ * @see ServerHttpCodec#setMultipartHandler(MultipartHandler)
+ * @author wangkai
+ *
+ */
+public interface MultipartHandler {
+
+    /**
+     * part的header解析完成后调用
+     * @return true表示由该handler处理该part的内容，false时普通字段保存为请求参数，
+     *         文件写入临时文件
+     */
+    boolean onPartBegin(HttpFuture future, MultipartPart part) throws IOException;
+
+    /**
+     * 读取到一段part内容，data是请求体buf的一部分(没有复制)，只在本次调用期间有效
+     */
+    void onPartData(HttpFuture future, MultipartPart part, ByteBuf data) throws IOException;
+
+    /**
+     * part内容读取完成
+     */
+    void onPartEnd(HttpFuture future, MultipartPart part) throws IOException;
+
+}
@@ -0,0 +1,443 @@
+/*
+ * Copyright 2015-2017 GenerallyCloud.com
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *  
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.generallycloud.baseio.codec.http11;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import com.generallycloud.baseio.buffer.ByteBuf;
+import com.generallycloud.baseio.buffer.UnpooledByteBufAllocator;
+import com.generallycloud.baseio.common.CloseUtil;
+
+/**
+ * 增量解析multipart/form-data请求体，每次读取到的请求体直接交给parse，
+ * 使用Boyer-Moore-Horspool查找分隔符(CRLF--boundary)，part内容以请求体buf的
+ * 片段交给MultipartHandler或者通过FileChannel写入临时文件，不会复制到内存中，
+ * 只有buf末尾可能是分隔符开头的几个字节会保存到tail，等待下一次读取
+ * @author wangkai
+ *
+ */
+class MultipartParser {
+
+    private static final int    PREAMBLE      = 0;
+    // 分隔符之后是"--"(结束)或者CRLF(下一个part)，之间允许空白
+    private static final int    DELIMITER     = 1;
+    private static final int    DELIMITER_END = 2;
+    private static final int    DELIMITER_LF  = 3;
+    private static final int    HEADER        = 4;
+    private static final int    BODY          = 5;
+    private static final int    EPILOGUE      = 6;
+
+    private Charset             charset;
+    private final byte[]        delimiter;
+    private byte[]              fieldArray;
+    private FileChannel         fileChannel;
+    private int                 fieldLimit;
+    private int                 fieldLen;
+    private HttpFuture          future;
+    private boolean             handled;
+    private MultipartHandler    handler;
+    private int                 headerLen;
+    private int                 headerLimit;
+    private byte[]              lineArray     = new byte[128];
+    private int                 lineLen;
+    private int                 maxPartSize;
+    private MultipartPart       part;
+    private List<MultipartPart> parts         = new ArrayList<>();
+    private final int[]         shifts        = new int[256];
+    private int                 state         = PREAMBLE;
+    private final byte[]        tail;
+    private final ByteBuf       tailBuf;
+    private int                 tailLen;
+    private File                tempDir;
+    private final byte[]        window;
+
+    /**
+     * @param maxPartSize 单个part内容的最大长度
+     * @param headerLimit 单个part的header最大长度
+     * @param fieldLimit 普通字段(保存为请求参数)的最大长度
+     * @param tempDir 文件的临时目录，为null时使用java.io.tmpdir
+     */
+    MultipartParser(HttpFuture future, String boundary, Charset charset,
+            MultipartHandler handler, int maxPartSize, int headerLimit, int fieldLimit,
+            File tempDir) {
+        this.future = future;
+        this.charset = charset;
+        this.handler = handler;
+        this.maxPartSize = maxPartSize;
+        this.headerLimit = headerLimit;
+        this.fieldLimit = fieldLimit;
+        this.tempDir = tempDir;
+        this.delimiter = ("\r\n--" + boundary).getBytes(charset);
+        int last = delimiter.length - 1;
+        Arrays.fill(shifts, delimiter.length);
+        for (int i = 0; i < last; i++) {
+            shifts[delimiter[i] & 0xff] = last - i;
+        }
+        this.tail = new byte[delimiter.length];
+        this.tailBuf = UnpooledByteBufAllocator.getHeap().wrap(tail);
+        this.window = new byte[delimiter.length * 2];
+        // 请求体以"--boundary"开头，前面补上CRLF后与其它分隔符一样处理
+        this.tail[0] = '\r';
+        this.tail[1] = '\n';
+        this.tailLen = 2;
+    }
+
+    /**
+     * 解析buf中的全部数据
+     */
+    void parse(ByteBuf buf) throws IOException {
+        for (; buf.hasRemaining();) {
+            switch (state) {
+                case PREAMBLE:
+                case BODY:
+                    readData(buf);
+                    break;
+                case DELIMITER: {
+                    byte b = buf.getByte();
+                    if (b == '-') {
+                        state = DELIMITER_END;
+                    } else if (b == '\r') {
+                        state = DELIMITER_LF;
+                    } else if (b != ' ' && b != '\t') {
+                        throw new IOException("illegal multipart delimiter");
+                    }
+                    break;
+                }
+                case DELIMITER_END:
+                    if (buf.getByte() != '-') {
+                        throw new IOException("illegal multipart delimiter");
+                    }
+                    state = EPILOGUE;
+                    break;
+                case DELIMITER_LF:
+                    if (buf.getByte() != '\n') {
+                        throw new IOException("illegal multipart delimiter");
+                    }
+                    part = new MultipartPart();
+                    headerLen = 0;
+                    lineLen = 0;
+                    state = HEADER;
+                    break;
+                case HEADER:
+                    readHeader(buf);
+                    break;
+                default:
+                    // 结束分隔符之后的内容忽略
+                    buf.position(buf.limit());
+                    break;
+            }
+        }
+    }
+
+    /**
+     * 请求体读取完成
+     */
+    void complete() throws IOException {
+        if (state != EPILOGUE) {
+            throw new IOException("incomplete multipart body");
+        }
+    }
+
+    /**
+     * 关闭未写完的文件并删除所有临时文件
+     */
+    void deleteFiles() {
+        CloseUtil.close(fileChannel);
+        fileChannel = null;
+        for (MultipartPart p : parts) {
+            if (p.getFile() != null) {
+                p.getFile().delete();
+                p.setFile(null);
+            }
+        }
+    }
+
+    boolean isComplete() {
+        return state == EPILOGUE;
+    }
+
+    List<MultipartPart> getParts() {
+        return parts;
+    }
+
+    private void readHeader(ByteBuf buf) throws IOException {
+        for (; buf.hasRemaining();) {
+            byte b = buf.getByte();
+            if (++headerLen > headerLimit) {
+                throw new IOException("max multipart header length " + headerLimit);
+            }
+            if (b == '\n') {
+                if (lineLen == 0) {
+                    beginPart();
+                    state = BODY;
+                    return;
+                }
+                parseHeaderLine();
+                lineLen = 0;
+            } else if (b != '\r') {
+                if (lineLen == lineArray.length) {
+                    lineArray = Arrays.copyOf(lineArray, Math.min(lineLen * 2, headerLimit));
+                }
+                lineArray[lineLen++] = b;
+            }
+        }
+    }
+
+    private void parseHeaderLine() {
+        int index = -1;
+        for (int i = 0; i < lineLen; i++) {
+            if (lineArray[i] == ':') {
+                index = i;
+                break;
+            }
+        }
+        if (index == -1) {
+            return;
+        }
+        String name = new String(lineArray, 0, index, charset).trim().toLowerCase();
+        String value = new String(lineArray, index + 1, lineLen - index - 1, charset).trim();
+        part.getHeaders().put(name, value);
+        if (name.equals("content-disposition")) {
+            parseDisposition(value);
+        } else if (name.equals("content-type")) {
+            part.setContentType(value);
+        }
+    }
+
+    // form-data; name="xxx"; filename="xxx"，filename中可能有'\'(完整路径)，不做转义
+    private void parseDisposition(String value) {
+        int len = value.length();
+        int i = value.indexOf(';');
+        for (; i != -1 && i < len;) {
+            int eq = value.indexOf('=', i + 1);
+            if (eq == -1) {
+                return;
+            }
+            String key = value.substring(i + 1, eq).trim().toLowerCase();
+            int j = eq + 1;
+            for (; j < len && value.charAt(j) == ' '; j++) {
+            }
+            String v;
+            if (j < len && value.charAt(j) == '"') {
+                int end = value.indexOf('"', j + 1);
+                if (end == -1) {
+                    end = len;
+                }
+                v = value.substring(j + 1, end);
+                i = value.indexOf(';', end);
+            } else {
+                int end = value.indexOf(';', j);
+                if (end == -1) {
+                    end = len;
+                }
+                v = value.substring(j, end).trim();
+                i = end;
+            }
+            if (key.equals("name")) {
+                part.setName(v);
+            } else if (key.equals("filename")) {
+                part.setFilename(v);
+            }
+        }
+    }
+
+    private void beginPart() throws IOException {
+        parts.add(part);
+        handled = handler != null && handler.onPartBegin(future, part);
+        if (!handled && part.isFile()) {
+            File file = File.createTempFile("baseio-part-", ".tmp", tempDir);
+            part.setFile(file);
+            fileChannel = new RandomAccessFile(file, "rw").getChannel();
+        }
+    }
+
+    private void endPart() throws IOException {
+        if (handled) {
+            handler.onPartEnd(future, part);
+        } else if (fileChannel != null) {
+            CloseUtil.close(fileChannel);
+            fileChannel = null;
+        } else {
+            String value = fieldLen == 0 ? "" : new String(fieldArray, 0, fieldLen, charset);
+            part.setValue(value);
+            if (part.getName() != null) {
+                future.setReuestParam(part.getName(), value);
+            }
+            fieldLen = 0;
+        }
+        part = null;
+    }
+
+    // 找到分隔符时结束当前part
+    private void endData() throws IOException {
+        if (state == BODY) {
+            endPart();
+        }
+        state = DELIMITER;
+    }
+
+    private void readData(ByteBuf buf) throws IOException {
+        if (tailLen > 0 && !readTail(buf)) {
+            return;
+        }
+        int pos = buf.position();
+        int limit = buf.limit();
+        int index = indexOf(buf, pos, limit);
+        if (index != -1) {
+            writeData(buf, pos, index);
+            buf.position(index + delimiter.length);
+            endData();
+            return;
+        }
+        // 末尾可能是分隔符的开头，保留到下一次读取
+        int s = Math.max(pos, limit - delimiter.length + 1);
+        for (; s < limit && !startsWith(buf, s, limit - s); s++) {
+        }
+        writeData(buf, pos, s);
+        for (int i = s; i < limit; i++) {
+            tail[tailLen++] = buf.getByte(i);
+        }
+        buf.position(limit);
+    }
+
+    /**
+     * 查找从tail开始、跨越到buf的分隔符
+     * @return true表示tail中没有分隔符，已经作为内容写出，继续查找buf
+     */
+    private boolean readTail(ByteBuf buf) throws IOException {
+        int pos = buf.position();
+        int k = Math.min(delimiter.length, buf.remaining());
+        System.arraycopy(tail, 0, window, 0, tailLen);
+        for (int i = 0; i < k; i++) {
+            window[tailLen + i] = buf.getByte(pos + i);
+        }
+        int w = tailLen + k;
+        for (int i = 0; i < tailLen; i++) {
+            int n = Math.min(delimiter.length, w - i);
+            if (!startsWith(window, i, n)) {
+                continue;
+            }
+            writeTail(i);
+            if (n == delimiter.length) {
+                buf.position(pos + i + n - tailLen);
+                tailLen = 0;
+                endData();
+                return false;
+            }
+            // buf已经读完，仍然可能是分隔符的开头
+            System.arraycopy(window, i, tail, 0, w - i);
+            tailLen = w - i;
+            buf.position(buf.limit());
+            return false;
+        }
+        writeTail(tailLen);
+        tailLen = 0;
+        return true;
+    }
+
+    private int indexOf(ByteBuf buf, int off, int end) {
+        int last = delimiter.length - 1;
+        for (int i = off; i + last < end;) {
+            byte b = buf.getByte(i + last);
+            if (b == delimiter[last]) {
+                int j = last - 1;
+                for (; j >= 0 && buf.getByte(i + j) == delimiter[j]; j--) {
+                }
+                if (j < 0) {
+                    return i;
+                }
+            }
+            i += shifts[b & 0xff];
+        }
+        return -1;
+    }
+
+    private boolean startsWith(ByteBuf buf, int off, int len) {
+        for (int i = 0; i < len; i++) {
+            if (buf.getByte(off + i) != delimiter[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean startsWith(byte[] array, int off, int len) {
+        for (int i = 0; i < len; i++) {
+            if (array[off + i] != delimiter[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void writeTail(int len) throws IOException {
+        if (len > 0 && state == BODY) {
+            tailBuf.position(0);
+            tailBuf.limit(len);
+            writeData(tailBuf);
+        }
+    }
+
+    private void writeData(ByteBuf buf, int off, int end) throws IOException {
+        if (end <= off || state != BODY) {
+            return;
+        }
+        int limit = buf.limit();
+        buf.limit(end);
+        buf.position(off);
+        try {
+            writeData(buf);
+        } finally {
+            buf.limit(limit);
+        }
+    }
+
+    private void writeData(ByteBuf data) throws IOException {
+        int len = data.remaining();
+        if (part.getSize() + len > maxPartSize) {
+            throw new IOException("max multipart part length " + maxPartSize);
+        }
+        part.setSize(part.getSize() + len);
+        if (handled) {
+            handler.onPartData(future, part, data);
+        } else if (fileChannel != null) {
+            ByteBuffer nioBuffer = data.nioBuffer();
+            while (nioBuffer.hasRemaining()) {
+                fileChannel.write(nioBuffer);
+            }
+        } else {
+            if (fieldLen + len > fieldLimit) {
+                throw new IOException("max multipart field length " + fieldLimit);
+            }
+            if (fieldArray == null || fieldLen + len > fieldArray.length) {
+                int cap = fieldArray == null ? 128 : fieldArray.length * 2;
+                cap = Math.min(Math.max(cap, fieldLen + len), fieldLimit);
+                fieldArray = fieldArray == null ? new byte[cap] : Arrays.copyOf(fieldArray, cap);
+            }
+            data.get(fieldArray, fieldLen, len);
+            fieldLen += len;
+        }
+    }
+
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright 2015-2017 GenerallyCloud.com
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *  
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.generallycloud.baseio.codec.http11;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * multipart/form-data请求体中的一个part，header名称为小写，
+ * 普通字段的内容在value中，文件(带有filename)写入file
+ * @author wangkai
+ *
+ */
+public class MultipartPart {
+
+    private String              contentType;
+    private File                file;
+    private String              filename;
+    private Map<String, String> headers = new HashMap<>();
+    private String              name;
+    private long                size;
+    private String              value;
+
+    public String getContentType() {
+        return contentType;
+    }
+
+    /**
+     * 文件写入的临时文件，由MultipartHandler处理的part为null
+     */
+    public File getFile() {
+        return file;
+    }
+
+    public String getFilename() {
+        return filename;
+    }
+
+    public String getHeader(String name) {
+        return headers.get(name);
+    }
+
+    public Map<String, String> getHeaders() {
+        return headers;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * 已经读取的part内容长度
+     */
+    public long getSize() {
+        return size;
+    }
+
+    public String getValue() {
+        return value;
+    }
+
+    public boolean isFile() {
+        return filename != null;
+    }
+
+    void setContentType(String contentType) {
+        this.contentType = contentType;
+    }
+
+    void setFile(File file) {
+        this.file = file;
+    }
+
+    void setFilename(String filename) {
+        this.filename = filename;
+    }
+
+    void setName(String name) {
+        this.name = name;
+    }
+
+    void setSize(long size) {
+        this.size = size;
+    }
+
+    void setValue(String value) {
+        this.value = value;
+    }
+
+    @Override
+    public String toString() {
+        return "name=" + name + ",filename=" + filename + ",size=" + size;
+    }
+
+}
@@ -15,12 +15,17 @@
  */
 package com.generallycloud.baseio.codec.http11;
 
+import java.io.File;
 import java.io.IOException;
 import java.util.List;
+import java.util.Map;
 
 import com.generallycloud.baseio.buffer.ByteBuf;
 import com.generallycloud.baseio.buffer.ByteBufAllocator;
+import com.generallycloud.baseio.codec.http2.Http2Codec;
+import com.generallycloud.baseio.collection.AttributeKey;
 import com.generallycloud.baseio.collection.FixedThreadStack;
+import com.generallycloud.baseio.common.Encoding;
 import com.generallycloud.baseio.component.ByteArrayOutputStream;
 import com.generallycloud.baseio.component.ChannelContext;
 import com.generallycloud.baseio.component.NioEventLoop;
@@ -33,16 +38,47 @@ import com.generallycloud.baseio.protocol.Future;
  */
 public class ServerHttpCodec extends AbstractHttpCodec {
 
-    public static final String  FUTURE_STACK_KEY         = "FixedThreadStack_ServerHttpFuture";
-    private static final byte[] PROTOCOL                 = "HTTP/1.1 ".getBytes();
-    private static final byte[] SERVER_CL                = "\r\nServer: baseio/0.0.1\r\nContent-Length: "
+    public static final AttributeKey<FixedThreadStack<ServerHttpFuture>> FUTURE_STACK_KEY = AttributeKey
+            .valueOf("FixedThreadStack_ServerHttpFuture");
+    private static final byte[][]  STATUS_LINES             = new byte[HttpStatus.values().length][];
+    private static final byte[]    SERVER_CL                = "Server: baseio/0.0.1\r\nContent-Length: "
             .getBytes();
-    private static final byte[] SET_COOKIE               = "Set-Cookie:".getBytes();
-    private int                 bodyLimit                = 1024 * 512;
-    private int                 headerLimit              = 1024 * 8;
-    private int                 websocketLimit           = 1024 * 128;
-    private final int           httpFutureStackSize;
-    private int                 websocketFutureStackSize = 0;
+    private static final byte[]    SERVER_CHUNKED           = "Server: baseio/0.0.1\r\nTransfer-Encoding: chunked\r\n"
+            .getBytes();
+    private static final byte[]    LAST_CHUNK               = "0\r\n\r\n".getBytes();
+    private static final byte[]    EVENT_CHUNK_SIZE         = "00000000\r\n".getBytes();
+    private static final byte[]    EVENT_DATA               = "data: ".getBytes();
+    private static final byte[]    EVENT_EVENT              = "event: ".getBytes();
+    private static final byte[]    EVENT_ID                 = "id: ".getBytes();
+    private static final byte[]    EVENT_RETRY              = "retry: ".getBytes();
+    private static final byte[]    DEFAULT_HEADERS_UTF8     = ("Content-Type: text/plain;charset=utf-8\r\n"
+            + "Connection: keep-alive\r\n").getBytes();
+    private static final byte[]    DEFAULT_HEADERS_GBK      = ("Content-Type: text/plain;charset=gbk\r\n"
+            + "Connection: keep-alive\r\n").getBytes();
+    private static final byte[]    SET_COOKIE               = "Set-Cookie:".getBytes();
+    private int                    bodyLimit                = 1024 * 512;
+    private HttpBodyHandler        bodyHandler;
+    private File                   bodyTempDir;
+    private int                    compressMinSize          = 1024;
+    private String[]               compressibleTypes        = HttpContentEncoder.COMPRESS_TYPES;
+    private boolean                enableCompression        = true;
+    private boolean                enableMultipart;
+    private boolean                enableWebsocketDeflate   = true;
+    private int                    headerLimit              = 1024 * 8;
+    private Http2Codec             http2Codec;
+    private int                    maxBodySize              = 1024 * 1024 * 16;
+    private int                    maxPartSize              = 1024 * 1024 * 16;
+    private MultipartHandler       multipartHandler;
+    private int                    websocketLimit           = 1024 * 128;
+    private final int              httpFutureStackSize;
+    private int                    websocketFutureStackSize = 0;
+    private WebSocketStreamHandler websocketStreamHandler;
+
+    static {
+        for (HttpStatus s : HttpStatus.values()) {
+            STATUS_LINES[s.ordinal()] = ("HTTP/1.1 " + s.getHeaderText() + "\r\n").getBytes();
+        }
+    }
 
     public ServerHttpCodec() {
         this.httpFutureStackSize = 0;
@@ -54,6 +90,10 @@ public class ServerHttpCodec extends AbstractHttpCodec {
         this.httpFutureStackSize = 0;
     }
 
+    /**
+     * @param httpFutureStackSize 每个EventLoop缓存的ServerHttpFuture数量，大于0时响应写出后
+     *            回收future(保留header数组和map的容量)，此时flush之后不能再访问该future
+     */
     public ServerHttpCodec(int headerLimit, int bodyLimit, int httpFutureStackSize) {
         this.headerLimit = headerLimit;
         this.bodyLimit = bodyLimit;
@@ -72,10 +112,20 @@ public class ServerHttpCodec extends AbstractHttpCodec {
 
     @Override
     public Future decode(NioSocketChannel channel, ByteBuf buffer) throws IOException {
+        HttpDateHeaderCache.get(channel.getEventLoop());
+        ServerHttpFuture future = newFuture(channel);
+        future.setBodyOptions(bodyHandler, maxBodySize, bodyTempDir);
+        future.setMultipartOptions(enableMultipart, multipartHandler, maxPartSize);
+        future.setHttp2Codec(http2Codec);
+        // 同一连接上的流水线请求按照接收顺序响应
+        future.setSequence(channel.nextPipelineSequence());
+        return future;
+    }
+
+    private ServerHttpFuture newFuture(NioSocketChannel channel) {
         if (httpFutureStackSize > 0) {
             NioEventLoop eventLoop = channel.getEventLoop();
-            FixedThreadStack<ServerHttpFuture> stack = (FixedThreadStack<ServerHttpFuture>) eventLoop
-                    .getAttribute(FUTURE_STACK_KEY);
+            FixedThreadStack<ServerHttpFuture> stack = eventLoop.getAttribute(FUTURE_STACK_KEY);
             if (stack == null) {
                 stack = new FixedThreadStack<>(httpFutureStackSize);
                 eventLoop.setAttribute(FUTURE_STACK_KEY, stack);
@@ -89,17 +139,107 @@ public class ServerHttpCodec extends AbstractHttpCodec {
         return new ServerHttpFuture(channel, headerLimit, bodyLimit);
     }
 
-    private void encode(ByteBufAllocator allocator, ServerHttpFuture f, int length, byte[] array)
+    private void encode(NioSocketChannel channel, ServerHttpFuture f, int length, byte[] array)
             throws IOException {
-        ByteBuf buf = allocator.allocate(256);
+        if (enableCompression && length >= compressMinSize && !f.isResponseChunked()
+                && isCompressible(f)) {
+            f.setResponseHeader(HttpHeader.Vary, "Accept-Encoding");
+            String encoding = HttpContentEncoder
+                    .select(f.getRequestHeader(HttpHeader.Req_Accept_Encoding));
+            if (encoding != null) {
+                HttpContentEncoder encoder = HttpContentEncoder.get(channel);
+                boolean temporary = encoder == null;
+                if (temporary) {
+                    encoder = new HttpContentEncoder();
+                }
+                try {
+                    int len = encoder.compress(encoding, array, 0, length);
+                    if (len < length) {
+                        f.setResponseHeader(HttpHeader.Content_Encoding, encoding);
+                        encodeContent(channel, f, len, encoder.array());
+                        return;
+                    }
+                } finally {
+                    if (temporary) {
+                        encoder.end();
+                    }
+                }
+            }
+        }
+        encodeContent(channel, f, length, array);
+    }
+
+    // 只压缩200响应，已经设置了Content-Encoding的(例如预先压缩的静态文件)不再压缩
+    private boolean isCompressible(ServerHttpFuture f) {
+        if (f.getStatus() != HttpStatus.C200) {
+            return false;
+        }
+        Map<String, String> headers = f.getResponseHeadersIfPresent();
+        if (headers == null) {
+            return true;
+        }
+        if (headers.containsKey(HttpHeader.Content_Encoding)) {
+            return false;
+        }
+        String contentType = headers.get(HttpHeader.Content_Type);
+        return HttpContentEncoder.isCompressible(contentType, compressibleTypes);
+    }
+
+    private void encodeContent(NioSocketChannel channel, ServerHttpFuture f, int length,
+            byte[] array) throws IOException {
+        ByteBuf buf = encodeHead(channel, f, length, 256 + length, f.isResponseChunked());
+        try {
+            if (length != 0) {
+                if (f.isResponseChunked()) {
+                    writeChunk(buf, array, length);
+                } else {
+                    writeBuf(buf, array, 0, length);
+                }
+            }
+        } catch (Exception e) {
+            buf.release(buf.getReleaseVersion());
+            throw e;
+        }
+        f.setByteBuf(buf.flip());
+    }
+
+    private void encodeFile(NioSocketChannel channel, HttpFileRegionFuture f) throws IOException {
+        // 文件区域总是使用Content-Length
+        ByteBuf buf = encodeHead(channel, f.getHead(), f.getCount(), 256, false);
+        f.setByteBuf(buf.flip());
+    }
+
+    // 写入状态行和响应头(包括结尾的空行)
+    private ByteBuf encodeHead(NioSocketChannel channel, ServerHttpFuture f, long contentLength,
+            int capacity, boolean chunked) throws IOException {
+        ByteBufAllocator allocator = channel.allocator();
+        ByteBuf buf = allocator.allocate(capacity);
         try {
-            buf.put(PROTOCOL);
-            buf.put(f.getStatus().getHeaderBinary());
-            buf.put(SERVER_CL);
-            buf.put(String.valueOf(length).getBytes());
-            buf.putByte(R);
-            buf.putByte(N);
-            writeHeaders(f, buf);
+            buf.put(STATUS_LINES[f.getStatus().ordinal()]);
+            if (chunked) {
+                // 后续还有HttpChunkFuture
+                f.setSequenceEnd(false);
+                buf.put(SERVER_CHUNKED);
+            } else {
+                buf.put(SERVER_CL);
+                writeLong(buf, contentLength);
+                buf.putByte(R);
+                buf.putByte(N);
+            }
+            Map<String, String> headers = f.getResponseHeadersIfPresent();
+            if (headers == null) {
+                if (channel.getContext().getEncoding() == Encoding.GBK) {
+                    writeBuf(buf, DEFAULT_HEADERS_GBK);
+                } else {
+                    writeBuf(buf, DEFAULT_HEADERS_UTF8);
+                }
+                writeBuf(buf, HttpDateHeaderCache.getLine(channel.getEventLoop()));
+            } else {
+                writeHeaders(headers, buf);
+                if (!headers.containsKey(HttpHeader.Date)) {
+                    writeBuf(buf, HttpDateHeaderCache.getLine(channel.getEventLoop()));
+                }
+            }
             List<Cookie> cookieList = f.getCookieList();
             if (cookieList != null) {
                 for (Cookie c : cookieList) {
@@ -111,9 +251,65 @@ public class ServerHttpCodec extends AbstractHttpCodec {
             }
             writeBuf(buf, R);
             writeBuf(buf, N);
+        } catch (Exception e) {
+            buf.release(buf.getReleaseVersion());
+            throw e;
+        }
+        return buf;
+    }
+
+    private void encodeChunk(NioSocketChannel channel, HttpChunkFuture f) throws IOException {
+        int length = f.getWriteSize();
+        ByteBuf buf = channel.allocator().allocate(length + 16);
+        try {
             if (length != 0) {
-                writeBuf(buf, array, 0, length);
+                writeChunk(buf, f.getWriteBuffer(), length);
+            }
+            if (f.isLast()) {
+                writeBuf(buf, LAST_CHUNK);
+            }
+        } catch (Exception e) {
+            buf.release(buf.getReleaseVersion());
+            throw e;
+        }
+        f.setByteBuf(buf.flip());
+    }
+
+    // 先写入8位的chunk-size占位(允许前导0)，事件写完后回填，不需要预先计算编码后的长度
+    private void encodeEvent(NioSocketChannel channel, HttpEventFuture f) throws IOException {
+        String data = f.getData();
+        int capacity = 64 + (data == null ? 0 : data.length());
+        ByteBuf buf = channel.allocator().allocate(capacity);
+        try {
+            writeBuf(buf, EVENT_CHUNK_SIZE);
+            int start = buf.position();
+            if (f.getComment() != null) {
+                writeBuf(buf, COLON);
+                writeEventLine(buf, f.getComment(), 0, f.getComment().length());
+            }
+            if (f.getId() != null) {
+                writeBuf(buf, EVENT_ID);
+                writeEventLine(buf, f.getId(), 0, f.getId().length());
+            }
+            if (f.getEvent() != null) {
+                writeBuf(buf, EVENT_EVENT);
+                writeEventLine(buf, f.getEvent(), 0, f.getEvent().length());
+            }
+            if (f.getRetry() >= 0) {
+                writeBuf(buf, EVENT_RETRY);
+                writeInt(buf, f.getRetry());
+                writeBuf(buf, N);
             }
+            if (data != null) {
+                writeEventData(buf, data);
+            }
+            writeBuf(buf, N);
+            int end = buf.position();
+            buf.position(0);
+            writeHex8(buf, end - start);
+            buf.position(end);
+            writeBuf(buf, R);
+            writeBuf(buf, N);
         } catch (Exception e) {
             buf.release(buf.getReleaseVersion());
             throw e;
@@ -121,27 +317,79 @@ public class ServerHttpCodec extends AbstractHttpCodec {
         f.setByteBuf(buf.flip());
     }
 
+    private void writeEventData(ByteBuf buf, String data) {
+        int len = data.length();
+        int off = 0;
+        for (int i = 0; i < len; i++) {
+            char c = data.charAt(i);
+            if (c == '\r' || c == '\n') {
+                writeBuf(buf, EVENT_DATA);
+                writeEventLine(buf, data, off, i);
+                if (c == '\r' && i + 1 < len && data.charAt(i + 1) == '\n') {
+                    i++;
+                }
+                off = i + 1;
+            }
+        }
+        writeBuf(buf, EVENT_DATA);
+        writeEventLine(buf, data, off, len);
+    }
+
+    private void writeEventLine(ByteBuf buf, String value, int off, int end) {
+        writeUtf8(buf, value, off, end);
+        writeBuf(buf, N);
+    }
+
+    private void writeChunk(ByteBuf buf, byte[] array, int length) {
+        writeHex(buf, length);
+        writeBuf(buf, R);
+        writeBuf(buf, N);
+        writeBuf(buf, array, 0, length);
+        writeBuf(buf, R);
+        writeBuf(buf, N);
+    }
+
     @Override
     public void encode(NioSocketChannel channel, Future readFuture) throws IOException {
-        ByteBufAllocator allocator = channel.allocator();
+        if (readFuture instanceof HttpEventFuture) {
+            encodeEvent(channel, (HttpEventFuture) readFuture);
+            return;
+        }
+        if (readFuture instanceof HttpChunkFuture) {
+            encodeChunk(channel, (HttpChunkFuture) readFuture);
+            return;
+        }
+        if (readFuture instanceof HttpFileRegionFuture) {
+            encodeFile(channel, (HttpFileRegionFuture) readFuture);
+            return;
+        }
         ServerHttpFuture f = (ServerHttpFuture) readFuture;
+        f.deleteBodyFile();
         if (f.isUpdateWebSocketProtocol()) {
             channel.setProtocolCodec(WebSocketCodec.WS_PROTOCOL_CODEC);
             channel.setAttribute(WebSocketFuture.CHANNEL_KEY_SERVICE_NAME, f.getFutureName());
+            if (enableWebsocketDeflate) {
+                WebSocketDeflate deflate = WebSocketDeflate
+                        .negotiate(f.getRequestHeader(HttpHeader.Req_Sec_WebSocket_Extensions));
+                if (deflate != null) {
+                    f.setResponseHeader(HttpHeader.Sec_WebSocket_Extensions,
+                            deflate.getResponseExtension());
+                    channel.setAttribute(WebSocketDeflate.CHANNEL_KEY, deflate);
+                    channel.addStreamListener(deflate);
+                }
+            }
         }
-        f.setResponseHeader("Date",
-                HttpHeaderDateFormat.getFormat().format(System.currentTimeMillis()));
         ByteArrayOutputStream os = f.getBinaryBuffer();
         if (os != null) {
-            encode(allocator, f, os.size(), os.array());
+            encode(channel, f, os.size(), os.array());
             return;
         }
         int writeSize = f.getWriteSize();
         if (writeSize == 0) {
-            encode(allocator, f, 0, null);
+            encode(channel, f, 0, null);
             return;
         }
-        encode(allocator, f, writeSize, f.getWriteBuffer());
+        encode(channel, f, writeSize, f.getWriteBuffer());
     }
 
     @Override
@@ -151,13 +399,111 @@ public class ServerHttpCodec extends AbstractHttpCodec {
 
     @Override
     public void initialize(ChannelContext context) {
-        WebSocketCodec.init(context, websocketLimit, websocketFutureStackSize);
+        WebSocketCodec.init(context, websocketLimit, websocketFutureStackSize,
+                websocketStreamHandler);
+        if (http2Codec != null) {
+            http2Codec.initialize(context);
+        }
     }
 
     public int getBodyLimit() {
         return bodyLimit;
     }
 
+    public HttpBodyHandler getBodyHandler() {
+        return bodyHandler;
+    }
+
+    public File getBodyTempDir() {
+        return bodyTempDir;
+    }
+
+    public int getMaxBodySize() {
+        return maxBodySize;
+    }
+
+    public int getCompressMinSize() {
+        return compressMinSize;
+    }
+
+    public String[] getCompressibleTypes() {
+        return compressibleTypes;
+    }
+
+    public boolean isEnableCompression() {
+        return enableCompression;
+    }
+
+    /**
+     * 小于compressMinSize的响应体不压缩
+     */
+    public void setCompressMinSize(int compressMinSize) {
+        this.compressMinSize = compressMinSize;
+    }
+
+    /**
+     * 允许压缩的Content-Type前缀，例如"text/"
+     */
+    public void setCompressibleTypes(String[] compressibleTypes) {
+        this.compressibleTypes = compressibleTypes;
+    }
+
+    public void setEnableCompression(boolean enableCompression) {
+        this.enableCompression = enableCompression;
+    }
+
+    /**
+     * 设置后请求体交给bodyHandler流式处理，不再缓存
+     */
+    public void setBodyHandler(HttpBodyHandler bodyHandler) {
+        this.bodyHandler = bodyHandler;
+    }
+
+    public void setBodyTempDir(File bodyTempDir) {
+        this.bodyTempDir = bodyTempDir;
+    }
+
+    /**
+     * 超过bodyLimit且不超过maxBodySize的请求体会写入临时文件
+     */
+    public void setMaxBodySize(int maxBodySize) {
+        this.maxBodySize = maxBodySize;
+    }
+
+    public boolean isEnableMultipart() {
+        return enableMultipart;
+    }
+
+    public int getMaxPartSize() {
+        return maxPartSize;
+    }
+
+    public MultipartHandler getMultipartHandler() {
+        return multipartHandler;
+    }
+
+    /**
+     * 开启后增量解析multipart/form-data请求体，字段保存为请求参数，文件直接写入
+     * bodyTempDir中的临时文件，通过HttpFuture.getParts()获取，请求体不再缓存在内存中
+     */
+    public void setEnableMultipart(boolean enableMultipart) {
+        this.enableMultipart = enableMultipart;
+    }
+
+    /**
+     * 单个part(字段或文件)的最大长度，整个请求体仍然受maxBodySize限制
+     */
+    public void setMaxPartSize(int maxPartSize) {
+        this.maxPartSize = maxPartSize;
+    }
+
+    /**
+     * 开启multipart解析后由multipartHandler流式处理part
+     */
+    public void setMultipartHandler(MultipartHandler multipartHandler) {
+        this.multipartHandler = multipartHandler;
+    }
+
     public int getHeaderLimit() {
         return headerLimit;
     }
@@ -166,6 +512,17 @@ public class ServerHttpCodec extends AbstractHttpCodec {
         return websocketLimit;
     }
 
+    public Http2Codec getHttp2Codec() {
+        return http2Codec;
+    }
+
+    /**
+     * 设置后支持h2c upgrade(rfc7540 3.2)，没有请求体的Upgrade: h2c请求会切换到http2
+     */
+    public void setHttp2Codec(Http2Codec http2Codec) {
+        this.http2Codec = http2Codec;
+    }
+
     public int getHttpFutureStackSize() {
         return httpFutureStackSize;
     }
@@ -174,6 +531,28 @@ public class ServerHttpCodec extends AbstractHttpCodec {
         return websocketFutureStackSize;
     }
 
+    public boolean isEnableWebsocketDeflate() {
+        return enableWebsocketDeflate;
+    }
+
+    /**
+     * 是否接受客户端的permessage-deflate扩展，websocketLimit同时限制解压之后的长度
+     */
+    public void setEnableWebsocketDeflate(boolean enableWebsocketDeflate) {
+        this.enableWebsocketDeflate = enableWebsocketDeflate;
+    }
+
+    public WebSocketStreamHandler getWebsocketStreamHandler() {
+        return websocketStreamHandler;
+    }
+
+    /**
+     * 流式读取websocket消息，需要在ChannelContext启动之前设置
+     */
+    public void setWebsocketStreamHandler(WebSocketStreamHandler websocketStreamHandler) {
+        this.websocketStreamHandler = websocketStreamHandler;
+    }
+
     public void setWebsocketLimit(int websocketLimit) {
         this.websocketLimit = websocketLimit;
     }
@@ -15,19 +15,31 @@
  */
 package com.generallycloud.baseio.codec.http11;
 
-import java.util.HashMap;
+import java.io.IOException;
 import java.util.Map;
 
+import com.generallycloud.baseio.buffer.ByteBuf;
+import com.generallycloud.baseio.codec.http2.Http2Codec;
+import com.generallycloud.baseio.codec.http2.Http2Session;
+import com.generallycloud.baseio.collection.FixedThreadStack;
 import com.generallycloud.baseio.common.Encoding;
 import com.generallycloud.baseio.common.StringUtil;
 import com.generallycloud.baseio.component.ChannelContext;
+import com.generallycloud.baseio.component.NioEventLoop;
 import com.generallycloud.baseio.component.NioSocketChannel;
 
 public class ServerHttpFuture extends AbstractHttpFuture {
 
+    private static final String[] METHODS  = new String[] { "GET", "POST", "PUT", "DELETE",
+            "HEAD", "OPTIONS", "PATCH", "TRACE", "CONNECT" };
+    private static final String[] VERSIONS = new String[] { "HTTP/1.1", "HTTP/1.0" };
+    private NioSocketChannel      channel;
+    private Http2Codec            http2Codec;
+    private boolean               recycled;
+
     public ServerHttpFuture(NioSocketChannel channel, int headerLimit, int bodyLimit) {
-        super(channel, bodyLimit, bodyLimit);
-        setRequestParams(new HashMap<String, String>());
+        super(channel, headerLimit, bodyLimit);
+        this.channel = channel;
     }
 
     public ServerHttpFuture(ChannelContext context) {
@@ -65,6 +77,56 @@ public class ServerHttpFuture extends AbstractHttpFuture {
         }
     }
 
+    @Override
+    public Map<String, String> getRequestParams() {
+        Map<String, String> params = super.getRequestParams();
+        if (params == null) {
+            params = newRequestParams();
+        }
+        return params;
+    }
+
+    /**
+     * 在字节中查找已知的常量，找不到时创建新的String
+     */
+    private static String intern(String[] constants, byte[] array, int off, int end) {
+        int len = end - off;
+        for (String c : constants) {
+            if (c.length() != len) {
+                continue;
+            }
+            int i = 0;
+            for (; i < len && array[off + i] == c.charAt(i); i++) {
+            }
+            if (i == len) {
+                return c;
+            }
+        }
+        return new String(array, off, len, Encoding.ISO_8859_1);
+    }
+
+    @Override
+    protected void parseFirstLine(byte[] array, int off, int end) throws IOException {
+        int index1 = -1;
+        int index2 = -1;
+        for (int i = off; i < end; i++) {
+            if (array[i] == ' ') {
+                if (index1 == -1) {
+                    index1 = i;
+                } else {
+                    index2 = i;
+                    break;
+                }
+            }
+        }
+        if (index2 == -1) {
+            throw new IOException("illegal http request line");
+        }
+        setMethod(intern(METHODS, array, off, index1));
+        setRequestURL(array, index1 + 1, index2);
+        setVersion(intern(VERSIONS, array, index2 + 1, end));
+    }
+
     @Override
     protected void parseFirstLine(String line) {
         int index1 = line.indexOf(' ');
@@ -74,21 +136,71 @@ public class ServerHttpFuture extends AbstractHttpFuture {
         setVersion(line.substring(index2 + 1));
     }
 
-//    @Override
-//    public void release(NioEventLoop eventLoop) {
-//        super.release(eventLoop);
-//        //FIXME ..final statck is null or not null
-//        FixedThreadStack<ServerHttpFuture> stack = (FixedThreadStack<ServerHttpFuture>) eventLoop
-//                .getAttribute(ServerHttpCodec.FUTURE_STACK_KEY);
-//        if (stack != null) {
-//            stack.push(this);
-//        }
-//    }
+    /**
+     * 读取完成和响应写出(或者写出失败)后都会调用release，只有已经全部写出的响应
+     * 回收到所属EventLoop的FixedThreadStack，在其他线程中release时通过pushRemote归还；
+     * 写出失败时release之后还会交给IoEventHandle.exceptionCaught，这时不能回收；
+     * 分块响应的头部(之后还有HttpChunkFuture或者事件)仍然被使用，仍然被写出队列引用的
+     * future复用会破坏队列，这两种情况也不回收
+     */
+    @Override
+    public void release(NioEventLoop eventLoop) {
+        boolean written = flushed() && isWriteCompleted();
+        super.release(eventLoop);
+        // 子类(ServerHttp2Future)不是从stack中取出的
+        if (recycled || !written || !isSequenceEnd() || getClass() != ServerHttpFuture.class) {
+            return;
+        }
+        FixedThreadStack<ServerHttpFuture> stack = eventLoop
+                .getAttribute(ServerHttpCodec.FUTURE_STACK_KEY);
+        if (stack == null || !channel.isReusable(this)) {
+            return;
+        }
+        // 连接关闭时同一个future可能被release多次
+        recycled = true;
+        if (eventLoop.inEventLoop()) {
+            stack.push(this);
+        } else {
+            stack.pushRemote(this);
+        }
+    }
+
+    /**
+     * 请求读取完成时如果是h2c upgrade，切换到http2，该请求不再交给IoEventHandle，
+     * 而是由Http2Session作为stream 1交给IoEventHandle
+     */
+    @Override
+    public boolean read(NioSocketChannel channel, ByteBuf buffer) throws IOException {
+        if (!super.read(channel, buffer)) {
+            return false;
+        }
+        if (http2Codec != null && isH2cUpgrade(channel)) {
+            setSilent(true);
+            channel.setProtocolCodec(http2Codec);
+            Http2Session.getHttp2Session(channel).upgrade(this);
+        }
+        return true;
+    }
+
+    // 带有请求体的upgrade请求按照http1.1处理(rfc7540 3.2允许忽略upgrade)
+    private boolean isH2cUpgrade(NioSocketChannel channel) {
+        if (hasBodyContent() || channel.isEnableSsl()) {
+            return false;
+        }
+        String upgrade = getRequestHeader(HttpHeader.Req_Upgrade);
+        return upgrade != null && upgrade.toLowerCase().contains("h2c")
+                && getRequestHeader(HttpHeader.Req_HTTP2_Settings) != null;
+    }
+
+    void setHttp2Codec(Http2Codec http2Codec) {
+        this.http2Codec = http2Codec;
+    }
 
     @Override
     public ServerHttpFuture reset(NioSocketChannel channel, int headerLimit, int bodyLimit) {
         super.reset(channel, headerLimit, bodyLimit);
-        setDefaultResponseHeaders(getResponseHeaders());
+        this.channel = channel;
+        this.recycled = false;
         return this;
     }
 
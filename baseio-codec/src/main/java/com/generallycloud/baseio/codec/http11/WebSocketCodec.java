@@ -19,6 +19,7 @@ import java.io.IOException;
 
 import com.generallycloud.baseio.buffer.ByteBuf;
 import com.generallycloud.baseio.buffer.ByteBufAllocator;
+import com.generallycloud.baseio.collection.AttributeKey;
 import com.generallycloud.baseio.collection.FixedThreadStack;
 import com.generallycloud.baseio.common.MathUtil;
 import com.generallycloud.baseio.component.ChannelContext;
@@ -56,7 +57,8 @@ import com.generallycloud.baseio.protocol.ProtocolCodec;
 */
 public class WebSocketCodec implements ProtocolCodec {
 
-    public static final String   FUTURE_STACK_KEY   = "FixedThreadStack_WebSocketFuture";
+    public static final AttributeKey<FixedThreadStack<WebSocketFuture>> FUTURE_STACK_KEY = AttributeKey
+            .valueOf("FixedThreadStack_WebSocketFuture");
     public static final int      PROTOCOL_HEADER    = 2;
     public static final String   PROTOCOL_ID        = "WebSocket";
     public static final byte     TYPE_BINARY        = 2;
@@ -67,17 +69,27 @@ public class WebSocketCodec implements ProtocolCodec {
     public static final int      MAX_UNSIGNED_SHORT = (1 << 16) - 1;
     public static WebSocketCodec WS_PROTOCOL_CODEC;
 
-    static void init(ChannelContext context, int limit, int futureStackSize) {
-        WS_PROTOCOL_CODEC = new WebSocketCodec(limit, futureStackSize);
+    static void init(ChannelContext context, int limit, int futureStackSize,
+            WebSocketStreamHandler streamHandler) {
+        WS_PROTOCOL_CODEC = new WebSocketCodec(limit, futureStackSize, streamHandler);
         WS_PROTOCOL_CODEC.initialize(context);
     }
 
-    private final int limit;
-    private final int futureStackSize;
+    private final int                    limit;
+    private final int                    futureStackSize;
+    private final WebSocketStreamHandler streamHandler;
 
     public WebSocketCodec(int limit, int futureStackSize) {
+        this(limit, futureStackSize, null);
+    }
+
+    /**
+     * @param streamHandler 流式读取消息，为null时按照limit缓存整条消息
+     */
+    public WebSocketCodec(int limit, int futureStackSize, WebSocketStreamHandler streamHandler) {
         this.limit = limit;
         this.futureStackSize = futureStackSize;
+        this.streamHandler = streamHandler;
     }
 
     @Override
@@ -91,7 +103,13 @@ public class WebSocketCodec implements ProtocolCodec {
     @Override
     public Future createPONGPacket(NioSocketChannel channel, Future ping) {
         if (WebSocketCodec.PROTOCOL_ID.equals(channel.getProtocolId())) {
-            return ping.setPONG();
+            // pong需要原样返回ping携带的数据
+            byte[] data = ((WebSocketFuture) ping).getByteArray();
+            ping.setPONG();
+            if (data != null && data.length > 0) {
+                ping.write(data);
+            }
+            return ping;
         }
         return null;
     }
@@ -100,8 +118,7 @@ public class WebSocketCodec implements ProtocolCodec {
     public Future decode(NioSocketChannel channel, ByteBuf buffer) throws IOException {
         if (futureStackSize > 0) {
             NioEventLoop eventLoop = channel.getEventLoop();
-            FixedThreadStack<WebSocketFuture> stack = (FixedThreadStack<WebSocketFuture>) eventLoop
-                    .getAttribute(FUTURE_STACK_KEY);
+            FixedThreadStack<WebSocketFuture> stack = eventLoop.getAttribute(FUTURE_STACK_KEY);
             if (stack == null) {
                 stack = new FixedThreadStack<>(futureStackSize);
                 eventLoop.setAttribute(FUTURE_STACK_KEY, stack);
@@ -109,21 +126,39 @@ public class WebSocketCodec implements ProtocolCodec {
             WebSocketFuture future = stack.pop();
             if (future == null) {
                 return new WebSocketFuture(channel, channel.allocator().allocate(PROTOCOL_HEADER),
-                        limit);
+                        limit, streamHandler);
             }
-            return future.reset(channel, channel.allocator().allocate(PROTOCOL_HEADER), limit);
+            return future.reset(channel, channel.allocator().allocate(PROTOCOL_HEADER), limit,
+                    streamHandler);
         }
-        return new WebSocketFuture(channel, channel.allocator().allocate(PROTOCOL_HEADER), limit);
+        return new WebSocketFuture(channel, channel.allocator().allocate(PROTOCOL_HEADER), limit,
+                streamHandler);
     }
 
     @Override
     public void encode(NioSocketChannel channel, Future future) throws IOException {
-        ByteBufAllocator allocator = channel.allocator();
         WebSocketFuture f = (WebSocketFuture) future;
-        byte[] header;
         byte[] data = f.getWriteBuffer();
         int size = f.getWriteSize();
         byte header0 = (byte) (0x8f & (f.getType() | 0xf0));
+        WebSocketDeflate deflate = channel.getAttribute(WebSocketDeflate.CHANNEL_KEY);
+        if (deflate != null && deflate.isCompressible(channel, f.getType(), size)) {
+            synchronized (deflate) {
+                int len = deflate.deflate(channel, data, 0, size);
+                if (len != -1) {
+                    // RSV1表示消息已压缩
+                    encode(channel, future, (byte) (header0 | 0x40), deflate.array(), len);
+                    return;
+                }
+            }
+        }
+        encode(channel, future, header0, data, size);
+    }
+
+    private void encode(NioSocketChannel channel, Future future, byte header0, byte[] data,
+            int size) {
+        ByteBufAllocator allocator = channel.allocator();
+        byte[] header;
         if (size < 126) {
             header = new byte[2];
             header[0] = header0;
@@ -141,7 +176,9 @@ public class WebSocketCodec implements ProtocolCodec {
         }
         ByteBuf buf = allocator.allocate(header.length + size);
         buf.put(header);
-        buf.put(data, 0, size);
+        if (size > 0) {
+            buf.put(data, 0, size);
+        }
         future.setByteBuf(buf.flip());
     }
 
@@ -149,6 +186,10 @@ public class WebSocketCodec implements ProtocolCodec {
         return futureStackSize;
     }
 
+    public WebSocketStreamHandler getStreamHandler() {
+        return streamHandler;
+    }
+
     @Override
     public String getProtocolId() {
         return PROTOCOL_ID;
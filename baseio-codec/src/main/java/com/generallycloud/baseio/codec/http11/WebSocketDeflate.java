@@ -0,0 +1,283 @@
+/*
+ * Copyright 2015-2017 GenerallyCloud.com
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *  
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.generallycloud.baseio.codec.http11;
+
+import java.io.IOException;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import com.generallycloud.baseio.collection.AttributeKey;
+import com.generallycloud.baseio.common.StringUtil;
+import com.generallycloud.baseio.component.ChannelStreamListener;
+import com.generallycloud.baseio.component.NioEventLoop;
+import com.generallycloud.baseio.component.NioSocketChannel;
+import com.generallycloud.baseio.protocol.Future;
+
+/**
+ * WebSocket permessage-deflate扩展(RFC 7692)，每个连接一个实例，保存在channel的attribute中。
+ * context takeover时Deflater/Inflater跨消息保留字典，这时只有EventLoop线程中写出的消息会被压缩，
+ * 以保证压缩顺序和写出顺序一致；其它线程写出的消息不压缩(RSV1=0)，不影响字典
+ * @author wangkai
+ *
+ */
+public class WebSocketDeflate implements ChannelStreamListener {
+
+    public static final AttributeKey<WebSocketDeflate> CHANNEL_KEY       = AttributeKey
+            .valueOf("WebSocketDeflate");
+    public static final String                         EXTENSION_NAME    = "permessage-deflate";
+    public static final int                            MIN_COMPRESS_SIZE = 64;
+    private static final AttributeKey<byte[]>          BUFFER_KEY        = AttributeKey
+            .valueOf("WebSocketDeflate_Buffer");
+    private static final byte[]                        TAIL              = new byte[] { 0, 0,
+            (byte) 0xff, (byte) 0xff };
+
+    private static final String CLIENT_MAX_BITS   = "client_max_window_bits";
+    private static final String CLIENT_NO_CONTEXT = "client_no_context_takeover";
+    private static final String SERVER_MAX_BITS   = "server_max_window_bits";
+    private static final String SERVER_NO_CONTEXT = "server_no_context_takeover";
+
+    private final Deflater                             deflater          = new Deflater(
+            Deflater.DEFAULT_COMPRESSION, true);
+    private final boolean                              deflateNoContext;
+    private final Inflater                             inflater          = new Inflater(true);
+    private final boolean                              inflateNoContext;
+    private boolean                                    closed;
+    private byte[]                                     out;
+
+    /**
+     * @param deflateNoContext 发送方向不使用context takeover，每条消息之后重置Deflater
+     * @param inflateNoContext 接收方向不使用context takeover，每条消息之后重置Inflater
+     */
+    public WebSocketDeflate(boolean deflateNoContext, boolean inflateNoContext) {
+        this.deflateNoContext = deflateNoContext;
+        this.inflateNoContext = inflateNoContext;
+    }
+
+    /**
+     * 服务端根据请求中的Sec-WebSocket-Extensions选择第一个可以接受的permessage-deflate，
+     * Deflater不支持小于15的窗口，带server_max_window_bits的offer不接受
+     * @return 没有可接受的offer时返回null
+     */
+    public static WebSocketDeflate negotiate(String extensions) {
+        if (StringUtil.isNullOrBlank(extensions)) {
+            return null;
+        }
+        for (String offer : extensions.split(",")) {
+            String[] params = offer.split(";");
+            if (!EXTENSION_NAME.equalsIgnoreCase(params[0].trim())) {
+                continue;
+            }
+            boolean serverNoContext = false;
+            boolean clientNoContext = false;
+            boolean accept = true;
+            for (int i = 1; i < params.length && accept; i++) {
+                String param = params[i].trim();
+                int index = param.indexOf('=');
+                String name = index == -1 ? param : param.substring(0, index).trim();
+                if (SERVER_NO_CONTEXT.equals(name) && index == -1) {
+                    serverNoContext = true;
+                } else if (CLIENT_NO_CONTEXT.equals(name) && index == -1) {
+                    clientNoContext = true;
+                } else if (CLIENT_MAX_BITS.equals(name)) {
+                    // 响应中不带client_max_window_bits，客户端可以使用任意窗口
+                } else {
+                    accept = false;
+                }
+            }
+            if (accept) {
+                return new WebSocketDeflate(serverNoContext, clientNoContext);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 客户端解析服务端返回的Sec-WebSocket-Extensions
+     * @return 服务端没有启用permessage-deflate或者参数无法满足时返回null
+     */
+    public static WebSocketDeflate accept(String extension) {
+        if (StringUtil.isNullOrBlank(extension)) {
+            return null;
+        }
+        String[] params = extension.split(";");
+        if (!EXTENSION_NAME.equalsIgnoreCase(params[0].trim())) {
+            return null;
+        }
+        boolean serverNoContext = false;
+        boolean clientNoContext = false;
+        for (int i = 1; i < params.length; i++) {
+            String param = params[i].trim();
+            int index = param.indexOf('=');
+            String name = index == -1 ? param : param.substring(0, index).trim();
+            if (SERVER_NO_CONTEXT.equals(name)) {
+                serverNoContext = true;
+            } else if (CLIENT_NO_CONTEXT.equals(name)) {
+                clientNoContext = true;
+            } else if (CLIENT_MAX_BITS.equals(name)) {
+                String bits = param.substring(index + 1).trim();
+                if (index == -1 || !"15".equals(bits)) {
+                    return null;
+                }
+            } else if (!SERVER_MAX_BITS.equals(name)) {
+                return null;
+            }
+        }
+        return new WebSocketDeflate(clientNoContext, serverNoContext);
+    }
+
+    private static byte[] buffer(NioSocketChannel channel, byte[] old, int pos, int capacity) {
+        byte[] buf = old;
+        if (buf == null || buf.length < capacity) {
+            if (channel.inEventLoop()) {
+                NioEventLoop eventLoop = channel.getEventLoop();
+                buf = eventLoop.getAttribute(BUFFER_KEY);
+                if (buf == null || buf.length < capacity) {
+                    buf = new byte[capacity];
+                    eventLoop.setAttribute(BUFFER_KEY, buf);
+                }
+            } else {
+                buf = new byte[capacity];
+            }
+            if (pos > 0) {
+                System.arraycopy(old, 0, buf, 0, pos);
+            }
+        }
+        return buf;
+    }
+
+    /**
+     * 压缩或解压的结果，只在持有当前实例锁时有效
+     */
+    public byte[] array() {
+        return out;
+    }
+
+    @Override
+    public synchronized void channelClosed(NioSocketChannel channel) {
+        closed = true;
+        deflater.end();
+        inflater.end();
+    }
+
+    /**
+     * 压缩一条完整消息并去掉结尾的00 00 ff ff，结果通过array()读取，
+     * 调用方需要持有当前实例的锁
+     * @return 压缩后的长度，连接已经关闭时返回-1
+     */
+    public int deflate(NioSocketChannel channel, byte[] src, int off, int len) {
+        if (closed) {
+            return -1;
+        }
+        byte[] buf = buffer(channel, null, 0, len + (len >> 4) + 64);
+        deflater.setInput(src, off, len);
+        int pos = 0;
+        for (;;) {
+            pos += deflater.deflate(buf, pos, buf.length - pos, Deflater.SYNC_FLUSH);
+            if (pos < buf.length) {
+                break;
+            }
+            buf = buffer(channel, buf, pos, buf.length * 2);
+        }
+        if (deflateNoContext) {
+            deflater.reset();
+        }
+        this.out = buf;
+        return pos - TAIL.length;
+    }
+
+    @Override
+    public void futureWritten(NioSocketChannel channel, Future future) {}
+
+    /**
+     * 解压一段消息数据，只在EventLoop中调用，消息的最后一段补上00 00 ff ff，
+     * 结果通过array()读取，调用方需要持有当前实例的锁
+     * @param fin 是否是消息的最后一段
+     * @param limit 本次解压之后的最大长度
+     * @return 解压之后的长度
+     */
+    public int inflate(NioSocketChannel channel, byte[] src, int off, int len, boolean fin,
+            int limit) throws IOException {
+        if (closed) {
+            throw new IOException("channel closed");
+        }
+        int max = limit == Integer.MAX_VALUE ? limit : limit + 1;
+        byte[] buf = buffer(channel, null, 0, (int) Math.min(len * 4L + 64, max));
+        int pos = 0;
+        try {
+            inflater.setInput(src, off, len);
+            pos = inflate(channel, buf, pos, limit);
+            buf = out;
+            if (fin && !inflater.finished()) {
+                inflater.setInput(TAIL);
+                pos = inflate(channel, buf, pos, limit);
+            }
+        } catch (DataFormatException e) {
+            throw new IOException(e.getMessage(), e);
+        }
+        if (fin && (inflateNoContext || inflater.finished())) {
+            inflater.reset();
+        }
+        return pos;
+    }
+
+    private int inflate(NioSocketChannel channel, byte[] buf, int pos, int limit)
+            throws DataFormatException, IOException {
+        int max = limit == Integer.MAX_VALUE ? limit : limit + 1;
+        for (;;) {
+            pos += inflater.inflate(buf, pos, buf.length - pos);
+            if (pos > limit) {
+                throw new IOException("over limit:" + pos);
+            }
+            if (pos < buf.length && (inflater.needsInput() || inflater.finished())) {
+                break;
+            }
+            if (pos == buf.length) {
+                buf = buffer(channel, buf, pos, (int) Math.min(buf.length * 2L, max));
+            }
+        }
+        this.out = buf;
+        return pos;
+    }
+
+    /**
+     * 是否使用压缩发送该消息
+     */
+    public boolean isCompressible(NioSocketChannel channel, int type, int size) {
+        if (size < MIN_COMPRESS_SIZE) {
+            return false;
+        }
+        if (type != WebSocketCodec.TYPE_TEXT && type != WebSocketCodec.TYPE_BINARY) {
+            return false;
+        }
+        return deflateNoContext || channel.inEventLoop();
+    }
+
+    /**
+     * 服务端响应的Sec-WebSocket-Extensions
+     */
+    public String getResponseExtension() {
+        StringBuilder b = new StringBuilder(EXTENSION_NAME);
+        if (deflateNoContext) {
+            b.append("; ").append(SERVER_NO_CONTEXT);
+        }
+        if (inflateNoContext) {
+            b.append("; ").append(CLIENT_NO_CONTEXT);
+        }
+        return b.toString();
+    }
+
+}
@@ -16,9 +16,13 @@
 package com.generallycloud.baseio.codec.http11;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
 
 import com.generallycloud.baseio.buffer.ByteBuf;
+import com.generallycloud.baseio.collection.AttributeKey;
 import com.generallycloud.baseio.common.Encoding;
+import com.generallycloud.baseio.component.NioEventLoop;
 import com.generallycloud.baseio.component.NioSocketChannel;
 import com.generallycloud.baseio.protocol.AbstractFuture;
 import com.generallycloud.baseio.protocol.Future;
@@ -32,21 +36,41 @@ public class WebSocketFuture extends AbstractFuture implements HttpMessage {
     public static final int    OP_PING_FRAME             = 9;
     public static final int    OP_PONG_FRAME             = 10;
     public static final int    HEADER_LENGTH             = 2;
-    public static final String CHANNEL_KEY_SERVICE_NAME  = "CHANNEL_KEY_SERVICE_NAME";
+    public static final AttributeKey<String> CHANNEL_KEY_SERVICE_NAME = AttributeKey
+            .valueOf("CHANNEL_KEY_SERVICE_NAME");
+    private static final AttributeKey<WebSocketFuture> CHANNEL_KEY_MESSAGE = AttributeKey
+            .valueOf("CHANNEL_KEY_WebSocketMessage");
+    private static final AttributeKey<byte[]> BUFFER_KEY = AttributeKey
+            .valueOf("WebSocketFuture_Buffer");
+    private static final byte[] EMPTY_ARRAY = new byte[0];
 
-    private byte[]             byteArray;
-    private boolean            eof;
-    private int                limit;
-    private String             readText;
-    private String             serviceName;
-    private byte               type;
+    private byte[]                 byteArray;
+    private WebSocketDeflate       deflate;
+    private boolean                eof;
+    private int                    length;
+    private int                    limit;
+    private long                   mask;
+    private int                    maskIndex;
+    private WebSocketFuture        message;
+    private String                 readText;
+    private int                    remain;
+    private String                 serviceName;
+    private WebSocketStreamHandler streamHandler;
+    private boolean                streaming;
+    private byte                   type;
 
     public WebSocketFuture() {
         this.type = WebSocketCodec.TYPE_TEXT;
     }
 
     public WebSocketFuture(NioSocketChannel channel, ByteBuf buf, int limit) {
+        this(channel, buf, limit, null);
+    }
+
+    public WebSocketFuture(NioSocketChannel channel, ByteBuf buf, int limit,
+            WebSocketStreamHandler streamHandler) {
         this.limit = limit;
+        this.streamHandler = streamHandler;
         this.setByteBuf(buf);
         this.setServiceName(channel);
     }
@@ -76,97 +100,218 @@ public class WebSocketFuture extends AbstractFuture implements HttpMessage {
         return OP_CONNECTION_CLOSE_FRAME == type;
     }
 
+    /**
+     * 是否是消息的最后一帧，分片消息的中间帧不会交给IoEventHandle
+     */
     public boolean isEof() {
         return eof;
     }
 
     @Override
     public boolean read(NioSocketChannel channel, ByteBuf src) throws IOException {
+        if (message == null && !readHeader(channel, src)) {
+            return false;
+        }
+        int n = Math.min(src.remaining(), remain);
+        remain -= n;
+        if (n > 0 || remain == 0) {
+            readPayload(channel, src, n);
+        }
+        if (remain > 0) {
+            return false;
+        }
+        return complete(channel);
+    }
+
+    private boolean readHeader(NioSocketChannel channel, ByteBuf src) throws IOException {
         if (src.remaining() < 2) {
             return false;
         }
         src.markP();
         byte b0 = src.getByte();
         byte b1 = src.getByte();
-        int dataLen = 0;
         boolean hasMask = (b1 & 0b10000000) > 0;
+        long payloadLen = (b1 & 0x7f);
+        int dataLen = hasMask ? 4 : 0;
+        if (payloadLen == 126) {
+            dataLen += 2;
+        } else if (payloadLen == 127) {
+            dataLen += 8;
+        }
+        if (src.remaining() < dataLen) {
+            src.resetP();
+            return false;
+        }
+        if (payloadLen == 126) {
+            payloadLen = src.getUnsignedShort();
+        } else if (payloadLen == 127) {
+            payloadLen = src.getLong();
+            if (payloadLen < 0 || payloadLen > Integer.MAX_VALUE) {
+                throw new IOException("over limit:" + payloadLen);
+            }
+        }
         if (hasMask) {
-            dataLen += 4;
+            long m = src.getInt() & 0xffffffffL;
+            this.mask = (m << 32) | m;
+        } else {
+            this.mask = 0;
         }
-        int payloadLen = (b1 & 0x7f);
-        if (payloadLen < 126) {
-
-        } else if (payloadLen == 126) {
-            dataLen += 2;
-            if (src.remaining() < dataLen) {
-                src.resetP();
-                return false;
+        this.maskIndex = 0;
+        this.remain = (int) payloadLen;
+        this.eof = (b0 & 0b10000000) > 0;
+        byte op = (byte) (b0 & 0xF);
+        boolean rsv1 = (b0 & 0b01000000) > 0;
+        if ((b0 & 0b00110000) > 0) {
+            throw new IOException("illegal rsv bits:" + b0);
+        }
+        if (op >= OP_CONNECTION_CLOSE_FRAME) {
+            if (!eof || rsv1 || remain > 125) {
+                throw new IOException("illegal control frame:" + b0);
             }
-            payloadLen = src.getUnsignedShort();
+            this.type = op;
+            if (type == WebSocketCodec.TYPE_PING) {
+                setPING();
+            } else if (type == WebSocketCodec.TYPE_PONG) {
+                setPONG();
+            }
+            this.byteArray = new byte[remain];
+            this.message = this;
+            return true;
+        }
+        WebSocketFuture pending = channel.getAttribute(CHANNEL_KEY_MESSAGE);
+        WebSocketFuture msg;
+        if (op == OP_CONTINUATION_FRAME) {
+            if (pending == null || rsv1) {
+                throw new IOException("unexpected continuation frame");
+            }
+            msg = pending;
         } else {
-            dataLen += 8;
-            if (src.remaining() < dataLen) {
-                src.resetP();
-                return false;
+            if (pending != null) {
+                throw new IOException("expect continuation frame");
             }
-            payloadLen = (int) src.getLong();
-            if (payloadLen < 0) {
-                throw new IOException("over limit:" + payloadLen);
+            msg = this;
+            this.type = op;
+            if (rsv1) {
+                deflate = channel.getAttribute(WebSocketDeflate.CHANNEL_KEY);
+                if (deflate == null) {
+                    throw new IOException("permessage-deflate not negotiated");
+                }
+            }
+            if (streamHandler != null) {
+                streaming = streamHandler.onMessageStart(channel, type);
             }
         }
-        if (payloadLen > limit) {
-            throw new IOException("over limit:" + payloadLen);
+        if (!msg.streaming) {
+            if (msg.deflate != null) {
+                if (remain > limit) {
+                    throw new IOException("over limit:" + remain);
+                }
+            } else {
+                if (remain > limit - msg.length) {
+                    throw new IOException("over limit:" + (msg.length + remain));
+                }
+                msg.ensureCapacity(msg.length + remain);
+            }
         }
-        if (src.remaining() < payloadLen) {
-            src.resetP();
-            return false;
+        this.message = msg;
+        return true;
+    }
+
+    private void readPayload(NioSocketChannel channel, ByteBuf src, int n) throws IOException {
+        WebSocketFuture msg = this.message;
+        if (msg.deflate == null && !msg.streaming) {
+            src.get(msg.byteArray, msg.length, n);
+            unmask(msg.byteArray, msg.length, n);
+            msg.length += n;
+            return;
         }
-        eof = (b0 & 0b10000000) > 0;
-        type = (byte) (b0 & 0xF);
-        if (type == WebSocketCodec.TYPE_PING) {
-            setPING();
-        } else if (type == WebSocketCodec.TYPE_PONG) {
-            setPONG();
+        NioEventLoop eventLoop = channel.getEventLoop();
+        byte[] buf = eventLoop.getAttribute(BUFFER_KEY);
+        if (buf == null || buf.length < n) {
+            buf = new byte[Math.max(n, 1024 * 8)];
+            eventLoop.setAttribute(BUFFER_KEY, buf);
         }
-        byte[] array = new byte[payloadLen];
-        if (hasMask) {
-            byte m0 = src.getByte();
-            byte m1 = src.getByte();
-            byte m2 = src.getByte();
-            byte m3 = src.getByte();
-            src.get(array);
-            int length = array.length;
-            int len = (length / 4) * 4;
-            for (int i = 0; i < len;) {
-                array[i++] ^= m0;
-                array[i++] ^= m1;
-                array[i++] ^= m2;
-                array[i++] ^= m3;
+        src.get(buf, 0, n);
+        unmask(buf, 0, n);
+        if (msg.deflate == null) {
+            streamHandler.onMessageData(channel, buf, 0, n);
+            return;
+        }
+        WebSocketDeflate deflate = msg.deflate;
+        boolean fin = eof && remain == 0;
+        int max = msg.streaming ? limit : limit - msg.length;
+        synchronized (deflate) {
+            int len = deflate.inflate(channel, buf, 0, n, fin, max);
+            if (msg.streaming) {
+                streamHandler.onMessageData(channel, deflate.array(), 0, len);
+            } else {
+                msg.ensureCapacity(msg.length + len);
+                System.arraycopy(deflate.array(), 0, msg.byteArray, msg.length, len);
+                msg.length += len;
             }
-            if (len < length) {
-                int i = len;
-                for (;;) {
-                    array[i++] ^= m0;
-                    if (i == length) {
-                        break;
-                    }
-                    array[i++] ^= m1;
-                    if (i == length) {
-                        break;
-                    }
-                    array[i++] ^= m2;
-                    if (i == length) {
-                        break;
-                    }
-                    array[i++] ^= m3;
-                }
+        }
+    }
+
+    /**
+     * 按照8字节一组去掉mask，mask扩展为long并按照当前位置旋转
+     */
+    private void unmask(byte[] array, int off, int len) {
+        if (mask == 0 || len == 0) {
+            return;
+        }
+        long m = Long.rotateLeft(mask, (maskIndex & 3) << 3);
+        int end = off + len;
+        int i = off;
+        if (len >= 8) {
+            ByteBuffer buf = ByteBuffer.wrap(array);
+            for (int longEnd = end - 7; i < longEnd; i += 8) {
+                buf.putLong(i, buf.getLong(i) ^ m);
             }
-        } else {
-            src.get(array);
         }
-        this.byteArray = array;
-        if (type == WebSocketCodec.TYPE_BINARY) {
-            // FIXME 处理binary
+        for (int k = 0; i < end; i++, k++) {
+            array[i] ^= (byte) (m >>> (56 - ((k & 3) << 3)));
+        }
+        maskIndex += len;
+    }
+
+    private void ensureCapacity(int capacity) {
+        byte[] array = this.byteArray;
+        if (array == null) {
+            this.byteArray = new byte[capacity];
+        } else if (array.length < capacity) {
+            int newCapacity = (int) Math.min(Math.max(array.length * 2L, capacity), limit);
+            this.byteArray = Arrays.copyOf(array, Math.max(newCapacity, capacity));
+        }
+    }
+
+    private boolean complete(NioSocketChannel channel) throws IOException {
+        WebSocketFuture msg = this.message;
+        if (type >= OP_CONNECTION_CLOSE_FRAME) {
+            return true;
+        }
+        if (!eof) {
+            if (msg == this) {
+                channel.setAttribute(CHANNEL_KEY_MESSAGE, this);
+            }
+            // 分片消息的中间帧不交给IoEventHandle
+            setSilent(true);
+            return true;
+        }
+        if (msg != this) {
+            channel.removeAttribute(CHANNEL_KEY_MESSAGE);
+            this.type = msg.type;
+            this.deflate = msg.deflate;
+            this.streaming = msg.streaming;
+        }
+        if (msg.streaming) {
+            this.byteArray = EMPTY_ARRAY;
+            streamHandler.onMessageComplete(channel, this);
+        } else if (msg.byteArray == null) {
+            this.byteArray = EMPTY_ARRAY;
+        } else if (msg.byteArray.length == msg.length) {
+            this.byteArray = msg.byteArray;
+        } else {
+            this.byteArray = Arrays.copyOf(msg.byteArray, msg.length);
         }
         return true;
     }
@@ -184,7 +329,7 @@ public class WebSocketFuture extends AbstractFuture implements HttpMessage {
     }
 
     protected void setServiceName(NioSocketChannel channel) {
-        this.serviceName = (String) channel.getAttribute(CHANNEL_KEY_SERVICE_NAME);
+        this.serviceName = channel.getAttribute(CHANNEL_KEY_SERVICE_NAME);
     }
 
     protected void setType(byte type) {
@@ -210,13 +355,22 @@ public class WebSocketFuture extends AbstractFuture implements HttpMessage {
     //        }
     //    }
 
-    protected WebSocketFuture reset(NioSocketChannel channel, ByteBuf buf, int limit) {
+    protected WebSocketFuture reset(NioSocketChannel channel, ByteBuf buf, int limit,
+            WebSocketStreamHandler streamHandler) {
         this.byteArray = null;
+        this.deflate = null;
         this.eof = false;
+        this.length = 0;
+        this.mask = 0;
+        this.maskIndex = 0;
+        this.message = null;
         this.readText = null;
+        this.remain = 0;
+        this.streaming = false;
         this.type = 0;
 
         this.limit = limit;
+        this.streamHandler = streamHandler;
         this.setByteBuf(buf);
         this.setServiceName(channel);
 
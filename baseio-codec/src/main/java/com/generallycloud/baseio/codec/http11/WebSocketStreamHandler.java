@@ -0,0 +1,49 @@
+/*
+ * Copyright 2015-2017 GenerallyCloud.com
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *  
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.generallycloud.baseio.codec.http11;
+
+import java.io.IOException;
+
+import com.generallycloud.baseio.component.NioSocketChannel;
+
+/**
+ * 流式读取websocket消息，消息数据不再整体缓存在内存中，
+ * 而是在读取到数据时(已经去掉mask并解压)直接交给handler处理，
+ * 分片的消息按照到达顺序依次回调，所有方法都在EventLoop线程中调用
+ * @author wangkai
+ *
+ */
+public interface WebSocketStreamHandler {
+
+    /**
+     * 读取到一条text/binary消息的第一帧header后调用
+     * @param type 消息类型，WebSocketCodec.TYPE_TEXT或者TYPE_BINARY
+     * @return true表示由该handler流式处理该消息，这时websocketLimit不再限制消息长度
+     */
+    boolean onMessageStart(NioSocketChannel channel, int type) throws IOException;
+
+    /**
+     * 读取到一段消息数据，data只在本次调用期间有效
+     */
+    void onMessageData(NioSocketChannel channel, byte[] data, int off, int len)
+            throws IOException;
+
+    /**
+     * 消息读取完成，之后该future会像普通消息一样交给IoEventHandle，getByteArray()返回空数组
+     */
+    void onMessageComplete(NioSocketChannel channel, WebSocketFuture future) throws IOException;
+
+}
@@ -34,6 +34,6 @@ public class WsUpgradeRequestFuture extends ClientHttpFuture {
         setResponseHeader("Sec-WebSocket-Version", "13");
         setResponseHeader("Sec-WebSocket-Key",
                 BASE64Util.byteArrayToBase64(UUIDGenerator.random().substring(8, 24).getBytes()));
-        setResponseHeader("Sec-WebSocket-Extensions", "permessage-deflate; client_max_window_bits");
+        setResponseHeader("Sec-WebSocket-Extensions", WebSocketDeflate.EXTENSION_NAME);
     }
 }
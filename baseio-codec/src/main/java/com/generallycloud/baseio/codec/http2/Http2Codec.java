@@ -18,92 +18,43 @@ package com.generallycloud.baseio.codec.http2;
 import java.io.IOException;
 
 import com.generallycloud.baseio.buffer.ByteBuf;
-import com.generallycloud.baseio.buffer.ByteBufAllocator;
-import com.generallycloud.baseio.codec.http2.future.Http2Frame;
+import com.generallycloud.baseio.codec.http11.HttpHeader;
 import com.generallycloud.baseio.codec.http2.future.Http2FrameHeaderImpl;
-import com.generallycloud.baseio.codec.http2.future.Http2FrameType;
-import com.generallycloud.baseio.codec.http2.future.Http2HeadersFrame;
 import com.generallycloud.baseio.codec.http2.future.Http2PrefaceFuture;
-import com.generallycloud.baseio.codec.http2.future.Http2SettingsFrame;
-import com.generallycloud.baseio.codec.http2.hpack.DefaultHttp2HeadersEncoder;
-import com.generallycloud.baseio.codec.http2.hpack.Http2HeadersEncoder;
-import com.generallycloud.baseio.common.MathUtil;
+import com.generallycloud.baseio.codec.http2.future.ServerHttp2Future;
+import com.generallycloud.baseio.component.ByteArrayOutputStream;
 import com.generallycloud.baseio.component.ChannelContext;
 import com.generallycloud.baseio.component.NioSocketChannel;
 import com.generallycloud.baseio.protocol.Future;
 import com.generallycloud.baseio.protocol.ProtocolCodec;
 
 /**
- * <pre>
- * +-----------------------------------------------+
- * |                 Length (24)                   |
- * +---------------+---------------+---------------+
- * |   Type (8)    |   Flags (8)   |
- * +-+-------------+---------------+-------------------------------+
- * |R|                 Stream Identifier (31)                      |
- * +=+=============================================================+
- * |                   Frame Payload (0...)                      ...
- * +---------------------------------------------------------------+
- * </pre>
- * <dl>
- * <dt>Length:</dt>
- * <dd>
- * <p>
- * The length of the frame payload expressed as an unsigned 24-bit integer.
- * Values greater than 2<sup>14</sup> (16,384) MUST NOT be sent unless the
- * receiver has set a larger value for <a href="#SETTINGS_MAX_FRAME_SIZE"
- * class="smpl">SETTINGS_MAX_FRAME_SIZE</a>.
- * </p>
- * <p>
- * The 9 octets of the frame header are not included in this value.
- * </p>
- * </dd>
- * <dt>Type:</dt>
- * <dd>
- * <p>
- * The 8-bit type of the frame. The frame type determines the format and
- * semantics of the frame. Implementations MUST ignore and discard any frame
- * that has a type that is unknown.
- * </p>
- * </dd>
- * <dt>Flags:</dt>
- * <dd>
- * <p>
- * An 8-bit field reserved for boolean flags specific to the frame type.
- * </p>
- * <p>
- * Flags are assigned semantics specific to the indicated frame type. Flags that
- * have no defined semantics for a particular frame type MUST be ignored and
- * MUST be left unset (0x0) when sending.
- * </p>
- * </dd>
- * <dt>R:</dt>
- * <dd>
- * <p>
- * A reserved 1-bit field. The semantics of this bit are undefined, and the bit
- * MUST remain unset (0x0) when sending and MUST be ignored when receiving.
- * </p>
- * </dd>
- * <dt>Stream Identifier:</dt>
- * <dd>
- * <p>
- * A stream identifier (see <a href="#StreamIdentifiers"
- * title="Stream Identifiers">Section&nbsp;5.1.1</a>) expressed as an unsigned
- * 31-bit integer. The value 0x0 is reserved for frames that are associated with
- * the connection as a whole as opposed to an individual stream.
- * </p>
- * </dd>
- * </dl>
+ * http2服务端编解码，支持明文的prior knowledge(h2c)、h2c upgrade(ServerHttpCodec.setHttp2Codec)
+ * 以及通过ALPN协商的h2(SSLUtil.initServerHttp2)，每个stream的请求被组装成HttpFuture交给IoEventHandle，
+ * 响应时flush该future即可，和http1.1的处理方式相同
  * 
+ * @see <a href="http://httpwg.org/specs/rfc7540.html">rfc7540</a>
+ * @author wangkai
+ *
  */
-//http://httpwg.org/specs/rfc7540.html
 public class Http2Codec implements ProtocolCodec {
 
-    public static final int     PROTOCOL_HEADER         = 9;
-    public static final int     PROTOCOL_PING           = -1;
-    public static final int     PROTOCOL_PONG           = -2;
-    public static final int     PROTOCOL_PREFACE_HEADER = 24;
-    private Http2HeadersEncoder http2HeadersEncoder     = new DefaultHttp2HeadersEncoder();
+    public static final int PROTOCOL_HEADER         = 9;
+    public static final int PROTOCOL_PING           = -1;
+    public static final int PROTOCOL_PONG           = -2;
+    public static final int PROTOCOL_PREFACE_HEADER = 24;
+    private int             bodyLimit               = 1024 * 512;
+    private int             headerLimit             = 1024 * 8;
+    private int             initialWindowSize       = Http2Session.DEFAULT_WINDOW_SIZE;
+    private int             maxConcurrentStreams    = 128;
+    private int             writeQuantum            = 1024 * 64;
+
+    public Http2Codec() {}
+
+    public Http2Codec(int headerLimit, int bodyLimit) {
+        this.headerLimit = headerLimit;
+        this.bodyLimit = bodyLimit;
+    }
 
     private ByteBuf allocate(NioSocketChannel channel, int capacity) {
         return channel.allocator().allocate(capacity);
@@ -128,65 +79,25 @@ public class Http2Codec implements ProtocolCodec {
         return new Http2FrameHeaderImpl(allocate(channel, PROTOCOL_HEADER));
     }
 
+    /**
+     * 只支持编码ServerHttp2Future(响应)，控制帧在解码时由Http2Session直接写出
+     */
     @Override
     public void encode(NioSocketChannel channel, Future future) throws IOException {
-        ByteBufAllocator allocator = channel.allocator();
-        Http2Frame frame = (Http2Frame) future;
-        Http2FrameType frameType = frame.getHttp2FrameType();
-        byte[] payload = null;
-        switch (frameType) {
-            case FRAME_TYPE_CONTINUATION:
-                break;
-            case FRAME_TYPE_DATA:
-                break;
-            case FRAME_TYPE_FRAME_HEADER:
-                break;
-            case FRAME_TYPE_GOAWAY:
-                break;
-            case FRAME_TYPE_HEADERS:
-                Http2HeadersFrame hf = (Http2HeadersFrame) frame;
-                //          http2HeadersEncoder.encodeHeaders(headers, buffer);
-                break;
-            case FRAME_TYPE_PING:
-                break;
-            case FRAME_TYPE_PREFACE:
-                break;
-            case FRAME_TYPE_PRIORITY:
-                break;
-            case FRAME_TYPE_PUSH_PROMISE:
-                break;
-            case FRAME_TYPE_RST_STREAM:
-                break;
-            case FRAME_TYPE_SETTINGS:
-                Http2SettingsFrame sf = (Http2SettingsFrame) frame;
-                long[] settings = sf.getSettings();
-                payload = new byte[6 * 6];
-                for (int i = 0; i < 6; i++) {
-                    int realI = i + 1;
-                    int offset = i * 6;
-                    MathUtil.unsignedShort2Byte(payload, realI, offset);
-                    MathUtil.unsignedInt2Byte(payload, settings[realI], offset + 2);
-                }
-                break;
-            case FRAME_TYPE_WINDOW_UPDATE:
-                break;
-            default:
-                break;
+        if (!(future instanceof ServerHttp2Future)) {
+            throw new IOException("unsupported http2 future: " + future);
+        }
+        ServerHttp2Future f = (ServerHttp2Future) future;
+        Http2Session session = Http2Session.getHttp2Session(channel);
+        ByteArrayOutputStream os = f.getBinaryBuffer();
+        if (f.getFileChannel() != null) {
+            f.setByteBuf(session.encodeResponse(f, f.takeFileChannel(), f.getFilePosition(),
+                    f.getFileCount()));
+        } else if (os != null) {
+            f.setByteBuf(session.encodeResponse(f, os.array(), os.size()));
+        } else {
+            f.setByteBuf(session.encodeResponse(f, f.getWriteBuffer(), f.getWriteSize()));
         }
-        int length = payload.length;
-        ByteBuf buf = allocator.allocate(length + PROTOCOL_HEADER);
-        byte b2 = (byte) ((length & 0xff));
-        byte b1 = (byte) ((length >> 8 * 1) & 0xff);
-        byte b0 = (byte) ((length >> 8 * 2) & 0xff);
-        byte b3 = frameType.getByteValue();
-        buf.putByte(b0);
-        buf.putByte(b1);
-        buf.putByte(b2);
-        buf.putByte(b3);
-        buf.putByte((byte) 0);
-        buf.putInt(frame.getHeader().getStreamIdentifier());
-        buf.put(payload);
-        future.setByteBuf(buf.flip());
     }
 
     @Override
@@ -197,4 +108,68 @@ public class Http2Codec implements ProtocolCodec {
     @Override
     public void initialize(ChannelContext context) {}
 
+    public int getBodyLimit() {
+        return bodyLimit;
+    }
+
+    public int getHeaderLimit() {
+        return headerLimit;
+    }
+
+    public int getInitialWindowSize() {
+        return initialWindowSize;
+    }
+
+    public int getMaxConcurrentStreams() {
+        return maxConcurrentStreams;
+    }
+
+    /**
+     * 接收窗口(SETTINGS_INITIAL_WINDOW_SIZE)，同时用作连接级别的接收窗口，
+     * 大于65535时可以提高单个连接上传请求体的吞吐
+     */
+    public void setInitialWindowSize(int initialWindowSize) {
+        if (initialWindowSize < 1) {
+            throw new IllegalArgumentException("illegal initialWindowSize: " + initialWindowSize);
+        }
+        this.initialWindowSize = initialWindowSize;
+    }
+
+    public void setMaxConcurrentStreams(int maxConcurrentStreams) {
+        this.maxConcurrentStreams = maxConcurrentStreams;
+    }
+
+    public int getWriteQuantum() {
+        return writeQuantum;
+    }
+
+    /**
+     * 每一轮调度最多发送的DATA字节数，同一时间只有一轮DATA在写队列中，
+     * 越小高优先级的响应等待的时间越短，越大单个连接的吞吐越高
+     * @see Http2WriteScheduler
+     */
+    public void setWriteQuantum(int writeQuantum) {
+        if (writeQuantum < 1) {
+            throw new IllegalArgumentException("illegal writeQuantum: " + writeQuantum);
+        }
+        this.writeQuantum = writeQuantum;
+    }
+
+    public static boolean isConnectionHeader(String name) {
+        return HttpHeader.Connection.equalsIgnoreCase(name) || "keep-alive".equalsIgnoreCase(name)
+                || "proxy-connection".equalsIgnoreCase(name)
+                || "transfer-encoding".equalsIgnoreCase(name)
+                || HttpHeader.Upgrade.equalsIgnoreCase(name);
+    }
+
+    public static void writeFrameHeader(ByteBuf buf, int length, int type, int flags,
+            int streamId) {
+        buf.putByte((byte) (length >>> 16));
+        buf.putByte((byte) (length >>> 8));
+        buf.putByte((byte) length);
+        buf.putByte((byte) type);
+        buf.putByte((byte) flags);
+        buf.putInt(streamId);
+    }
+
 }
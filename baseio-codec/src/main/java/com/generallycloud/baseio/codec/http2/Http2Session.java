@@ -15,34 +15,118 @@
  */
 package com.generallycloud.baseio.codec.http2;
 
-import com.generallycloud.baseio.codec.http2.hpack.Http2Headers;
+import static com.generallycloud.baseio.codec.http2.hpack.Http2Error.ENHANCE_YOUR_CALM;
+import static com.generallycloud.baseio.codec.http2.hpack.Http2Error.FLOW_CONTROL_ERROR;
+import static com.generallycloud.baseio.codec.http2.hpack.Http2Error.FRAME_SIZE_ERROR;
+import static com.generallycloud.baseio.codec.http2.hpack.Http2Error.PROTOCOL_ERROR;
+import static com.generallycloud.baseio.codec.http2.hpack.Http2Error.REFUSED_STREAM;
+import static com.generallycloud.baseio.codec.http2.hpack.Http2Error.STREAM_CLOSED;
+import static com.generallycloud.baseio.codec.http2.hpack.Http2Exception.connectionError;
+import static com.generallycloud.baseio.codec.http2.hpack.Http2Exception.streamError;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map.Entry;
+
+import com.generallycloud.baseio.buffer.ByteBuf;
+import com.generallycloud.baseio.buffer.UnpooledByteBufAllocator;
+import com.generallycloud.baseio.codec.http11.Cookie;
+import com.generallycloud.baseio.codec.http11.HttpFuture;
+import com.generallycloud.baseio.codec.http11.HttpHeader;
+import com.generallycloud.baseio.codec.http2.future.Http2FrameType;
+import com.generallycloud.baseio.codec.http2.future.Http2HeadersFrame;
+import com.generallycloud.baseio.codec.http2.future.Http2SettingsFrame;
+import com.generallycloud.baseio.codec.http2.future.ServerHttp2Future;
+import com.generallycloud.baseio.codec.http2.hpack.Decoder;
+import com.generallycloud.baseio.codec.http2.hpack.Encoder;
+import com.generallycloud.baseio.codec.http2.hpack.Http2Error;
+import com.generallycloud.baseio.codec.http2.hpack.Http2Exception;
+import com.generallycloud.baseio.codec.http2.hpack.Http2HeadersEncoder;
 import com.generallycloud.baseio.codec.http2.hpack.Http2HeadersImpl;
+import com.generallycloud.baseio.collection.AttributeKey;
+import com.generallycloud.baseio.collection.IntObjectHashMap;
+import com.generallycloud.baseio.common.BASE64Util;
+import com.generallycloud.baseio.common.CloseUtil;
+import com.generallycloud.baseio.component.ByteArrayOutputStream;
+import com.generallycloud.baseio.component.ChannelStreamListener;
+import com.generallycloud.baseio.component.NioEventLoop;
+import com.generallycloud.baseio.component.NioEventLoopTask;
 import com.generallycloud.baseio.component.NioSocketChannel;
+import com.generallycloud.baseio.protocol.DefaultFuture;
+import com.generallycloud.baseio.protocol.Future;
 
-public class Http2Session {
-
-    private static final String http2SessionChannelKey = "Http2SessionChannelKey";
-    
-    private boolean      prefaceRead  = true;
+/**
+ * 一个http2连接的状态：双方的settings、stream、连接级别的流量控制窗口以及hpack状态，
+ * 解码只在EventLoop中进行，编码(flush响应)可能在业务线程中进行，
+ * 所以stream和发送窗口都在session的锁中访问。
+ * 响应的DATA经过Http2WriteScheduler按照优先级交错发送，同一时间只有一轮DATA在channel的写队列中
+ * @author wangkai
+ *
+ */
+public class Http2Session implements ChannelStreamListener {
 
-    private long[]       settings     = new long[] { 0, 4096, 1, 128, 65535, 16384, 0 };
+    public static final int                         DEFAULT_MAX_FRAME_SIZE = 16384;
+    public static final int                         DEFAULT_WINDOW_SIZE    = 65535;
+    public static final int                         MAX_FRAME_SIZE         = 16777215;
+    public static final int                         MAX_WINDOW_SIZE        = Integer.MAX_VALUE;
+    private static final AttributeKey<Http2Session> http2SessionChannelKey = AttributeKey
+            .valueOf("Http2SessionChannelKey");
+    private static final int                        MAX_HEADER_BLOCK       = 1024 * 64;
+    private static final byte[]                     UPGRADE_RESPONSE       = ("HTTP/1.1 "
+            + "101 Switching Protocols\r\nConnection: Upgrade\r\nUpgrade: h2c\r\n\r\n")
+                    .getBytes();
 
-    private Http2Headers http2Headers = new Http2HeadersImpl();
+    private final NioSocketChannel              channel;
+    private final Http2Codec                    codec;
+    private final Decoder                       decoder          = new Decoder();
+    private final Encoder                       encoder          = new Encoder(true);
+    private boolean                             encoderInitialized;
+    private boolean                             goaway;
+    private ByteArrayOutputStream               headerBlock;
+    private boolean                             headerBlockEndStream;
+    private int                                 headerBlockStreamId;
+    private int                                 headerBlockWeight;
+    private int                                 lastStreamId;
+    private final long[]                        localSettings;
+    private int                                 nextPushStreamId = 2;
+    private boolean                             prefaceRead      = true;
+    private int                                 pushedStreams;
+    private int                                 recvUnacked;
+    // 连接窗口不受SETTINGS_INITIAL_WINDOW_SIZE影响，只能通过WINDOW_UPDATE扩大
+    private int                                 recvWindow       = DEFAULT_WINDOW_SIZE;
+    private final long[]                        remoteSettings   = new long[] { 0, 4096, 1,
+            MAX_WINDOW_SIZE, DEFAULT_WINDOW_SIZE, DEFAULT_MAX_FRAME_SIZE, MAX_WINDOW_SIZE };
+    private final Http2WriteScheduler           scheduler        = new Http2WriteScheduler();
+    private long                                sendWindow       = DEFAULT_WINDOW_SIZE;
+    private final IntObjectHashMap<Http2Stream> streams          = new IntObjectHashMap<>();
+    private boolean                             upgraded;
+    private final NioEventLoopTask              writeTask        = new WriteTask();
+    private boolean                             writeTaskPending;
+    private Future                              writingData;
 
-    public long getSettings(int i) {
-        return settings[i];
+    public Http2Session(NioSocketChannel channel, Http2Codec codec) {
+        this.channel = channel;
+        this.codec = codec;
+        this.localSettings = new long[] { 0, 4096, 0, codec.getMaxConcurrentStreams(),
+                codec.getInitialWindowSize(), DEFAULT_MAX_FRAME_SIZE, codec.getHeaderLimit() };
     }
 
-    public void setSettings(int key, long value) {
-        settings[key] = value;
+    /**
+     * 对端的settings
+     */
+    public long getSettings(int i) {
+        return remoteSettings[i];
     }
 
     public long[] getSettings() {
-        return settings;
+        return remoteSettings;
     }
 
-    public Http2Headers getHttp2Headers() {
-        return http2Headers;
+    public long getLocalSettings(int i) {
+        return localSettings[i];
     }
 
     public boolean isPrefaceRead() {
@@ -52,18 +136,876 @@ public class Http2Session {
     public void setPrefaceRead(boolean prefaceRead) {
         this.prefaceRead = prefaceRead;
     }
-    
-    public static Http2Session getHttp2Session(NioSocketChannel channel){
-        Http2Session session = (Http2Session) channel.getAttribute(http2SessionChannelKey);
-        if (session == null) {
-            synchronized (channel.attributes()) {
-                session = (Http2Session) channel.getAttribute(http2SessionChannelKey);
-                if (session != null) {
-                    return session;
+
+    /**
+     * 正在等待CONTINUATION的stream，没有时返回0
+     */
+    public int getHeaderBlockStreamId() {
+        return headerBlockStreamId;
+    }
+
+    public synchronized Http2Stream getStream(int streamId) {
+        return streams.get(streamId);
+    }
+
+    public synchronized int getStreamSize() {
+        return streams.size();
+    }
+
+    /**
+     * 读取到客户端的preface之后发送服务端的SETTINGS，接收窗口大于默认值时同时扩大连接窗口，
+     * h2c upgrade时SETTINGS已经在101之后发送
+     */
+    public void onPreface() {
+        if (!upgraded) {
+            writePreface();
+        }
+    }
+
+    private void writePreface() {
+        channel.addStreamListener(this);
+        int windowIncrement = codec.getInitialWindowSize() - DEFAULT_WINDOW_SIZE;
+        ByteBuf buf = allocate(Http2Codec.PROTOCOL_HEADER * 2 + 6 * 3 + 4);
+        writeFrameHeader(buf, 6 * 3, Http2FrameType.FRAME_TYPE_SETTINGS, 0, 0);
+        writeSetting(buf, Http2SettingsFrame.SETTINGS_MAX_CONCURRENT_STREAMS);
+        writeSetting(buf, Http2SettingsFrame.SETTINGS_INITIAL_WINDOW_SIZE);
+        writeSetting(buf, Http2SettingsFrame.SETTINGS_MAX_HEADER_LIST_SIZE);
+        if (windowIncrement > 0) {
+            writeWindowUpdate(buf, 0, windowIncrement);
+            recvWindow += windowIncrement;
+        }
+        flush(buf);
+    }
+
+    /**
+     * h2c upgrade(rfc7540 3.2)，回复101之后发送服务端的SETTINGS，HTTP2-Settings等同于
+     * 客户端发送的SETTINGS帧(不需要ack)，request作为half closed(remote)的stream 1
+     * 交给IoEventHandle，之后客户端仍然会发送preface
+     */
+    public void upgrade(HttpFuture request) throws IOException {
+        byte[] settings = decodeUpgradeSettings(
+                request.getRequestHeader(HttpHeader.Req_HTTP2_Settings));
+        ByteBuf buf = allocate(UPGRADE_RESPONSE.length);
+        buf.put(UPGRADE_RESPONSE);
+        flush(buf);
+        upgraded = true;
+        writePreface();
+        applySettings(UnpooledByteBufAllocator.getHeap().wrap(settings));
+        Http2HeadersImpl headers = new Http2HeadersImpl();
+        headers.method(request.getMethod());
+        headers.scheme("http");
+        headers.path(request.getRequestURL());
+        if (request.getHost() != null) {
+            headers.authority(request.getHost());
+        }
+        for (Entry<String, String> e : request.getRequestHeaders().entrySet()) {
+            if (!isConnectionHeader(e.getKey())) {
+                headers.add(e.getKey(), e.getValue());
+            }
+        }
+        Http2Stream stream = new Http2Stream(1,
+                remoteSettings[Http2SettingsFrame.SETTINGS_INITIAL_WINDOW_SIZE],
+                codec.getInitialWindowSize());
+        ServerHttp2Future future = new ServerHttp2Future(channel, stream, headers);
+        stream.open(future, true);
+        synchronized (this) {
+            streams.put(1, stream);
+        }
+        lastStreamId = 1;
+        fireRequest(stream);
+    }
+
+    // HTTP2-Settings为不带padding的base64url
+    private static byte[] decodeUpgradeSettings(String value) throws Http2Exception {
+        if (value == null) {
+            throw connectionError(PROTOCOL_ERROR, "missing HTTP2-Settings");
+        }
+        StringBuilder b = new StringBuilder(value.length() + 3);
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            b.append(c == '-' ? '+' : c == '_' ? '/' : c);
+        }
+        for (; (b.length() & 3) != 0;) {
+            b.append('=');
+        }
+        try {
+            return BASE64Util.base64ToByteArray(b.toString());
+        } catch (RuntimeException e) {
+            throw connectionError(PROTOCOL_ERROR, "illegal HTTP2-Settings");
+        }
+    }
+
+    // http2中不能出现连接相关的header(rfc7540 8.1.2.2)
+    private static boolean isConnectionHeader(String name) {
+        switch (name) {
+            case HttpHeader.Req_Connection:
+            case HttpHeader.Req_Host:
+            case HttpHeader.Req_HTTP2_Settings:
+            case HttpHeader.Req_Transfer_Encoding:
+            case HttpHeader.Req_Upgrade:
+            case "keep-alive":
+            case "proxy-connection":
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private void writeSetting(ByteBuf buf, int key) {
+        buf.putUnsignedShort(key);
+        buf.putUnsignedInt(localSettings[key]);
+    }
+
+    /**
+     * @param weight HEADERS中带有PRIORITY时的weight[1, 256]，否则为0
+     */
+    public void onHeaders(int streamId, ByteBuf buf, int weight, boolean endHeaders,
+            boolean endStream) throws Http2Exception {
+        if (streamId == 0) {
+            throw connectionError(PROTOCOL_ERROR, "HEADERS on stream 0");
+        }
+        if (endHeaders) {
+            decodeHeaderBlock(streamId, buf, weight, endStream);
+            return;
+        }
+        headerBlock = new ByteArrayOutputStream(Math.max(buf.remaining() * 2, 256));
+        headerBlockStreamId = streamId;
+        headerBlockWeight = weight;
+        headerBlockEndStream = endStream;
+        appendHeaderBlock(buf);
+    }
+
+    public void onContinuation(int streamId, ByteBuf buf, boolean endHeaders)
+            throws Http2Exception {
+        if (headerBlockStreamId == 0 || streamId != headerBlockStreamId) {
+            throw connectionError(PROTOCOL_ERROR, "unexpected CONTINUATION on stream %d",
+                    streamId);
+        }
+        appendHeaderBlock(buf);
+        if (endHeaders) {
+            ByteArrayOutputStream block = headerBlock;
+            headerBlock = null;
+            headerBlockStreamId = 0;
+            decodeHeaderBlock(streamId,
+                    UnpooledByteBufAllocator.getHeap().wrap(block.array(), 0, block.size()),
+                    headerBlockWeight, headerBlockEndStream);
+        }
+    }
+
+    private void appendHeaderBlock(ByteBuf buf) throws Http2Exception {
+        int len = buf.remaining();
+        if (headerBlock.size() + len > MAX_HEADER_BLOCK) {
+            throw connectionError(ENHANCE_YOUR_CALM, "header block too large");
+        }
+        byte[] array = new byte[len];
+        buf.get(array);
+        headerBlock.write(array, 0, len);
+    }
+
+    // 即使stream会被拒绝也必须解码header block，否则hpack的动态表会和对端不一致
+    private void decodeHeaderBlock(int streamId, ByteBuf block, int weight, boolean endStream)
+            throws Http2Exception {
+        Http2HeadersImpl headers = new Http2HeadersImpl();
+        decoder.decode(streamId, block, headers);
+        Http2Stream stream = getStream(streamId);
+        if (stream != null) {
+            // trailers
+            if (!stream.isRemoteOpen()) {
+                throw streamError(streamId, STREAM_CLOSED, "HEADERS on closed stream");
+            }
+            if (!endStream) {
+                throw streamError(streamId, PROTOCOL_ERROR, "trailers without END_STREAM");
+            }
+            onRemoteEnd(stream);
+            return;
+        }
+        if ((streamId & 1) == 0 || streamId <= lastStreamId) {
+            throw connectionError(PROTOCOL_ERROR, "illegal stream id %d", streamId);
+        }
+        lastStreamId = streamId;
+        if (goaway) {
+            return;
+        }
+        long maxStreams = localSettings[Http2SettingsFrame.SETTINGS_MAX_CONCURRENT_STREAMS];
+        if (getStreamSize() - pushedStreams >= maxStreams) {
+            throw streamError(streamId, REFUSED_STREAM, "max concurrent streams");
+        }
+        String method = headers.method();
+        if (method == null || (!"CONNECT".equals(method)
+                && (headers.path() == null || headers.scheme() == null))) {
+            throw streamError(streamId, PROTOCOL_ERROR, "missing pseudo header");
+        }
+        stream = new Http2Stream(streamId,
+                remoteSettings[Http2SettingsFrame.SETTINGS_INITIAL_WINDOW_SIZE],
+                codec.getInitialWindowSize());
+        ServerHttp2Future future = new ServerHttp2Future(channel, stream, headers);
+        stream.open(future, endStream);
+        if (weight > 0) {
+            stream.setWeight(weight);
+        }
+        String priority = future.getRequestHeader(HttpHeader.Req_Priority);
+        synchronized (this) {
+            if (priority != null) {
+                scheduler.parsePriority(stream, priority);
+            }
+            streams.put(streamId, stream);
+        }
+        if (endStream) {
+            fireRequest(stream);
+        }
+    }
+
+    public void onData(int streamId, int frameLength, ByteBuf buf, boolean endStream)
+            throws Http2Exception {
+        if (streamId == 0) {
+            throw connectionError(PROTOCOL_ERROR, "DATA on stream 0");
+        }
+        if (frameLength > recvWindow) {
+            throw connectionError(FLOW_CONTROL_ERROR, "connection window exceeded");
+        }
+        // 不管stream是否还存在，连接级别的窗口都需要归还
+        recvWindow -= frameLength;
+        recvUnacked += frameLength;
+        int streamIncrement = 0;
+        try {
+            Http2Stream stream = getStream(streamId);
+            if (stream == null || !stream.isRemoteOpen()) {
+                if (stream == null && streamId > lastStreamId) {
+                    throw connectionError(PROTOCOL_ERROR, "DATA on idle stream %d", streamId);
+                }
+                throw streamError(streamId, STREAM_CLOSED, "DATA on closed stream");
+            }
+            if (frameLength > stream.getRecvWindow()) {
+                throw streamError(streamId, FLOW_CONTROL_ERROR, "stream window exceeded");
+            }
+            stream.setRecvWindow(stream.getRecvWindow() - frameLength);
+            int len = buf.remaining();
+            if (stream.getBodySize() + len > codec.getBodyLimit()) {
+                throw streamError(streamId, ENHANCE_YOUR_CALM,
+                        "max http body length " + codec.getBodyLimit());
+            }
+            if (len > 0) {
+                byte[] array = new byte[len];
+                buf.get(array);
+                stream.appendBody(array, 0, len);
+            }
+            if (endStream) {
+                onRemoteEnd(stream);
+                return;
+            }
+            int unacked = stream.getRecvUnacked() + frameLength;
+            if (unacked >= codec.getInitialWindowSize() / 2) {
+                stream.setRecvWindow(stream.getRecvWindow() + unacked);
+                streamIncrement = unacked;
+                unacked = 0;
+            }
+            stream.setRecvUnacked(unacked);
+        } finally {
+            int connectionIncrement = 0;
+            if (recvUnacked >= codec.getInitialWindowSize() / 2) {
+                recvWindow += recvUnacked;
+                connectionIncrement = recvUnacked;
+                recvUnacked = 0;
+            }
+            if (streamIncrement > 0 || connectionIncrement > 0) {
+                ByteBuf wu = allocate((Http2Codec.PROTOCOL_HEADER + 4) * 2);
+                if (connectionIncrement > 0) {
+                    writeWindowUpdate(wu, 0, connectionIncrement);
+                }
+                if (streamIncrement > 0) {
+                    writeWindowUpdate(wu, streamId, streamIncrement);
+                }
+                flush(wu);
+            }
+        }
+    }
+
+    private void onRemoteEnd(Http2Stream stream) {
+        synchronized (this) {
+            stream.closeRemote();
+            if (stream.isClosed()) {
+                removeStream(stream);
+            }
+        }
+        fireRequest(stream);
+    }
+
+    private void fireRequest(Http2Stream stream) {
+        ServerHttp2Future future = stream.getFuture();
+        ByteArrayOutputStream body = stream.getBody();
+        if (body != null) {
+            future.setBody(Arrays.copyOf(body.array(), body.size()));
+            stream.clearBody();
+        }
+        channel.acceptFuture(future);
+    }
+
+    public void onRstStream(int streamId, long errorCode) throws Http2Exception {
+        if (streamId == 0) {
+            throw connectionError(PROTOCOL_ERROR, "RST_STREAM on stream 0");
+        }
+        synchronized (this) {
+            Http2Stream stream = streams.get(streamId);
+            if (stream != null) {
+                removeStream(stream);
+                return;
+            }
+        }
+        if (streamId > lastStreamId) {
+            throw connectionError(PROTOCOL_ERROR, "RST_STREAM on idle stream %d", streamId);
+        }
+    }
+
+    /**
+     * rfc7540的PRIORITY，只使用weight
+     */
+    public synchronized void onPriority(int streamId, int weight) {
+        Http2Stream stream = streams.get(streamId);
+        if (stream != null) {
+            stream.setWeight(weight);
+        }
+    }
+
+    public void onWindowUpdate(int streamId, int increment) throws Http2Exception {
+        if (increment == 0) {
+            if (streamId == 0) {
+                throw connectionError(PROTOCOL_ERROR, "connection window increment is 0");
+            }
+            throw streamError(streamId, PROTOCOL_ERROR, "window increment is 0");
+        }
+        synchronized (this) {
+            if (streamId == 0) {
+                if (sendWindow + increment > MAX_WINDOW_SIZE) {
+                    throw connectionError(FLOW_CONTROL_ERROR, "connection window overflow");
+                }
+                sendWindow += increment;
+            } else {
+                Http2Stream stream = streams.get(streamId);
+                if (stream == null) {
+                    return;
+                }
+                if (stream.getSendWindow() + increment > MAX_WINDOW_SIZE) {
+                    throw streamError(streamId, FLOW_CONTROL_ERROR, "stream window overflow");
+                }
+                stream.setSendWindow(stream.getSendWindow() + increment);
+            }
+        }
+        requestWrite();
+    }
+
+    public void onSettings(int streamId, ByteBuf buf, boolean ack) throws Http2Exception {
+        if (streamId != 0) {
+            throw connectionError(PROTOCOL_ERROR, "SETTINGS on stream %d", streamId);
+        }
+        if (ack) {
+            if (buf.hasRemaining()) {
+                throw connectionError(FRAME_SIZE_ERROR, "SETTINGS ack with payload");
+            }
+            return;
+        }
+        applySettings(buf);
+        ByteBuf ackBuf = allocate(Http2Codec.PROTOCOL_HEADER);
+        writeFrameHeader(ackBuf, 0, Http2FrameType.FRAME_TYPE_SETTINGS, 0x1, 0);
+        flush(ackBuf);
+        requestWrite();
+    }
+
+    private void applySettings(ByteBuf buf) throws Http2Exception {
+        if (buf.remaining() % 6 != 0) {
+            throw connectionError(FRAME_SIZE_ERROR, "illegal SETTINGS length");
+        }
+        synchronized (this) {
+            while (buf.hasRemaining()) {
+                int key = buf.getUnsignedShort();
+                long value = buf.getUnsignedInt();
+                switch (key) {
+                    case Http2SettingsFrame.SETTINGS_ENABLE_PUSH:
+                        if (value > 1) {
+                            throw connectionError(PROTOCOL_ERROR, "illegal ENABLE_PUSH");
+                        }
+                        break;
+                    case Http2SettingsFrame.SETTINGS_INITIAL_WINDOW_SIZE:
+                        if (value > MAX_WINDOW_SIZE) {
+                            throw connectionError(FLOW_CONTROL_ERROR,
+                                    "illegal INITIAL_WINDOW_SIZE");
+                        }
+                        long delta = value - remoteSettings[key];
+                        for (Http2Stream stream : streams.values()) {
+                            long window = stream.getSendWindow() + delta;
+                            if (window > MAX_WINDOW_SIZE) {
+                                throw connectionError(FLOW_CONTROL_ERROR, "stream window overflow");
+                            }
+                            stream.setSendWindow(window);
+                        }
+                        break;
+                    case Http2SettingsFrame.SETTINGS_MAX_FRAME_SIZE:
+                        if (value < DEFAULT_MAX_FRAME_SIZE || value > MAX_FRAME_SIZE) {
+                            throw connectionError(PROTOCOL_ERROR, "illegal MAX_FRAME_SIZE");
+                        }
+                        break;
+                    default:
+                        break;
+                }
+                // 未知的setting需要忽略
+                if (key > 0 && key < remoteSettings.length) {
+                    remoteSettings[key] = value;
+                }
+            }
+        }
+    }
+
+    public void onPing(long data, boolean ack) {
+        if (ack) {
+            return;
+        }
+        ByteBuf buf = allocate(Http2Codec.PROTOCOL_HEADER + 8);
+        writeFrameHeader(buf, 8, Http2FrameType.FRAME_TYPE_PING, 0x1, 0);
+        buf.putLong(data);
+        flush(buf);
+    }
+
+    public void onGoAway(int lastStreamId, long errorCode) {
+        goaway = true;
+        if (getStreamSize() == 0) {
+            CloseUtil.close(channel);
+        }
+    }
+
+    /**
+     * 发送RST_STREAM并关闭stream
+     */
+    public void resetStream(int streamId, Http2Error error) {
+        synchronized (this) {
+            Http2Stream stream = streams.get(streamId);
+            if (stream != null) {
+                removeStream(stream);
+            }
+        }
+        ByteBuf buf = allocate(Http2Codec.PROTOCOL_HEADER + 4);
+        writeFrameHeader(buf, 4, Http2FrameType.FRAME_TYPE_RST_STREAM, 0, streamId);
+        buf.putUnsignedInt(error.code());
+        flush(buf);
+    }
+
+    /**
+     * 发送GOAWAY，之后不再处理新的stream
+     */
+    public void goAway(Http2Error error) {
+        goaway = true;
+        ByteBuf buf = allocate(Http2Codec.PROTOCOL_HEADER + 8);
+        writeFrameHeader(buf, 8, Http2FrameType.FRAME_TYPE_GOAWAY, 0, 0);
+        buf.putInt(lastStreamId);
+        buf.putUnsignedInt(error.code());
+        flush(buf);
+    }
+
+    /**
+     * 编码响应的HEADERS，没有其它stream在等待发送时同时编码第一轮DATA，
+     * 剩余的DATA暂存在stream中，由Http2WriteScheduler在HEADERS写出之后按优先级发送
+     */
+    public synchronized ByteBuf encodeResponse(ServerHttp2Future f, byte[] array, int length)
+            throws IOException {
+        Http2Stream stream = f.getStream();
+        if (stream.isClosed() || stream.getState() == Http2Stream.STATE_HALF_CLOSED_LOCAL) {
+            // stream已经被reset或者已经响应过
+            return allocate(0).flip();
+        }
+        ByteBuf block = encodeHeaderBlock(f, length);
+        int maxFrameSize = (int) remoteSettings[Http2SettingsFrame.SETTINGS_MAX_FRAME_SIZE];
+        int send = 0;
+        if (writingData == null && scheduler.isEmpty()) {
+            long window = Math.min(Math.min(sendWindow, stream.getSendWindow()),
+                    codec.getWriteQuantum());
+            send = (int) Math.max(0, Math.min(length, window));
+        }
+        int dataFrames = (send + maxFrameSize - 1) / maxFrameSize;
+        ByteBuf buf = allocate(headersSize(block) + Http2Codec.PROTOCOL_HEADER * dataFrames + send);
+        writeHeaders(buf, stream, block, length == 0);
+        if (length == 0) {
+            endLocal(stream);
+        } else {
+            writeData(buf, stream, array, 0, send, length);
+        }
+        return buf.flip();
+    }
+
+    /**
+     * 编码响应的HEADERS，响应体为文件的[position, position + length)，DATA全部由
+     * Http2WriteScheduler在HEADERS写出之后按优先级发送，每一轮只读取本轮发送的部分，
+     * 文件由stream负责关闭
+     */
+    public synchronized ByteBuf encodeResponse(ServerHttp2Future f, FileChannel file,
+            long position, long length) throws IOException {
+        Http2Stream stream = f.getStream();
+        if (stream.isClosed() || stream.getState() == Http2Stream.STATE_HALF_CLOSED_LOCAL) {
+            CloseUtil.close(file);
+            return allocate(0).flip();
+        }
+        ByteBuf block;
+        try {
+            block = encodeHeaderBlock(f, length);
+        } catch (IOException e) {
+            CloseUtil.close(file);
+            throw e;
+        }
+        ByteBuf buf = allocate(headersSize(block));
+        writeHeaders(buf, stream, block, length == 0);
+        stream.setPendingFile(file, position, length);
+        if (length == 0) {
+            endLocal(stream);
+        } else {
+            scheduler.add(stream);
+        }
+        return buf.flip();
+    }
+
+    private int headersSize(ByteBuf block) {
+        int maxFrameSize = (int) remoteSettings[Http2SettingsFrame.SETTINGS_MAX_FRAME_SIZE];
+        int headerFrames = Math.max(1, (block.remaining() + maxFrameSize - 1) / maxFrameSize);
+        return Http2Codec.PROTOCOL_HEADER * headerFrames + block.remaining();
+    }
+
+    // header block超过对端的MAX_FRAME_SIZE时拆分为HEADERS和CONTINUATION
+    private void writeHeaders(ByteBuf buf, Http2Stream stream, ByteBuf block, boolean endStream) {
+        int blockLength = block.remaining();
+        int maxFrameSize = (int) remoteSettings[Http2SettingsFrame.SETTINGS_MAX_FRAME_SIZE];
+        int headerFrames = Math.max(1, (blockLength + maxFrameSize - 1) / maxFrameSize);
+        byte[] blockArray = new byte[blockLength];
+        block.get(blockArray);
+        for (int i = 0; i < headerFrames; i++) {
+            int off = i * maxFrameSize;
+            int len = Math.min(maxFrameSize, blockLength - off);
+            int flags = i == headerFrames - 1 ? Http2HeadersFrame.FLAG_END_HEADERS : 0;
+            if (i == 0) {
+                if (endStream) {
+                    flags |= Http2HeadersFrame.FLAG_END_STREAM;
+                }
+                writeFrameHeader(buf, len, Http2FrameType.FRAME_TYPE_HEADERS, flags,
+                        stream.getId());
+            } else {
+                writeFrameHeader(buf, len, Http2FrameType.FRAME_TYPE_CONTINUATION, flags,
+                        stream.getId());
+            }
+            buf.put(blockArray, off, len);
+        }
+    }
+
+    // 写出[off, off + send)，全部写完(off + send == end)时设置END_STREAM，否则剩余部分暂存
+    private void writeData(ByteBuf buf, Http2Stream stream, byte[] array, int off, int send,
+            int end) {
+        int maxFrameSize = (int) remoteSettings[Http2SettingsFrame.SETTINGS_MAX_FRAME_SIZE];
+        int sendEnd = off + send;
+        for (int i = off; i < sendEnd;) {
+            int len = Math.min(maxFrameSize, sendEnd - i);
+            int flags = i + len == end ? Http2HeadersFrame.FLAG_END_STREAM : 0;
+            writeFrameHeader(buf, len, Http2FrameType.FRAME_TYPE_DATA, flags, stream.getId());
+            buf.put(array, i, len);
+            i += len;
+        }
+        stream.setPending(array, sendEnd, end);
+        sent(stream, send, sendEnd == end);
+    }
+
+    // 从文件中读取send字节写出为DATA帧，读取失败时buf恢复到写入之前
+    private void writeFileData(ByteBuf buf, Http2Stream stream, int send) throws IOException {
+        int maxFrameSize = (int) remoteSettings[Http2SettingsFrame.SETTINGS_MAX_FRAME_SIZE];
+        FileChannel file = stream.getPendingFile();
+        long position = stream.getPendingPosition();
+        long size = stream.getPendingSize();
+        int bufPosition = buf.position();
+        int bufLimit = buf.limit();
+        try {
+            for (int i = 0; i < send;) {
+                int len = Math.min(maxFrameSize, send - i);
+                int flags = i + len == size ? Http2HeadersFrame.FLAG_END_STREAM : 0;
+                writeFrameHeader(buf, len, Http2FrameType.FRAME_TYPE_DATA, flags,
+                        stream.getId());
+                buf.limit(buf.position() + len);
+                for (; buf.hasRemaining();) {
+                    int n = file.read(buf.nioBuffer(), position + i);
+                    if (n <= 0) {
+                        throw new IOException("file truncated, position: " + (position + i));
+                    }
+                    buf.reverse();
+                    i += n;
                 }
-                session = new Http2Session();
-                channel.setAttribute(http2SessionChannelKey, session);
+                buf.limit(bufLimit);
             }
+        } catch (IOException e) {
+            buf.limit(bufLimit);
+            buf.position(bufPosition);
+            throw e;
+        }
+        stream.setPendingFile(file, position + send, size - send);
+        sent(stream, send, send == size);
+    }
+
+    // 扣除窗口，发送完成的stream结束本端，否则继续等待调度
+    private void sent(Http2Stream stream, int send, boolean end) {
+        sendWindow -= send;
+        stream.setSendWindow(stream.getSendWindow() - send);
+        if (end) {
+            scheduler.remove(stream);
+            endLocal(stream);
+        } else {
+            scheduler.add(stream);
+        }
+        if (send > 0) {
+            scheduler.sent(stream, send);
+        }
+    }
+
+    private void endLocal(Http2Stream stream) {
+        stream.closeLocal();
+        if (stream.isClosed()) {
+            removeStream(stream);
+        }
+    }
+
+    private void removeStream(Http2Stream stream) {
+        stream.close();
+        if (streams.remove(stream.getId()) != null && (stream.getId() & 1) == 0) {
+            pushedStreams--;
+        }
+        scheduler.remove(stream);
+    }
+
+    // 对端只使用静态表(动态表大小为0)，这样header block之间没有依赖，
+    // 业务线程中编码的响应即使和其它响应交换了写出顺序也不会破坏对端的hpack状态
+    private ByteBuf encodeHeaderBlock(ServerHttp2Future f, long length) throws Http2Exception {
+        Http2HeadersImpl status = new Http2HeadersImpl();
+        status.status(String.valueOf(f.getStatus().getStatus()));
+        Http2HeadersImpl headers = new Http2HeadersImpl();
+        int size = 64;
+        for (Entry<String, String> e : f.getResponseHeaders().entrySet()) {
+            String name = e.getKey();
+            if (e.getValue() == null || Http2Codec.isConnectionHeader(name)) {
+                continue;
+            }
+            headers.add(name.toLowerCase(), e.getValue());
+            size += (name.length() + e.getValue().length()) * 3 + 16;
+        }
+        headers.add("content-length", String.valueOf(length));
+        List<Cookie> cookieList = f.getCookieList();
+        if (cookieList != null) {
+            for (Cookie c : cookieList) {
+                size += c.toString().length() * 3 + 32;
+            }
+        }
+        ByteBuf out = allocateHeaderBlock(size);
+        encoder.encodeHeaders(out, status, Http2HeadersEncoder.NEVER_SENSITIVE);
+        encoder.encodeHeaders(out, headers, Http2HeadersEncoder.NEVER_SENSITIVE);
+        if (cookieList != null) {
+            for (Cookie c : cookieList) {
+                Http2HeadersImpl cookie = new Http2HeadersImpl();
+                cookie.add("set-cookie", c.toString());
+                encoder.encodeHeaders(out, cookie, Http2HeadersEncoder.NEVER_SENSITIVE);
+            }
+        }
+        return out.flip();
+    }
+
+    // 第一个header block中通知对端动态表大小为0
+    private ByteBuf allocateHeaderBlock(int size) throws Http2Exception {
+        ByteBuf out = UnpooledByteBufAllocator.getHeap().allocate(size);
+        if (!encoderInitialized) {
+            encoderInitialized = true;
+            encoder.setMaxHeaderTableSize(out, 0);
+        }
+        return out;
+    }
+
+    /**
+     * 在parent所在的stream上发送PUSH_PROMISE，返回被推送的GET请求，调用方像普通请求一样
+     * 响应它，必须在响应parent之前调用。对端禁用了push、推送的stream超出对端的并发数
+     * 或者parent已经响应过时返回null
+     */
+    public ServerHttp2Future push(ServerHttp2Future parent, String path) throws IOException {
+        Http2HeadersImpl headers = new Http2HeadersImpl();
+        headers.method("GET");
+        headers.scheme(channel.isEnableSsl() ? "https" : "http");
+        if (parent.getHost() != null) {
+            headers.authority(parent.getHost());
+        }
+        headers.path(path);
+        String acceptEncoding = parent.getRequestHeader(HttpHeader.Req_Accept_Encoding);
+        if (acceptEncoding != null) {
+            headers.add(HttpHeader.Req_Accept_Encoding, acceptEncoding);
+        }
+        Http2Stream p = parent.getStream();
+        ServerHttp2Future future;
+        ByteBuf buf;
+        synchronized (this) {
+            long maxStreams = remoteSettings[Http2SettingsFrame.SETTINGS_MAX_CONCURRENT_STREAMS];
+            if (goaway || p.isClosed() || p.getState() == Http2Stream.STATE_HALF_CLOSED_LOCAL
+                    || remoteSettings[Http2SettingsFrame.SETTINGS_ENABLE_PUSH] == 0
+                    || pushedStreams >= maxStreams) {
+                return null;
+            }
+            ByteBuf block = allocateHeaderBlock(64 + path.length() * 2);
+            encoder.encodeHeaders(block, headers, Http2HeadersEncoder.NEVER_SENSITIVE);
+            block.flip();
+            int len = block.remaining() + 4;
+            if (len > remoteSettings[Http2SettingsFrame.SETTINGS_MAX_FRAME_SIZE]) {
+                return null;
+            }
+            int streamId = nextPushStreamId;
+            nextPushStreamId += 2;
+            buf = allocate(Http2Codec.PROTOCOL_HEADER + len);
+            writeFrameHeader(buf, len, Http2FrameType.FRAME_TYPE_PUSH_PROMISE,
+                    Http2HeadersFrame.FLAG_END_HEADERS, p.getId());
+            buf.putInt(streamId);
+            buf.read(block);
+            // reserved(local)，对端不会在该stream上发送数据，等同于half closed(remote)
+            Http2Stream stream = new Http2Stream(streamId,
+                    remoteSettings[Http2SettingsFrame.SETTINGS_INITIAL_WINDOW_SIZE],
+                    codec.getInitialWindowSize());
+            future = new ServerHttp2Future(channel, stream, headers);
+            stream.open(future, true);
+            stream.setUrgency(p.getUrgency());
+            streams.put(streamId, stream);
+            pushedStreams++;
+        }
+        flush(buf);
+        return future;
+    }
+
+    // futureWritten在channel写出的过程中被调用，此时不能再flush，所以下一轮放到EventLoop的任务中
+    private void requestWrite() {
+        synchronized (this) {
+            if (writeTaskPending || writingData != null || scheduler.isEmpty()) {
+                return;
+            }
+            writeTaskPending = true;
+        }
+        // 在EventLoop的任务中追加的任务要到下一次select之后才执行，wakeup避免select阻塞
+        NioEventLoop eventLoop = channel.getEventLoop();
+        eventLoop.dispatchAfterLoop(writeTask);
+        eventLoop.wakeup();
+    }
+
+    /**
+     * 发送一轮DATA：每次从调度器中选出一个stream发送一帧(不超过对端的MAX_FRAME_SIZE)，
+     * 多个stream的帧交错排列，每轮最多writeQuantum字节，这一轮写出之后再调度下一轮，
+     * 这样后到达的高优先级响应最多等待一轮，只在EventLoop中调用
+     */
+    private void writeTurn() {
+        Future future = null;
+        List<Http2Stream> failed = null;
+        synchronized (this) {
+            writeTaskPending = false;
+            if (writingData != null) {
+                return;
+            }
+            int maxFrameSize = (int) remoteSettings[Http2SettingsFrame.SETTINGS_MAX_FRAME_SIZE];
+            int quantum = codec.getWriteQuantum();
+            ByteBuf buf = null;
+            while (quantum > 0 && sendWindow > 0) {
+                Http2Stream stream = scheduler.next();
+                if (stream == null) {
+                    break;
+                }
+                long window = Math.min(sendWindow, stream.getSendWindow());
+                int send = (int) Math.min(Math.min(stream.getPendingSize(), maxFrameSize),
+                        Math.min(window, quantum));
+                if (buf == null) {
+                    // 每个stream最多有一帧不满maxFrameSize，其它的帧都是满的
+                    int frames = scheduler.size() + quantum / maxFrameSize + 1;
+                    buf = allocate(Http2Codec.PROTOCOL_HEADER * frames
+                            + (int) Math.min(quantum, sendWindow));
+                }
+                if (stream.getPendingFile() == null) {
+                    writeData(buf, stream, stream.getPendingArray(), stream.getPendingOff(),
+                            send, stream.getPendingEnd());
+                } else {
+                    try {
+                        writeFileData(buf, stream, send);
+                    } catch (IOException e) {
+                        // 读取文件失败时只reset这个stream
+                        removeStream(stream);
+                        if (failed == null) {
+                            failed = new ArrayList<>(1);
+                        }
+                        failed.add(stream);
+                        continue;
+                    }
+                }
+                quantum -= send;
+            }
+            if (buf != null && buf.position() == 0) {
+                buf.release(buf.getReleaseVersion());
+            } else if (buf != null) {
+                future = writingData = new DefaultFuture(buf.flip());
+            }
+        }
+        if (future != null) {
+            channel.flushFuture(future);
+        }
+        // RST_STREAM要在这个stream已经编码的DATA之后
+        if (failed != null) {
+            for (Http2Stream stream : failed) {
+                resetStream(stream.getId(), Http2Error.INTERNAL_ERROR);
+            }
+        }
+    }
+
+    @Override
+    public void futureWritten(NioSocketChannel channel, Future future) {
+        synchronized (this) {
+            if (future == writingData) {
+                writingData = null;
+            } else if (future instanceof ServerHttp2Future) {
+                ((ServerHttp2Future) future).getStream().setHeadWritten(true);
+            } else {
+                return;
+            }
+        }
+        requestWrite();
+    }
+
+    @Override
+    public void channelClosed(NioSocketChannel channel) {
+        synchronized (this) {
+            for (Http2Stream stream : streams.values()) {
+                stream.close();
+            }
+            streams.clear();
+            scheduler.clear();
+            writingData = null;
+        }
+    }
+
+    private ByteBuf allocate(int capacity) {
+        return channel.allocator().allocate(capacity);
+    }
+
+    private void flush(ByteBuf buf) {
+        channel.flushFuture(new DefaultFuture(buf.flip()));
+    }
+
+    private static void writeFrameHeader(ByteBuf buf, int length, Http2FrameType type, int flags,
+            int streamId) {
+        Http2Codec.writeFrameHeader(buf, length, type.getValue(), flags, streamId);
+    }
+
+    private static void writeWindowUpdate(ByteBuf buf, int streamId, int increment) {
+        writeFrameHeader(buf, 4, Http2FrameType.FRAME_TYPE_WINDOW_UPDATE, 0, streamId);
+        buf.putInt(increment);
+    }
+
+    private class WriteTask implements NioEventLoopTask {
+
+        @Override
+        public void fireEvent(NioEventLoop eventLoop) {
+            writeTurn();
+        }
+    }
+
+    public static Http2Session getHttp2Session(NioSocketChannel channel) {
+        Http2Session session = channel.getAttribute(http2SessionChannelKey);
+        if (session == null) {
+            session = new Http2Session(channel, (Http2Codec) channel.getProtocolCodec());
+            channel.setAttribute(http2SessionChannelKey, session);
         }
         return session;
     }
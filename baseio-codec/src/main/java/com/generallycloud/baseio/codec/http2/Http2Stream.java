@@ -0,0 +1,261 @@
+/*
+ * Copyright 2015-2017 GenerallyCloud.com
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *  
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.generallycloud.baseio.codec.http2;
+
+import java.nio.channels.FileChannel;
+
+import com.generallycloud.baseio.codec.http2.future.ServerHttp2Future;
+import com.generallycloud.baseio.common.CloseUtil;
+import com.generallycloud.baseio.component.ByteArrayOutputStream;
+
+/**
+ * 服务端的http2 stream，状态按照rfc7540 5.1迁移：
+ * <pre>
+ * idle --HEADERS--&gt; open
+ * open --recv END_STREAM--&gt; half closed(remote) --send END_STREAM--&gt; closed
+ * open --send END_STREAM--&gt; half closed(local) --recv END_STREAM--&gt; closed
+ * 任意状态 --RST_STREAM--&gt; closed
+ * </pre>
+ * 除了id之外的字段都在Http2Session的锁中访问
+ * @author wangkai
+ *
+ */
+public class Http2Stream {
+
+    public static final int       STATE_IDLE               = 0;
+    public static final int       STATE_OPEN               = 1;
+    public static final int       STATE_HALF_CLOSED_REMOTE = 2;
+    public static final int       STATE_HALF_CLOSED_LOCAL  = 3;
+    public static final int       STATE_CLOSED             = 4;
+
+    private ByteArrayOutputStream body;
+    private ServerHttp2Future     future;
+    private boolean               headWritten;
+    private final int             id;
+    private boolean               incremental              = true;
+    private byte[]                pendingArray;
+    private int                   pendingEnd;
+    private FileChannel           pendingFile;
+    private long                  pendingFileSize;
+    private int                   pendingOff;
+    private long                  pendingPosition;
+    private int                   recvUnacked;
+    private int                   recvWindow;
+    private long                  sendWindow;
+    private int                   state                    = STATE_IDLE;
+    private int                   urgency                  = Http2WriteScheduler.DEFAULT_URGENCY;
+    private long                  virtualTime;
+    private int                   weight                   = Http2WriteScheduler.DEFAULT_WEIGHT;
+
+    public Http2Stream(int id, long sendWindow, int recvWindow) {
+        this.id = id;
+        this.sendWindow = sendWindow;
+        this.recvWindow = recvWindow;
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public int getState() {
+        return state;
+    }
+
+    public ServerHttp2Future getFuture() {
+        return future;
+    }
+
+    public boolean isClosed() {
+        return state == STATE_CLOSED;
+    }
+
+    /**
+     * 是否还可以接收DATA或者HEADERS
+     */
+    public boolean isRemoteOpen() {
+        return state == STATE_OPEN || state == STATE_HALF_CLOSED_LOCAL;
+    }
+
+    public boolean hasPending() {
+        return pendingArray != null || pendingFile != null;
+    }
+
+    public long getPendingSize() {
+        if (pendingFile != null) {
+            return pendingFileSize;
+        }
+        return pendingEnd - pendingOff;
+    }
+
+    protected void open(ServerHttp2Future future, boolean endStream) {
+        this.future = future;
+        this.state = endStream ? STATE_HALF_CLOSED_REMOTE : STATE_OPEN;
+    }
+
+    protected void closeRemote() {
+        state = state == STATE_HALF_CLOSED_LOCAL ? STATE_CLOSED : STATE_HALF_CLOSED_REMOTE;
+    }
+
+    protected void closeLocal() {
+        state = state == STATE_HALF_CLOSED_REMOTE ? STATE_CLOSED : STATE_HALF_CLOSED_LOCAL;
+    }
+
+    protected void close() {
+        state = STATE_CLOSED;
+        pendingArray = null;
+        setPendingFile(null, 0, 0);
+        body = null;
+    }
+
+    protected ByteArrayOutputStream getBody() {
+        return body;
+    }
+
+    protected void appendBody(byte[] array, int off, int len) {
+        if (body == null) {
+            body = new ByteArrayOutputStream(Math.max(len, 256));
+        }
+        body.write(array, off, len);
+    }
+
+    protected void clearBody() {
+        body = null;
+    }
+
+    protected int getBodySize() {
+        return body == null ? 0 : body.size();
+    }
+
+    protected boolean isHeadWritten() {
+        return headWritten;
+    }
+
+    protected void setHeadWritten(boolean headWritten) {
+        this.headWritten = headWritten;
+    }
+
+    protected byte[] getPendingArray() {
+        return pendingArray;
+    }
+
+    protected int getPendingOff() {
+        return pendingOff;
+    }
+
+    protected int getPendingEnd() {
+        return pendingEnd;
+    }
+
+    protected void setPending(byte[] array, int off, int end) {
+        if (off == end) {
+            this.pendingArray = null;
+            this.pendingOff = 0;
+            this.pendingEnd = 0;
+            return;
+        }
+        this.pendingArray = array;
+        this.pendingOff = off;
+        this.pendingEnd = end;
+    }
+
+    protected FileChannel getPendingFile() {
+        return pendingFile;
+    }
+
+    protected long getPendingPosition() {
+        return pendingPosition;
+    }
+
+    /**
+     * 待发送的DATA来自文件的[position, position + size)，每一轮只读取本轮发送的部分，
+     * size为0或者stream关闭时关闭文件
+     */
+    protected void setPendingFile(FileChannel file, long position, long size) {
+        if (size == 0) {
+            if (pendingFile != null && pendingFile != file) {
+                CloseUtil.close(pendingFile);
+            }
+            CloseUtil.close(file);
+            file = null;
+            position = 0;
+        }
+        this.pendingFile = file;
+        this.pendingPosition = position;
+        this.pendingFileSize = size;
+    }
+
+    protected int getRecvUnacked() {
+        return recvUnacked;
+    }
+
+    protected void setRecvUnacked(int recvUnacked) {
+        this.recvUnacked = recvUnacked;
+    }
+
+    protected int getRecvWindow() {
+        return recvWindow;
+    }
+
+    protected void setRecvWindow(int recvWindow) {
+        this.recvWindow = recvWindow;
+    }
+
+    protected long getSendWindow() {
+        return sendWindow;
+    }
+
+    protected void setSendWindow(long sendWindow) {
+        this.sendWindow = sendWindow;
+    }
+
+    public int getUrgency() {
+        return urgency;
+    }
+
+    public int getWeight() {
+        return weight;
+    }
+
+    public boolean isIncremental() {
+        return incremental;
+    }
+
+    protected void setUrgency(int urgency) {
+        this.urgency = urgency;
+    }
+
+    protected void setWeight(int weight) {
+        this.weight = weight;
+    }
+
+    protected void setIncremental(boolean incremental) {
+        this.incremental = incremental;
+    }
+
+    protected long getVirtualTime() {
+        return virtualTime;
+    }
+
+    protected void setVirtualTime(long virtualTime) {
+        this.virtualTime = virtualTime;
+    }
+
+    @Override
+    public String toString() {
+        return "stream-" + id + "[" + state + "]";
+    }
+
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright 2015-2017 GenerallyCloud.com
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *  
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.generallycloud.baseio.codec.http2;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 一个连接上等待发送DATA的stream的调度器：
+ * <ul>
+ * <li>urgency(rfc9218，0最高)小的stream优先发送</li>
+ * <li>同一urgency中按照虚拟时间加权公平排队，incremental的stream每发送n字节，
+ * 虚拟时间增加 n * 256 / weight，weight越大分到的带宽越多</li>
+ * <li>非incremental的stream虚拟时间不变，会一直发送到完成，多个之间按照到达顺序串行</li>
+ * </ul>
+ * rfc7540的依赖树已经被rfc9113废弃，这里只使用其中的weight，
+ * 所有方法都在Http2Session的锁中调用
+ * @author wangkai
+ *
+ */
+public class Http2WriteScheduler {
+
+    public static final int         DEFAULT_URGENCY = 3;
+    public static final int         DEFAULT_WEIGHT  = 16;
+    public static final int         MAX_URGENCY     = 7;
+    public static final int         MAX_WEIGHT      = 256;
+
+    private final List<Http2Stream> streams         = new ArrayList<>();
+    // 每个urgency最近一次被调度的虚拟时间，新加入的stream从这里开始，不会饿死已有的stream
+    private final long[]            virtualTimes    = new long[MAX_URGENCY + 1];
+
+    public void add(Http2Stream stream) {
+        if (streams.contains(stream)) {
+            return;
+        }
+        stream.setVirtualTime(virtualTimes[stream.getUrgency()]);
+        streams.add(stream);
+    }
+
+    public void remove(Http2Stream stream) {
+        streams.remove(stream);
+    }
+
+    public void clear() {
+        streams.clear();
+    }
+
+    public boolean isEmpty() {
+        return streams.isEmpty();
+    }
+
+    public int size() {
+        return streams.size();
+    }
+
+    /**
+     * 修改stream的优先级，urgency变化时stream从新urgency的当前虚拟时间开始
+     */
+    public void setPriority(Http2Stream stream, int urgency, boolean incremental) {
+        if (stream.getUrgency() != urgency) {
+            stream.setUrgency(urgency);
+            stream.setVirtualTime(virtualTimes[urgency]);
+        }
+        stream.setIncremental(incremental);
+    }
+
+    /**
+     * 选出下一个发送的stream，只考虑HEADERS已经写出并且stream窗口大于0的stream，
+     * 没有可以发送的stream时返回null
+     */
+    public Http2Stream next() {
+        Http2Stream next = null;
+        for (int i = 0, size = streams.size(); i < size; i++) {
+            Http2Stream s = streams.get(i);
+            if (!s.isHeadWritten() || s.getSendWindow() <= 0) {
+                continue;
+            }
+            if (next == null || before(s, next)) {
+                next = s;
+            }
+        }
+        return next;
+    }
+
+    private static boolean before(Http2Stream a, Http2Stream b) {
+        if (a.getUrgency() != b.getUrgency()) {
+            return a.getUrgency() < b.getUrgency();
+        }
+        if (a.getVirtualTime() != b.getVirtualTime()) {
+            return a.getVirtualTime() < b.getVirtualTime();
+        }
+        return a.getId() < b.getId();
+    }
+
+    /**
+     * stream发送了length字节DATA之后调用
+     */
+    public void sent(Http2Stream stream, int length) {
+        virtualTimes[stream.getUrgency()] = stream.getVirtualTime();
+        if (stream.isIncremental()) {
+            stream.setVirtualTime(
+                    stream.getVirtualTime() + (long) length * MAX_WEIGHT / stream.getWeight());
+        }
+    }
+
+    /**
+     * 解析rfc9218的Priority请求头，例如"u=1, i"，不合法的参数被忽略，
+     * 带有Priority头时incremental默认为false
+     */
+    public void parsePriority(Http2Stream stream, String priority) {
+        int urgency = stream.getUrgency();
+        boolean incremental = false;
+        for (String s : priority.split(",")) {
+            s = s.trim();
+            if (s.startsWith("u=")) {
+                try {
+                    int u = Integer.parseInt(s.substring(2).trim());
+                    if (u >= 0 && u <= MAX_URGENCY) {
+                        urgency = u;
+                    }
+                } catch (NumberFormatException e) {
+                    // ignore
+                }
+            } else if ("i".equals(s) || "i=?1".equals(s)) {
+                incremental = true;
+            }
+        }
+        setPriority(stream, urgency, incremental);
+    }
+
+}
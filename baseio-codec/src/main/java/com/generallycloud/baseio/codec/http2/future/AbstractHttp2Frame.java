@@ -15,8 +15,19 @@
  */
 package com.generallycloud.baseio.codec.http2.future;
 
+import java.io.IOException;
+
+import com.generallycloud.baseio.buffer.ByteBuf;
+import com.generallycloud.baseio.codec.http2.Http2Session;
+import com.generallycloud.baseio.component.NioSocketChannel;
 import com.generallycloud.baseio.protocol.AbstractFuture;
 
+/**
+ * 读取完整的payload之后交给doComplete处理，处理结果直接作用在Http2Session上，
+ * 帧本身不会交给IoEventHandle
+ * @author wangkai
+ *
+ */
 public abstract class AbstractHttp2Frame extends AbstractFuture implements SocketHttp2Frame {
 
     private Http2FrameHeader header;
@@ -25,9 +36,41 @@ public abstract class AbstractHttp2Frame extends AbstractFuture implements Socke
         this.header = header;
     }
 
+    protected AbstractHttp2Frame(ByteBuf buf, Http2FrameHeader header) {
+        this.header = header;
+        this.setByteBuf(buf);
+    }
+
+    protected abstract void doComplete(NioSocketChannel channel, Http2Session session,
+            ByteBuf buf) throws IOException;
+
     @Override
     public Http2FrameHeader getHeader() {
         return header;
     }
 
+    protected int getStreamIdentifier() {
+        return header.getStreamIdentifier();
+    }
+
+    protected boolean hasFlag(int flag) {
+        return (header.getFlags() & flag) != 0;
+    }
+
+    @Override
+    public boolean isSilent() {
+        return true;
+    }
+
+    @Override
+    public boolean read(NioSocketChannel channel, ByteBuf buffer) throws IOException {
+        ByteBuf buf = getByteBuf();
+        buf.read(buffer);
+        if (buf.hasRemaining()) {
+            return false;
+        }
+        doComplete(channel, Http2Session.getHttp2Session(channel), buf.flip());
+        return true;
+    }
+
 }
@@ -0,0 +1,68 @@
+/*
+ * Copyright 2015-2017 GenerallyCloud.com
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *  
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.generallycloud.baseio.codec.http2.future;
+
+import static com.generallycloud.baseio.codec.http2.hpack.Http2Error.PROTOCOL_ERROR;
+import static com.generallycloud.baseio.codec.http2.hpack.Http2Exception.connectionError;
+
+import java.io.IOException;
+
+import com.generallycloud.baseio.buffer.ByteBuf;
+import com.generallycloud.baseio.codec.http2.Http2Session;
+import com.generallycloud.baseio.component.NioSocketChannel;
+
+public class Http2DataFrameImpl extends AbstractHttp2Frame implements Http2DataFrame {
+
+    private boolean endStream;
+    private byte    padLength;
+
+    public Http2DataFrameImpl(ByteBuf buf, Http2FrameHeader header) {
+        super(buf, header);
+    }
+
+    @Override
+    protected void doComplete(NioSocketChannel channel, Http2Session session, ByteBuf buf)
+            throws IOException {
+        int frameLength = buf.limit();
+        this.endStream = hasFlag(FLAG_END_STREAM);
+        if (hasFlag(FLAG_PADDED)) {
+            padLength = buf.getByte();
+            int padding = padLength & 0xff;
+            if (padding > buf.remaining()) {
+                throw connectionError(PROTOCOL_ERROR, "illegal DATA padding");
+            }
+            buf.limit(buf.limit() - padding);
+        }
+        // 流量控制按照整个帧的长度(包括padding)计算
+        session.onData(getStreamIdentifier(), frameLength, buf, endStream);
+    }
+
+    @Override
+    public Http2FrameType getHttp2FrameType() {
+        return Http2FrameType.FRAME_TYPE_DATA;
+    }
+
+    @Override
+    public boolean isEndStream() {
+        return endStream;
+    }
+
+    @Override
+    public byte getPadLength() {
+        return padLength;
+    }
+
+}
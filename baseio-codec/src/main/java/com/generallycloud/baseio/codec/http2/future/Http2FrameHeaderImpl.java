@@ -15,9 +15,15 @@
  */
 package com.generallycloud.baseio.codec.http2.future;
 
+import static com.generallycloud.baseio.codec.http2.hpack.Http2Error.FRAME_SIZE_ERROR;
+import static com.generallycloud.baseio.codec.http2.hpack.Http2Error.PROTOCOL_ERROR;
+import static com.generallycloud.baseio.codec.http2.hpack.Http2Exception.connectionError;
+
 import java.io.IOException;
 
 import com.generallycloud.baseio.buffer.ByteBuf;
+import com.generallycloud.baseio.codec.http2.Http2Session;
+import com.generallycloud.baseio.codec.http2.hpack.Http2Exception;
 import com.generallycloud.baseio.common.MathUtil;
 import com.generallycloud.baseio.component.NioEventLoop;
 import com.generallycloud.baseio.component.NioSocketChannel;
@@ -39,7 +45,7 @@ public class Http2FrameHeaderImpl extends AbstractFuture implements Http2FrameHe
 
     public Http2FrameHeaderImpl() {}
 
-    private void doHeaderComplete(NioSocketChannel channel, ByteBuf buf) {
+    private void doHeaderComplete(NioSocketChannel channel, ByteBuf buf) throws IOException {
         byte b0 = buf.getByte();
         byte b1 = buf.getByte();
         byte b2 = buf.getByte();
@@ -47,21 +53,43 @@ public class Http2FrameHeaderImpl extends AbstractFuture implements Http2FrameHe
         int type = buf.getUnsignedByte();
         this.flags = buf.getByte();
         this.streamIdentifier = MathUtil.int2int31(buf.getInt());
+        Http2Session session = Http2Session.getHttp2Session(channel);
+        if (length > session.getLocalSettings(Http2SettingsFrame.SETTINGS_MAX_FRAME_SIZE)) {
+            throw connectionError(FRAME_SIZE_ERROR, "frame length %d", length);
+        }
+        // header block必须是连续的帧(rfc7540 6.10)
+        if (session.getHeaderBlockStreamId() != 0
+                && type != Http2FrameType.FRAME_TYPE_CONTINUATION.getValue()) {
+            throw connectionError(PROTOCOL_ERROR, "expected CONTINUATION");
+        }
         this.frame = genFrame(channel, type, length);
     }
 
+    /**
+     * stream级别的错误回复RST_STREAM后继续处理后续的帧，连接级别的错误发送GOAWAY后关闭连接
+     */
     @Override
     public boolean read(NioSocketChannel channel, ByteBuf buffer) throws IOException {
-        ByteBuf buf = getByteBuf();
-        if (!header_complete) {
-            buf.read(buffer);
-            if (buf.hasRemaining()) {
-                return false;
+        try {
+            ByteBuf buf = getByteBuf();
+            if (!header_complete) {
+                buf.read(buffer);
+                if (buf.hasRemaining()) {
+                    return false;
+                }
+                header_complete = true;
+                doHeaderComplete(channel, buf.flip());
+            }
+            return frame.read(channel, buffer);
+        } catch (Http2Exception e) {
+            Http2Session session = Http2Session.getHttp2Session(channel);
+            if (Http2Exception.isStreamError(e)) {
+                session.resetStream(Http2Exception.streamId(e), e.error());
+                return true;
             }
-            header_complete = true;
-            doHeaderComplete(channel, buf.flip());
+            session.goAway(e.error());
+            throw e;
         }
-        return frame.read(channel, buffer);
     }
 
     @Override
@@ -71,7 +99,7 @@ public class Http2FrameHeaderImpl extends AbstractFuture implements Http2FrameHe
 
     @Override
     public boolean isSilent() {
-        return frame.isSilent();
+        return true;
     }
 
     @Override
@@ -89,47 +117,50 @@ public class Http2FrameHeaderImpl extends AbstractFuture implements Http2FrameHe
         return frame;
     }
 
-    private SocketHttp2Frame genFrame(NioSocketChannel channel, Http2FrameType type, int length) {
-        switch (type) {
+    private SocketHttp2Frame genFrame(NioSocketChannel channel, int type, int length)
+            throws IOException {
+        Http2FrameType frameType = Http2FrameType.getValue(type);
+        if (frameType == null) {
+            return new Http2UnknownFrameImpl(allocate(channel, length), this);
+        }
+        switch (frameType) {
             case FRAME_TYPE_CONTINUATION:
-                break;
+                return new Http2ContinuationFrameImpl(allocate(channel, length), this);
             case FRAME_TYPE_DATA:
-                break;
+                return new Http2DataFrameImpl(allocate(channel, length), this);
             case FRAME_TYPE_GOAWAY:
-                break;
+                return new Http2GoAwayFrameImpl(allocate(channel, length), this);
             case FRAME_TYPE_HEADERS:
                 return new Http2HeadersFrameImpl(allocate(channel, length), this);
             case FRAME_TYPE_PING:
-                break;
+                return new Http2PingFrameImpl(allocate(channel, length), this);
             case FRAME_TYPE_PRIORITY:
-                break;
+                return new Http2PriorityFrameImpl(allocate(channel, length), this);
             case FRAME_TYPE_PUSH_PROMISE:
-                break;
+                // 客户端不能发送PUSH_PROMISE(rfc7540 8.2)
+                throw connectionError(PROTOCOL_ERROR, "PUSH_PROMISE from client");
             case FRAME_TYPE_RST_STREAM:
-                break;
+                return new Http2RstStreamFrameImpl(allocate(channel, length), this);
             case FRAME_TYPE_SETTINGS:
                 return new Http2SettingsFrameImpl(allocate(channel, length), this);
             case FRAME_TYPE_WINDOW_UPDATE:
                 return new Http2WindowUpdateFrameImpl(allocate(channel, length), this);
             default:
-                break;
+                return new Http2UnknownFrameImpl(allocate(channel, length), this);
         }
-        throw new IllegalArgumentException(type.toString());
-    }
-
-    private SocketHttp2Frame genFrame(NioSocketChannel channel, int type, int length) {
-        return genFrame(channel, Http2FrameType.getValue(type), length);
     }
 
     @Override
     public void release(NioEventLoop eventLoop) {
         super.release(eventLoop);
-        frame.release(eventLoop);
+        if (frame != null) {
+            frame.release(eventLoop);
+        }
     }
 
     @Override
     public boolean isReleased() {
-        return frame.isReleased() && getByteBuf().isReleased();
+        return (frame == null || frame.isReleased()) && getByteBuf().isReleased();
     }
 
 }
@@ -0,0 +1,68 @@
+/*
+ * Copyright 2015-2017 GenerallyCloud.com
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *  
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.generallycloud.baseio.codec.http2.future;
+
+import static com.generallycloud.baseio.codec.http2.hpack.Http2Error.FRAME_SIZE_ERROR;
+import static com.generallycloud.baseio.codec.http2.hpack.Http2Error.PROTOCOL_ERROR;
+import static com.generallycloud.baseio.codec.http2.hpack.Http2Exception.connectionError;
+
+import java.io.IOException;
+
+import com.generallycloud.baseio.buffer.ByteBuf;
+import com.generallycloud.baseio.codec.http2.Http2Session;
+import com.generallycloud.baseio.common.MathUtil;
+import com.generallycloud.baseio.component.NioSocketChannel;
+
+public class Http2GoAwayFrameImpl extends AbstractHttp2Frame implements Http2GoAwayFrame {
+
+    private long errorCode;
+    private int  lastStreamId;
+
+    public Http2GoAwayFrameImpl(ByteBuf buf, Http2FrameHeader header) {
+        super(buf, header);
+    }
+
+    @Override
+    protected void doComplete(NioSocketChannel channel, Http2Session session, ByteBuf buf)
+            throws IOException {
+        if (getStreamIdentifier() != 0) {
+            throw connectionError(PROTOCOL_ERROR, "GOAWAY on stream %d", getStreamIdentifier());
+        }
+        if (buf.limit() < 8) {
+            throw connectionError(FRAME_SIZE_ERROR, "illegal GOAWAY length");
+        }
+        // 忽略剩余的debug data
+        this.lastStreamId = MathUtil.int2int31(buf.getInt());
+        this.errorCode = buf.getUnsignedInt();
+        session.onGoAway(lastStreamId, errorCode);
+    }
+
+    @Override
+    public Http2FrameType getHttp2FrameType() {
+        return Http2FrameType.FRAME_TYPE_GOAWAY;
+    }
+
+    @Override
+    public int getLastStreamId() {
+        return lastStreamId;
+    }
+
+    @Override
+    public long getErrorCode() {
+        return errorCode;
+    }
+
+}
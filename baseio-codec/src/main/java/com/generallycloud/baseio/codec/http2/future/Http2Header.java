@@ -17,6 +17,8 @@ package com.generallycloud.baseio.codec.http2.future;
 
 public class Http2Header {
 
+    public static final int HEADER_ENTRY_OVERHEAD = 32;
+
     public Http2Header(String name, String value) {
         this(0, name, value);
     }
@@ -49,7 +51,10 @@ public class Http2Header {
         return size;
     }
 
+    /**
+     * 表项大小按RFC 7541 4.1计算，name和value的长度之和再加32字节的开销
+     */
     public static int sizeOf(String name, String value) {
-        return name.length() + value.length();
+        return name.length() + value.length() + HEADER_ENTRY_OVERHEAD;
     }
 }
@@ -24,6 +24,8 @@ public interface Http2HeadersFrame extends Http2Frame {
 
     public abstract boolean isE();
 
+    public abstract boolean isEndStream();
+
     public abstract int getStreamDependency();
 
     public abstract short getWeight();
@@ -15,35 +15,37 @@
  */
 package com.generallycloud.baseio.codec.http2.future;
 
+import static com.generallycloud.baseio.codec.http2.hpack.Http2Error.PROTOCOL_ERROR;
+import static com.generallycloud.baseio.codec.http2.hpack.Http2Exception.connectionError;
+
 import java.io.IOException;
 
 import com.generallycloud.baseio.buffer.ByteBuf;
 import com.generallycloud.baseio.codec.http2.Http2Session;
-import com.generallycloud.baseio.codec.http2.hpack.Decoder;
 import com.generallycloud.baseio.component.NioSocketChannel;
 
 public class Http2HeadersFrameImpl extends AbstractHttp2Frame implements Http2HeadersFrame {
 
-    private byte           padLength;
-    private boolean        e;
-    private int            streamDependency;
-    private short          weight;
-    private boolean        endStream;
-    private static Decoder decoder = new Decoder();
+    private byte    padLength;
+    private boolean e;
+    private int     streamDependency;
+    private short   weight;
+    private boolean endStream;
 
     public Http2HeadersFrameImpl(ByteBuf buf, Http2FrameHeader header) {
-        super(header);
-        this.setByteBuf(buf);
+        super(buf, header);
     }
 
-    private void doComplete(NioSocketChannel channel, ByteBuf buf) throws IOException {
-        Http2Session session = Http2Session.getHttp2Session(channel);
-        byte flags = getHeader().getFlags();
-        this.endStream = (flags & FLAG_END_STREAM) > 0;
-        if ((flags & FLAG_PADDED) > 0) {
+    @Override
+    protected void doComplete(NioSocketChannel channel, Http2Session session, ByteBuf buf)
+            throws IOException {
+        this.endStream = hasFlag(FLAG_END_STREAM);
+        int padding = 0;
+        if (hasFlag(FLAG_PADDED)) {
             padLength = buf.getByte();
+            padding = padLength & 0xff;
         }
-        if ((flags & FLAG_PRIORITY) > 0) {
+        if (hasFlag(FLAG_PRIORITY)) {
             streamDependency = buf.getInt();
             e = streamDependency < 0;
             if (e) {
@@ -51,23 +53,12 @@ public class Http2HeadersFrameImpl extends AbstractHttp2Frame implements Http2He
             }
             weight = buf.getUnsignedByte();
         }
-        decoder.decode(streamDependency, buf, session.getHttp2Headers());
-    }
-
-    @Override
-    public boolean read(NioSocketChannel channel, ByteBuf buffer) throws IOException {
-        ByteBuf buf = getByteBuf();
-        buf.read(buffer);
-        if (buf.hasRemaining()) {
-            return false;
+        if (padding > buf.remaining()) {
+            throw connectionError(PROTOCOL_ERROR, "illegal HEADERS padding");
         }
-        doComplete(channel, buf.flip());
-        return true;
-    }
-
-    @Override
-    public boolean isSilent() {
-        return !endStream;
+        buf.limit(buf.limit() - padding);
+        int w = hasFlag(FLAG_PRIORITY) ? weight + 1 : 0;
+        session.onHeaders(getStreamIdentifier(), buf, w, hasFlag(FLAG_END_HEADERS), endStream);
     }
 
     @Override
@@ -80,6 +71,11 @@ public class Http2HeadersFrameImpl extends AbstractHttp2Frame implements Http2He
         return e;
     }
 
+    @Override
+    public boolean isEndStream() {
+        return endStream;
+    }
+
     @Override
     public int getStreamDependency() {
         return streamDependency;
@@ -16,24 +16,20 @@
 package com.generallycloud.baseio.codec.http2.future;
 
 import java.io.IOException;
-import java.nio.ByteBuffer;
 
 import com.generallycloud.baseio.buffer.ByteBuf;
-import com.generallycloud.baseio.buffer.UnpooledByteBufAllocator;
 import com.generallycloud.baseio.codec.http2.Http2Session;
 import com.generallycloud.baseio.component.NioSocketChannel;
 import com.generallycloud.baseio.protocol.AbstractFuture;
-import com.generallycloud.baseio.protocol.DefaultFuture;
 
+/**
+ * 客户端的connection preface，服务端的preface是一个SETTINGS帧(rfc7540 3.5)
+ * @author wangkai
+ *
+ */
 public class Http2PrefaceFuture extends AbstractFuture {
 
-    private static byte[]  PREFACE_BINARY = "PRI * HTTP/2.0\r\n\r\nSM\r\n\r\n".getBytes();
-
-    private static ByteBuf PREFACE_BUF;
-
-    static {
-        PREFACE_BUF = UnpooledByteBufAllocator.getHeap().wrap(ByteBuffer.wrap(PREFACE_BINARY));
-    }
+    private static byte[] PREFACE_BINARY = "PRI * HTTP/2.0\r\n\r\nSM\r\n\r\n".getBytes();
 
     public Http2PrefaceFuture(ByteBuf buf) {
         this.setByteBuf(buf);
@@ -50,10 +46,10 @@ public class Http2PrefaceFuture extends AbstractFuture {
         if (!isPreface(buf)) {
             throw new IOException("not http2 preface");
         }
-        channel.flushFuture(new DefaultFuture(PREFACE_BUF.duplicate()));
+        session.onPreface();
     }
 
-    private boolean isPreface(ByteBuf buf) {
+    public static boolean isPreface(ByteBuf buf) {
         if (PREFACE_BINARY.length > buf.remaining()) {
             return false;
         }
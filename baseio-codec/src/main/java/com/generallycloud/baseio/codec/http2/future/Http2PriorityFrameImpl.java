@@ -0,0 +1,84 @@
+/*
+ * Copyright 2015-2017 GenerallyCloud.com
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *  
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.generallycloud.baseio.codec.http2.future;
+
+import static com.generallycloud.baseio.codec.http2.hpack.Http2Error.FRAME_SIZE_ERROR;
+import static com.generallycloud.baseio.codec.http2.hpack.Http2Error.PROTOCOL_ERROR;
+import static com.generallycloud.baseio.codec.http2.hpack.Http2Exception.connectionError;
+import static com.generallycloud.baseio.codec.http2.hpack.Http2Exception.streamError;
+
+import java.io.IOException;
+
+import com.generallycloud.baseio.buffer.ByteBuf;
+import com.generallycloud.baseio.codec.http2.Http2Session;
+import com.generallycloud.baseio.component.NioSocketChannel;
+
+/**
+ * 依赖关系只做校验，weight交给Http2WriteScheduler用于同一urgency中分配带宽
+ * @author wangkai
+ *
+ */
+public class Http2PriorityFrameImpl extends AbstractHttp2Frame implements Http2PriorityFrame {
+
+    private boolean e;
+    private int     streamDependency;
+    private short   weight;
+
+    public Http2PriorityFrameImpl(ByteBuf buf, Http2FrameHeader header) {
+        super(buf, header);
+    }
+
+    @Override
+    protected void doComplete(NioSocketChannel channel, Http2Session session, ByteBuf buf)
+            throws IOException {
+        int streamId = getStreamIdentifier();
+        if (streamId == 0) {
+            throw connectionError(PROTOCOL_ERROR, "PRIORITY on stream 0");
+        }
+        if (buf.limit() != 5) {
+            throw streamError(streamId, FRAME_SIZE_ERROR, "illegal PRIORITY length");
+        }
+        streamDependency = buf.getInt();
+        e = streamDependency < 0;
+        streamDependency = streamDependency & 0x7FFFFFFF;
+        weight = buf.getUnsignedByte();
+        if (streamDependency == streamId) {
+            throw streamError(streamId, PROTOCOL_ERROR, "stream depends on itself");
+        }
+        session.onPriority(streamId, weight + 1);
+    }
+
+    @Override
+    public Http2FrameType getHttp2FrameType() {
+        return Http2FrameType.FRAME_TYPE_PRIORITY;
+    }
+
+    @Override
+    public boolean isE() {
+        return e;
+    }
+
+    @Override
+    public int getStreamDependency() {
+        return streamDependency;
+    }
+
+    @Override
+    public short getWeight() {
+        return weight;
+    }
+
+}
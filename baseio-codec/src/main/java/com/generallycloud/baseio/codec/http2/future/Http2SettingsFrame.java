@@ -31,6 +31,7 @@ MAX_HEADER_LIST_SIZE	0x6	(infinite)
  */
 public interface Http2SettingsFrame extends Http2Frame {
 
+    public static final int FLAG_ACK                        = 0x1;
     public static final int SETTINGS_HEADER_TABLE_SIZE      = 0x1;
     public static final int SETTINGS_ENABLE_PUSH            = 0x2;
     public static final int SETTINGS_MAX_CONCURRENT_STREAMS = 0x3;
@@ -38,6 +39,8 @@ public interface Http2SettingsFrame extends Http2Frame {
     public static final int SETTINGS_MAX_FRAME_SIZE         = 0x5;
     public static final int SETTINGS_MAX_HEADER_LIST_SIZE   = 0x6;
 
+    public abstract boolean isAck();
+
     public abstract long[] getSettings();
 
 }
@@ -23,44 +23,30 @@ import com.generallycloud.baseio.component.NioSocketChannel;
 
 public class Http2SettingsFrameImpl extends AbstractHttp2Frame implements Http2SettingsFrame {
 
-    private long[] settings; //FIXME delete
+    private boolean ack;
 
-    public Http2SettingsFrameImpl(ByteBuf buf, Http2FrameHeader header) {
-        super(header);
-        this.setByteBuf(buf);
-    }
+    private long[]  settings;
 
-    private void doComplete(NioSocketChannel channel, ByteBuf buf) throws IOException {
-        Http2Session session = Http2Session.getHttp2Session(channel);
-        int settings = buf.limit() / 6;
-        for (int i = 0; i < settings; i++) {
-            int key = buf.getShort();
-            int value = buf.getInt();
-            session.setSettings(key, value);
-        }
-        this.settings = session.getSettings();
-        channel.flush(this);
+    public Http2SettingsFrameImpl(ByteBuf buf, Http2FrameHeader header) {
+        super(buf, header);
     }
 
     @Override
-    public boolean read(NioSocketChannel channel, ByteBuf buffer) throws IOException {
-        ByteBuf buf = getByteBuf();
-        buf.read(buffer);
-        if (buf.hasRemaining()) {
-            return false;
-        }
-        doComplete(channel, buf.flip());
-        return true;
+    protected void doComplete(NioSocketChannel channel, Http2Session session, ByteBuf buf)
+            throws IOException {
+        this.ack = hasFlag(FLAG_ACK);
+        session.onSettings(getStreamIdentifier(), buf, ack);
+        this.settings = session.getSettings();
     }
 
     @Override
-    public boolean isSilent() {
-        return true;
+    public Http2FrameType getHttp2FrameType() {
+        return Http2FrameType.FRAME_TYPE_SETTINGS;
     }
 
     @Override
-    public Http2FrameType getHttp2FrameType() {
-        return Http2FrameType.FRAME_TYPE_SETTINGS;
+    public boolean isAck() {
+        return ack;
     }
 
     @Override
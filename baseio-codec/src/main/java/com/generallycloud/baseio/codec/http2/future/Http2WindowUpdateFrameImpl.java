@@ -15,9 +15,13 @@
  */
 package com.generallycloud.baseio.codec.http2.future;
 
+import static com.generallycloud.baseio.codec.http2.hpack.Http2Error.FRAME_SIZE_ERROR;
+import static com.generallycloud.baseio.codec.http2.hpack.Http2Exception.connectionError;
+
 import java.io.IOException;
 
 import com.generallycloud.baseio.buffer.ByteBuf;
+import com.generallycloud.baseio.codec.http2.Http2Session;
 import com.generallycloud.baseio.common.MathUtil;
 import com.generallycloud.baseio.component.NioSocketChannel;
 
@@ -27,34 +31,22 @@ public class Http2WindowUpdateFrameImpl extends AbstractHttp2Frame
     private int updateValue;
 
     public Http2WindowUpdateFrameImpl(ByteBuf buf, Http2FrameHeader header) {
-        super(header);
-        this.setByteBuf(buf);
-    }
-
-    private void doComplete(NioSocketChannel channel, ByteBuf buf) throws IOException {
-
-        this.updateValue = MathUtil.int2int31(buf.getInt());
+        super(buf, header);
     }
 
     @Override
-    public boolean read(NioSocketChannel channel, ByteBuf buffer) throws IOException {
-        ByteBuf buf = getByteBuf();
-        buf.read(buffer);
-        if (buf.hasRemaining()) {
-            return false;
+    protected void doComplete(NioSocketChannel channel, Http2Session session, ByteBuf buf)
+            throws IOException {
+        if (buf.limit() != 4) {
+            throw connectionError(FRAME_SIZE_ERROR, "illegal WINDOW_UPDATE length");
         }
-        doComplete(channel, buf.flip());
-        return true;
-    }
-
-    @Override
-    public boolean isSilent() {
-        return true;
+        this.updateValue = MathUtil.int2int31(buf.getInt());
+        session.onWindowUpdate(getStreamIdentifier(), updateValue);
     }
 
     @Override
     public Http2FrameType getHttp2FrameType() {
-        return Http2FrameType.FRAME_TYPE_SETTINGS;
+        return Http2FrameType.FRAME_TYPE_WINDOW_UPDATE;
     }
 
     @Override
@@ -0,0 +1,122 @@
+/*
+ * Copyright 2015-2017 GenerallyCloud.com
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *  
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.generallycloud.baseio.codec.http2.future;
+
+import java.nio.channels.FileChannel;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import com.generallycloud.baseio.codec.http11.HttpHeader;
+import com.generallycloud.baseio.codec.http11.ServerHttpFuture;
+import com.generallycloud.baseio.codec.http2.Http2Stream;
+import com.generallycloud.baseio.codec.http2.hpack.Http2Headers;
+import com.generallycloud.baseio.common.CloseUtil;
+import com.generallycloud.baseio.common.Encoding;
+import com.generallycloud.baseio.component.NioEventLoop;
+import com.generallycloud.baseio.component.NioSocketChannel;
+
+/**
+ * http2 stream上的一个请求，header和请求体都接收完成之后交给IoEventHandle，
+ * 使用方式和http1.1的HttpFuture相同，flush之后由Http2Codec编码为HEADERS和DATA
+ * @author wangkai
+ *
+ */
+public class ServerHttp2Future extends ServerHttpFuture {
+
+    private FileChannel fileChannel;
+    private long        fileCount;
+    private long        filePosition;
+    private Http2Stream stream;
+
+    public ServerHttp2Future(NioSocketChannel channel, Http2Stream stream, Http2Headers headers) {
+        super(channel.getContext());
+        this.stream = stream;
+        for (Entry<String, String> e : headers) {
+            String name = e.getKey();
+            if (name.length() > 0 && name.charAt(0) != ':') {
+                setRequestHeader(name, e.getValue());
+            }
+        }
+        if (headers.authority() != null && getRequestHeader(HttpHeader.Req_Host) == null) {
+            setRequestHeader(HttpHeader.Req_Host, headers.authority());
+        }
+        setMethod(headers.method());
+        setVersion("HTTP/2.0");
+        setRequestURL(headers.path() == null ? "/" : headers.path());
+        parseContentType(getRequestHeader(HttpHeader.Req_Content_Type));
+    }
+
+    public Http2Stream getStream() {
+        return stream;
+    }
+
+    public int getStreamIdentifier() {
+        return stream.getId();
+    }
+
+    public void setBody(byte[] body) {
+        setBodyContent(body);
+    }
+
+    /**
+     * 响应体为文件的[position, position + count)，编码时交给Http2Stream，
+     * 由Http2Session在每一轮调度中读取本轮发送的部分，不会一次读入整个文件
+     */
+    public void writeFile(FileChannel fileChannel, long position, long count) {
+        this.fileChannel = fileChannel;
+        this.filePosition = position;
+        this.fileCount = count;
+    }
+
+    public FileChannel getFileChannel() {
+        return fileChannel;
+    }
+
+    public long getFileCount() {
+        return fileCount;
+    }
+
+    public long getFilePosition() {
+        return filePosition;
+    }
+
+    /**
+     * 文件交给Http2Stream之后由stream负责关闭
+     */
+    public FileChannel takeFileChannel() {
+        FileChannel fileChannel = this.fileChannel;
+        this.fileChannel = null;
+        return fileChannel;
+    }
+
+    // 没有被编码(例如连接已经关闭)时关闭文件
+    @Override
+    public void release(NioEventLoop eventLoop) {
+        super.release(eventLoop);
+        CloseUtil.close(takeFileChannel());
+    }
+
+    // http2不使用Connection等连接相关的header
+    @Override
+    protected void setDefaultResponseHeaders(Map<String, String> headers) {
+        if (getContext().getEncoding() == Encoding.GBK) {
+            headers.put(HttpHeader.Content_Type, "text/plain;charset=gbk");
+        } else {
+            headers.put(HttpHeader.Content_Type, "text/plain;charset=utf-8");
+        }
+    }
+
+}
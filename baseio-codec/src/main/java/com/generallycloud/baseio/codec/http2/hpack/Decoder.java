@@ -30,6 +30,7 @@ import static com.generallycloud.baseio.common.ThrowableUtil.unknownStackTrace;
 import com.generallycloud.baseio.buffer.ByteBuf;
 import com.generallycloud.baseio.codec.http2.future.Http2Header;
 import com.generallycloud.baseio.codec.http2.hpack.HpackUtil.IndexType;
+import com.generallycloud.baseio.common.Encoding;
 
 public final class Decoder {
     private static final Http2Exception DECODE_DECOMPRESSION_EXCEPTION          = unknownStackTrace(
@@ -71,6 +72,8 @@ public final class Decoder {
     private long                        encoderMaxDynamicTableSize;
     private boolean                     maxDynamicTableSizeChangeRequired;
     private String                      EMPTY_STRING                            = "";
+    // 未经huffman编码的字符串先读入该数组，避免每个字段都分配新数组
+    private byte[]                      literal;
 
     public Decoder() {
         this(32);
@@ -90,6 +93,7 @@ public final class Decoder {
         maxDynamicTableSizeChangeRequired = false;
         dynamicTable = new DynamicTable(maxHeaderTableSize);
         huffmanDecoder = new HuffmanDecoder(initialHuffmanDecodeCapacity);
+        literal = new byte[initialHuffmanDecodeCapacity];
     }
 
     /**
@@ -219,7 +223,7 @@ public final class Decoder {
                         throw notEnoughDataException(in);
                     }
 
-                    name = readStringLiteral(in, nameLength, huffmanEncoded);
+                    name = readStringLiteral(in, nameLength, huffmanEncoded, true);
 
                     state = READ_LITERAL_HEADER_VALUE_LENGTH_PREFIX;
                     break;
@@ -265,7 +269,7 @@ public final class Decoder {
                         throw notEnoughDataException(in);
                     }
 
-                    String value = readStringLiteral(in, valueLength, huffmanEncoded);
+                    String value = readStringLiteral(in, valueLength, huffmanEncoded, false);
                     headersLength = insertHeader(streamId, headers, name, value, indexType,
                             headersLength);
                     state = READ_HEADER_REPRESENTATION;
@@ -405,14 +409,30 @@ public final class Decoder {
         return headersLength;
     }
 
-    private String readStringLiteral(ByteBuf in, int length, boolean huffmanEncoded)
-            throws Http2Exception {
+    /**
+     * 读取字符串字面量，header name优先从静态表中取已有的String，
+     * 只有静态表中没有的name和value才会创建新的String
+     */
+    private String readStringLiteral(ByteBuf in, int length, boolean huffmanEncoded,
+            boolean headerName) throws Http2Exception {
+        byte[] array;
         if (huffmanEncoded) {
-            return huffmanDecoder.decode(in, length);
+            length = huffmanDecoder.decode(in, length);
+            array = huffmanDecoder.array();
+        } else {
+            if (literal.length < length) {
+                literal = new byte[length];
+            }
+            array = literal;
+            in.get(array, 0, length);
+        }
+        if (headerName) {
+            int index = StaticTable.getIndex(array, 0, length);
+            if (index != -1) {
+                return StaticTable.getEntry(index).getName();
+            }
         }
-        byte[] buf = new byte[length];
-        in.get(buf);
-        return new String(buf);
+        return new String(array, 0, length, Encoding.ISO_8859_1);
     }
 
     private static IllegalArgumentException notEnoughDataException(ByteBuf in) {
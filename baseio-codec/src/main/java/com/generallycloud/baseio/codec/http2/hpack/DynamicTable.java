@@ -15,22 +15,20 @@
  */
 package com.generallycloud.baseio.codec.http2.hpack;
 
+import static com.generallycloud.baseio.codec.http2.future.Http2Header.HEADER_ENTRY_OVERHEAD;
 import static com.generallycloud.baseio.codec.http2.hpack.Http2CodecUtil.MAX_HEADER_TABLE_SIZE;
 import static com.generallycloud.baseio.codec.http2.hpack.Http2CodecUtil.MIN_HEADER_TABLE_SIZE;
 
-import java.util.ArrayList;
-import java.util.List;
-
 import com.generallycloud.baseio.codec.http2.future.Http2Header;
 
 final class DynamicTable {
 
-    // a circular queue of header fields
-    private List<Http2Header> headers  = new ArrayList<>();
-    int                       head;
-    int                       tail;
-    private long              size;
-    private long              capacity = -1;
+    // 环形队列，head指向下一个写入的位置，tail指向最旧的表项
+    private Http2Header[] headers;
+    private int           head;
+    private int           tail;
+    private long          size;
+    private long          capacity = -1;
 
     /**
      * Creates a new dynamic table with the specified initial capacity.
@@ -43,7 +41,10 @@ final class DynamicTable {
      * Return the number of header fields in the dynamic table.
      */
     public int length() {
-        return headers.size();
+        if (head < tail) {
+            return headers.length - tail + head;
+        }
+        return head - tail;
     }
 
     /**
@@ -71,9 +72,9 @@ final class DynamicTable {
         }
         int i = head - index;
         if (i < 0) {
-            return headers.get(i + headers.size());
+            return headers[i + headers.length];
         } else {
-            return headers.get(index);
+            return headers[i];
         }
     }
 
@@ -92,21 +93,39 @@ final class DynamicTable {
         while (capacity - size < headerSize) {
             remove();
         }
-        headers.add(header);
-        size += header.size();
+        headers[head++] = header;
+        size += headerSize;
+        if (head == headers.length) {
+            head = 0;
+        }
     }
 
     /**
      * Remove and return the oldest header field from the dynamic table.
      */
     public Http2Header remove() {
-        return null;
+        Http2Header removed = headers[tail];
+        if (removed == null) {
+            return null;
+        }
+        size -= removed.size();
+        headers[tail++] = null;
+        if (tail == headers.length) {
+            tail = 0;
+        }
+        return removed;
     }
 
     /**
      * Remove all entries from the dynamic table.
      */
     public void clear() {
+        while (tail != head) {
+            headers[tail++] = null;
+            if (tail == headers.length) {
+                tail = 0;
+            }
+        }
         head = 0;
         tail = 0;
         size = 0;
@@ -136,5 +155,28 @@ final class DynamicTable {
             }
         }
 
+        // 每个表项至少占32字节，据此算出表中最多能容纳的表项数，
+        // 数组只在capacity变化时重新分配，add/remove不产生新对象
+        int maxEntries = (int) (capacity / HEADER_ENTRY_OVERHEAD);
+        if (capacity % HEADER_ENTRY_OVERHEAD != 0) {
+            maxEntries++;
+        }
+        // 多留一个空位以区分队列满和队列空
+        maxEntries++;
+        if (headers != null && headers.length == maxEntries) {
+            return;
+        }
+        Http2Header[] tmp = new Http2Header[maxEntries];
+        int len = length();
+        int cursor = tail;
+        for (int i = 0; i < len; i++) {
+            tmp[i] = headers[cursor++];
+            if (cursor == headers.length) {
+                cursor = 0;
+            }
+        }
+        tail = 0;
+        head = len;
+        headers = tmp;
     }
 }
@@ -50,6 +50,8 @@ public final class Encoder {
     private long                 size;
     private long                 maxHeaderTableSize;
     private long                 maxHeaderListSize;
+    // 未经huffman编码的字符串先写入该数组，避免String.getBytes分配新数组
+    private byte[]               literal        = new byte[64];
 
     /**
      * Creates a new encoder.
@@ -277,21 +279,17 @@ public final class Encoder {
             encodeInteger(out, 0x80, 7, huffmanLength);
             huffmanEncoder.encode(out, string);
         } else {
-            encodeInteger(out, 0x00, 7, string.length());
-
-            out.put(string.getBytes());
-
-            // if (string instanceof AsciiString) {
-            // // Fast-path
-            // AsciiString asciiString = (AsciiString) string;
-            // out.writeBytes(asciiString.array(), asciiString.arrayOffset(),
-            // asciiString.length());
-            // } else {
-            // // Only ASCII is allowed in http2 headers, so its fine to use
-            // this.
-            // // https://tools.ietf.org/html/rfc7540#section-8.1.2
-            // out.writeCharSequence(string, CharsetUtil.ISO_8859_1);
-            // }
+            int length = string.length();
+            encodeInteger(out, 0x00, 7, length);
+            // Only ASCII is allowed in http2 headers, so its fine to use this.
+            // https://tools.ietf.org/html/rfc7540#section-8.1.2
+            if (literal.length < length) {
+                literal = new byte[length];
+            }
+            for (int i = 0; i < length; i++) {
+                literal[i] = (byte) string.charAt(i);
+            }
+            out.put(literal, 0, length);
         }
     }
 
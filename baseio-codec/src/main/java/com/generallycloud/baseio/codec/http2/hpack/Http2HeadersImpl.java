@@ -94,9 +94,30 @@ public class Http2HeadersImpl implements Http2Headers {
         return status;
     }
 
+    /**
+     * 解码时伪头部同时设置对应的字段，重复的header按照http1.1的规则合并，
+     * cookie使用"; "合并(rfc7540 8.1.2.5)
+     */
     @Override
     public void add(String name, String value) {
-        this.headers.put(name, value);
+        if (name.length() > 0 && name.charAt(0) == ':') {
+            if (":method".equals(name)) {
+                this.method = value;
+            } else if (":scheme".equals(name)) {
+                this.scheme = value;
+            } else if (":authority".equals(name)) {
+                this.authority = value;
+            } else if (":path".equals(name)) {
+                this.path = value;
+            } else if (":status".equals(name)) {
+                this.status = value;
+            }
+        }
+        String old = this.headers.put(name, value);
+        if (old != null) {
+            String separator = "cookie".equals(name) ? "; " : ", ";
+            this.headers.put(name, old + separator + value);
+        }
     }
 
 }
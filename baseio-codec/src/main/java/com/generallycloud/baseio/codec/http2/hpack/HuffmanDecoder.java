@@ -17,15 +17,22 @@ package com.generallycloud.baseio.codec.http2.hpack;
 
 import static com.generallycloud.baseio.codec.http2.hpack.HpackUtil.HUFFMAN_CODES;
 import static com.generallycloud.baseio.codec.http2.hpack.HpackUtil.HUFFMAN_CODE_LENGTHS;
+import static com.generallycloud.baseio.codec.http2.hpack.HpackUtil.HUFFMAN_EOS;
 import static com.generallycloud.baseio.codec.http2.hpack.Http2Error.COMPRESSION_ERROR;
 import static com.generallycloud.baseio.codec.http2.hpack.Http2Exception.connectionError;
 
-import java.io.IOException;
-
 import com.generallycloud.baseio.buffer.ByteBuf;
 import com.generallycloud.baseio.buffer.ByteProcessor;
 import com.generallycloud.baseio.common.ThrowableUtil;
 
+/**
+ * 查表驱动的huffman解码器，每次消费4个bit。
+ * <p>
+ * huffman树的257个叶子对应256个内部节点，每个内部节点作为一个状态，
+ * 类加载时为每个(状态, 4bit)预先计算出下一个状态以及输出的字符，
+ * 由于最短的码长为5，每一步最多输出一个字符。解码结果写入可复用的字节数组，
+ * 解码过程中不创建任何对象。
+ */
 final class HuffmanDecoder {
 
     private static final Http2Exception EOS_DECODED     = ThrowableUtil.unknownStackTrace(
@@ -35,8 +42,59 @@ final class HuffmanDecoder {
             connectionError(COMPRESSION_ERROR, "HPACK - Invalid Padding"), HuffmanDecoder.class,
             "decode(...)");
 
-    private static final Node           ROOT            = buildTree(HUFFMAN_CODES,
-            HUFFMAN_CODE_LENGTHS);
+    private static final int            FLAG_SYMBOL     = 1 << 8;
+    private static final int            FLAG_FAIL       = 1 << 9;
+
+    // TABLE[state << 4 | bits] = next_state << 16 | flags | symbol
+    private static final int[]          TABLE;
+    // 停在该状态时已消费的bit全为1且不超过7个，即合法的EOS填充
+    private static final boolean[]      ACCEPT;
+
+    static {
+        // 用两个数组表示huffman树，非负数为内部节点，叶子节点存为-(symbol + 1)
+        int[] left = new int[HUFFMAN_EOS];
+        int[] right = new int[HUFFMAN_EOS];
+        int[] depth = new int[HUFFMAN_EOS];
+        boolean[] ones = new boolean[HUFFMAN_EOS];
+        ones[0] = true;
+        int nodes = 1;
+        for (int symbol = 0; symbol <= HUFFMAN_EOS; symbol++) {
+            int code = HUFFMAN_CODES[symbol];
+            int node = 0;
+            for (int bit = HUFFMAN_CODE_LENGTHS[symbol] - 1; bit >= 0; bit--) {
+                int[] children = ((code >>> bit) & 1) == 0 ? left : right;
+                if (bit == 0) {
+                    children[node] = -(symbol + 1);
+                    break;
+                }
+                if (children[node] == 0) {
+                    children[node] = nodes;
+                    depth[nodes] = depth[node] + 1;
+                    ones[nodes] = ones[node] && children == right;
+                    nodes++;
+                }
+                node = children[node];
+            }
+        }
+        TABLE = new int[nodes << 4];
+        ACCEPT = new boolean[nodes];
+        for (int state = 0; state < nodes; state++) {
+            ACCEPT[state] = ones[state] && depth[state] < 8;
+            for (int bits = 0; bits < 16; bits++) {
+                int node = state;
+                int value = 0;
+                for (int bit = 3; bit >= 0; bit--) {
+                    node = ((bits >>> bit) & 1) == 0 ? left[node] : right[node];
+                    if (node < 0) {
+                        int symbol = -node - 1;
+                        value = symbol == HUFFMAN_EOS ? FLAG_FAIL : (FLAG_SYMBOL | symbol);
+                        node = 0;
+                    }
+                }
+                TABLE[(state << 4) | bits] = (node << 16) | value;
+            }
+        }
+    }
 
     private final DecoderProcessor      processor;
 
@@ -45,205 +103,73 @@ final class HuffmanDecoder {
     }
 
     /**
-     * Decompresses the given Huffman coded string literal.
+     * 解码huffman编码的字符串，结果保存在{@link #array()}中
      *
      * @param buf the string literal to be decoded
-     * @return the output stream for the compressed data
-     * @throws IOException if an I/O error occurs. In particular, an <code>IOException</code> may be
-     * thrown if the output stream has been closed.
+     * @param length 编码后的字节数
+     * @return 解码后的字节数
      */
-    public String decode(ByteBuf buf, int length) throws Http2Exception {
-        processor.reset();
+    public int decode(ByteBuf buf, int length) throws Http2Exception {
+        processor.reset(length);
         buf.forEachByte(buf.position(), length, processor);
         buf.skip(length);
         return processor.end();
     }
 
-    private static final class Node {
-
-        private final int    symbol;   // terminal nodes have a symbol
-        private final int    bits;     // number of bits matched by the node
-        private final Node[] children; // internal nodes have children
-
-        /**
-         * Construct an internal node
-         */
-        Node() {
-            symbol = 0;
-            bits = 8;
-            children = new Node[256];
-        }
-
-        /**
-         * Construct a terminal node
-         *
-         * @param symbol the symbol the node represents
-         * @param bits the number of bits matched by this node
-         */
-        Node(int symbol, int bits) {
-            assert bits > 0 && bits <= 8;
-            this.symbol = symbol;
-            this.bits = bits;
-            children = null;
-        }
-
-        private boolean isTerminal() {
-            return children == null;
-        }
-    }
-
-    private static Node buildTree(int[] codes, byte[] lengths) {
-        Node root = new Node();
-        for (int i = 0; i < codes.length; i++) {
-            insert(root, i, codes[i], lengths[i]);
-        }
-        return root;
-    }
-
-    private static void insert(Node root, int symbol, int code, byte length) {
-        // traverse tree using the most significant bytes of code
-        Node current = root;
-        while (length > 8) {
-            if (current.isTerminal()) {
-                throw new IllegalStateException("invalid Huffman code: prefix not unique");
-            }
-            length -= 8;
-            int i = (code >>> length) & 0xFF;
-            if (current.children[i] == null) {
-                current.children[i] = new Node();
-            }
-            current = current.children[i];
-        }
-
-        Node terminal = new Node(symbol, length);
-        int shift = 8 - length;
-        int start = (code << shift) & 0xFF;
-        int end = 1 << shift;
-        for (int i = start; i < start + end; i++) {
-            current.children[i] = terminal;
-        }
+    /**
+     * 最近一次解码的结果，数组会被下一次解码覆盖
+     */
+    public byte[] array() {
+        return processor.bytes;
     }
 
     private static final class DecoderProcessor implements ByteProcessor {
-        private final int initialCapacity;
-        private byte[]    bytes;
-        private int       index;
-        private Node      node;
-        private int       current;
-        private int       currentBits;
-        private int       symbolBits;
+
+        private byte[] bytes;
+        private int    index;
+        private int    state;
 
         DecoderProcessor(int initialCapacity) {
-            this.initialCapacity = initialCapacity;
+            this.bytes = new byte[initialCapacity];
         }
 
-        void reset() {
-            node = ROOT;
-            current = 0;
-            currentBits = 0;
-            symbolBits = 0;
-            bytes = new byte[initialCapacity];
+        void reset(int length) {
+            // 最短的码长为5bit，解码后的长度不会超过length * 8 / 5
+            int max = (int) (length * 8L / 5);
+            if (bytes.length < max) {
+                bytes = new byte[max];
+            }
             index = 0;
+            state = 0;
         }
 
-        /*
-         * The idea here is to consume whole bytes at a time rather than
-         * individual bits. node
-         * represents the Huffman tree, with all bit patterns denormalized as
-         * 256 children. Each
-         * child represents the last 8 bits of the huffman code. The parents of
-         * each child each
-         * represent the successive 8 bit chunks that lead up to the last most
-         * part. 8 bit bytes
-         * from buf are used to traverse these tree until a terminal node is
-         * found.
-         *
-         * current is a bit buffer. The low order bits represent how much of the
-         * huffman code has
-         * not been used to traverse the tree. Thus, the high order bits are
-         * just garbage.
-         * currentBits represents how many of the low order bits of current are
-         * actually valid.
-         * currentBits will vary between 0 and 15.
-         *
-         * symbolBits is the number of bits of the the symbol being decoded,
-         * *including* all those
-         * of the parent nodes. symbolBits tells how far down the tree we are.
-         * For example, when
-         * decoding the invalid sequence {0xff, 0xff}, currentBits will be 0,
-         * but symbolBits will be
-         * 16. This is used to know if buf ended early (before consuming a whole
-         * symbol) or if
-         * there is too much padding.
-         */
         @Override
         public boolean process(byte value) throws Http2Exception {
-            current = (current << 8) | (value & 0xFF);
-            currentBits += 8;
-            symbolBits += 8;
-            // While there are unconsumed bits in current, keep consuming symbols.
-            do {
-                node = node.children[(current >>> (currentBits - 8)) & 0xFF];
-                currentBits -= node.bits;
-                if (node.isTerminal()) {
-                    if (node.symbol == HpackUtil.HUFFMAN_EOS) {
-                        throw EOS_DECODED;
-                    }
-                    append(node.symbol);
-                    node = ROOT;
-                    // Upon consuming a whole symbol, reset the symbol bits to the number of bits
-                    // left over in the byte.
-                    symbolBits = currentBits;
-                }
-            } while (currentBits >= 8);
+            next((value >>> 4) & 0x0F);
+            next(value & 0x0F);
             return true;
         }
 
-        String end() throws Http2Exception {
-            /*
-             * We have consumed all the bytes in buf, but haven't consumed all
-             * the symbols. We may be on
-             * a partial symbol, so consume until there is nothing left. This
-             * will loop at most 2 times.
-             */
-            while (currentBits > 0) {
-                node = node.children[(current << (8 - currentBits)) & 0xFF];
-                if (node.isTerminal() && node.bits <= currentBits) {
-                    if (node.symbol == HpackUtil.HUFFMAN_EOS) {
-                        throw EOS_DECODED;
-                    }
-                    currentBits -= node.bits;
-                    append(node.symbol);
-                    node = ROOT;
-                    symbolBits = currentBits;
-                } else {
-                    break;
-                }
+        private void next(int bits) throws Http2Exception {
+            int t = TABLE[(state << 4) | bits];
+            if ((t & FLAG_FAIL) != 0) {
+                throw EOS_DECODED;
+            }
+            if ((t & FLAG_SYMBOL) != 0) {
+                bytes[index++] = (byte) t;
             }
+            state = t >>> 16;
+        }
 
+        int end() throws Http2Exception {
             // Section 5.2. String Literal Representation
             // A padding strictly longer than 7 bits MUST be treated as a decoding error.
             // Padding not corresponding to the most significant bits of the code
             // for the EOS symbol (0xFF) MUST be treated as a decoding error.
-            int mask = (1 << symbolBits) - 1;
-            if (symbolBits > 7 || (current & mask) != mask) {
+            if (!ACCEPT[state]) {
                 throw INVALID_PADDING;
             }
-
-            return new String(bytes, 0, index);
-        }
-
-        private void append(int i) {
-            try {
-                bytes[index] = (byte) i;
-            } catch (IndexOutOfBoundsException ignore) {
-                // Always just expand by INITIAL_SIZE
-                byte[] newBytes = new byte[bytes.length + initialCapacity];
-                System.arraycopy(bytes, 0, newBytes, 0, bytes.length);
-                bytes = newBytes;
-                bytes[index] = (byte) i;
-            }
-            index++;
+            return index;
         }
     }
 }
@@ -16,14 +16,11 @@
 package com.generallycloud.baseio.codec.http2.hpack;
 
 import com.generallycloud.baseio.buffer.ByteBuf;
-import com.generallycloud.baseio.buffer.ByteProcessor;
 
 final class HuffmanEncoder {
 
-    private final int[]                  codes;
-    private final byte[]                 lengths;
-    private final EncodedLengthProcessor encodedLengthProcessor = new EncodedLengthProcessor();
-    private final EncodeProcessor        encodeProcessor        = new EncodeProcessor();
+    private final int[]  codes;
+    private final byte[] lengths;
 
     HuffmanEncoder() {
         this(HpackUtil.HUFFMAN_CODES, HpackUtil.HUFFMAN_CODE_LENGTHS);
@@ -93,58 +90,4 @@ final class HuffmanEncoder {
         }
         return (int) ((len + 7) >> 3);
     }
-
-    private final class EncodeProcessor implements ByteProcessor {
-        ByteBuf      out;
-        private long current;
-        private int  n;
-
-        @Override
-        public boolean process(byte value) {
-            int b = value & 0xFF;
-            int nbits = lengths[b];
-
-            current <<= nbits;
-            current |= codes[b];
-            n += nbits;
-
-            while (n >= 8) {
-                n -= 8;
-                out.putByte((byte) (current >> n));
-            }
-            return true;
-        }
-
-        void end() {
-            try {
-                if (n > 0) {
-                    current <<= 8 - n;
-                    current |= 0xFF >>> n; // this should be EOS symbol
-                    out.putByte((byte) current);
-                }
-            } finally {
-                out = null;
-                current = 0;
-                n = 0;
-            }
-        }
-    }
-
-    private final class EncodedLengthProcessor implements ByteProcessor {
-        private long len;
-
-        @Override
-        public boolean process(byte value) {
-            len += lengths[value & 0xFF];
-            return true;
-        }
-
-        void reset() {
-            len = 0;
-        }
-
-        int length() {
-            return (int) ((len + 7) >> 3);
-        }
-    }
 }
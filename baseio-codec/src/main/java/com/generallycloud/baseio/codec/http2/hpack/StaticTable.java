@@ -15,114 +15,163 @@
  */
 package com.generallycloud.baseio.codec.http2.hpack;
 
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
-
 import com.generallycloud.baseio.codec.http2.future.Http2Header;
 
 final class StaticTable {
 
-    private static List<Http2Header>        STATIC_HEADER_TABLE = new ArrayList<>(62);
-
-    private static Map<String, Http2Header> STATIC_MAP          = new HashMap<>();
+    private static final Http2Header[] STATIC_HEADER_TABLE = new Http2Header[] {
+            new Http2Header(0, ":error", ""),
+            new Http2Header(1, ":authority", ""),
+            new Http2Header(2, ":method", "GET"),
+            new Http2Header(3, ":method", "POST"),
+            new Http2Header(4, ":path", "/"),
+            new Http2Header(5, ":path", "/index.html"),
+            new Http2Header(6, ":scheme", "http"),
+            new Http2Header(7, ":scheme", "https"),
+            new Http2Header(8, ":status", "200"),
+            new Http2Header(9, ":status", "204"),
+            new Http2Header(10, ":status", "206"),
+            new Http2Header(11, ":status", "304"),
+            new Http2Header(12, ":status", "400"),
+            new Http2Header(13, ":status", "404"),
+            new Http2Header(14, ":status", "500"),
+            new Http2Header(15, "accept-charset", ""),
+            new Http2Header(16, "accept-encoding", "gzip, deflate"),
+            new Http2Header(17, "accept-language", ""),
+            new Http2Header(18, "accept-ranges", ""),
+            new Http2Header(19, "accept", ""),
+            new Http2Header(20, "access-control-allow-origin", ""),
+            new Http2Header(21, "age", ""),
+            new Http2Header(22, "allow", ""),
+            new Http2Header(23, "authorization", ""),
+            new Http2Header(24, "cache-control", ""),
+            new Http2Header(25, "content-disposition", ""),
+            new Http2Header(26, "content-encoding", ""),
+            new Http2Header(27, "content-language", ""),
+            new Http2Header(28, "content-length", ""),
+            new Http2Header(29, "content-location", ""),
+            new Http2Header(30, "content-range", ""),
+            new Http2Header(31, "content-type", ""),
+            new Http2Header(32, "cookie", ""),
+            new Http2Header(33, "date", ""),
+            new Http2Header(34, "etag", ""),
+            new Http2Header(35, "expect", ""),
+            new Http2Header(36, "expires", ""),
+            new Http2Header(37, "from", ""),
+            new Http2Header(38, "host", ""),
+            new Http2Header(39, "if-match", ""),
+            new Http2Header(40, "if-modified-since", ""),
+            new Http2Header(41, "if-none-match", ""),
+            new Http2Header(42, "if-range", ""),
+            new Http2Header(43, "if-unmodified-since", ""),
+            new Http2Header(44, "last-modified", ""),
+            new Http2Header(45, "link", ""),
+            new Http2Header(46, "location", ""),
+            new Http2Header(47, "max-forwards", ""),
+            new Http2Header(48, "proxy-authenticate", ""),
+            new Http2Header(49, "proxy-authorization", ""),
+            new Http2Header(50, "range", ""),
+            new Http2Header(51, "referer", ""),
+            new Http2Header(52, "refresh", ""),
+            new Http2Header(53, "retry-after", ""),
+            new Http2Header(54, "server", ""),
+            new Http2Header(55, "set-cookie", ""),
+            new Http2Header(56, "strict-transport-security", ""),
+            new Http2Header(57, "transfer-encoding", ""),
+            new Http2Header(58, "user-agent", ""),
+            new Http2Header(59, "vary", ""),
+            new Http2Header(60, "via", ""),
+            new Http2Header(61, "www-authenticate", "") };
+
+    // index 0不使用，静态表的index是[1, 61]，动态表的index从62开始
+    static final int                   length              = STATIC_HEADER_TABLE.length - 1;
+
+    // 按name的hash预先计算的开放寻址索引，槽位中保存该name在表中的第一个index，
+    // 编码时用String查找，解码时直接用字节查找，两边共用
+    private static final int           INDEX_MASK          = 127;
+    private static final byte[]        NAME_INDEX          = new byte[INDEX_MASK + 1];
 
     static {
-        STATIC_HEADER_TABLE.add(new Http2Header(0, ":error", ""));
-        STATIC_HEADER_TABLE.add(new Http2Header(1, ":authority", ""));
-        STATIC_HEADER_TABLE.add(new Http2Header(2, ":method", "GET"));
-        STATIC_HEADER_TABLE.add(new Http2Header(3, ":method", "POST"));
-        STATIC_HEADER_TABLE.add(new Http2Header(4, ":path", "/"));
-        STATIC_HEADER_TABLE.add(new Http2Header(5, ":path", "/index.html"));
-        STATIC_HEADER_TABLE.add(new Http2Header(6, ":scheme", "http"));
-        STATIC_HEADER_TABLE.add(new Http2Header(7, ":scheme", "https"));
-        STATIC_HEADER_TABLE.add(new Http2Header(8, ":status", "200"));
-        STATIC_HEADER_TABLE.add(new Http2Header(9, ":status", "204"));
-        STATIC_HEADER_TABLE.add(new Http2Header(10, ":status", "206"));
-        STATIC_HEADER_TABLE.add(new Http2Header(11, ":status", "304"));
-        STATIC_HEADER_TABLE.add(new Http2Header(12, ":status", "400"));
-        STATIC_HEADER_TABLE.add(new Http2Header(13, ":status", "404"));
-        STATIC_HEADER_TABLE.add(new Http2Header(14, ":status", "500"));
-        STATIC_HEADER_TABLE.add(new Http2Header(15, "accept-charset", ""));
-        STATIC_HEADER_TABLE.add(new Http2Header(16, "accept-encoding", "gzip, deflate"));
-        STATIC_HEADER_TABLE.add(new Http2Header(17, "accept-language", ""));
-        STATIC_HEADER_TABLE.add(new Http2Header(18, "accept-ranges", ""));
-        STATIC_HEADER_TABLE.add(new Http2Header(19, "accept", ""));
-        STATIC_HEADER_TABLE.add(new Http2Header(20, "access-control-allow-origin", ""));
-        STATIC_HEADER_TABLE.add(new Http2Header(21, "age", ""));
-        STATIC_HEADER_TABLE.add(new Http2Header(22, "allow", ""));
-        STATIC_HEADER_TABLE.add(new Http2Header(23, "authorization", ""));
-        STATIC_HEADER_TABLE.add(new Http2Header(24, "cache-control", ""));
-        STATIC_HEADER_TABLE.add(new Http2Header(25, "content-disposition", ""));
-        STATIC_HEADER_TABLE.add(new Http2Header(26, "content-encoding", ""));
-        STATIC_HEADER_TABLE.add(new Http2Header(27, "content-language", ""));
-        STATIC_HEADER_TABLE.add(new Http2Header(28, "content-length", ""));
-        STATIC_HEADER_TABLE.add(new Http2Header(29, "content-location", ""));
-        STATIC_HEADER_TABLE.add(new Http2Header(30, "content-range", ""));
-        STATIC_HEADER_TABLE.add(new Http2Header(31, "content-type", ""));
-        STATIC_HEADER_TABLE.add(new Http2Header(32, "cookie", ""));
-        STATIC_HEADER_TABLE.add(new Http2Header(33, "date", ""));
-        STATIC_HEADER_TABLE.add(new Http2Header(34, "etag", ""));
-        STATIC_HEADER_TABLE.add(new Http2Header(35, "expect", ""));
-        STATIC_HEADER_TABLE.add(new Http2Header(36, "expires", ""));
-        STATIC_HEADER_TABLE.add(new Http2Header(37, "from", ""));
-        STATIC_HEADER_TABLE.add(new Http2Header(38, "host", ""));
-        STATIC_HEADER_TABLE.add(new Http2Header(39, "if-match", ""));
-        STATIC_HEADER_TABLE.add(new Http2Header(40, "if-modified-since", ""));
-        STATIC_HEADER_TABLE.add(new Http2Header(41, "if-none-match", ""));
-        STATIC_HEADER_TABLE.add(new Http2Header(42, "if-range", ""));
-        STATIC_HEADER_TABLE.add(new Http2Header(43, "if-unmodified-since", ""));
-        STATIC_HEADER_TABLE.add(new Http2Header(44, "last-modified", ""));
-        STATIC_HEADER_TABLE.add(new Http2Header(45, "link", ""));
-        STATIC_HEADER_TABLE.add(new Http2Header(46, "location", ""));
-        STATIC_HEADER_TABLE.add(new Http2Header(47, "max-forwards", ""));
-        STATIC_HEADER_TABLE.add(new Http2Header(48, "proxy-authenticate", ""));
-        STATIC_HEADER_TABLE.add(new Http2Header(49, "proxy-authorization", ""));
-        STATIC_HEADER_TABLE.add(new Http2Header(50, "range", ""));
-        STATIC_HEADER_TABLE.add(new Http2Header(51, "referer", ""));
-        STATIC_HEADER_TABLE.add(new Http2Header(52, "refresh", ""));
-        STATIC_HEADER_TABLE.add(new Http2Header(53, "retry-after", ""));
-        STATIC_HEADER_TABLE.add(new Http2Header(54, "server", ""));
-        STATIC_HEADER_TABLE.add(new Http2Header(55, "set-cookie", ""));
-        STATIC_HEADER_TABLE.add(new Http2Header(56, "strict-transport-security", ""));
-        STATIC_HEADER_TABLE.add(new Http2Header(57, "transfer-encoding", ""));
-        STATIC_HEADER_TABLE.add(new Http2Header(58, "user-agent", ""));
-        STATIC_HEADER_TABLE.add(new Http2Header(59, "vary", ""));
-        STATIC_HEADER_TABLE.add(new Http2Header(60, "via", ""));
-        STATIC_HEADER_TABLE.add(new Http2Header(61, "www-authenticate", ""));
-
-        for (Http2Header header : STATIC_HEADER_TABLE) {
-
-            STATIC_MAP.put(header.getName(), header);
+        // 同名的header取第一个(最小的index)
+        for (int i = 1; i <= length; i++) {
+            String name = STATIC_HEADER_TABLE[i].getName();
+            if (getIndex(name) != -1) {
+                continue;
+            }
+            int slot = slot(name.hashCode());
+            for (; NAME_INDEX[slot] != 0; slot = (slot + 1) & INDEX_MASK) {
+            }
+            NAME_INDEX[slot] = (byte) i;
         }
     }
 
-    static final int length = STATIC_HEADER_TABLE.size();
-
     static Http2Header getEntry(int index) {
-        return STATIC_HEADER_TABLE.get(index);
+        return STATIC_HEADER_TABLE[index];
     }
 
     // singleton
     private StaticTable() {}
 
-    public static int getIndex(String name) {
-        return getIndex(name, "");
+    private static int slot(int hash) {
+        return (hash ^ (hash >>> 7) ^ (hash >>> 16)) & INDEX_MASK;
     }
 
-    public static int getIndex(String name, String value) {
+    public static int getIndex(String name) {
+        for (int slot = slot(name.hashCode());; slot = (slot + 1) & INDEX_MASK) {
+            int index = NAME_INDEX[slot];
+            if (index == 0) {
+                return -1;
+            }
+            if (STATIC_HEADER_TABLE[index].getName().equals(name)) {
+                return index;
+            }
+        }
+    }
 
-        Http2Header header = STATIC_MAP.get(name);
+    /**
+     * 在字节中查找header name，hash与String.hashCode一致(header只允许ISO-8859-1字符)，
+     * 找不到时返回-1
+     */
+    public static int getIndex(byte[] array, int off, int len) {
+        int hash = 0;
+        for (int i = 0; i < len; i++) {
+            hash = 31 * hash + (array[off + i] & 0xFF);
+        }
+        for (int slot = slot(hash);; slot = (slot + 1) & INDEX_MASK) {
+            int index = NAME_INDEX[slot];
+            if (index == 0) {
+                return -1;
+            }
+            String name = STATIC_HEADER_TABLE[index].getName();
+            if (name.length() != len) {
+                continue;
+            }
+            int i = 0;
+            for (; i < len && (array[off + i] & 0xFF) == name.charAt(i); i++) {
+            }
+            if (i == len) {
+                return index;
+            }
+        }
+    }
 
-        if (header == null) {
+    /**
+     * name和value都相同时返回index，否则返回-1，同名的header在表中是连续的
+     */
+    public static int getIndex(String name, String value) {
+        int index = getIndex(name);
+        if (index == -1) {
             return -1;
         }
-
-        if (header.getValue().equals(value)) {
-            return header.getIndex();
+        for (int i = index; i <= length; i++) {
+            Http2Header h = STATIC_HEADER_TABLE[i];
+            if (!h.getName().equals(name)) {
+                break;
+            }
+            if (h.getValue().equals(value)) {
+                return i;
+            }
         }
-
-        return 0;
+        return -1;
     }
 }
@@ -0,0 +1,44 @@
+/*
+ * Copyright 2015-2017 GenerallyCloud.com
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *  
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.generallycloud.baseio.codec.protobase;
+
+import com.generallycloud.baseio.component.KeyedResponseCorrelator;
+import com.generallycloud.baseio.component.NioSocketChannel;
+import com.generallycloud.baseio.protocol.Future;
+
+/**
+ * 使用ProtobaseFuture.futureId关联请求与响应，服务端需要原样返回futureId
+ * @author wangkai
+ *
+ */
+public class ProtobaseResponseCorrelator<T extends ProtobaseFuture>
+        extends KeyedResponseCorrelator<T> {
+
+    public ProtobaseResponseCorrelator(NioSocketChannel channel) {
+        super(channel);
+    }
+
+    @Override
+    protected int getKey(Future future) {
+        return ((ProtobaseFuture) future).getFutureId();
+    }
+
+    @Override
+    protected void setKey(Future request, int key) {
+        ((ProtobaseFuture) request).setFutureId(key);
+    }
+
+}
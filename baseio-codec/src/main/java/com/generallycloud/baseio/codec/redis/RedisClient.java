@@ -17,19 +17,18 @@ package com.generallycloud.baseio.codec.redis;
 
 import java.io.IOException;
 
-import com.generallycloud.baseio.TimeoutException;
 import com.generallycloud.baseio.codec.redis.RedisFuture.RedisCommand;
 import com.generallycloud.baseio.component.ChannelContext;
+import com.generallycloud.baseio.component.FifoResponseCorrelator;
 import com.generallycloud.baseio.component.NioSocketChannel;
-import com.generallycloud.baseio.concurrent.Waiter;
+import com.generallycloud.baseio.concurrent.Promise;
 
 //FIXME check null
 public class RedisClient {
 
-    private ChannelContext     context;
-    private NioSocketChannel      channel;
-    private RedisIOEventHandle ioEventHandle;
-    private long               timeout;
+    private ChannelContext                      context;
+    private FifoResponseCorrelator<RedisFuture> correlator;
+    private long                                timeout;
 
     public RedisClient(NioSocketChannel channel) {
         this(channel, 3000);
@@ -37,24 +36,22 @@ public class RedisClient {
 
     public RedisClient(NioSocketChannel channel, long timeout) {
         this.timeout = timeout;
-        this.channel = channel;
         this.context = channel.getContext();
-        this.ioEventHandle = (RedisIOEventHandle) channel.getIoEventHandle();
+        this.correlator = new FifoResponseCorrelator<>(channel);
     }
 
-    private synchronized RedisNode sendCommand(byte[] command, byte[]... args) throws IOException {
-        RedisFuture future = new RedisCmdFuture();
-        future.writeCommand(command, args);
-        Waiter waiter = ioEventHandle.newWaiter();
-        channel.flush(future);
-        if (waiter.await(timeout)) {
-            throw new TimeoutException("timeout");
-        }
-        return (RedisNode) waiter.getResponse();
+    private RedisNode sendCommand(RedisCommand command, byte[]... args) throws IOException {
+        return sendCommandAsync(command, args).get(timeout).getRedisNode();
     }
 
-    private RedisNode sendCommand(RedisCommand command, byte[]... args) throws IOException {
-        return sendCommand(command.raw, args);
+    /**
+     * 发送命令但不等待响应，同一个连接上的多个命令会被pipeline，
+     * 响应按照发送顺序完成
+     */
+    public Promise<RedisFuture> sendCommandAsync(RedisCommand command, byte[]... args) {
+        RedisFuture future = new RedisCmdFuture();
+        future.writeCommand(command.raw, args);
+        return correlator.request(future, timeout);
     }
 
     public String set(String key, String value) throws IOException {
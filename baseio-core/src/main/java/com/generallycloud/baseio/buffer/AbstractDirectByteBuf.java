@@ -138,7 +138,7 @@ public abstract class AbstractDirectByteBuf extends AbstractByteBuf {
         int end = start + length;
         try {
             for (int i = start; i < end; i++) {
-                if (!processor.process(getByte(i))) {
+                if (!processor.process(memory.get(i))) {
                     return i - start;
                 }
             }
@@ -152,7 +152,7 @@ public abstract class AbstractDirectByteBuf extends AbstractByteBuf {
         int end = start + length;
         try {
             for (int i = end; i >= start; i--) {
-                if (!processor.process(getByte(i))) {
+                if (!processor.process(memory.get(i))) {
                     return i - start;
                 }
             }
@@ -64,8 +64,10 @@ public class UnpooledDirectByteBuf extends AbstractDirectByteBuf {
         }
         //请勿移除此行，DirectByteBuffer需要手动回收，doRelease要确保被执行
         addReferenceCount();
-        return new DuplicatedByteBuf(new UnpooledDirectByteBuf(allocator, memory.duplicate()),
-                this);
+        UnpooledDirectByteBuf buf = new UnpooledDirectByteBuf(allocator, memory.duplicate());
+        // produce把limit设置为capacity，需要恢复，否则会写出limit之后的数据
+        buf.limit(limit());
+        return new DuplicatedByteBuf(buf, this);
     }
 
     @Override
@@ -80,8 +82,8 @@ public class UnpooledDirectByteBuf extends AbstractDirectByteBuf {
         if (refCntUpdater.compareAndSet(this, referenceCount, referenceCount - 1)) {
             if (referenceCount == 1) {
                 ByteBufUtil.release(memory);
-                return;
             }
+            return;
         }
         for (;;) {
             referenceCount = this.referenceCount;
@@ -91,8 +93,8 @@ public class UnpooledDirectByteBuf extends AbstractDirectByteBuf {
             if (refCntUpdater.compareAndSet(this, referenceCount, referenceCount - 1)) {
                 if (referenceCount == 1) {
                     ByteBufUtil.release(memory);
-                    return;
                 }
+                return;
             }
         }
     }
@@ -0,0 +1,79 @@
+/*
+ * Copyright 2015-2017 GenerallyCloud.com
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *  
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.generallycloud.baseio.collection;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 带类型的attribute key，创建时分配一个全局唯一的index，
+ * channel/eventLoop/context通过index直接访问数组，没有hash和装箱，
+ * 建议声明为static final常量
+ * @param <T> attribute value的类型
+ */
+public final class AttributeKey<T> {
+
+    private static final ConcurrentMap<String, AttributeKey<?>> keys      = new ConcurrentHashMap<>();
+    private static final AtomicInteger                          nextIndex = new AtomicInteger();
+
+    private final int                                           index;
+    private final String                                        name;
+
+    private AttributeKey(String name, int index) {
+        this.name = name;
+        this.index = index;
+    }
+
+    public int getIndex() {
+        return index;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+
+    /**
+     * 当前已经分配的index数量
+     */
+    public static int size() {
+        return nextIndex.get();
+    }
+
+    /**
+     * 获取或者创建名称为name的key，相同的name总是返回同一个key
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> AttributeKey<T> valueOf(String name) {
+        AttributeKey<?> key = keys.get(name);
+        if (key == null) {
+            synchronized (keys) {
+                key = keys.get(name);
+                if (key == null) {
+                    key = new AttributeKey<>(name, nextIndex.getAndIncrement());
+                    keys.put(name, key);
+                }
+            }
+        }
+        return (AttributeKey<T>) key;
+    }
+
+}
@@ -26,10 +26,16 @@ public interface Attributes {
 
     Object getAttribute(Object key);
 
+    <T> T getAttribute(AttributeKey<T> key);
+
     Set<Object> getAttributeNames();
 
     Object removeAttribute(Object key);
 
+    <T> T removeAttribute(AttributeKey<T> key);
+
     void setAttribute(Object key, Object value);
 
+    <T> void setAttribute(AttributeKey<T> key, T value);
+
 }
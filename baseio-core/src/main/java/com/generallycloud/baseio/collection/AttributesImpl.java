@@ -21,7 +21,8 @@ import java.util.Set;
 
 public class AttributesImpl implements Attributes {
 
-    private Map<Object, Object> attributes = new HashMap<>();
+    private Map<Object, Object> attributes        = new HashMap<>();
+    private IndexedAttributes   indexedAttributes = new IndexedAttributes();
 
     @Override
     public Map<Object, Object> attributes() {
@@ -31,6 +32,7 @@ public class AttributesImpl implements Attributes {
     @Override
     public void clearAttributes() {
         this.attributes.clear();
+        this.indexedAttributes.clear();
     }
 
     @Override
@@ -38,6 +40,11 @@ public class AttributesImpl implements Attributes {
         return this.attributes.get(key);
     }
 
+    @Override
+    public <T> T getAttribute(AttributeKey<T> key) {
+        return indexedAttributes.get(key);
+    }
+
     @Override
     public Set<Object> getAttributeNames() {
         return this.attributes.keySet();
@@ -48,9 +55,19 @@ public class AttributesImpl implements Attributes {
         return this.attributes.remove(key);
     }
 
+    @Override
+    public <T> T removeAttribute(AttributeKey<T> key) {
+        return indexedAttributes.remove(key);
+    }
+
     @Override
     public void setAttribute(Object key, Object value) {
         this.attributes.put(key, value);
     }
 
+    @Override
+    public <T> void setAttribute(AttributeKey<T> key, T value) {
+        indexedAttributes.set(key, value);
+    }
+
 }
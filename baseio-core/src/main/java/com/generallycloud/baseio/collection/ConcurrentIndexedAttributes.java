@@ -0,0 +1,66 @@
+/*
+ * Copyright 2015-2017 GenerallyCloud.com
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *  
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.generallycloud.baseio.collection;
+
+import java.util.Arrays;
+
+/**
+ * 线程安全的IndexedAttributes，用于多个EventLoop共享的对象(例如ChannelContext)，
+ * 写操作在锁中复制整个数组(copy-on-write)后通过volatile发布，读操作没有锁，
+ * 只在EventLoop内部使用的对象仍然使用IndexedAttributes
+ */
+public final class ConcurrentIndexedAttributes {
+
+    private volatile Object[] values = new Object[AttributeKey.size()];
+
+    public synchronized void clear() {
+        values = new Object[values.length];
+    }
+
+    @SuppressWarnings("unchecked")
+    public <T> T get(AttributeKey<T> key) {
+        Object[] values = this.values;
+        int index = key.getIndex();
+        if (index < values.length) {
+            return (T) values[index];
+        }
+        return null;
+    }
+
+    @SuppressWarnings("unchecked")
+    public synchronized <T> T remove(AttributeKey<T> key) {
+        Object[] values = this.values;
+        int index = key.getIndex();
+        if (index >= values.length || values[index] == null) {
+            return null;
+        }
+        Object old = values[index];
+        values = values.clone();
+        values[index] = null;
+        this.values = values;
+        return (T) old;
+    }
+
+    public synchronized <T> void set(AttributeKey<T> key, T value) {
+        int index = key.getIndex();
+        Object[] values = this.values;
+        int length = Math.max(values.length, Math.max(index + 1, AttributeKey.size()));
+        values = Arrays.copyOf(values, length);
+        values[index] = value;
+        this.values = values;
+    }
+
+}
@@ -16,25 +16,38 @@
 package com.generallycloud.baseio.collection;
 
 /**
+ * 只在所属线程(通常是EventLoop)中pop和push的对象池，满了之后push的对象直接丢弃；
+ * 其他线程通过pushRemote归还，先放在加锁的归还数组中，所属线程pop时没有可用对象再取回
  * @author wangkai
  *
  */
 public class FixedThreadStack<V> {
 
-    private V[] vs;
-    private int size;
+    private final V[]    returns;
+    private volatile int returnSize;
+    private int          size;
+    private V[]          vs;
 
     @SuppressWarnings("unchecked")
     public FixedThreadStack(int capacity) {
         this.size = 0;
         this.vs = (V[]) new Object[capacity];
+        this.returns = (V[]) new Object[capacity];
     }
 
     public V pop() {
         if (size == 0) {
-            return null;
+            if (returnSize == 0) {
+                return null;
+            }
+            drainReturns();
+            if (size == 0) {
+                return null;
+            }
         }
-        return vs[--size];
+        V v = vs[--size];
+        vs[size] = null;
+        return v;
     }
 
     public void push(V v) {
@@ -44,4 +57,33 @@ public class FixedThreadStack<V> {
         vs[size++] = v;
     }
 
+    /**
+     * 在其他线程中归还对象，可以在任意线程中调用
+     */
+    public void pushRemote(V v) {
+        synchronized (returns) {
+            int returnSize = this.returnSize;
+            if (returnSize == returns.length) {
+                return;
+            }
+            returns[returnSize] = v;
+            this.returnSize = returnSize + 1;
+        }
+    }
+
+    private void drainReturns() {
+        synchronized (returns) {
+            int returnSize = this.returnSize;
+            for (; returnSize > 0 && size < vs.length;) {
+                vs[size++] = returns[--returnSize];
+                returns[returnSize] = null;
+            }
+            this.returnSize = returnSize;
+        }
+    }
+
+    public int size() {
+        return size + returnSize;
+    }
+
 }
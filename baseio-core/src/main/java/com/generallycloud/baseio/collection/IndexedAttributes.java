@@ -0,0 +1,64 @@
+/*
+ * Copyright 2015-2017 GenerallyCloud.com
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *  
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.generallycloud.baseio.collection;
+
+import java.util.Arrays;
+
+/**
+ * 以AttributeKey.index为下标的attribute数组，get/set都是一次数组访问，
+ * 数组初始大小为已经创建的key的数量，之后创建的key在set时自动扩容
+ */
+public final class IndexedAttributes {
+
+    private Object[] values = new Object[AttributeKey.size()];
+
+    public void clear() {
+        Arrays.fill(values, null);
+    }
+
+    @SuppressWarnings("unchecked")
+    public <T> T get(AttributeKey<T> key) {
+        Object[] values = this.values;
+        int index = key.getIndex();
+        if (index < values.length) {
+            return (T) values[index];
+        }
+        return null;
+    }
+
+    @SuppressWarnings("unchecked")
+    public <T> T remove(AttributeKey<T> key) {
+        Object[] values = this.values;
+        int index = key.getIndex();
+        if (index < values.length) {
+            Object old = values[index];
+            values[index] = null;
+            return (T) old;
+        }
+        return null;
+    }
+
+    public <T> void set(AttributeKey<T> key, T value) {
+        int index = key.getIndex();
+        Object[] values = this.values;
+        if (index >= values.length) {
+            values = Arrays.copyOf(values, Math.max(index + 1, AttributeKey.size()));
+            this.values = values;
+        }
+        values[index] = value;
+    }
+
+}
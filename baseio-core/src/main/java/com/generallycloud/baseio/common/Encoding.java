@@ -25,4 +25,6 @@ public class Encoding {
 
     public static Charset ASCII = Charset.forName("ASCII");
 
+    public static Charset ISO_8859_1 = Charset.forName("ISO-8859-1");
+
 }
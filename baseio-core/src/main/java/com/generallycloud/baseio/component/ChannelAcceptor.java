@@ -125,6 +125,25 @@ public class ChannelAcceptor implements ChannelService {
         return active;
     }
 
+    /**
+     * 优雅关闭：先停止accept新连接，等待所有EventLoop上正在处理的请求完成、
+     * 未写出的数据写完，并且quietPeriod内没有新的数据读入，然后关闭所有连接并停止服务，
+     * 最多等待timeout毫秒，超时后直接关闭
+     * @param quietPeriod 静默时间(毫秒)
+     * @param timeout 最长等待时间(毫秒)
+     * @return 是否在timeout内完成drain
+     */
+    public synchronized boolean unbindGracefully(long quietPeriod, long timeout)
+            throws TimeoutException {
+        active = false;
+        CloseUtil.close(serverSocket);
+        CloseUtil.close(selectableChannel);
+        boolean drained = group.isRunning() && group.drainAndCloseChannels(quietPeriod, timeout);
+        LifeCycleUtil.stop(group);
+        LifeCycleUtil.stop(context);
+        return drained;
+    }
+
     public synchronized void unbind() throws TimeoutException {
         active = false;
         CloseUtil.close(serverSocket);
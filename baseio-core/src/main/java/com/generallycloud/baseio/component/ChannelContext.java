@@ -26,6 +26,8 @@ import java.util.Set;
 import com.generallycloud.baseio.AbstractLifeCycle;
 import com.generallycloud.baseio.LifeCycleUtil;
 import com.generallycloud.baseio.buffer.UnpooledByteBufAllocator;
+import com.generallycloud.baseio.collection.AttributeKey;
+import com.generallycloud.baseio.collection.ConcurrentIndexedAttributes;
 import com.generallycloud.baseio.common.Assert;
 import com.generallycloud.baseio.common.LoggerUtil;
 import com.generallycloud.baseio.component.ssl.SslContext;
@@ -39,25 +41,28 @@ import com.generallycloud.baseio.protocol.ProtocolCodec;
 
 public class ChannelContext extends AbstractLifeCycle {
 
-    private Map<Object, Object>            attributes    = new HashMap<>();
+    private Map<Object, Object>            attributes      = new HashMap<>();
     private ChannelManager                 channelManager;
     private ChannelService                 channelService;
     private Configuration                  configuration;
     private boolean                        enableSsl;
+    private boolean                        enableSslDetect;
     private boolean                        enableWorkEventLoop;
     private Charset                        encoding;
     private ExecutorEventLoopGroup         executorEventLoopGroup;
     private HeartBeatLogger                heartBeatLogger;
     private boolean                        initialized;
-    private IoEventHandle                  ioEventHandle = DefaultIoEventHandle.get();
-    private Logger                         logger        = LoggerFactory.getLogger(getClass());
+    private IoEventHandle                  ioEventHandle   = DefaultIoEventHandle.get();
+    // 被所有EventLoop共享
+    private ConcurrentIndexedAttributes    keyedAttributes = new ConcurrentIndexedAttributes();
+    private Logger                         logger          = LoggerFactory.getLogger(getClass());
     private NioEventLoopGroup              nioEventLoopGroup;
     private ProtocolCodec                  protocolCodec;
     private NioSocketChannel               simulateSocketChannel;
-    private List<ChannelEventListener>     ssels         = new ArrayList<>();
-    private List<ChannelIdleEventListener> ssiels        = new ArrayList<>();
+    private List<ChannelEventListener>     ssels           = new ArrayList<>();
+    private List<ChannelIdleEventListener> ssiels          = new ArrayList<>();
     private SslContext                     sslContext;
-    private long                           startupTime   = System.currentTimeMillis();
+    private long                           startupTime     = System.currentTimeMillis();
 
     public ChannelContext(Configuration configuration) {
         this.configuration = configuration;
@@ -156,12 +161,17 @@ public class ChannelContext extends AbstractLifeCycle {
     protected void doStop() throws Exception {
         LifeCycleUtil.stop(executorEventLoopGroup);
         this.attributes.clear();
+        this.keyedAttributes.clear();
     }
 
     public Object getAttribute(Object key) {
         return this.attributes.get(key);
     }
 
+    public <T> T getAttribute(AttributeKey<T> key) {
+        return keyedAttributes.get(key);
+    }
+
     public Set<Object> getAttributeNames() {
         return this.attributes.keySet();
     }
@@ -226,6 +236,10 @@ public class ChannelContext extends AbstractLifeCycle {
         return enableSsl;
     }
 
+    public boolean isEnableSslDetect() {
+        return enableSslDetect;
+    }
+
     public boolean isEnableWorkEventLoop() {
         return enableWorkEventLoop;
     }
@@ -234,10 +248,18 @@ public class ChannelContext extends AbstractLifeCycle {
         return this.attributes.remove(key);
     }
 
+    public <T> T removeAttribute(AttributeKey<T> key) {
+        return keyedAttributes.remove(key);
+    }
+
     public void setAttribute(Object key, Object value) {
         this.attributes.put(key, value);
     }
 
+    public <T> void setAttribute(AttributeKey<T> key, T value) {
+        keyedAttributes.set(key, value);
+    }
+
     public void setChannelService(ChannelService service) {
         this.channelService = service;
     }
@@ -261,6 +283,15 @@ public class ChannelContext extends AbstractLifeCycle {
         this.protocolCodec = protocolCodec;
     }
 
+    /**
+     * 开启ssl时同一端口同时接受明文连接，第一个报文不是TLS握手的连接按明文处理，
+     * 只对服务端有效
+     */
+    public void setEnableSslDetect(boolean enableSslDetect) {
+        checkNotRunning();
+        this.enableSslDetect = enableSslDetect;
+    }
+
     public void setSslContext(SslContext sslContext) {
         checkNotRunning();
         if (sslContext == null) {
@@ -0,0 +1,265 @@
+/*
+ * Copyright 2015-2017 GenerallyCloud.com
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *  
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.generallycloud.baseio.component;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.generallycloud.baseio.collection.IntObjectHashMap;
+import com.generallycloud.baseio.common.ReleaseUtil;
+import com.generallycloud.baseio.log.Logger;
+import com.generallycloud.baseio.log.LoggerFactory;
+import com.generallycloud.baseio.protocol.Future;
+import com.generallycloud.baseio.protocol.ProtocolCodec;
+
+/**
+ * 一组channel(例如聊天室)，成员按照所在的NioEventLoop分组保存在数组中，
+ * 广播时只编码一次，每个EventLoop派发一个任务依次写出，
+ * 成员的增删都在所属的EventLoop中执行，连接关闭时自动移出
+ * @author wangkai
+ *
+ */
+public class ChannelGroup {
+
+    private static final Logger         logger        = LoggerFactory.getLogger(ChannelGroup.class);
+    private final ChannelStreamListener closeListener = new CloseListener();
+    private final NioEventLoopGroup     group;
+    private final LoopMembers[]         loops;
+    private final String                name;
+    private final AtomicInteger         size          = new AtomicInteger();
+    private final NioSocketChannel      simulateChannel;
+
+    public ChannelGroup(ChannelContext context, String name) {
+        this.name = name;
+        this.group = context.getNioEventLoopGroup();
+        this.simulateChannel = context.getSimulateSocketChannel();
+        this.loops = new LoopMembers[group.getEventLoopSize()];
+        for (int i = 0; i < loops.length; i++) {
+            loops[i] = new LoopMembers();
+        }
+    }
+
+    public void add(final NioSocketChannel channel) {
+        final NioEventLoop eventLoop = channel.getEventLoop();
+        if (eventLoop.inEventLoop()) {
+            add0(channel);
+        } else {
+            eventLoop.dispatch(new NioEventLoopTask() {
+
+                @Override
+                public void fireEvent(NioEventLoop eventLoop) {
+                    add0(channel);
+                }
+            });
+        }
+    }
+
+    private void add0(NioSocketChannel channel) {
+        if (!channel.isOpened()) {
+            return;
+        }
+        if (loops[channel.getEventLoop().getIndex()].add(channel)) {
+            channel.addStreamListener(closeListener);
+            size.incrementAndGet();
+        }
+    }
+
+    /**
+     * 使用codec编码一次，然后广播给所有成员，websocket广播使用WebSocketCodec编码，
+     * 服务端的帧没有mask，所有成员收到的字节相同
+     */
+    public void broadcast(Future future, ProtocolCodec codec) throws IOException {
+        codec.encode(simulateChannel, future);
+        broadcastFuture(future);
+    }
+
+    /**
+     * 广播已经编码的future，每个成员写出一个duplicate，调用之后future持有的buf由group释放
+     */
+    public void broadcastFuture(Future future) {
+        try {
+            for (int i = 0; i < loops.length; i++) {
+                final LoopMembers members = loops[i];
+                if (members.size == 0) {
+                    continue;
+                }
+                final Future loopFuture = future.duplicate();
+                NioEventLoop eventLoop = group.getEventLoop(i);
+                if (eventLoop.inEventLoop()) {
+                    members.flush(loopFuture);
+                } else {
+                    eventLoop.dispatch(new NioEventLoopTask() {
+
+                        @Override
+                        public void fireEvent(NioEventLoop eventLoop) {
+                            members.flush(loopFuture);
+                        }
+                    });
+                }
+            }
+        } finally {
+            ReleaseUtil.release(future.getByteBuf());
+        }
+    }
+
+    /**
+     * 为成员创建写出的future，子类可以覆盖(例如设置流水线序号)，返回null时跳过该成员
+     */
+    protected Future duplicate(NioSocketChannel channel, Future future) {
+        // 编码时使用的是模拟channel，是否需要ssl由成员自己决定
+        Future f = future.duplicate();
+        f.setNeedSsl(channel.isEnableSsl());
+        return f;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public void remove(final NioSocketChannel channel) {
+        final NioEventLoop eventLoop = channel.getEventLoop();
+        if (eventLoop.inEventLoop()) {
+            remove0(channel);
+        } else {
+            eventLoop.dispatch(new NioEventLoopTask() {
+
+                @Override
+                public void fireEvent(NioEventLoop eventLoop) {
+                    remove0(channel);
+                }
+            });
+        }
+    }
+
+    private void remove0(NioSocketChannel channel) {
+        if (loops[channel.getEventLoop().getIndex()].remove(channel)) {
+            channel.removeStreamListener(closeListener);
+            size.decrementAndGet();
+        }
+    }
+
+    public int size() {
+        return size.get();
+    }
+
+    @Override
+    public String toString() {
+        return "ChannelGroup[" + name + ",size=" + size.get() + "]";
+    }
+
+    class CloseListener implements ChannelStreamListener {
+
+        @Override
+        public void channelClosed(NioSocketChannel channel) {
+            remove0(channel);
+        }
+
+        @Override
+        public void futureWritten(NioSocketChannel channel, Future future) {}
+
+    }
+
+    /**
+     * 单个EventLoop上的成员，只在该EventLoop中访问，
+     * 移除时用最后一个成员填补空位，写出过程中的移除延迟到写出之后
+     */
+    class LoopMembers {
+
+        private NioSocketChannel[]        channels = new NioSocketChannel[16];
+        private boolean                   flushing;
+        private IntObjectHashMap<Integer> indexes  = new IntObjectHashMap<>();
+        private List<NioSocketChannel>    removes;
+        private volatile int              size;
+
+        boolean add(NioSocketChannel channel) {
+            int channelId = channel.getChannelId();
+            if (indexes.containsKey(channelId)) {
+                return false;
+            }
+            int size = this.size;
+            if (size == channels.length) {
+                NioSocketChannel[] newChannels = new NioSocketChannel[size * 2];
+                System.arraycopy(channels, 0, newChannels, 0, size);
+                channels = newChannels;
+            }
+            channels[size] = channel;
+            indexes.put(channelId, size);
+            this.size = size + 1;
+            return true;
+        }
+
+        void flush(Future future) {
+            NioSocketChannel[] channels = this.channels;
+            int size = this.size;
+            flushing = true;
+            try {
+                for (int i = 0; i < size; i++) {
+                    NioSocketChannel ch = channels[i];
+                    if (ch.isOpened()) {
+                        Future f = duplicate(ch, future);
+                        if (f != null) {
+                            ch.flushFuture(f);
+                        }
+                    }
+                }
+            } catch (Throwable e) {
+                logger.error(e.getMessage(), e);
+            } finally {
+                flushing = false;
+                ReleaseUtil.release(future.getByteBuf());
+            }
+            List<NioSocketChannel> removes = this.removes;
+            if (removes != null) {
+                this.removes = null;
+                for (NioSocketChannel ch : removes) {
+                    remove(ch);
+                }
+            }
+        }
+
+        boolean remove(NioSocketChannel channel) {
+            int channelId = channel.getChannelId();
+            if (flushing) {
+                if (!indexes.containsKey(channelId)
+                        || (removes != null && removes.contains(channel))) {
+                    return false;
+                }
+                if (removes == null) {
+                    removes = new ArrayList<>();
+                }
+                removes.add(channel);
+                return true;
+            }
+            Integer index = indexes.remove(channelId);
+            if (index == null) {
+                return false;
+            }
+            int last = size - 1;
+            NioSocketChannel lastChannel = channels[last];
+            channels[index] = lastChannel;
+            channels[last] = null;
+            if (lastChannel != channel) {
+                indexes.put(lastChannel.getChannelId(), index);
+            }
+            this.size = last;
+            return true;
+        }
+
+    }
+
+}
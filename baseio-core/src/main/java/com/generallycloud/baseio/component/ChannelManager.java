@@ -21,6 +21,7 @@ import java.util.Collections;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 
+import com.generallycloud.baseio.common.ReleaseUtil;
 import com.generallycloud.baseio.protocol.Future;
 
 /**
@@ -32,6 +33,7 @@ public class ChannelManager {
     private Map<Integer, NioSocketChannel> channels         = new ConcurrentHashMap<>();
     private Map<Integer, NioSocketChannel> readOnlyChannels = Collections.unmodifiableMap(channels);
     private ChannelContext                 context;
+    private Map<String, ChannelGroup>      groups           = new ConcurrentHashMap<>();
 
     public ChannelManager(ChannelContext context) {
         this.context = context;
@@ -45,6 +47,27 @@ public class ChannelManager {
         return channels.get(channelId);
     }
 
+    /**
+     * 获取指定名称的ChannelGroup，不存在时创建
+     */
+    public ChannelGroup getChannelGroup(String name) {
+        ChannelGroup group = groups.get(name);
+        if (group == null) {
+            synchronized (groups) {
+                group = groups.get(name);
+                if (group == null) {
+                    group = new ChannelGroup(context, name);
+                    groups.put(name, group);
+                }
+            }
+        }
+        return group;
+    }
+
+    public ChannelGroup removeChannelGroup(String name) {
+        return groups.remove(name);
+    }
+
     public void putChannel(NioSocketChannel channel) {
         channels.put(channel.getChannelId(), channel);
     }
@@ -70,13 +93,17 @@ public class ChannelManager {
         broadcastFuture(future, channels);
     }
 
+    /**
+     * 广播已经编码的future，每个channel写出一个duplicate，调用之后future持有的buf由manager释放
+     */
     public void broadcastFuture(Future future,
             Collection<NioSocketChannel> channels) {
-        if (channels.size() == 0) {
-            return;
-        }
-        for (NioSocketChannel ch : channels) {
-            ch.flushFuture(future.duplicate());
+        try {
+            for (NioSocketChannel ch : channels) {
+                ch.flushFuture(future.duplicate());
+            }
+        } finally {
+            ReleaseUtil.release(future.getByteBuf());
         }
     }
 
@@ -0,0 +1,35 @@
+/*
+ * Copyright 2015-2017 GenerallyCloud.com
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *  
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.generallycloud.baseio.component;
+
+import com.generallycloud.baseio.protocol.Future;
+
+/**
+ * 单个channel上的写出和关闭事件，回调都在channel所在的EventLoop中执行，
+ * 用于按照实际写出的数据做流量控制
+ * @author wangkai
+ *
+ */
+public interface ChannelStreamListener {
+
+    /**
+     * future已经完全写入socket，回调之后future会被release
+     */
+    void futureWritten(NioSocketChannel channel, Future future);
+
+    void channelClosed(NioSocketChannel channel);
+
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright 2015-2017 GenerallyCloud.com
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *  
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.generallycloud.baseio.component;
+
+import java.util.ArrayDeque;
+
+import com.generallycloud.baseio.concurrent.Promise;
+import com.generallycloud.baseio.protocol.Future;
+
+/**
+ * 按照请求顺序关联响应，适用于HTTP/1.1，Redis等响应严格有序的协议，
+ * 超时的请求仍然占据队列中的位置，直到它的响应到达后被丢弃
+ * @author wangkai
+ *
+ */
+public class FifoResponseCorrelator<T extends Future> extends ResponseCorrelator<T> {
+
+    private ArrayDeque<Promise<T>> pendings = new ArrayDeque<>();
+
+    public FifoResponseCorrelator(NioSocketChannel channel) {
+        super(channel);
+    }
+
+    @Override
+    public boolean fail(Future request, Throwable cause) {
+        // 有序协议中某个请求发送失败后，后续的响应已经无法对应，全部失败
+        failAll(cause);
+        return true;
+    }
+
+    @Override
+    public void failAll(Throwable cause) {
+        for (;;) {
+            Promise<T> promise;
+            synchronized (this) {
+                promise = pendings.poll();
+            }
+            if (promise == null) {
+                return;
+            }
+            promise.fail(cause);
+        }
+    }
+
+    public synchronized int getPendingSize() {
+        return pendings.size();
+    }
+
+    @Override
+    protected void register(Future request, Promise<T> promise) {
+        pendings.offer(promise);
+    }
+
+    @Override
+    protected synchronized Promise<T> remove(Future response) {
+        return pendings.poll();
+    }
+
+}
@@ -0,0 +1,206 @@
+/*
+ * Copyright 2015-2017 GenerallyCloud.com
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *  
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.generallycloud.baseio.component;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.generallycloud.baseio.protocol.Future;
+
+/**
+ * 请求流水线(pipelining)的响应排序：</BR>
+ * 每个请求在decode时分配一个递增的序号，响应完成时如果前面的响应还未完成则暂存，
+ * 前面的响应完成后按序号顺序一起写出；在一次读取(burst)期间完成的响应会在读取结束时
+ * 通过一次gathering write写出；一个请求可以有多个响应future(isSequenceEnd()为false的
+ * future之后还有后续的future)，同一序号的future按照flush的顺序写出；
+ * 序号已经结束(小于nextWrite)的future不会再被写出，直接丢弃
+ * @author wangkai
+ *
+ */
+final class FuturePipeline {
+
+    private final NioSocketChannel channel;
+    private boolean                bursting;
+    private boolean                closed;
+    // 暂存的响应，每个位置为Future或者List<Future>(同一序号的多个future)
+    private Object[]               held = new Object[16];
+    private int                    nextRead;
+    private int                    nextWrite;
+    private List<Future>           ready;
+
+    FuturePipeline(NioSocketChannel channel) {
+        this.channel = channel;
+    }
+
+    // 只在EventLoop线程调用
+    int nextSequence() {
+        return nextRead++;
+    }
+
+    synchronized void beginBurst() {
+        bursting = true;
+    }
+
+    synchronized void endBurst() {
+        bursting = false;
+        List<Future> ready = this.ready;
+        if (ready != null) {
+            this.ready = null;
+            flushReady(ready);
+        }
+    }
+
+    void offer(Future future) {
+        boolean closed;
+        synchronized (this) {
+            closed = this.closed;
+            if (!closed && future.getSequence() - nextWrite >= 0) {
+                offer0(future);
+                return;
+            }
+        }
+        if (closed) {
+            channel.exceptionCaught(future, NioSocketChannel.CLOSED_WHEN_FLUSH);
+        } else {
+            // 该序号的响应已经结束，暂存的话会在之后其他的响应中被写出，也不能交给
+            // exceptionCaught，那样会以同一个序号再写出一个错误响应
+            future.release(channel.getEventLoop());
+        }
+    }
+
+    private void offer0(Future future) {
+        int seq = future.getSequence();
+        if (seq != nextWrite) {
+            hold(seq, future);
+            return;
+        }
+        Object[] held = this.held;
+        int mask = held.length - 1;
+        int next = nextWrite + 1;
+        if (!future.isSequenceEnd() || held[next & mask] == null) {
+            if (future.isSequenceEnd()) {
+                nextWrite = next;
+            }
+            if (bursting) {
+                ready().add(future);
+            } else {
+                // 最常见的情况：没有被暂存的响应，直接写出
+                channel.flushFuture0(future);
+            }
+            return;
+        }
+        List<Future> ready = ready();
+        ready.add(future);
+        for (;; next++) {
+            Object h = held[next & mask];
+            if (h == null) {
+                break;
+            }
+            held[next & mask] = null;
+            Future last;
+            if (h instanceof Future) {
+                last = (Future) h;
+                ready.add(last);
+            } else {
+                @SuppressWarnings("unchecked")
+                List<Future> list = (List<Future>) h;
+                ready.addAll(list);
+                last = list.get(list.size() - 1);
+            }
+            if (!last.isSequenceEnd()) {
+                break;
+            }
+        }
+        nextWrite = next;
+        if (!bursting) {
+            this.ready = null;
+            flushReady(ready);
+        }
+    }
+
+    private List<Future> ready() {
+        List<Future> ready = this.ready;
+        if (ready == null) {
+            ready = new ArrayList<>();
+            this.ready = ready;
+        }
+        return ready;
+    }
+
+    private void flushReady(List<Future> ready) {
+        if (ready.size() == 1) {
+            channel.flushFuture0(ready.get(0));
+        } else {
+            channel.flushFutures0(ready);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void hold(int seq, Future future) {
+        Object[] held = this.held;
+        int distance = seq - nextWrite;
+        if (distance >= held.length) {
+            int cap = held.length;
+            while (distance >= cap) {
+                cap <<= 1;
+            }
+            Object[] newHeld = new Object[cap];
+            int mask = held.length - 1;
+            for (int i = 1; i < held.length; i++) {
+                int s = nextWrite + i;
+                newHeld[s & (cap - 1)] = held[s & mask];
+            }
+            this.held = held = newHeld;
+        }
+        int index = seq & (held.length - 1);
+        Object h = held[index];
+        if (h == null) {
+            held[index] = future;
+        } else if (h instanceof Future) {
+            List<Future> list = new ArrayList<>(4);
+            list.add((Future) h);
+            list.add(future);
+            held[index] = list;
+        } else {
+            ((List<Future>) h).add(future);
+        }
+    }
+
+    /**
+     * channel关闭后调用，返回所有还未写出的响应
+     */
+    @SuppressWarnings("unchecked")
+    synchronized List<Future> close() {
+        closed = true;
+        List<Future> futures = new ArrayList<>();
+        if (ready != null) {
+            futures.addAll(ready);
+            ready = null;
+        }
+        Object[] held = this.held;
+        for (int i = 0; i < held.length; i++) {
+            Object h = held[i];
+            if (h instanceof Future) {
+                futures.add((Future) h);
+            } else if (h != null) {
+                futures.addAll((List<Future>) h);
+            }
+            held[i] = null;
+        }
+        return futures;
+    }
+
+}
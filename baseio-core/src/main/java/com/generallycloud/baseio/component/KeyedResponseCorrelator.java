@@ -0,0 +1,99 @@
+/*
+ * Copyright 2015-2017 GenerallyCloud.com
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *  
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.generallycloud.baseio.component;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.generallycloud.baseio.concurrent.Promise;
+import com.generallycloud.baseio.protocol.Future;
+
+/**
+ * 通过请求中携带的id关联响应，响应可以乱序到达
+ * @author wangkai
+ *
+ */
+public abstract class KeyedResponseCorrelator<T extends Future> extends ResponseCorrelator<T> {
+
+    private AtomicInteger                     ids      = new AtomicInteger();
+    private ConcurrentMap<Integer, Promise<T>> pendings = new ConcurrentHashMap<>();
+
+    protected KeyedResponseCorrelator(NioSocketChannel channel) {
+        super(channel);
+    }
+
+    @Override
+    public boolean fail(Future request, Throwable cause) {
+        Promise<T> promise = pendings.remove(getKey(request));
+        if (promise == null) {
+            return false;
+        }
+        promise.fail(cause);
+        return true;
+    }
+
+    @Override
+    public void failAll(Throwable cause) {
+        for (Integer key : pendings.keySet()) {
+            Promise<T> promise = pendings.remove(key);
+            if (promise != null) {
+                promise.fail(cause);
+            }
+        }
+    }
+
+    /**
+     * 从请求或者响应中读取id
+     */
+    protected abstract int getKey(Future future);
+
+    public int getPendingSize() {
+        return pendings.size();
+    }
+
+    private int nextKey() {
+        for (;;) {
+            int key = ids.incrementAndGet() & 0x7fffffff;
+            if (key != 0) {
+                return key;
+            }
+        }
+    }
+
+    @Override
+    protected void onTimeout(Future request, Promise<T> promise) {
+        pendings.remove(getKey(request), promise);
+    }
+
+    @Override
+    protected void register(Future request, Promise<T> promise) {
+        int key = nextKey();
+        setKey(request, key);
+        pendings.put(key, promise);
+    }
+
+    @Override
+    protected Promise<T> remove(Future response) {
+        return pendings.remove(getKey(response));
+    }
+
+    /**
+     * 将id写入请求
+     */
+    protected abstract void setKey(Future request, int key);
+
+}
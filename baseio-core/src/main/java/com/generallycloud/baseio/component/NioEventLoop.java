@@ -36,26 +36,32 @@ import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.PriorityQueue;
 import java.util.Set;
 import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
 
 import javax.net.ssl.SSLHandshakeException;
 
+import com.generallycloud.baseio.TimeoutException;
 import com.generallycloud.baseio.buffer.ByteBuf;
 import com.generallycloud.baseio.buffer.ByteBufAllocator;
 import com.generallycloud.baseio.buffer.UnpooledByteBufAllocator;
+import com.generallycloud.baseio.collection.AttributeKey;
 import com.generallycloud.baseio.collection.Attributes;
+import com.generallycloud.baseio.collection.IndexedAttributes;
 import com.generallycloud.baseio.collection.IntObjectHashMap;
 import com.generallycloud.baseio.common.ClassUtil;
 import com.generallycloud.baseio.common.CloseUtil;
 import com.generallycloud.baseio.common.MessageFormatter;
 import com.generallycloud.baseio.common.ReleaseUtil;
-import com.generallycloud.baseio.common.ThreadUtil;
 import com.generallycloud.baseio.component.ssl.SslHandler;
 import com.generallycloud.baseio.concurrent.AbstractEventLoop;
 import com.generallycloud.baseio.concurrent.BufferedArrayList;
+import com.generallycloud.baseio.concurrent.DelayTask;
+import com.generallycloud.baseio.concurrent.Promise;
 import com.generallycloud.baseio.concurrent.Waiter;
 import com.generallycloud.baseio.log.Logger;
 import com.generallycloud.baseio.log.LoggerFactory;
@@ -68,21 +74,8 @@ import com.generallycloud.baseio.protocol.SslFuture;
 //FIXME 使用ThreadLocal
 public final class NioEventLoop extends AbstractEventLoop implements Attributes {
 
-    private static final AtomicInteger indexedVariablesIndex   = new AtomicInteger(0);
-    private static final Logger        logger                  = LoggerFactory
+    private static final Logger                 logger           = LoggerFactory
             .getLogger(NioEventLoop.class);
-    private static final int           maxIndexedVariablesSize = 16;
-
-    public static int nextIndexedVariablesIndex() {
-        if (indexedVariablesIndex.get() >= maxIndexedVariablesSize) {
-            return -1;
-        }
-        int index = indexedVariablesIndex.getAndIncrement();
-        if (index >= maxIndexedVariablesSize) {
-            return -1;
-        }
-        return index;
-    }
 
     private ByteBufAllocator                    allocator;
     private Map<Object, Object>                 attributes       = new HashMap<>();
@@ -92,14 +85,17 @@ public final class NioEventLoop extends AbstractEventLoop implements Attributes
     private Map<Charset, CharsetDecoder>        charsetDecoders  = new IdentityHashMap<>();
     private Map<Charset, CharsetEncoder>        charsetEncoders  = new IdentityHashMap<>();
     private ChannelContext                      context;                                               // use when not sharable 
+    private PriorityQueue<DelayTask>            delayedQueue     = new PriorityQueue<>();
     private String                              desc;
     private BufferedArrayList<NioEventLoopTask> events           = new BufferedArrayList<>();
+    private boolean                             eventsClosed;
     private NioEventLoopGroup                   group;
     private volatile boolean                    hasTask          = false;
     private final int                           index;
-    private Object[]                            indexedVariables = new Object[maxIndexedVariablesSize];
+    private IndexedAttributes                   keyedAttributes  = new IndexedAttributes();
     private final boolean                       isAcceptor;
     private long                                lastIdleTime     = 0;
+    private volatile long                       lastReadTime     = 0;
     private AtomicBoolean                       selecting        = new AtomicBoolean();
     private SelectionKeySet                     selectionKeySet;
     private Selector                            selector;
@@ -108,6 +104,7 @@ public final class NioEventLoop extends AbstractEventLoop implements Attributes
     private SslHandler                          sslHandler;
     private SslFuture                           sslTemporary;
     private AtomicBoolean                       wakener          = new AtomicBoolean();                // true eventLooper, false offerer
+    private AtomicInteger                       workingJobs      = new AtomicInteger();
     private ByteBuffer[]                        writeBuffers;
 
     NioEventLoop(NioEventLoopGroup group, int index, boolean isAcceptor) {
@@ -248,6 +245,7 @@ public final class NioEventLoop extends AbstractEventLoop implements Attributes
     @Override
     public void clearAttributes() {
         this.attributes.clear();
+        this.keyedAttributes.clear();
     }
 
     public void close() throws IOException {
@@ -260,18 +258,48 @@ public final class NioEventLoop extends AbstractEventLoop implements Attributes
         }
     }
 
-    private void closeEvents(BufferedArrayList<NioEventLoopTask> events) {
-        for (NioEventLoopTask event : events.getBuffer()) {
-            if (event instanceof Closeable) {
-                CloseUtil.close((Closeable) event);
-            } else {
+    /**
+     * 在EventLoop线程中关闭所有channel，关闭前会尝试写出未发送的数据
+     * @return 所有channel关闭后完成
+     */
+    public Promise<Void> closeChannelsAsync() {
+        final Promise<Void> promise = new Promise<>();
+        dispatch(new NioEventLoopTask() {
+
+            @Override
+            public void fireEvent(NioEventLoop eventLoop) {
                 try {
-                    event.fireEvent(this);
-                } catch (IOException e) {
-                    logger.error(e.getMessage(), e);
+                    eventLoop.closeChannels();
+                } finally {
+                    promise.complete(null);
                 }
             }
-        }
+        });
+        return promise;
+    }
+
+    private void closeEvents(BufferedArrayList<NioEventLoopTask> events) {
+        ReentrantLock lock = events.getReentrantLock();
+        lock.lock();
+        try {
+            eventsClosed = true;
+        } finally {
+            lock.unlock();
+        }
+        // eventsClosed之后不会再有新的event进来，处理完剩下的event即可
+        do {
+            for (NioEventLoopTask event : events.getBuffer()) {
+                if (event instanceof Closeable) {
+                    CloseUtil.close((Closeable) event);
+                } else {
+                    try {
+                        event.fireEvent(this);
+                    } catch (IOException e) {
+                        logger.error(e.getMessage(), e);
+                    }
+                }
+            }
+        } while (events.size() > 0);
     }
 
     private void closeSocketChannel(NioSocketChannel channel, Throwable t) {
@@ -280,14 +308,7 @@ public final class NioEventLoop extends AbstractEventLoop implements Attributes
     }
 
     protected final void dispatch(NioEventLoopTask event) {
-        if (!isRunning()) {
-            throw new RejectedExecutionException();
-        }
-        /* ----------------------------------------------------------------- */
-        // 这里不需要再次判断了，因为close方法会延迟执行，
-        // 可以确保event要么被执行，要么被close
-        /* ----------------------------------------------------------------- */
-        events.offer(event);
+        offerEvent(event);
         wakeup();
     }
 
@@ -295,13 +316,23 @@ public final class NioEventLoop extends AbstractEventLoop implements Attributes
         if (inEventLoop()) {
             events.unsafeOffer(event);
         } else {
-            if (!isRunning()) {
-                throw new RejectedExecutionException();
-            }
-            events.offer(event);
+            offerEvent(event);
         }
     }
 
+    /**
+     * 等待EventLoop进入静默状态：没有正在处理的请求，没有未写出的数据，
+     * 并且在quietPeriod内没有读到新的数据
+     * @param quietPeriod 静默时间(毫秒)
+     * @param deadline 最晚完成时间(System.currentTimeMillis())
+     * @return 静默后完成，到达deadline时仍未静默则以TimeoutException失败
+     */
+    public Promise<Void> drain(long quietPeriod, long deadline) {
+        Promise<Void> promise = new Promise<>();
+        schedule(new DrainTask(promise, quietPeriod, deadline));
+        return promise;
+    }
+
     @Override
     protected void doStartup() throws IOException {
         this.writeBuffers = new ByteBuffer[group.getWriteBuffers()];
@@ -315,8 +346,6 @@ public final class NioEventLoop extends AbstractEventLoop implements Attributes
 
     @Override
     protected void doStop() {
-        ThreadUtil.sleep(8);
-        closeEvents(events);
         closeEvents(events);
         closeChannels();
         CloseUtil.close(selector);
@@ -344,6 +373,11 @@ public final class NioEventLoop extends AbstractEventLoop implements Attributes
         return this.attributes.get(key);
     }
 
+    @Override
+    public <T> T getAttribute(AttributeKey<T> key) {
+        return keyedAttributes.get(key);
+    }
+
     @Override
     public Set<Object> getAttributeNames() {
         return this.attributes.keySet();
@@ -380,8 +414,11 @@ public final class NioEventLoop extends AbstractEventLoop implements Attributes
         return index;
     }
 
-    public Object getIndexedVariable(int index) {
-        return indexedVariables[index];
+    /**
+     * 已经分发到业务线程，但是还没有处理完的请求数量
+     */
+    public AtomicInteger getWorkingJobs() {
+        return workingJobs;
     }
 
     public Selector getSelector() {
@@ -474,12 +511,44 @@ public final class NioEventLoop extends AbstractEventLoop implements Attributes
                 } else {
                     selectTime = nextIdle - now;
                 }
+                if (delayedQueue.size() > 0) {
+                    long nextDelay = runDelayedTasks(now);
+                    if (nextDelay - now < selectTime) {
+                        selectTime = Math.max(nextDelay - now, 1);
+                    }
+                }
             } catch (Throwable e) {
                 logger.error(e.getMessage(), e);
             }
         }
     }
 
+    private boolean isQuiet(long now, long quietPeriod) {
+        if (workingJobs.get() > 0 || events.size() > 0 || now - lastReadTime < quietPeriod) {
+            return false;
+        }
+        for (NioSocketChannel channel : channels.values()) {
+            if (channel.hasPendingWrites()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void offerEvent(NioEventLoopTask event) {
+        ReentrantLock lock = events.getReentrantLock();
+        lock.lock();
+        try {
+            // 在closeEvents之后拒绝，可以确保event要么被执行，要么被close
+            if (eventsClosed || !isRunning()) {
+                throw new RejectedExecutionException();
+            }
+            events.unsafeOffer(event);
+        } finally {
+            lock.unlock();
+        }
+    }
+
     @SuppressWarnings("rawtypes")
     private Selector openSelector() throws IOException {
         SelectorProvider provider = SelectorProvider.provider();
@@ -714,6 +783,56 @@ public final class NioEventLoop extends AbstractEventLoop implements Attributes
         return this.attributes.remove(key);
     }
 
+    @Override
+    public <T> T removeAttribute(AttributeKey<T> key) {
+        return keyedAttributes.remove(key);
+    }
+
+    /**
+     * 执行所有到期的延迟任务，返回下一个任务的到期时间
+     */
+    private long runDelayedTasks(long now) {
+        final PriorityQueue<DelayTask> delayedQueue = this.delayedQueue;
+        for (;;) {
+            DelayTask task = delayedQueue.peek();
+            if (task == null) {
+                return Long.MAX_VALUE;
+            }
+            if (task.isCanceled()) {
+                delayedQueue.poll();
+                continue;
+            }
+            if (task.getDeadline() > now) {
+                return task.getDeadline();
+            }
+            delayedQueue.poll();
+            try {
+                task.run();
+            } catch (Throwable e) {
+                logger.error(e.getMessage(), e);
+            }
+        }
+    }
+
+    /**
+     * 在EventLoop线程中延迟执行task，可在任意线程中调用
+     * @param task
+     */
+    public void schedule(final DelayTask task) {
+        task.setDeadline(System.currentTimeMillis() + task.getDelay());
+        if (inEventLoop()) {
+            delayedQueue.offer(task);
+        } else {
+            dispatch(new NioEventLoopTask() {
+
+                @Override
+                public void fireEvent(NioEventLoop eventLoop) {
+                    eventLoop.delayedQueue.offer(task);
+                }
+            });
+        }
+    }
+
     protected void removeChannel(NioSocketChannel channel) {
         channels.remove(channel.getChannelId());
         channel.getContext().getChannelManager().removeChannel(channel);
@@ -724,8 +843,13 @@ public final class NioEventLoop extends AbstractEventLoop implements Attributes
         this.attributes.put(key, value);
     }
 
-    public void setIndexedVariable(int index, Object value) {
-        indexedVariables[index] = value;
+    @Override
+    public <T> void setAttribute(AttributeKey<T> key, T value) {
+        keyedAttributes.set(key, value);
+    }
+
+    void setLastReadTime(long lastReadTime) {
+        this.lastReadTime = lastReadTime;
     }
 
     @Override
@@ -753,6 +877,32 @@ public final class NioEventLoop extends AbstractEventLoop implements Attributes
         }
     }
 
+    class DrainTask extends DelayTask {
+
+        final long          deadline;
+        final Promise<Void> promise;
+        final long          quietPeriod;
+
+        DrainTask(Promise<Void> promise, long quietPeriod, long deadline) {
+            super(Math.max(1, Math.min(quietPeriod, 50)));
+            this.promise = promise;
+            this.quietPeriod = quietPeriod;
+            this.deadline = deadline;
+        }
+
+        @Override
+        public void run() {
+            long now = System.currentTimeMillis();
+            if (isQuiet(now, quietPeriod)) {
+                promise.complete(null);
+            } else if (now >= deadline) {
+                promise.fail(new TimeoutException("drain timeout"));
+            } else {
+                schedule(new DrainTask(promise, quietPeriod, deadline));
+            }
+        }
+    }
+
     class SelectionKeySet extends AbstractSet<SelectionKey> {
 
         SelectionKey[] keys;
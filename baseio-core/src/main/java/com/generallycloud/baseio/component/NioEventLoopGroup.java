@@ -18,11 +18,13 @@ package com.generallycloud.baseio.component;
 import java.io.IOException;
 
 import com.generallycloud.baseio.LifeCycleUtil;
+import com.generallycloud.baseio.TimeoutException;
 import com.generallycloud.baseio.buffer.ByteBufAllocatorGroup;
 import com.generallycloud.baseio.buffer.PooledByteBufAllocatorGroup;
 import com.generallycloud.baseio.buffer.UnpooledByteBufAllocatorGroup;
 import com.generallycloud.baseio.concurrent.AbstractEventLoopGroup;
 import com.generallycloud.baseio.concurrent.FixedAtomicInteger;
+import com.generallycloud.baseio.concurrent.Promise;
 
 /**
  * @author wangkai
@@ -87,6 +89,44 @@ public class NioEventLoopGroup extends AbstractEventLoopGroup {
         super.doStop();
     }
 
+    /**
+     * 并行等待所有EventLoop进入静默状态(参考NioEventLoop.drain)，
+     * 然后并行关闭所有channel，最多等待timeout毫秒
+     * @return 是否在timeout内完成
+     */
+    public boolean drainAndCloseChannels(long quietPeriod, long timeout) {
+        long deadline = System.currentTimeMillis() + timeout;
+        Promise<?>[] promises = new Promise<?>[eventLoops.length];
+        for (int i = 0; i < eventLoops.length; i++) {
+            promises[i] = eventLoops[i].drain(quietPeriod, deadline);
+        }
+        if (!await(promises, deadline)) {
+            return false;
+        }
+        for (int i = 0; i < eventLoops.length; i++) {
+            promises[i] = eventLoops[i].closeChannelsAsync();
+        }
+        return await(promises, deadline);
+    }
+
+    private static boolean await(Promise<?>[] promises, long deadline) {
+        for (Promise<?> promise : promises) {
+            long remain = deadline - System.currentTimeMillis();
+            if (remain <= 0 && !promise.isDone()) {
+                return false;
+            }
+            try {
+                promise.get(Math.max(remain, 1));
+            } catch (TimeoutException e) {
+                // 等待超时或者drain到达deadline时仍未静默
+                return false;
+            } catch (Exception e) {
+                // close不会失败，忽略
+            }
+        }
+        return true;
+    }
+
     public ByteBufAllocatorGroup getAllocatorGroup() {
         return allocatorGroup;
     }
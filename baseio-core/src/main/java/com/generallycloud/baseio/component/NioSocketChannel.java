@@ -24,7 +24,10 @@ import java.nio.channels.ClosedChannelException;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.SocketChannel;
 import java.nio.charset.Charset;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.locks.ReentrantLock;
 
 import javax.net.ssl.SSLEngine;
@@ -41,12 +44,14 @@ import com.generallycloud.baseio.common.StringUtil;
 import com.generallycloud.baseio.common.ThrowableUtil;
 import com.generallycloud.baseio.component.ChannelContext.HeartBeatLogger;
 import com.generallycloud.baseio.component.ssl.SslHandler;
+import com.generallycloud.baseio.concurrent.CopyOnWriteArraySet;
 import com.generallycloud.baseio.concurrent.ExecutorEventLoop;
 import com.generallycloud.baseio.concurrent.LinkedQueue;
 import com.generallycloud.baseio.concurrent.ScspLinkedQueue;
 import com.generallycloud.baseio.log.Logger;
 import com.generallycloud.baseio.log.LoggerFactory;
 import com.generallycloud.baseio.protocol.DefaultFuture;
+import com.generallycloud.baseio.protocol.FileRegionFuture;
 import com.generallycloud.baseio.protocol.Future;
 import com.generallycloud.baseio.protocol.ProtocolCodec;
 import com.generallycloud.baseio.protocol.SslFuture;
@@ -57,7 +62,9 @@ public final class NioSocketChannel extends AttributesImpl
     private static final ClosedChannelException CLOSED_CHANNEL       = ThrowableUtil
             .unknownStackTrace(new ClosedChannelException(), NioSocketChannel.class,
                     "channel closed");
-    private static final ClosedChannelException CLOSED_WHEN_FLUSH    = ThrowableUtil
+    // SSL连接上每次从文件区域读取并加密的长度(一个TLS record)
+    private static final int                    SSL_REGION_SLICE     = 1024 * 16;
+    static final ClosedChannelException         CLOSED_WHEN_FLUSH    = ThrowableUtil
             .unknownStackTrace(new ClosedChannelException(), NioSocketChannel.class, "flush(...)");
     private static final InetSocketAddress      ERROR_SOCKET_ADDRESS = new InetSocketAddress(0);
     private static final Logger                 logger               = LoggerFactory
@@ -71,13 +78,15 @@ public final class NioSocketChannel extends AttributesImpl
     private long                                creationTime         = System.currentTimeMillis();
     private Future[]                            currentWriteFutures;
     private int                                 currentWriteFuturesLen;
-    private final boolean                       enableSsl;
+    private boolean                             enableSsl;
     private final NioEventLoop                  eventLoop;
     private ExecutorEventLoop                   executorEventLoop;
     private long                                lastAccess;
     private String                              localAddr;
     private int                                 localPort;
     private boolean                             opened               = true;
+    private volatile FuturePipeline             pipeline;
+    private boolean                             readSuspended;
     private ProtocolCodec                       protocolCodec;
     private transient Future                    readFuture;
     private ByteBuf                             remainingBuf;
@@ -86,8 +95,10 @@ public final class NioSocketChannel extends AttributesImpl
     private int                                 remotePort;
     private final SelectionKey                  selectionKey;
     private SSLEngine                           sslEngine;
+    private boolean                             sslDetecting;
     private transient SslFuture                 sslReadFuture;
-    private LinkedQueue<Future>                 writeFutures;
+    private volatile CopyOnWriteArraySet<ChannelStreamListener> streamListeners;
+    private ScspLinkedQueue<Future>             writeFutures;
     private IoEventHandle                       ioEventHandle;
 
     NioSocketChannel(ChannelContext context, ByteBufAllocator allocator) {
@@ -106,6 +117,8 @@ public final class NioSocketChannel extends AttributesImpl
         this.channelId = channelId;
         this.selectionKey = selectionKey;
         this.enableSsl = context.isEnableSsl();
+        this.sslDetecting = enableSsl && context.isEnableSslDetect()
+                && !context.getSslContext().isClient();
         this.allocator = eventLoop.allocator();
         this.protocolCodec = context.getProtocolCodec();
         this.currentWriteFutures = new Future[group.getWriteBuffers()];
@@ -115,18 +128,22 @@ public final class NioSocketChannel extends AttributesImpl
         this.writeFutures = new ScspLinkedQueue<>(new DefaultFuture(EmptyByteBuf.get()));
     }
 
+    // codec可能在解码的过程中被替换(协议检测、h2c upgrade)，所以每次都使用当前的codec
     private void accept(ByteBuf buffer) throws Exception {
-        final ProtocolCodec codec = this.protocolCodec;
         final NioEventLoop eventLoop = this.eventLoop;
         final IoEventHandle eventHandle = this.ioEventHandle;
         final ByteBufAllocator allocator = this.allocator;
         final HeartBeatLogger heartBeatLogger = context.getHeartBeatLogger();
         final boolean enableWorkEventLoop = context.isEnableWorkEventLoop();
-        Future future = getReadFuture();
-        if (future == null) {
-            future = codec.decode(this, buffer);
+        final FuturePipeline pipeline = this.pipeline;
+        if (pipeline != null) {
+            pipeline.beginBurst();
         }
+        Future future = getReadFuture();
         try {
+            if (future == null) {
+                future = protocolCodec.decode(this, buffer);
+            }
             for (;;) {
                 if (!future.read(this, buffer)) {
                     setReadFuture(future);
@@ -147,7 +164,7 @@ public final class NioSocketChannel extends AttributesImpl
                 } else if (future.isHeartbeat()) {
                     if (future.isPING()) {
                         heartBeatLogger.logRequest(this);
-                        Future f = codec.createPONGPacket(this, future);
+                        Future f = protocolCodec.createPONGPacket(this, future);
                         if (f == null) {
                             return;
                         }
@@ -170,29 +187,74 @@ public final class NioSocketChannel extends AttributesImpl
                     setReadFuture(null);
                     break;
                 }
-                future = codec.decode(this, buffer);
+                future = protocolCodec.decode(this, buffer);
             }
         } catch (Throwable e) {
-            future.release(eventLoop);
+            if (future != null) {
+                future.release(eventLoop);
+            }
             if (e instanceof IOException) {
                 throw (IOException) e;
             }
             throw new IOException("exception occurred when do decode," + e.getMessage(), e);
+        } finally {
+            if (pipeline != null) {
+                pipeline.endBurst();
+            }
         }
     }
 
     private void accept(final IoEventHandle eventHandle, final Future future) {
-        getExecutorEventLoop().dispatch(new Runnable() {
-            @Override
-            public void run() {
-                try {
-                    eventHandle.accept(NioSocketChannel.this, future);
-                } catch (Exception e) {
-                    eventHandle.exceptionCaught(NioSocketChannel.this, future, e);
+        final AtomicInteger workingJobs = eventLoop.getWorkingJobs();
+        workingJobs.incrementAndGet();
+        try {
+            getExecutorEventLoop().dispatch(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        eventHandle.accept(NioSocketChannel.this, future);
+                    } catch (Exception e) {
+                        eventHandle.exceptionCaught(NioSocketChannel.this, future, e);
+                    } finally {
+                        workingJobs.decrementAndGet();
+                    }
                 }
-            }
-        });
+            });
+        } catch (RejectedExecutionException e) {
+            workingJobs.decrementAndGet();
+            throw e;
+        }
+    }
+
+    /**
+     * 将解码完成的future交给IoEventHandle，用于在一次读取中产生多个请求的协议(例如http2)，
+     * 开启了work event loop时在work线程中处理，只在EventLoop中调用
+     */
+    public void acceptFuture(Future future) {
+        IoEventHandle eventHandle = getIoEventHandle();
+        if (context.isEnableWorkEventLoop()) {
+            accept(eventHandle, future);
+            return;
+        }
+        try {
+            eventHandle.accept(this, future);
+        } catch (Exception e) {
+            eventHandle.exceptionCaught(this, future, e);
+        }
+    }
 
+    public void addStreamListener(ChannelStreamListener listener) {
+        CopyOnWriteArraySet<ChannelStreamListener> listeners = this.streamListeners;
+        if (listeners == null) {
+            synchronized (this) {
+                listeners = this.streamListeners;
+                if (listeners == null) {
+                    listeners = new CopyOnWriteArraySet<>();
+                    this.streamListeners = listeners;
+                }
+            }
+        }
+        listeners.add(listener);
     }
 
     public ByteBufAllocator allocator() {
@@ -237,6 +299,17 @@ public final class NioSocketChannel extends AttributesImpl
         } finally {
             lock.unlock();
         }
+        FuturePipeline pipeline = this.pipeline;
+        if (pipeline != null) {
+            for (Future f : pipeline.close()) {
+                exceptionCaught(f, CLOSED_CHANNEL);
+            }
+        }
+        // 连接关闭后不会再收到响应，未完成的请求全部失败
+        ResponseCorrelator<?> correlator = ResponseCorrelator.get(this);
+        if (correlator != null) {
+            correlator.failAll(CLOSED_CHANNEL);
+        }
     }
 
     private void closeSSL() {
@@ -251,7 +324,7 @@ public final class NioSocketChannel extends AttributesImpl
         }
     }
 
-    private void exceptionCaught(Future future, Exception ex) {
+    void exceptionCaught(Future future, Exception ex) {
         future.release(eventLoop);
         try {
             getIoEventHandle().exceptionCaught(this, future, ex);
@@ -271,6 +344,16 @@ public final class NioSocketChannel extends AttributesImpl
     private void fireClosed() {
         NioSocketChannel channel = this;
         eventLoop.removeChannel(channel);
+        CopyOnWriteArraySet<ChannelStreamListener> streamListeners = this.streamListeners;
+        if (streamListeners != null) {
+            for (ChannelStreamListener l : streamListeners.takeSnapshot()) {
+                try {
+                    l.channelClosed(channel);
+                } catch (Exception e) {
+                    logger.error(e.getMessage(), e);
+                }
+            }
+        }
         for (ChannelEventListener l : getContext().getChannelEventListeners()) {
             try {
                 l.channelClosed(channel);
@@ -333,7 +416,7 @@ public final class NioSocketChannel extends AttributesImpl
         }
         try {
             future.flush();
-            future.setNeedSsl(context.isEnableSsl());
+            future.setNeedSsl(enableSsl);
             getProtocolCodec().encode(this, future);
             flushFuture(future);
         } catch (Exception e) {
@@ -352,7 +435,6 @@ public final class NioSocketChannel extends AttributesImpl
             return;
         }
         try {
-            boolean enableSsl = getContext().isEnableSsl();
             ProtocolCodec codec = getProtocolCodec();
             for (Future f : futures) {
                 f.flush();
@@ -374,6 +456,15 @@ public final class NioSocketChannel extends AttributesImpl
      * @param future
      */
     public void flushFuture(Future future) {
+        FuturePipeline pipeline = this.pipeline;
+        if (pipeline != null && future.getSequence() >= 0) {
+            pipeline.offer(future);
+            return;
+        }
+        flushFuture0(future);
+    }
+
+    void flushFuture0(Future future) {
         final LinkedQueue<Future> writeFutures = this.writeFutures;
         if (inEventLoop()) {
             if (!isOpened()) {
@@ -414,6 +505,28 @@ public final class NioSocketChannel extends AttributesImpl
         if (futures == null || futures.isEmpty()) {
             return;
         }
+        FuturePipeline pipeline = this.pipeline;
+        if (pipeline != null) {
+            List<Future> unordered = null;
+            for (Future f : futures) {
+                if (f.getSequence() >= 0) {
+                    pipeline.offer(f);
+                } else {
+                    if (unordered == null) {
+                        unordered = new ArrayList<>();
+                    }
+                    unordered.add(f);
+                }
+            }
+            if (unordered != null) {
+                flushFutures0(unordered);
+            }
+            return;
+        }
+        flushFutures0(futures);
+    }
+
+    void flushFutures0(List<Future> futures) {
         if (inEventLoop()) {
             if (!isOpened()) {
                 for (Future f : futures) {
@@ -611,6 +724,18 @@ public final class NioSocketChannel extends AttributesImpl
         return writeFutures.size();
     }
 
+    /**
+     * 已经写出的future是否可以复用(回收到对象池)，写出队列最后取出的future
+     * 仍然作为队列的head保留，复用会破坏队列，只能在EventLoop线程中调用
+     */
+    public boolean isReusable(Future future) {
+        return writeFutures == null || !writeFutures.isReferenced(future);
+    }
+
+    boolean hasPendingWrites() {
+        return currentWriteFuturesLen > 0 || writeFutures.size() > 0;
+    }
+
     @Override
     public int hashCode() {
         return remoteAddrPort.hashCode();
@@ -621,14 +746,17 @@ public final class NioSocketChannel extends AttributesImpl
     }
 
     private void interestRead(SelectionKey key) {
-        if (SelectionKey.OP_READ != key.interestOps()) {
-            key.interestOps(SelectionKey.OP_READ);
+        int ops = readSuspended ? 0 : SelectionKey.OP_READ;
+        if (ops != key.interestOps()) {
+            key.interestOps(ops);
         }
     }
 
     private void interestWrite(SelectionKey key) {
-        if ((SelectionKey.OP_READ | SelectionKey.OP_WRITE) != key.interestOps()) {
-            key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+        int ops = readSuspended ? SelectionKey.OP_WRITE
+                : SelectionKey.OP_READ | SelectionKey.OP_WRITE;
+        if (ops != key.interestOps()) {
+            key.interestOps(ops);
         }
     }
 
@@ -648,8 +776,16 @@ public final class NioSocketChannel extends AttributesImpl
         return opened;
     }
 
+    /**
+     * 是否已经暂停读取(取消了OP_READ)
+     */
+    public boolean isReadSuspended() {
+        return readSuspended;
+    }
+
     protected void read(ByteBuf buf) throws Exception {
         lastAccess = System.currentTimeMillis();
+        eventLoop.setLastReadTime(lastAccess);
         buf.clear();
         if (!isEnableSsl()) {
             readRemainingBuf(buf);
@@ -663,6 +799,14 @@ public final class NioSocketChannel extends AttributesImpl
         }
         buf.reverse();
         buf.flip();
+        if (sslDetecting) {
+            sslDetecting = false;
+            // 第一个报文不是TLS握手时按明文处理该连接
+            if (buf.getByte(buf.position()) != SslFuture.SSL_CONTENT_TYPE_HANDSHAKE) {
+                enableSsl = false;
+                sslEngine = null;
+            }
+        }
         if (enableSsl) {
             SslFuture sslTemporary = eventLoop.getSslTemporary();
             for (;;) {
@@ -714,6 +858,24 @@ public final class NioSocketChannel extends AttributesImpl
         this.remainingBuf = null;
     }
 
+    private void releaseWritten(Future future) {
+        CopyOnWriteArraySet<ChannelStreamListener> streamListeners = this.streamListeners;
+        if (streamListeners != null) {
+            for (ChannelStreamListener l : streamListeners.takeSnapshot()) {
+                try {
+                    l.futureWritten(this, future);
+                } catch (Throwable e) {
+                    logger.error(e.getMessage(), e);
+                }
+            }
+        }
+        try {
+            future.release(eventLoop);
+        } catch (Throwable e) {
+            logger.error(e.getMessage(), e);
+        }
+    }
+
     private void releaseFutures() {
         if (currentWriteFuturesLen > 0) {
             for (int i = 0; i < currentWriteFuturesLen; i++) {
@@ -736,6 +898,33 @@ public final class NioSocketChannel extends AttributesImpl
         }
     }
 
+    /**
+     * 为流水线(pipelining)请求分配一个序号，序号>=0的future在flush时会按照序号顺序写出，
+     * 只能在EventLoop线程(decode时)调用
+     */
+    public int nextPipelineSequence() {
+        FuturePipeline pipeline = this.pipeline;
+        if (pipeline == null) {
+            pipeline = new FuturePipeline(this);
+            this.pipeline = pipeline;
+        }
+        return pipeline.nextSequence();
+    }
+
+    public void removeStreamListener(ChannelStreamListener listener) {
+        CopyOnWriteArraySet<ChannelStreamListener> listeners = this.streamListeners;
+        if (listeners != null) {
+            listeners.remove(listener);
+        }
+    }
+
+    /**
+     * 恢复读取，重新注册OP_READ
+     */
+    public void resumeRead() {
+        setReadSuspended(false);
+    }
+
     public <T> void setOption(SocketOption<T> name, T value) throws IOException {
         channel.setOption(name, value);
     }
@@ -758,10 +947,44 @@ public final class NioSocketChannel extends AttributesImpl
         this.ioEventHandle = ioEventHandle;
     }
 
+    private void setReadSuspended(final boolean suspended) {
+        if (inEventLoop()) {
+            setReadSuspended0(suspended);
+        } else {
+            eventLoop.dispatch(new NioEventLoopTask() {
+
+                @Override
+                public void fireEvent(NioEventLoop eventLoop) {
+                    setReadSuspended0(suspended);
+                }
+            });
+        }
+    }
+
+    private void setReadSuspended0(boolean suspended) {
+        if (!isOpened() || readSuspended == suspended) {
+            return;
+        }
+        readSuspended = suspended;
+        int ops = selectionKey.interestOps();
+        if (suspended) {
+            selectionKey.interestOps(ops & ~SelectionKey.OP_READ);
+        } else {
+            selectionKey.interestOps(ops | SelectionKey.OP_READ);
+        }
+    }
+
     public void setSslReadFuture(SslFuture future) {
         this.sslReadFuture = future;
     }
 
+    /**
+     * 暂停读取，取消OP_READ，已经读到的数据仍然会继续decode
+     */
+    public void suspendRead() {
+        setReadSuspended(true);
+    }
+
     @Override
     public String toString() {
         if (channelDesc == null) {
@@ -790,91 +1013,155 @@ public final class NioSocketChannel extends AttributesImpl
                 }
                 currentWriteFutures[currentWriteFuturesLen] = future;
             }
+            this.currentWriteFuturesLen = currentWriteFuturesLen;
             if (currentWriteFuturesLen == 0) {
                 interestRead(selectionKey);
                 return;
             }
-            //FIXME ...是否要清空buffers
+            // 文件区域不能参与gathering write，只合并它之前的future
+            int gatherLen = currentWriteFuturesLen;
             for (int i = 0; i < currentWriteFuturesLen; i++) {
-                Future future = currentWriteFutures[i];
-                if (future.isNeedSsl()) {
-                    future.setNeedSsl(false);
-                    // FIXME 部分情况下可以不在业务线程做wrapssl
-                    ByteBuf old = future.getByteBuf();
-                    long version = old.getReleaseVersion();
-                    SslHandler handler = eventLoop.getSslHandler();
-                    try {
-                        ByteBuf newBuf = handler.wrap(this, old);
-                        newBuf.nioBuffer();
-                        future.setByteBuf(newBuf);
-                    } finally {
-                        old.release(version);
-                    }
+                if (currentWriteFutures[i] instanceof FileRegionFuture) {
+                    gatherLen = i;
+                    break;
                 }
-                writeBuffers[i] = future.getByteBuf().nioBuffer();
             }
-            if (currentWriteFuturesLen == 1) {
-                ByteBuffer nioBuf = writeBuffers[0];
-                channel.write(nioBuf);
-                if (nioBuf.hasRemaining()) {
-                    currentWriteFutures[0].getByteBuf().reverse();
+            int written;
+            if (gatherLen == 0) {
+                FileRegionFuture region = (FileRegionFuture) currentWriteFutures[0];
+                if (!(enableSsl ? writeSslRegion(region) : region.transferTo(channel))) {
                     interestWrite(selectionKey);
                     return;
-                } else {
-                    Future future = currentWriteFutures[0];
-                    currentWriteFutures[0] = null;
-                    try {
-                        future.release(eventLoop);
-                    } catch (Throwable e) {
-                        logger.error(e.getMessage(), e);
-                    }
-                    this.currentWriteFuturesLen = 0;
-                    interestRead(selectionKey);
-                    return;
                 }
+                written = 1;
+                gatherLen = 1;
             } else {
-                channel.write(writeBuffers, 0, currentWriteFuturesLen);
-                for (int i = 0; i < currentWriteFuturesLen; i++) {
+                //FIXME ...是否要清空buffers
+                for (int i = 0; i < gatherLen; i++) {
                     Future future = currentWriteFutures[i];
-                    if (writeBuffers[i].hasRemaining()) {
-                        int remain = currentWriteFuturesLen - i;
-                        if (remain > 16) {
-                            System.arraycopy(currentWriteFutures, i, currentWriteFutures, 0,
-                                    remain);
-                        } else {
-                            for (int j = 0; j < remain; j++) {
-                                currentWriteFutures[j] = currentWriteFutures[i + j];
-                            }
-                        }
-                        for (int j = currentWriteFuturesLen - i; j < maxLen; j++) {
-                            currentWriteFutures[j] = null;
-                        }
-                        future.getByteBuf().reverse();
-                        this.currentWriteFuturesLen = remain;
-                        interestWrite(selectionKey);
-                        return;
-                    } else {
+                    if (future.isNeedSsl()) {
+                        future.setNeedSsl(false);
+                        // FIXME 部分情况下可以不在业务线程做wrapssl
+                        ByteBuf old = future.getByteBuf();
+                        long version = old.getReleaseVersion();
+                        SslHandler handler = eventLoop.getSslHandler();
                         try {
-                            future.release(eventLoop);
-                        } catch (Throwable e) {
-                            logger.error(e.getMessage(), e);
+                            ByteBuf newBuf = handler.wrap(this, old);
+                            newBuf.nioBuffer();
+                            future.setByteBuf(newBuf);
+                        } finally {
+                            old.release(version);
                         }
                     }
+                    writeBuffers[i] = future.getByteBuf().nioBuffer();
+                }
+                if (gatherLen == 1) {
+                    channel.write(writeBuffers[0]);
+                } else {
+                    channel.write(writeBuffers, 0, gatherLen);
+                }
+                written = 0;
+                for (; written < gatherLen && !writeBuffers[written].hasRemaining();) {
+                    written++;
                 }
-                for (int j = 0; j < currentWriteFuturesLen; j++) {
+                if (written < gatherLen) {
+                    currentWriteFutures[written].getByteBuf().reverse();
+                }
+            }
+            for (int i = 0; i < written; i++) {
+                Future future = currentWriteFutures[i];
+                currentWriteFutures[i] = null;
+                releaseWritten(future);
+            }
+            int remain = currentWriteFuturesLen - written;
+            if (written > 0 && remain > 0) {
+                if (remain > 16) {
+                    System.arraycopy(currentWriteFutures, written, currentWriteFutures, 0, remain);
+                } else {
+                    for (int j = 0; j < remain; j++) {
+                        currentWriteFutures[j] = currentWriteFutures[written + j];
+                    }
+                }
+                for (int j = remain; j < currentWriteFuturesLen; j++) {
                     currentWriteFutures[j] = null;
                 }
-                if (currentWriteFuturesLen != maxLen) {
-                    this.currentWriteFuturesLen = 0;
-                    interestRead(selectionKey);
-                    return;
+            }
+            this.currentWriteFuturesLen = remain;
+            if (written < gatherLen) {
+                interestWrite(selectionKey);
+                return;
+            }
+            if (remain == 0 && currentWriteFuturesLen != maxLen) {
+                interestRead(selectionKey);
+                return;
+            }
+        }
+    }
+
+    /**
+     * SSL连接上不能使用transferTo，每次从文件读取一段加密后写出，
+     * region的buf依次是响应头和每一段文件内容，needSsl表示当前buf还没有加密
+     * @return true表示全部写出
+     */
+    private boolean writeSslRegion(FileRegionFuture region) throws IOException {
+        SslHandler handler = eventLoop.getSslHandler();
+        for (;;) {
+            if (region.isNeedSsl()) {
+                region.setNeedSsl(false);
+                ByteBuf old = region.getByteBuf();
+                long version = old.getReleaseVersion();
+                try {
+                    ByteBuf newBuf = handler.wrap(this, old);
+                    newBuf.nioBuffer();
+                    region.setByteBuf(newBuf);
+                } finally {
+                    old.release(version);
                 }
-                this.currentWriteFuturesLen = 0;
             }
+            ByteBuf buf = region.getByteBuf();
+            if (buf.hasRemaining()) {
+                channel.write(buf.nioBuffer());
+                buf.reverse();
+                if (buf.hasRemaining()) {
+                    return false;
+                }
+            }
+            if (region.getCount() == 0) {
+                return true;
+            }
+            ByteBuf slice = allocator().allocate(SSL_REGION_SLICE);
+            try {
+                region.readSlice(slice);
+            } catch (IOException e) {
+                slice.release(slice.getReleaseVersion());
+                throw e;
+            }
+            buf.release(buf.getReleaseVersion());
+            region.setByteBuf(slice.flip());
+            region.setNeedSsl(true);
         }
     }
 
     private void write(Future future) {
+        if (future instanceof FileRegionFuture) {
+            currentWriteFuturesLen = 1;
+            currentWriteFutures[0] = future;
+            try {
+                write();
+            } catch (Exception e) {
+                if (currentWriteFutures[0] == future) {
+                    // 与ByteBuf写出失败时一致，关闭连接并以实际的异常通知exceptionCaught
+                    int remain = --currentWriteFuturesLen;
+                    System.arraycopy(currentWriteFutures, 1, currentWriteFutures, 0, remain);
+                    currentWriteFutures[remain] = null;
+                    CloseUtil.close(this);
+                    exceptionCaught(future, e);
+                } else {
+                    CloseUtil.close(this);
+                }
+            }
+            return;
+        }
         try {
             if (future.isNeedSsl()) {
                 future.setNeedSsl(false);
@@ -899,11 +1186,7 @@ public final class NioSocketChannel extends AttributesImpl
                 interestWrite(selectionKey);
                 return;
             } else {
-                try {
-                    future.release(eventLoop);
-                } catch (Throwable e) {
-                    logger.error(e.getMessage(), e);
-                }
+                releaseWritten(future);
                 interestRead(selectionKey);
             }
         } catch (Exception e) {
@@ -0,0 +1,133 @@
+/*
+ * Copyright 2015-2017 GenerallyCloud.com
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *  
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.generallycloud.baseio.component;
+
+import java.nio.channels.ClosedChannelException;
+
+import com.generallycloud.baseio.TimeoutException;
+import com.generallycloud.baseio.collection.AttributeKey;
+import com.generallycloud.baseio.concurrent.DelayTask;
+import com.generallycloud.baseio.concurrent.Promise;
+import com.generallycloud.baseio.concurrent.PromiseListener;
+import com.generallycloud.baseio.protocol.Future;
+
+/**
+ * 将响应与请求关联起来，使同一个连接上可以同时存在多个未完成的请求，
+ * 每个channel最多绑定一个ResponseCorrelator，IoEventHandle收到响应后
+ * 调用complete(...)完成对应的Promise，连接关闭时所有未完成的请求失败
+ * @author wangkai
+ *
+ */
+public abstract class ResponseCorrelator<T extends Future> {
+
+    private static final AttributeKey<ResponseCorrelator<?>> ATTRIBUTE_KEY = AttributeKey
+            .valueOf(ResponseCorrelator.class.getName());
+
+    private final NioSocketChannel                           channel;
+
+    protected ResponseCorrelator(NioSocketChannel channel) {
+        this.channel = channel;
+        channel.setAttribute(ATTRIBUTE_KEY, this);
+    }
+
+    public static ResponseCorrelator<?> get(NioSocketChannel channel) {
+        return channel.getAttribute(ATTRIBUTE_KEY);
+    }
+
+    /**
+     * 完成与response对应的请求
+     * @param response
+     * @return false 如果没有找到对应的请求
+     */
+    @SuppressWarnings("unchecked")
+    public boolean complete(Future response) {
+        Promise<T> promise = remove(response);
+        if (promise == null) {
+            return false;
+        }
+        promise.complete((T) response);
+        return true;
+    }
+
+    /**
+     * 请求发送失败时调用(例如连接已经关闭)
+     * @param request
+     * @param cause
+     * @return false 如果没有找到对应的请求
+     */
+    public abstract boolean fail(Future request, Throwable cause);
+
+    /**
+     * 使所有未完成的请求失败
+     * @param cause
+     */
+    public abstract void failAll(Throwable cause);
+
+    public NioSocketChannel getChannel() {
+        return channel;
+    }
+
+    protected void onTimeout(Future request, Promise<T> promise) {}
+
+    /**
+     * 记录请求，在flush前调用，调用时持有this锁
+     */
+    protected abstract void register(Future request, Promise<T> promise);
+
+    /**
+     * 找到并移除与response对应的请求
+     */
+    protected abstract Promise<T> remove(Future response);
+
+    /**
+     * 发送请求，不阻塞调用者，timeout由channel所在EventLoop的定时器处理
+     * @param request
+     * @param timeout 超时时间(毫秒)，小于等于0表示不超时
+     * @return 请求的完成句柄
+     */
+    public Promise<T> request(final Future request, long timeout) {
+        final Promise<T> promise = new Promise<>();
+        synchronized (this) {
+            register(request, promise);
+            channel.flush(request);
+            // 连接关闭时的failAll可能在register之前已经执行
+            if (!channel.isOpened()) {
+                fail(request, new ClosedChannelException());
+            }
+        }
+        if (timeout > 0 && !promise.isDone()) {
+            final DelayTask timeoutTask = new DelayTask(timeout) {
+
+                @Override
+                public void run() {
+                    if (promise.fail(new TimeoutException("timeout"))) {
+                        onTimeout(request, promise);
+                    }
+                }
+            };
+            promise.addListener(new PromiseListener<T>() {
+
+                @Override
+                public void onComplete(Promise<T> promise) {
+                    timeoutTask.cancel();
+                }
+            });
+            channel.getEventLoop().schedule(timeoutTask);
+        }
+        return promise;
+    }
+
+}
@@ -18,7 +18,6 @@ package com.generallycloud.baseio.concurrent;
 import com.generallycloud.baseio.AbstractLifeCycle;
 import com.generallycloud.baseio.LifeCycleUtil;
 import com.generallycloud.baseio.common.LoggerUtil;
-import com.generallycloud.baseio.common.ThreadUtil;
 import com.generallycloud.baseio.log.Logger;
 import com.generallycloud.baseio.log.LoggerFactory;
 
@@ -36,6 +35,8 @@ public abstract class AbstractEventLoop implements EventLoop {
 
     private Object              runLock      = new Object();
 
+    private Object              stopLock     = new Object();
+
     protected void doLoop() throws Exception {}
 
     protected void doStartup() throws Exception {
@@ -75,7 +76,7 @@ public abstract class AbstractEventLoop implements EventLoop {
     public void loop() {
         for (;;) {
             if (!running) {
-                stopped = true;
+                setStopped(true);
                 return;
             }
             try {
@@ -93,7 +94,7 @@ public abstract class AbstractEventLoop implements EventLoop {
                 return;
             }
             running = true;
-            stopped = false;
+            setStopped(false);
             this.monitor = new Thread(new Runnable() {
                 @Override
                 public void run() {
@@ -121,9 +122,7 @@ public abstract class AbstractEventLoop implements EventLoop {
             } catch (Throwable e) {
                 logger.error(e.getMessage(), e);
             }
-            for (; !isStopped();) {
-                ThreadUtil.sleep(4);
-            }
+            awaitStopped();
             try {
                 doStop();
             } catch (Throwable e) {
@@ -140,12 +139,30 @@ public abstract class AbstractEventLoop implements EventLoop {
         }
     }
 
-    private boolean isStopped() {
-        return stopped;
+    /**
+     * 等待loop线程退出，在loop线程内部调用stop时不需要等待
+     */
+    private void awaitStopped() {
+        if (inEventLoop()) {
+            return;
+        }
+        synchronized (stopLock) {
+            for (; !stopped;) {
+                try {
+                    stopLock.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
     }
 
     protected void setStopped(boolean stopped) {
-        this.stopped = stopped;
+        synchronized (stopLock) {
+            this.stopped = stopped;
+            stopLock.notifyAll();
+        }
     }
 
     @Override
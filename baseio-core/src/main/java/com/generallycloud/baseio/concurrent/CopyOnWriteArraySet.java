@@ -0,0 +1,223 @@
+/*
+ * Copyright 2015-2017 GenerallyCloud.com
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *  
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.generallycloud.baseio.concurrent;
+
+import java.util.AbstractList;
+import java.util.AbstractSet;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.RandomAccess;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+
+/**
+ * 读多写少的无锁集合，适用于广播/扇出列表：</BR>
+ * MULTIPLE => PUT </BR>
+ * MULTIPLE => REMOVE </BR>
+ * MULTIPLE => FOREACH </BR>
+ * 每次修改通过CAS替换底层数组，takeSnapshot()直接返回当前数组的只读视图，
+ * 批量修改(addAll/removeAll)只复制一次数组
+ * @param <E>
+ */
+public final class CopyOnWriteArraySet<E> extends AbstractSet<E> {
+
+    @SuppressWarnings("rawtypes")
+    private static final AtomicReferenceFieldUpdater<CopyOnWriteArraySet, Snapshot> SNAPSHOT_UPDATER;
+    private static final Object[]                                                 EMPTY_ARRAY = new Object[0];
+
+    static {
+        SNAPSHOT_UPDATER = AtomicReferenceFieldUpdater.newUpdater(CopyOnWriteArraySet.class,
+                Snapshot.class, "snapshot");
+    }
+
+    private volatile Snapshot<E> snapshot = new Snapshot<>(EMPTY_ARRAY);
+
+    /**
+     * 返回当前元素的只读快照，O(1)，不会因为后续修改而变化
+     */
+    public List<E> takeSnapshot() {
+        return snapshot;
+    }
+
+    @Override
+    public boolean add(E e) {
+        for (;;) {
+            Snapshot<E> current = snapshot;
+            Object[] array = current.array;
+            if (indexOf(array, e) != -1) {
+                return false;
+            }
+            Object[] newArray = new Object[array.length + 1];
+            System.arraycopy(array, 0, newArray, 0, array.length);
+            newArray[array.length] = e;
+            if (cas(current, new Snapshot<E>(newArray))) {
+                return true;
+            }
+        }
+    }
+
+    @Override
+    public boolean addAll(Collection<? extends E> c) {
+        if (c.isEmpty()) {
+            return false;
+        }
+        Object[] adds = c.toArray();
+        for (;;) {
+            Snapshot<E> current = snapshot;
+            Object[] array = current.array;
+            Object[] newArray = new Object[array.length + adds.length];
+            System.arraycopy(array, 0, newArray, 0, array.length);
+            int size = array.length;
+            for (Object e : adds) {
+                if (indexOf(newArray, size, e) == -1) {
+                    newArray[size++] = e;
+                }
+            }
+            if (size == array.length) {
+                return false;
+            }
+            if (cas(current, new Snapshot<E>(trim(newArray, size)))) {
+                return true;
+            }
+        }
+    }
+
+    @Override
+    public boolean remove(Object o) {
+        for (;;) {
+            Snapshot<E> current = snapshot;
+            Object[] array = current.array;
+            int index = indexOf(array, o);
+            if (index == -1) {
+                return false;
+            }
+            Object[] newArray = new Object[array.length - 1];
+            System.arraycopy(array, 0, newArray, 0, index);
+            System.arraycopy(array, index + 1, newArray, index, array.length - index - 1);
+            if (cas(current, new Snapshot<E>(newArray))) {
+                return true;
+            }
+        }
+    }
+
+    @Override
+    public boolean removeAll(Collection<?> c) {
+        if (c.isEmpty()) {
+            return false;
+        }
+        for (;;) {
+            Snapshot<E> current = snapshot;
+            Object[] array = current.array;
+            Object[] newArray = new Object[array.length];
+            int size = 0;
+            for (Object e : array) {
+                if (!c.contains(e)) {
+                    newArray[size++] = e;
+                }
+            }
+            if (size == array.length) {
+                return false;
+            }
+            if (cas(current, new Snapshot<E>(trim(newArray, size)))) {
+                return true;
+            }
+        }
+    }
+
+    @Override
+    public void clear() {
+        snapshot = new Snapshot<>(EMPTY_ARRAY);
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        return indexOf(snapshot.array, o) != -1;
+    }
+
+    @Override
+    public Iterator<E> iterator() {
+        return snapshot.iterator();
+    }
+
+    @Override
+    public int size() {
+        return snapshot.array.length;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return snapshot.array.length == 0;
+    }
+
+    private boolean cas(Snapshot<E> expect, Snapshot<E> update) {
+        return SNAPSHOT_UPDATER.compareAndSet(this, expect, update);
+    }
+
+    private static int indexOf(Object[] array, Object o) {
+        return indexOf(array, array.length, o);
+    }
+
+    private static int indexOf(Object[] array, int size, Object o) {
+        if (o == null) {
+            for (int i = 0; i < size; i++) {
+                if (array[i] == null) {
+                    return i;
+                }
+            }
+        } else {
+            for (int i = 0; i < size; i++) {
+                if (o.equals(array[i])) {
+                    return i;
+                }
+            }
+        }
+        return -1;
+    }
+
+    private static Object[] trim(Object[] array, int size) {
+        if (size == array.length) {
+            return array;
+        }
+        if (size == 0) {
+            return EMPTY_ARRAY;
+        }
+        Object[] newArray = new Object[size];
+        System.arraycopy(array, 0, newArray, 0, size);
+        return newArray;
+    }
+
+    static final class Snapshot<E> extends AbstractList<E> implements RandomAccess {
+
+        final Object[] array;
+
+        Snapshot(Object[] array) {
+            this.array = array;
+        }
+
+        @SuppressWarnings("unchecked")
+        @Override
+        public E get(int index) {
+            return (E) array[index];
+        }
+
+        @Override
+        public int size() {
+            return array.length;
+        }
+
+    }
+
+}
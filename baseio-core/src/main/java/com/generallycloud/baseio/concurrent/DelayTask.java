@@ -0,0 +1,62 @@
+/*
+ * Copyright 2015-2017 GenerallyCloud.com
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *  
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.generallycloud.baseio.concurrent;
+
+/**
+ * 延迟任务，由NioEventLoop在到期后于EventLoop线程中执行，
+ * cancel后即使到期也不会执行
+ * @author wangkai
+ *
+ */
+public abstract class DelayTask implements Runnable, Comparable<DelayTask> {
+
+    private volatile boolean canceled;
+    private long             deadline;
+    private final long       delay;
+
+    public DelayTask(long delay) {
+        this.delay = delay;
+    }
+
+    public void cancel() {
+        this.canceled = true;
+    }
+
+    @Override
+    public int compareTo(DelayTask o) {
+        if (deadline < o.deadline) {
+            return -1;
+        }
+        return deadline == o.deadline ? 0 : 1;
+    }
+
+    public long getDeadline() {
+        return deadline;
+    }
+
+    public long getDelay() {
+        return delay;
+    }
+
+    public boolean isCanceled() {
+        return canceled;
+    }
+
+    public void setDeadline(long deadline) {
+        this.deadline = deadline;
+    }
+
+}
@@ -0,0 +1,189 @@
+/*
+ * Copyright 2015-2017 GenerallyCloud.com
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *  
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.generallycloud.baseio.concurrent;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+import com.generallycloud.baseio.TimeoutException;
+import com.generallycloud.baseio.log.Logger;
+import com.generallycloud.baseio.log.LoggerFactory;
+
+/**
+ * 异步请求的结果句柄，complete/fail只会生效一次，
+ * 回调在完成的线程中执行，或者在addListener时指定的executor中执行
+ * @author wangkai
+ *
+ */
+public class Promise<V> {
+
+    private static final Logger logger = LoggerFactory.getLogger(Promise.class);
+
+    private Throwable           cause;
+    private boolean             done;
+    private List<Object>        listeners;                                      // listener, executor, listener, executor ...
+    private V                   result;
+
+    public Promise<V> addListener(PromiseListener<V> listener) {
+        return addListener(listener, null);
+    }
+
+    public Promise<V> addListener(PromiseListener<V> listener, Executor executor) {
+        synchronized (this) {
+            if (!done) {
+                if (listeners == null) {
+                    listeners = new ArrayList<>(4);
+                }
+                listeners.add(listener);
+                listeners.add(executor);
+                return this;
+            }
+        }
+        notifyListener(listener, executor);
+        return this;
+    }
+
+    public boolean complete(V result) {
+        return complete0(result, null);
+    }
+
+    private boolean complete0(V result, Throwable cause) {
+        List<Object> listeners;
+        synchronized (this) {
+            if (done) {
+                return false;
+            }
+            this.done = true;
+            this.result = result;
+            this.cause = cause;
+            this.notifyAll();
+            listeners = this.listeners;
+            this.listeners = null;
+        }
+        if (listeners != null) {
+            for (int i = 0; i < listeners.size(); i += 2) {
+                @SuppressWarnings("unchecked")
+                PromiseListener<V> l = (PromiseListener<V>) listeners.get(i);
+                notifyListener(l, (Executor) listeners.get(i + 1));
+            }
+        }
+        return true;
+    }
+
+    public boolean fail(Throwable cause) {
+        if (cause == null) {
+            throw new IllegalArgumentException("null cause");
+        }
+        return complete0(null, cause);
+    }
+
+    /**
+     * 阻塞直到完成
+     */
+    public V get() throws IOException {
+        synchronized (this) {
+            while (!done) {
+                try {
+                    this.wait();
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+            }
+        }
+        return getResult();
+    }
+
+    /**
+     * 阻塞直到完成或者超时，超时抛出TimeoutException
+     */
+    public V get(long timeout) throws IOException {
+        if (timeout <= 0) {
+            return get();
+        }
+        long deadline = System.currentTimeMillis() + timeout;
+        synchronized (this) {
+            while (!done) {
+                long wait = deadline - System.currentTimeMillis();
+                if (wait <= 0) {
+                    throw new TimeoutException("timeout");
+                }
+                try {
+                    this.wait(wait);
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+            }
+        }
+        return getResult();
+    }
+
+    public synchronized Throwable getCause() {
+        return cause;
+    }
+
+    public synchronized V getNow() {
+        return result;
+    }
+
+    private V getResult() throws IOException {
+        Throwable cause = this.cause;
+        if (cause == null) {
+            return result;
+        }
+        if (cause instanceof IOException) {
+            throw (IOException) cause;
+        }
+        throw new IOException(cause.getMessage(), cause);
+    }
+
+    public synchronized boolean isDone() {
+        return done;
+    }
+
+    public synchronized boolean isSuccess() {
+        return done && cause == null;
+    }
+
+    private void notifyListener(final PromiseListener<V> listener, Executor executor) {
+        if (executor == null) {
+            try {
+                listener.onComplete(this);
+            } catch (Throwable e) {
+                logger.error(e.getMessage(), e);
+            }
+            return;
+        }
+        try {
+            executor.execute(new Runnable() {
+
+                @Override
+                public void run() {
+                    try {
+                        listener.onComplete(Promise.this);
+                    } catch (Throwable e) {
+                        logger.error(e.getMessage(), e);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            logger.error(e.getMessage(), e);
+        }
+    }
+
+}
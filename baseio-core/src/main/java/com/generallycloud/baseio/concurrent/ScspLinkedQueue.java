@@ -66,6 +66,13 @@ public final class ScspLinkedQueue<T> implements LinkedQueue<T> {
         return size.get();
     }
 
+    /**
+     * linkable是否仍然被队列引用(最后取出的节点会作为head保留)，只能在消费线程中调用
+     */
+    public boolean isReferenced(Linkable linkable) {
+        return linkable == head || linkable == tail;
+    }
+
     //     not sure if this useful
     long p00, p01, p02, p03, p04, p05, p06, p07;
     long p10, p11, p12, p13, p14, p15, p16, p17;
@@ -20,7 +20,6 @@ import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
 
-import com.generallycloud.baseio.common.ThreadUtil;
 import com.generallycloud.baseio.component.ChannelContext;
 import com.generallycloud.baseio.configuration.Configuration;
 import com.generallycloud.baseio.log.Logger;
@@ -58,26 +57,24 @@ public class ThreadEventLoop extends AbstractEventLoop implements ExecutorEventL
         super.doStartup();
     }
 
-    //FIXME 观察这里是否部分event没有被fire
     @Override
     public void dispatch(Runnable job) throws RejectedExecutionException {
         if (!isRunning() || !jobs.offer(job)) {
             throw new RejectedExecutionException();
         }
+        // offer之后如果已经停止，doStop可能已经drain完jobs，
+        // 如果能从队列中移除则说明没有被执行，拒绝即可，否则已经被doStop执行
+        if (!isRunning() && jobs.remove(job)) {
+            throw new RejectedExecutionException();
+        }
     }
 
     @Override
     protected void doStop() {
-        boolean sleeped = false;
         for (;;) {
             Runnable runnable = jobs.poll();
             if (runnable == null) {
-                if (sleeped) {
-                    break;
-                }
-                ThreadUtil.sleep(8);
-                sleeped = true;
-                continue;
+                break;
             }
             try {
                 runnable.run();
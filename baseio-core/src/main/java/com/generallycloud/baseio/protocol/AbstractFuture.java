@@ -28,15 +28,17 @@ import com.generallycloud.baseio.concurrent.Linkable;
 public abstract class AbstractFuture implements Future {
 
     //FIXME isX 使用 byte & x ?
-    private ByteBuf  buf        = EmptyByteBuf.get();
+    private ByteBuf  buf         = EmptyByteBuf.get();
     private long     bufReleaseVersion;
     private boolean  flushed;
     private boolean  isHeartbeat;
     private boolean  isNeedSsl;
     private boolean  isPING;
     private boolean  isSilent;
-    private boolean  isValidate = true;
+    private boolean  isValidate  = true;
     private Linkable next;
+    private int      sequence    = -1;
+    private boolean  sequenceEnd = true;
     protected byte[] writeBuffer;
     protected int    writeSize;
 
@@ -79,6 +81,16 @@ public abstract class AbstractFuture implements Future {
         return next;
     }
 
+    @Override
+    public int getSequence() {
+        return sequence;
+    }
+
+    @Override
+    public boolean isSequenceEnd() {
+        return sequenceEnd;
+    }
+
     @Override
     public byte[] getWriteBuffer() {
         return writeBuffer;
@@ -140,6 +152,10 @@ public abstract class AbstractFuture implements Future {
         this.isNeedSsl = false;
         this.isSilent = false;
         this.next = null;
+        this.sequence = -1;
+        this.sequenceEnd = true;
+        // writeBuffer可能是调用者传入的数组(write(byte[]))，不能在下一个请求中继续写入
+        this.writeBuffer = null;
         this.writeSize = 0;
         this.bufReleaseVersion = 0;
         return this;
@@ -163,6 +179,16 @@ public abstract class AbstractFuture implements Future {
         this.isNeedSsl = needSsl;
     }
 
+    @Override
+    public void setSequence(int sequence) {
+        this.sequence = sequence;
+    }
+
+    @Override
+    public void setSequenceEnd(boolean sequenceEnd) {
+        this.sequenceEnd = sequenceEnd;
+    }
+
     @Override
     public void setNext(Linkable next) {
         this.next = next;
@@ -0,0 +1,126 @@
+/*
+ * Copyright 2015-2017 GenerallyCloud.com
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *  
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.generallycloud.baseio.protocol;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+
+import com.generallycloud.baseio.buffer.ByteBuf;
+import com.generallycloud.baseio.common.CloseUtil;
+import com.generallycloud.baseio.component.NioEventLoop;
+import com.generallycloud.baseio.component.NioSocketChannel;
+
+/**
+ * 文件区域，先写出ByteBuf中的数据(例如响应头)，再通过FileChannel.transferTo
+ * 将文件中[position, position + count)的数据直接写入socket，不经过用户态内存，
+ * SSL连接上每次读取一段加密后写出(参考readSlice)
+ * @author wangkai
+ *
+ */
+public class FileRegionFuture extends AbstractFuture {
+
+    private final boolean     closeOnRelease;
+    private long              count;
+    private final FileChannel fileChannel;
+    private long              position;
+
+    /**
+     * @param closeOnRelease 写出完成或失败后是否关闭fileChannel
+     */
+    public FileRegionFuture(FileChannel fileChannel, long position, long count,
+            boolean closeOnRelease) {
+        this.fileChannel = fileChannel;
+        this.position = position;
+        this.count = count;
+        this.closeOnRelease = closeOnRelease;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public FileChannel getFileChannel() {
+        return fileChannel;
+    }
+
+    public long getPosition() {
+        return position;
+    }
+
+    @Override
+    public boolean isWriteCompleted() {
+        return count == 0 && !getByteBuf().hasRemaining();
+    }
+
+    @Override
+    public boolean read(NioSocketChannel channel, ByteBuf src) throws IOException {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void release(NioEventLoop eventLoop) {
+        super.release(eventLoop);
+        if (closeOnRelease) {
+            CloseUtil.close(fileChannel);
+        }
+    }
+
+    /**
+     * 从文件读取下一段内容写入buf(最多buf.remaining()个字节)，用于不能使用transferTo的情况，
+     * 例如SSL连接需要在用户态加密
+     */
+    public void readSlice(ByteBuf buf) throws IOException {
+        buf.limit(buf.position() + (int) Math.min(buf.remaining(), count));
+        int n = fileChannel.read(buf.nioBuffer(), position);
+        if (n <= 0) {
+            throw new IOException("file truncated, position: " + position);
+        }
+        buf.reverse();
+        position += n;
+        count -= n;
+    }
+
+    /**
+     * 尽可能多的写出数据
+     * @return true表示全部写出
+     */
+    public boolean transferTo(WritableByteChannel target) throws IOException {
+        ByteBuf buf = getByteBuf();
+        if (buf.hasRemaining()) {
+            ByteBuffer nioBuf = buf.nioBuffer();
+            target.write(nioBuf);
+            buf.reverse();
+            if (buf.hasRemaining()) {
+                return false;
+            }
+        }
+        for (; count > 0;) {
+            long n = fileChannel.transferTo(position, count, target);
+            if (n <= 0) {
+                if (position >= fileChannel.size()) {
+                    throw new IOException("file truncated, position: " + position);
+                }
+                return false;
+            }
+            position += n;
+            count -= n;
+        }
+        return true;
+    }
+
+}
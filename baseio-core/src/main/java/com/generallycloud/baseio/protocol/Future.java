@@ -36,6 +36,16 @@ public interface Future extends Linkable {
 
     int getByteBufLimit();
 
+    /**
+     * 流水线请求的序号，-1表示不需要排序
+     */
+    int getSequence();
+
+    /**
+     * 是否是该序号的最后一个future，一个请求可以对应多个响应future(例如分块响应)
+     */
+    boolean isSequenceEnd();
+
     byte[] getWriteBuffer();
 
     int getWriteSize();
@@ -71,6 +81,10 @@ public interface Future extends Linkable {
 
     void setNeedSsl(boolean needSsl);
 
+    void setSequence(int sequence);
+
+    void setSequenceEnd(boolean sequenceEnd);
+
     Future setPING();
 
     Future setPONG();
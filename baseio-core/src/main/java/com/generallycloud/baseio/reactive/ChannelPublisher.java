@@ -0,0 +1,240 @@
+/*
+ * Copyright 2015-2017 GenerallyCloud.com
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *  
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.generallycloud.baseio.reactive;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.generallycloud.baseio.component.ChannelStreamListener;
+import com.generallycloud.baseio.component.IoEventHandle;
+import com.generallycloud.baseio.component.NioSocketChannel;
+import com.generallycloud.baseio.log.Logger;
+import com.generallycloud.baseio.log.LoggerFactory;
+import com.generallycloud.baseio.protocol.Future;
+
+/**
+ * 将channel上decode出来的future按照订阅者的需求发布出去，
+ * 没有需求时取消OP_READ，由TCP窗口对对端形成背压，有需求时重新注册OP_READ，
+ * 同一时刻最多缓存一次read中decode出来的future。</BR>
+ * 订阅期间channel的IoEventHandle被替换，cancel后恢复原来的IoEventHandle，
+ * 未交付的future也会交给原来的IoEventHandle处理。</BR>
+ * 注意：future会被异步交付，不要在启用了future复用的codec上使用
+ * @author wangkai
+ *
+ */
+public class ChannelPublisher implements Publisher<Future> {
+
+    private static final Logger    logger     = LoggerFactory.getLogger(ChannelPublisher.class);
+
+    private final NioSocketChannel channel;
+    private final AtomicBoolean    subscribed = new AtomicBoolean();
+
+    public ChannelPublisher(NioSocketChannel channel) {
+        this.channel = channel;
+    }
+
+    public NioSocketChannel getChannel() {
+        return channel;
+    }
+
+    @Override
+    public void subscribe(Subscriber<? super Future> subscriber) {
+        if (subscriber == null) {
+            throw new NullPointerException("null subscriber");
+        }
+        if (!subscribed.compareAndSet(false, true)) {
+            subscriber.onSubscribe(new Subscription() {
+
+                @Override
+                public void request(long n) {}
+
+                @Override
+                public void cancel() {}
+            });
+            subscriber.onError(new IllegalStateException("only one subscriber allowed"));
+            return;
+        }
+        new ChannelSubscription(subscriber).start();
+    }
+
+    class ChannelSubscription extends IoEventHandle
+            implements Subscription, ChannelStreamListener {
+
+        private final Queue<Future>              buffer    = new ConcurrentLinkedQueue<>();
+        private volatile boolean                 canceled;
+        private volatile boolean                 done;
+        private volatile Throwable               error;
+        private IoEventHandle                    previous;
+        private boolean                          reading;
+        private final AtomicLong                 requested = new AtomicLong();
+        private final Subscriber<? super Future> subscriber;
+        private boolean                          terminated;
+        private final AtomicInteger              wip       = new AtomicInteger();
+
+        ChannelSubscription(Subscriber<? super Future> subscriber) {
+            this.subscriber = subscriber;
+        }
+
+        @Override
+        public void accept(NioSocketChannel channel, Future future) throws Exception {
+            buffer.offer(future);
+            drain();
+        }
+
+        @Override
+        public void cancel() {
+            canceled = true;
+            drain();
+        }
+
+        @Override
+        public void channelClosed(NioSocketChannel channel) {
+            done = true;
+            drain();
+        }
+
+        @Override
+        public void exceptionCaught(NioSocketChannel channel, Future future, Exception ex) {
+            previous.exceptionCaught(channel, future, ex);
+        }
+
+        @Override
+        public void futureWritten(NioSocketChannel channel, Future future) {}
+
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                error = new IllegalArgumentException("non-positive request: " + n);
+            } else {
+                for (;;) {
+                    long r = requested.get();
+                    long u = r + n;
+                    if (u < 0) {
+                        u = Long.MAX_VALUE;
+                    }
+                    if (requested.compareAndSet(r, u)) {
+                        break;
+                    }
+                }
+            }
+            drain();
+        }
+
+        void start() {
+            previous = channel.getIoEventHandle();
+            channel.suspendRead();
+            channel.setIoEventHandle(this);
+            channel.addStreamListener(this);
+            subscriber.onSubscribe(this);
+            if (channel.isClosed()) {
+                done = true;
+            }
+            drain();
+        }
+
+        private void drain() {
+            if (wip.getAndIncrement() != 0) {
+                return;
+            }
+            int missed = 1;
+            for (;;) {
+                if (terminated) {
+                    return;
+                }
+                if (canceled) {
+                    restore();
+                    return;
+                }
+                if (error != null) {
+                    terminate();
+                    subscriber.onError(error);
+                    return;
+                }
+                long r = requested.get();
+                long e = 0;
+                for (; e != r;) {
+                    Future future = buffer.poll();
+                    if (future == null) {
+                        break;
+                    }
+                    try {
+                        subscriber.onNext(future);
+                    } catch (Throwable t) {
+                        logger.error(t.getMessage(), t);
+                        canceled = true;
+                        break;
+                    }
+                    e++;
+                }
+                if (e != 0 && r != Long.MAX_VALUE) {
+                    r = requested.addAndGet(-e);
+                }
+                if (!canceled) {
+                    if (done && buffer.isEmpty()) {
+                        terminate();
+                        subscriber.onComplete();
+                        return;
+                    }
+                    boolean read = r > 0;
+                    if (read != reading && !done) {
+                        reading = read;
+                        if (read) {
+                            channel.resumeRead();
+                        } else {
+                            channel.suspendRead();
+                        }
+                    }
+                }
+                missed = wip.addAndGet(-missed);
+                if (missed == 0) {
+                    return;
+                }
+            }
+        }
+
+        /**
+         * 取消订阅后将channel交还给原来的IoEventHandle
+         */
+        private void restore() {
+            terminate();
+            channel.setIoEventHandle(previous);
+            for (;;) {
+                Future future = buffer.poll();
+                if (future == null) {
+                    break;
+                }
+                try {
+                    previous.accept(channel, future);
+                } catch (Exception e) {
+                    previous.exceptionCaught(channel, future, e);
+                }
+            }
+            if (channel.isOpened()) {
+                channel.resumeRead();
+            }
+        }
+
+        private void terminate() {
+            terminated = true;
+            channel.removeStreamListener(this);
+        }
+
+    }
+
+}
@@ -0,0 +1,197 @@
+/*
+ * Copyright 2015-2017 GenerallyCloud.com
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *  
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.generallycloud.baseio.reactive;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.generallycloud.baseio.common.CloseUtil;
+import com.generallycloud.baseio.component.ChannelStreamListener;
+import com.generallycloud.baseio.component.NioSocketChannel;
+import com.generallycloud.baseio.log.Logger;
+import com.generallycloud.baseio.log.LoggerFactory;
+import com.generallycloud.baseio.protocol.Future;
+
+/**
+ * 将上游发布的future写入channel，按照channel上由本订阅者写出但尚未写入socket的字节数
+ * 控制需求：低于highWaterMark时逐个request，超过后暂停，
+ * 直到写出的数据回落到lowWaterMark以下再继续request
+ * @author wangkai
+ *
+ */
+public class ChannelSubscriber implements Subscriber<Future>, ChannelStreamListener {
+
+    private static final Logger        logger       = LoggerFactory
+            .getLogger(ChannelSubscriber.class);
+
+    private final NioSocketChannel     channel;
+    private boolean                    closeOnComplete;
+    private final int                  highWaterMark;
+    private final Queue<WritingFuture> inflight     = new ConcurrentLinkedQueue<>();
+    private final int                  lowWaterMark;
+    private final AtomicBoolean        paused       = new AtomicBoolean();
+    private final AtomicLong           pendingBytes = new AtomicLong();
+    // 尚未发出的request(1)数量，不为0时已经有线程正在发出request
+    private final AtomicLong           requests     = new AtomicLong();
+    private volatile Subscription      subscription;
+
+    public ChannelSubscriber(NioSocketChannel channel) {
+        this(channel, 1024 * 64, 1024 * 32);
+    }
+
+    public ChannelSubscriber(NioSocketChannel channel, int highWaterMark, int lowWaterMark) {
+        if (lowWaterMark > highWaterMark) {
+            throw new IllegalArgumentException("lowWaterMark > highWaterMark");
+        }
+        this.channel = channel;
+        this.highWaterMark = highWaterMark;
+        this.lowWaterMark = lowWaterMark;
+    }
+
+    @Override
+    public void channelClosed(NioSocketChannel channel) {
+        Subscription subscription = this.subscription;
+        if (subscription != null) {
+            subscription.cancel();
+        }
+        channel.removeStreamListener(this);
+    }
+
+    @Override
+    public void futureWritten(NioSocketChannel channel, Future future) {
+        WritingFuture head = inflight.peek();
+        if (head == null || head.future != future) {
+            return;
+        }
+        inflight.poll();
+        long pending = pendingBytes.addAndGet(-head.bytes);
+        if (pending <= lowWaterMark && paused.compareAndSet(true, false)) {
+            request();
+        }
+    }
+
+    public NioSocketChannel getChannel() {
+        return channel;
+    }
+
+    /**
+     * 已经交给channel但是还没有写入socket的字节数
+     */
+    public long getPendingBytes() {
+        return pendingBytes.get();
+    }
+
+    public boolean isCloseOnComplete() {
+        return closeOnComplete;
+    }
+
+    @Override
+    public void onComplete() {
+        channel.removeStreamListener(this);
+        if (closeOnComplete) {
+            CloseUtil.close(channel);
+        }
+    }
+
+    @Override
+    public void onError(Throwable t) {
+        logger.error(t.getMessage(), t);
+        channel.removeStreamListener(this);
+        CloseUtil.close(channel);
+    }
+
+    @Override
+    public void onNext(Future future) {
+        try {
+            future.flush();
+            future.setNeedSsl(channel.isEnableSsl());
+            channel.getProtocolCodec().encode(channel, future);
+        } catch (Exception e) {
+            subscription.cancel();
+            future.release(channel.getEventLoop());
+            channel.getIoEventHandle().exceptionCaught(channel, future, e);
+            return;
+        }
+        int bytes = future.getByteBuf().remaining();
+        long pending = pendingBytes.addAndGet(bytes);
+        inflight.offer(new WritingFuture(future, bytes));
+        channel.flushFuture(future);
+        if (pending < highWaterMark) {
+            request();
+            return;
+        }
+        paused.set(true);
+        // 设置paused之前可能已经全部写出
+        if (pendingBytes.get() <= lowWaterMark && paused.compareAndSet(true, false)) {
+            request();
+        }
+    }
+
+    @Override
+    public void onSubscribe(Subscription subscription) {
+        if (this.subscription != null) {
+            subscription.cancel();
+            return;
+        }
+        this.subscription = subscription;
+        channel.addStreamListener(this);
+        if (channel.isClosed()) {
+            subscription.cancel();
+            return;
+        }
+        request();
+    }
+
+    /**
+     * 同步的publisher会在request中直接调用onNext，onNext中再次request时只记录数量，
+     * 由外层调用在request返回后合并发出，避免request -> onNext -> request无限递归(规则3.3)，
+     * 同时保证request不会被并发调用
+     */
+    private void request() {
+        if (requests.getAndIncrement() != 0) {
+            return;
+        }
+        long n = 1;
+        for (;;) {
+            subscription.request(n);
+            n = requests.addAndGet(-n);
+            if (n == 0) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * 上游完成后是否关闭channel，关闭前会写出剩余的数据
+     */
+    public void setCloseOnComplete(boolean closeOnComplete) {
+        this.closeOnComplete = closeOnComplete;
+    }
+
+    static class WritingFuture {
+
+        final int    bytes;
+        final Future future;
+
+        WritingFuture(Future future, int bytes) {
+            this.future = future;
+            this.bytes = bytes;
+        }
+    }
+
+}
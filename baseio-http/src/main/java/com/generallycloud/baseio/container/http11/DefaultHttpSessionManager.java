@@ -15,10 +15,13 @@
  */
 package com.generallycloud.baseio.container.http11;
 
-import java.util.Collection;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
 
 import com.generallycloud.baseio.codec.http11.Cookie;
 import com.generallycloud.baseio.codec.http11.HttpFuture;
@@ -28,23 +31,71 @@ import com.generallycloud.baseio.component.NioSocketChannel;
 import com.generallycloud.baseio.concurrent.AbstractEventLoop;
 import com.generallycloud.baseio.log.DebugUtil;
 
-//FIXME 限制最大session数量
+/**
+ * session按照sessionId分片保存，每个分片是一个按访问顺序排列的LinkedHashMap，
+ * 超过maxSessions时淘汰最久未访问的session(LRU)，
+ * 由于session的有效期相同，过期的session总是位于分片头部，清理时从头部开始，
+ * 遇到第一个有效的session即停止，不需要扫描全部session
+ */
 //FIXME 根据当前是否正在redeploy来保存和恢复session
 public class DefaultHttpSessionManager extends AbstractEventLoop implements HttpSessionManager {
 
-    private String                   COOKIE_NAME_SESSIONID = "BSESSIONID";
-    private Object                   sleepLock             = new Object();
-    private Map<String, HttpSession> sessions              = new ConcurrentHashMap<>();
-    private Map<String, HttpSession> readOnlySessions      = Collections.unmodifiableMap(sessions);
+    private String         COOKIE_NAME_SESSIONID = "BSESSIONID";
+    private long           expireInterval        = 1000;
+    private int            maxSessions           = 1024 * 128;
+    private SessionShard[] shards;
+    private Object         sleepLock             = new Object();
+
+    public DefaultHttpSessionManager() {
+        this(16);
+    }
+
+    /**
+     * @param shardSize 分片数量，会被调整为2的幂
+     */
+    public DefaultHttpSessionManager(int shardSize) {
+        int size = 1;
+        for (; size < shardSize;) {
+            size <<= 1;
+        }
+        this.shards = new SessionShard[size];
+        for (int i = 0; i < size; i++) {
+            shards[i] = new SessionShard();
+        }
+        setMaxSessions(maxSessions);
+    }
+
+    private SessionShard shard(String sessionId) {
+        int h = sessionId.hashCode();
+        h ^= (h >>> 16);
+        return shards[h & (shards.length - 1)];
+    }
 
     @Override
-    public void putSession(String sessionId, HttpSession channel) {
-        sessions.put(sessionId, channel);
+    public void putSession(String sessionId, HttpSession session) {
+        SessionShard shard = shard(sessionId);
+        HttpSession evicted;
+        synchronized (shard) {
+            evicted = shard.putAndEvict(sessionId, session);
+        }
+        expire(evicted);
+    }
+
+    /**
+     * 关闭过期或被LRU淘汰的session对应的连接
+     */
+    private void expire(HttpSession session) {
+        if (session != null) {
+            CloseUtil.close(session.getChannel());
+        }
     }
 
     @Override
     public void removeSession(String sessionId) {
-        sessions.remove(sessionId);
+        SessionShard shard = shard(sessionId);
+        synchronized (shard) {
+            shard.remove(sessionId);
+        }
     }
 
     @Override
@@ -52,38 +103,58 @@ public class DefaultHttpSessionManager extends AbstractEventLoop implements Http
             HttpFuture future) {
         String sessionId = future.getCookie(COOKIE_NAME_SESSIONID);
         if (StringUtil.isNullOrBlank(sessionId)) {
-            DefaultHttpSession channel = new DefaultHttpSession(context, ioSession);
-            sessionId = channel.getSessionId();
+            DefaultHttpSession session = new DefaultHttpSession(context, ioSession);
+            sessionId = session.getSessionId();
             Cookie cookie = new Cookie(COOKIE_NAME_SESSIONID, sessionId);
             future.addCookie(cookie);
-            this.sessions.put(sessionId, channel);
-            return channel;
-        }
-        HttpSession session = sessions.get(sessionId);
-        if (session == null) {
-            session = new DefaultHttpSession(context, ioSession, sessionId);
-            this.sessions.put(sessionId, session);
+            putSession(sessionId, session);
             return session;
         }
-        if (!session.isValidate()) {
-            sessions.remove(sessionId);
-            CloseUtil.close(session.getChannel());
-            return getHttpSession(context, ioSession, future);
+        SessionShard shard = shard(sessionId);
+        HttpSession session;
+        HttpSession evicted;
+        synchronized (shard) {
+            session = shard.get(sessionId);
+            if (session == null) {
+                session = new DefaultHttpSession(context, ioSession, sessionId);
+                evicted = shard.putAndEvict(sessionId, session);
+            } else if (session.isValidate()) {
+                session.active(ioSession);
+                return session;
+            } else {
+                shard.remove(sessionId);
+                evicted = session;
+                session = null;
+            }
         }
-        session.active(ioSession);
-        return session;
+        expire(evicted);
+        if (session != null) {
+            return session;
+        }
+        return getHttpSession(context, ioSession, future);
     }
 
     @Override
     public void doLoop() {
-        Collection<HttpSession> es = sessions.values();
-        for (HttpSession session : es) {
-            if (!session.isValidate()) {
-                sessions.remove(session.getSessionId());
-                CloseUtil.close(session.getChannel());
+        List<HttpSession> expired = new ArrayList<>();
+        for (SessionShard shard : shards) {
+            synchronized (shard) {
+                Iterator<HttpSession> it = shard.values().iterator();
+                for (; it.hasNext();) {
+                    HttpSession session = it.next();
+                    if (session.isValidate()) {
+                        break;
+                    }
+                    it.remove();
+                    expired.add(session);
+                }
+            }
+            for (HttpSession session : expired) {
+                expire(session);
             }
+            expired.clear();
         }
-        sleep(30 * 60 * 1000);
+        sleep(expireInterval);
     }
 
     private void sleep(long time) {
@@ -98,15 +169,24 @@ public class DefaultHttpSessionManager extends AbstractEventLoop implements Http
 
     @Override
     protected void doStop() {
-        for (HttpSession session : sessions.values()) {
+        for (HttpSession session : getManagedSessions().values()) {
             CloseUtil.close(session.getChannel());
         }
         super.doStop();
     }
 
+    /**
+     * 返回当前所有session的只读快照
+     */
     @Override
     public Map<String, HttpSession> getManagedSessions() {
-        return readOnlySessions;
+        Map<String, HttpSession> sessions = new HashMap<>();
+        for (SessionShard shard : shards) {
+            synchronized (shard) {
+                sessions.putAll(shard);
+            }
+        }
+        return Collections.unmodifiableMap(sessions);
     }
 
     @Override
@@ -119,7 +199,72 @@ public class DefaultHttpSessionManager extends AbstractEventLoop implements Http
 
     @Override
     public int getManagedSessionSize() {
-        return sessions.size();
+        int size = 0;
+        for (SessionShard shard : shards) {
+            synchronized (shard) {
+                size += shard.size();
+            }
+        }
+        return size;
+    }
+
+    public long getExpireInterval() {
+        return expireInterval;
+    }
+
+    public int getMaxSessions() {
+        return maxSessions;
+    }
+
+    /**
+     * 清理过期session的间隔(毫秒)
+     */
+    public void setExpireInterval(long expireInterval) {
+        this.expireInterval = expireInterval;
+    }
+
+    /**
+     * 最大session数量，平均分配到每个分片
+     */
+    public void setMaxSessions(int maxSessions) {
+        this.maxSessions = maxSessions;
+        int capacity = Math.max(1, maxSessions / shards.length);
+        for (SessionShard shard : shards) {
+            synchronized (shard) {
+                shard.capacity = capacity;
+            }
+        }
+    }
+
+    @SuppressWarnings("serial")
+    static class SessionShard extends LinkedHashMap<String, HttpSession> {
+
+        int         capacity;
+        HttpSession evicted;
+
+        SessionShard() {
+            super(16, 0.75f, true);
+        }
+
+        /**
+         * 放入session，返回因超过capacity被淘汰的session，
+         * 调用方需要在释放锁之后对其执行与过期相同的清理
+         */
+        HttpSession putAndEvict(String sessionId, HttpSession session) {
+            put(sessionId, session);
+            HttpSession e = evicted;
+            evicted = null;
+            return e;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, HttpSession> eldest) {
+            if (size() > capacity) {
+                evicted = eldest.getValue();
+                return true;
+            }
+            return false;
+        }
     }
 
 }
@@ -18,6 +18,7 @@ package com.generallycloud.baseio.container.http11;
 import java.util.Map;
 
 import com.generallycloud.baseio.codec.http11.HttpFuture;
+import com.generallycloud.baseio.collection.AttributeKey;
 import com.generallycloud.baseio.component.NioSocketChannel;
 import com.generallycloud.baseio.concurrent.AbstractEventLoop;
 
@@ -27,7 +28,8 @@ import com.generallycloud.baseio.concurrent.AbstractEventLoop;
  */
 public class FakeHttpSessionManager extends AbstractEventLoop implements HttpSessionManager {
 
-    private final String HTTP_SESSION_KEY = "_HTTP_SESSION_KEY";
+    private static final AttributeKey<HttpSession> HTTP_SESSION_KEY = AttributeKey
+            .valueOf("_HTTP_SESSION_KEY");
 
     @Override
     public void putSession(String sessionId, HttpSession channel) {
@@ -42,7 +44,7 @@ public class FakeHttpSessionManager extends AbstractEventLoop implements HttpSes
     @Override
     public HttpSession getHttpSession(HttpFutureAcceptor context, NioSocketChannel ioSession,
             HttpFuture future) {
-        HttpSession httpSession = (HttpSession) ioSession.getAttribute(HTTP_SESSION_KEY);
+        HttpSession httpSession = ioSession.getAttribute(HTTP_SESSION_KEY);
         if (httpSession == null) {
             httpSession = new DefaultHttpSession(context, ioSession, null);
             ioSession.setAttribute(HTTP_SESSION_KEY, httpSession);
@@ -17,6 +17,7 @@ package com.generallycloud.baseio.container.http11;
 
 import java.io.File;
 
+import com.generallycloud.baseio.codec.http11.HttpContentEncoder;
 import com.generallycloud.baseio.codec.http11.HttpHeaderDateFormat;
 
 /**
@@ -25,53 +26,132 @@ import com.generallycloud.baseio.codec.http11.HttpHeaderDateFormat;
  */
 public class HttpEntity {
 
-    private String contentType;
-    private File   file;
-    private long   lastModify;
-    private long   lastModifyGTMTime;
-    private byte[] binary;
-    private String lastModifyGTM;
+    private final String      contentType;
+    private final File        file;
+    // 文件变化时整体替换，请求处理过程中只读取一次，避免看到重新加载到一半的内容
+    private volatile Snapshot snapshot;
 
-    public String getContentType() {
-        return contentType;
+    public HttpEntity(String contentType, File file) {
+        this.contentType = contentType;
+        this.file = file;
+        this.snapshot = new Snapshot(null, 0, 0, null, null);
     }
 
-    public void setContentType(String contentType) {
-        this.contentType = contentType;
+    public String getContentType() {
+        return contentType;
     }
 
     public File getFile() {
         return file;
     }
 
-    public void setFile(File file) {
-        this.file = file;
+    public Snapshot getSnapshot() {
+        return snapshot;
     }
 
-    public long getLastModify() {
-        return lastModify;
+    public void setSnapshot(Snapshot snapshot) {
+        this.snapshot = snapshot;
     }
 
-    public void setLastModify(long lastModify) {
-        HttpHeaderDateFormat format = HttpHeaderDateFormat.getFormat();
-        this.lastModify = lastModify;
-        this.lastModifyGTM = format.format(lastModify);
-        this.lastModifyGTMTime = format.parse(lastModifyGTM).getTime();
-    }
+    /**
+     * 某一时刻的文件内容，创建后不再修改
+     */
+    public static class Snapshot {
 
-    public byte[] getBinary() {
-        return binary;
-    }
+        private final byte[] binary;
+        private final byte[] deflateBinary;
+        private final String etag;
+        private final byte[] gzipBinary;
+        private final long   lastModify;
+        private final String lastModifyGTM;
+        private final long   lastModifyGTMTime;
+        private final long   length;
 
-    public void setBinary(byte[] binary) {
-        this.binary = binary;
-    }
+        /**
+         * @param binary 文件内容，未缓存在内存中时为null(通过FileChannel.transferTo发送)
+         * @param gzipBinary 预先压缩的内容，不存在时为null
+         * @param deflateBinary 预先压缩的内容，不存在时为null
+         */
+        public Snapshot(byte[] binary, long length, long lastModify, byte[] gzipBinary,
+                byte[] deflateBinary) {
+            HttpHeaderDateFormat format = HttpHeaderDateFormat.getFormat();
+            this.binary = binary;
+            this.length = binary == null ? length : binary.length;
+            this.lastModify = lastModify;
+            this.lastModifyGTM = format.format(lastModify);
+            this.lastModifyGTMTime = format.parse(lastModifyGTM).getTime();
+            this.etag = "\"" + Long.toHexString(lastModify) + "-" + Long.toHexString(this.length)
+                    + "\"";
+            this.gzipBinary = gzipBinary;
+            this.deflateBinary = deflateBinary;
+        }
 
-    public String getLastModifyGTM() {
-        return lastModifyGTM;
-    }
+        public byte[] getBinary() {
+            return binary;
+        }
+
+        /**
+         * 预先压缩的内容，不存在时返回null
+         */
+        public byte[] getBinary(String encoding) {
+            if (HttpContentEncoder.GZIP.equals(encoding)) {
+                return gzipBinary;
+            }
+            if (HttpContentEncoder.DEFLATE.equals(encoding)) {
+                return deflateBinary;
+            }
+            return null;
+        }
+
+        public String getEtag() {
+            return etag;
+        }
+
+        /**
+         * 压缩后的内容使用不同的ETag，例如"xxx-gzip"
+         */
+        public String getEtag(String encoding) {
+            if (encoding == null) {
+                return etag;
+            }
+            return etag.substring(0, etag.length() - 1) + "-" + encoding + "\"";
+        }
+
+        public long getLastModify() {
+            return lastModify;
+        }
+
+        public String getLastModifyGTM() {
+            return lastModifyGTM;
+        }
+
+        public long getLastModifyGTMTime() {
+            return lastModifyGTMTime;
+        }
+
+        public long getLength() {
+            return length;
+        }
+
+        public boolean isEncoded() {
+            return gzipBinary != null || deflateBinary != null;
+        }
 
-    public long getLastModifyGTMTime() {
-        return lastModifyGTMTime;
+        /**
+         * 占用的缓存大小
+         */
+        public long size() {
+            long size = 0;
+            if (binary != null) {
+                size += binary.length;
+            }
+            if (gzipBinary != null) {
+                size += gzipBinary.length;
+            }
+            if (deflateBinary != null) {
+                size += deflateBinary.length;
+            }
+            return size;
+        }
     }
 }
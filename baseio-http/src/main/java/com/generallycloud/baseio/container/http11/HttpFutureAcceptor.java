@@ -17,37 +17,68 @@ package com.generallycloud.baseio.container.http11;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
 
 import com.generallycloud.baseio.LifeCycleUtil;
+import com.generallycloud.baseio.codec.http11.HttpContentEncoder;
+import com.generallycloud.baseio.codec.http11.HttpFileRegionFuture;
 import com.generallycloud.baseio.codec.http11.HttpFuture;
 import com.generallycloud.baseio.codec.http11.HttpHeader;
 import com.generallycloud.baseio.codec.http11.HttpHeaderDateFormat;
+import com.generallycloud.baseio.codec.http11.HttpRouter;
 import com.generallycloud.baseio.codec.http11.HttpStatus;
 import com.generallycloud.baseio.codec.http11.ServerHttpFuture;
 import com.generallycloud.baseio.codec.http11.WebSocketFuture;
+import com.generallycloud.baseio.codec.http2.Http2Codec;
+import com.generallycloud.baseio.codec.http2.Http2Session;
+import com.generallycloud.baseio.codec.http2.future.ServerHttp2Future;
+import com.generallycloud.baseio.codec.http2.hpack.Http2Error;
+import com.generallycloud.baseio.common.CloseUtil;
 import com.generallycloud.baseio.common.FileUtil;
 import com.generallycloud.baseio.common.LoggerUtil;
 import com.generallycloud.baseio.common.StringUtil;
 import com.generallycloud.baseio.component.ChannelContext;
+import com.generallycloud.baseio.component.FutureAcceptor;
 import com.generallycloud.baseio.component.NioSocketChannel;
 import com.generallycloud.baseio.container.ApplicationIoEventHandle;
 import com.generallycloud.baseio.container.ContainerIoEventHandle;
+import com.generallycloud.baseio.container.http11.HttpEntity.Snapshot;
 import com.generallycloud.baseio.log.Logger;
 import com.generallycloud.baseio.log.LoggerFactory;
 import com.generallycloud.baseio.protocol.Future;
 import com.generallycloud.baseio.protocol.NamedFuture;
 
-//FIXME limit too large file
+/**
+ * 请求先通过路由表(getRouter)分发，未匹配的请求作为静态文件处理，
+ * 静态文件：不超过maxCachedFileSize的文件缓存在内存中(总大小不超过maxCacheSize)，
+ * 其它文件通过FileChannel.transferTo发送，支持ETag、If-Modified-Since和单个Range，
+ * 缓存的文本文件在加载时压缩一次(gzip/deflate)，
+ * http2连接上可以通过addPushResources配置页面需要推送(PUSH_PROMISE)的静态资源
+ */
 public class HttpFutureAcceptor extends ContainerIoEventHandle {
 
-    private Map<String, HttpEntity> htmlCache = new HashMap<>();
-    private HttpSessionManager      httpSessionManager;
-    private Logger                  logger    = LoggerFactory.getLogger(getClass());
+    private final AtomicLong           cachedSize        = new AtomicLong();
+    private int                        compressMinSize   = 1024;
+    private Map<String, HttpEntity>    htmlCache         = new HashMap<>();
+    private HttpSessionManager         httpSessionManager;
+    private Logger                     logger            = LoggerFactory.getLogger(getClass());
+    private long                       maxCacheSize      = 1024 * 1024 * 32;
+    private int                        maxCachedFileSize = 1024 * 64;
+    private Map<String, String[]>      pushResources     = new HashMap<>();
+    private HttpRouter<FutureAcceptor> router            = new HttpRouter<>();
 
     @Override
     public void accept(NioSocketChannel channel, Future future) throws Exception {
+        FutureAcceptor acceptor = router.route((HttpFuture) future);
+        if (acceptor != null) {
+            acceptor.accept(channel, future);
+            return;
+        }
         acceptHtml(channel, (NamedFuture) future);
     }
 
@@ -59,28 +90,153 @@ public class HttpFutureAcceptor extends ContainerIoEventHandle {
             f.setStatus(HttpStatus.C404);
             entity = htmlCache.get("/404.html");
             if (entity == null) {
-                throw new IOException("404 page not found");
+                f.setResponseHeader(HttpHeader.Content_Type, HttpFuture.CONTENT_TYPE_TEXT_PLAIN);
+                f.write("404 page not found", channel.getEncoding());
+                channel.flush(f);
+                return;
             }
         }
         File file = entity.getFile();
-        if (file != null && file.lastModified() > entity.getLastModify()) {
+        Snapshot snapshot = entity.getSnapshot();
+        if (file != null && file.lastModified() > snapshot.getLastModify()) {
             synchronized (entity) {
-                reloadEntity(entity, channel.getContext(), status);
+                snapshot = entity.getSnapshot();
+                if (file.lastModified() > snapshot.getLastModify()) {
+                    snapshot = reloadEntity(entity, channel.getContext(), status);
+                }
+            }
+        }
+        String encoding = selectEncoding(f, snapshot);
+        if (f.getStatus() == HttpStatus.C200 && isNotModified(f, snapshot, encoding)) {
+            f.setStatus(HttpStatus.C304);
+            f.setResponseHeader(HttpHeader.ETag, snapshot.getEtag(encoding));
+            if (snapshot.isEncoded()) {
+                f.setResponseHeader(HttpHeader.Vary, "Accept-Encoding");
             }
-            flush(channel, f, entity);
+            channel.flush(f);
             return;
         }
-        String ims = f.getRequestHeader(HttpHeader.Req_If_Modified_Since);
-        long imsTime = -1;
-        if (!StringUtil.isNullOrBlank(ims)) {
-            imsTime = HttpHeaderDateFormat.getFormat().parse(ims).getTime();
+        if (f instanceof ServerHttp2Future && f.getStatus() == HttpStatus.C200) {
+            push(channel, (ServerHttp2Future) f);
         }
-        if (imsTime < entity.getLastModifyGTMTime()) {
-            flush(channel, f, entity);
+        flush(channel, f, entity, snapshot, encoding);
+    }
+
+    // 推送的请求和普通的静态文件请求一样处理，PUSH_PROMISE需要在页面的响应之前发出
+    private void push(NioSocketChannel channel, ServerHttp2Future future) throws IOException {
+        String[] resources = pushResources.get(future.getFutureName());
+        if (resources == null) {
             return;
         }
-        f.setStatus(HttpStatus.C304);
-        channel.flush(f);
+        Http2Session session = Http2Session.getHttp2Session(channel);
+        for (String path : resources) {
+            if (!htmlCache.containsKey(path)) {
+                continue;
+            }
+            ServerHttp2Future pushed = session.push(future, path);
+            if (pushed == null) {
+                return;
+            }
+            acceptHtml(channel, pushed);
+        }
+    }
+
+    private String selectEncoding(ServerHttpFuture f, Snapshot snapshot) {
+        if (!snapshot.isEncoded()) {
+            return null;
+        }
+        String encoding = HttpContentEncoder
+                .select(f.getRequestHeader(HttpHeader.Req_Accept_Encoding));
+        if (snapshot.getBinary(encoding) == null) {
+            return null;
+        }
+        return encoding;
+    }
+
+    private boolean isNotModified(ServerHttpFuture f, Snapshot snapshot, String encoding) {
+        String inm = f.getRequestHeader(HttpHeader.Req_If_None_Match);
+        if (inm != null) {
+            return matchEtag(inm, snapshot.getEtag(encoding));
+        }
+        String ims = f.getRequestHeader(HttpHeader.Req_If_Modified_Since);
+        if (StringUtil.isNullOrBlank(ims)) {
+            return false;
+        }
+        return HttpHeaderDateFormat.getFormat().parse(ims).getTime() >= snapshot
+                .getLastModifyGTMTime();
+    }
+
+    // If-None-Match: "a", W/"b" 或者 *
+    private static boolean matchEtag(String header, String etag) {
+        if ("*".equals(header.trim())) {
+            return true;
+        }
+        for (String s : header.split(",")) {
+            s = s.trim();
+            if (s.startsWith("W/")) {
+                s = s.substring(2);
+            }
+            if (s.equals(etag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 解析单个Range：bytes=a-b, bytes=a-, bytes=-n
+     * @return [start, end]，不支持的格式(例如多个range)返回null，不满足返回RANGE_NOT_SATISFIABLE
+     */
+    private static long[] parseRange(String range, long length) {
+        range = range.trim();
+        if (!range.startsWith("bytes=") || range.indexOf(',') != -1) {
+            return null;
+        }
+        int index = range.indexOf('-', 6);
+        if (index == -1) {
+            return null;
+        }
+        String s = range.substring(6, index).trim();
+        String e = range.substring(index + 1).trim();
+        long start;
+        long end;
+        try {
+            if (s.length() == 0) {
+                if (e.length() == 0) {
+                    return null;
+                }
+                long suffix = Long.parseLong(e);
+                if (suffix == 0) {
+                    return RANGE_NOT_SATISFIABLE;
+                }
+                start = Math.max(0, length - suffix);
+                end = length - 1;
+            } else {
+                start = Long.parseLong(s);
+                end = e.length() == 0 ? length - 1 : Math.min(Long.parseLong(e), length - 1);
+            }
+        } catch (NumberFormatException ex) {
+            return null;
+        }
+        if (start < 0 || start >= length || end < start) {
+            return RANGE_NOT_SATISFIABLE;
+        }
+        return new long[] { start, end };
+    }
+
+    private static final long[] RANGE_NOT_SATISFIABLE = new long[0];
+
+    // If-Range不满足时忽略Range，发送整个文件
+    private static boolean matchIfRange(ServerHttpFuture f, Snapshot snapshot) {
+        String ifRange = f.getRequestHeader(HttpHeader.Req_If_Range);
+        if (ifRange == null) {
+            return true;
+        }
+        ifRange = ifRange.trim();
+        if (ifRange.startsWith("\"") || ifRange.startsWith("W/")) {
+            return ifRange.equals(snapshot.getEtag());
+        }
+        return ifRange.equals(snapshot.getLastModifyGTM());
     }
 
     @Override
@@ -97,7 +253,25 @@ public class HttpFutureAcceptor extends ContainerIoEventHandle {
             channel.flush(future);
             return;
         }
+        if (future instanceof HttpFuture) {
+            ((HttpFuture) future).deleteBodyFile();
+        }
+        if (future instanceof ServerHttp2Future) {
+            // 异常可能来自编码响应本身，只重置这个stream，避免再次经过编码
+            int streamId = ((ServerHttp2Future) future).getStreamIdentifier();
+            Http2Session session = Http2Session.getHttp2Session(channel);
+            if (session.getStream(streamId) != null) {
+                session.resetStream(streamId, Http2Error.INTERNAL_ERROR);
+            }
+            return;
+        }
+        if (channel.getProtocolCodec() instanceof Http2Codec) {
+            // 不是某个stream的请求，http2连接上无法写出http1的响应
+            return;
+        }
         ServerHttpFuture f = new ServerHttpFuture(channel.getContext());
+        // 占用原请求在流水线中的位置
+        f.setSequence(future.getSequence());
         StringBuilder builder = new StringBuilder(HtmlUtil.HTML_HEADER);
         builder.append("        <div style=\"margin-left:20px;\">\n");
         builder.append(
@@ -124,11 +298,69 @@ public class HttpFutureAcceptor extends ContainerIoEventHandle {
         channel.flush(f);
     }
 
-    private void flush(NioSocketChannel channel, ServerHttpFuture future, HttpEntity entity) {
+    private void flush(NioSocketChannel channel, ServerHttpFuture future, HttpEntity entity,
+            Snapshot snapshot, String encoding) throws IOException {
         future.setResponseHeader(HttpHeader.Content_Type, entity.getContentType());
-        future.setResponseHeader(HttpHeader.Last_Modified, entity.getLastModifyGTM());
-        future.write(entity.getBinary());
-        channel.flush(future);
+        future.setResponseHeader(HttpHeader.Last_Modified, snapshot.getLastModifyGTM());
+        future.setResponseHeader(HttpHeader.Accept_Ranges, "bytes");
+        if (snapshot.isEncoded()) {
+            future.setResponseHeader(HttpHeader.Vary, "Accept-Encoding");
+        }
+        byte[] binary = snapshot.getBinary();
+        long length = snapshot.getLength();
+        long start = 0;
+        long count = length;
+        String range = future.getRequestHeader(HttpHeader.Req_Range);
+        if (range != null && future.getStatus() == HttpStatus.C200
+                && matchIfRange(future, snapshot)) {
+            long[] r = parseRange(range, length);
+            if (r == RANGE_NOT_SATISFIABLE) {
+                future.setStatus(HttpStatus.C416);
+                future.setResponseHeader(HttpHeader.Content_Range, "bytes */" + length);
+                channel.flush(future);
+                return;
+            }
+            if (r != null) {
+                start = r[0];
+                count = r[1] - r[0] + 1;
+                future.setStatus(HttpStatus.C206);
+                future.setResponseHeader(HttpHeader.Content_Range,
+                        "bytes " + r[0] + "-" + r[1] + "/" + length);
+                // Range针对原始内容
+                encoding = null;
+            }
+        }
+        future.setResponseHeader(HttpHeader.ETag, snapshot.getEtag(encoding));
+        if (encoding != null) {
+            future.setResponseHeader(HttpHeader.Content_Encoding, encoding);
+            future.writeBinary(snapshot.getBinary(encoding));
+            channel.flush(future);
+            return;
+        }
+        if (binary != null) {
+            if (count == binary.length) {
+                future.writeBinary(binary);
+            } else {
+                future.writeBinary(Arrays.copyOfRange(binary, (int) start, (int) (start + count)));
+            }
+            channel.flush(future);
+            return;
+        }
+        File file = entity.getFile();
+        FileChannel fileChannel = new RandomAccessFile(file, "r").getChannel();
+        try {
+            if (future instanceof ServerHttp2Future) {
+                // http2需要拆分为DATA帧，由Http2Session每一轮读取一段
+                ((ServerHttp2Future) future).writeFile(fileChannel, start, count);
+                channel.flush(future);
+            } else {
+                // SSL连接上由NioSocketChannel每次读取一段加密后写出
+                channel.flush(new HttpFileRegionFuture(future, fileChannel, start, count, true));
+            }
+        } catch (RuntimeException e) {
+            CloseUtil.close(fileChannel);
+            throw e;
+        }
     }
 
     private ApplicationIoEventHandle getApplicationIoEventHandle(ChannelContext context) {
@@ -152,6 +384,49 @@ public class HttpFutureAcceptor extends ContainerIoEventHandle {
         return htmlCache;
     }
 
+    public int getCompressMinSize() {
+        return compressMinSize;
+    }
+
+    /**
+     * 小于compressMinSize的缓存文件不预先压缩
+     */
+    public void setCompressMinSize(int compressMinSize) {
+        this.compressMinSize = compressMinSize;
+    }
+
+    public long getMaxCacheSize() {
+        return maxCacheSize;
+    }
+
+    public int getMaxCachedFileSize() {
+        return maxCachedFileSize;
+    }
+
+    public void setMaxCacheSize(long maxCacheSize) {
+        this.maxCacheSize = maxCacheSize;
+    }
+
+    public void setMaxCachedFileSize(int maxCachedFileSize) {
+        this.maxCachedFileSize = maxCachedFileSize;
+    }
+
+    /**
+     * http2连接上响应path时同时推送的静态资源，例如
+     * addPushResources("/index.html", "/css/app.css", "/js/app.js")，
+     * 对端禁用push(SETTINGS_ENABLE_PUSH=0)时不推送
+     */
+    public void addPushResources(String path, String... resources) {
+        pushResources.put(path, resources);
+    }
+
+    /**
+     * 路由表，在initialize中添加路由，未匹配的请求作为静态文件处理
+     */
+    public HttpRouter<FutureAcceptor> getRouter() {
+        return router;
+    }
+
     public HttpSessionManager getHttpSessionManager() {
         return httpSessionManager;
     }
@@ -195,21 +470,54 @@ public class HttpFutureAcceptor extends ContainerIoEventHandle {
         }
     }
 
-    private void reloadEntity(HttpEntity entity, ChannelContext context, HttpStatus status)
+    private Snapshot reloadEntity(HttpEntity entity, ChannelContext context, HttpStatus status)
             throws IOException {
         File file = entity.getFile();
-        entity.setBinary(FileUtil.readBytesByFile(file));
-        entity.setLastModify(file.lastModified());
+        long lastModify = file.lastModified();
+        long length = file.length();
+        cachedSize.addAndGet(-entity.getSnapshot().size());
+        byte[] binary = null;
+        if (length <= maxCachedFileSize && cachedSize.addAndGet(length) <= maxCacheSize) {
+            binary = FileUtil.readBytesByFile(file);
+            // 读取过程中文件可能被修改
+            cachedSize.addAndGet(binary.length - length);
+            length = binary.length;
+        } else if (length <= maxCachedFileSize) {
+            cachedSize.addAndGet(-length);
+        }
+        Snapshot snapshot = newSnapshot(entity.getContentType(), binary, length, lastModify);
+        cachedSize.addAndGet(snapshot.size() - (binary == null ? 0 : binary.length));
+        entity.setSnapshot(snapshot);
+        return snapshot;
+    }
+
+    private Snapshot newSnapshot(String contentType, byte[] binary, long length,
+            long lastModify) {
+        byte[] gzip = compress(contentType, binary, HttpContentEncoder.GZIP);
+        byte[] deflate = compress(contentType, binary, HttpContentEncoder.DEFLATE);
+        return new Snapshot(binary, length, lastModify, gzip, deflate);
+    }
+
+    /**
+     * 压缩缓存的内容，只保留比原始内容小的结果
+     */
+    private byte[] compress(String contentType, byte[] binary, String encoding) {
+        if (binary == null || binary.length < compressMinSize || !HttpContentEncoder
+                .isCompressible(contentType, HttpContentEncoder.COMPRESS_TYPES)) {
+            return null;
+        }
+        byte[] encoded = HttpContentEncoder.compress(encoding, binary);
+        if (encoded.length >= binary.length) {
+            return null;
+        }
+        return encoded;
     }
 
     private void scanFolder(ChannelContext context, Map<String, HttpEntity> htmlCache, File file,
             String root, Map<String, String> mapping, String path) throws IOException {
         if (file.isFile()) {
             String contentType = getContentType(file.getName(), mapping);
-            HttpEntity entity = new HttpEntity();
-            entity.setContentType(contentType);
-            entity.setFile(file);
-            htmlCache.put(path, entity);
+            htmlCache.put(path, new HttpEntity(contentType, file));
             LoggerUtil.prettyLog(logger, "mapping static url:{}", path);
         } else if (file.isDirectory()) {
             String staticName = path;
@@ -262,11 +570,11 @@ public class HttpFutureAcceptor extends ContainerIoEventHandle {
             b.append(fb);
             b.append("      <hr>\n");
             b.append(HtmlUtil.HTML_BOTTOM);
-            HttpEntity entity = new HttpEntity();
-            entity.setContentType(HttpFuture.CONTENT_TYPE_TEXT_HTML);
-            entity.setFile(file);
-            entity.setLastModify(System.currentTimeMillis());
-            entity.setBinary(b.toString().getBytes(context.getEncoding()));
+            String contentType = HttpFuture.CONTENT_TYPE_TEXT_HTML;
+            HttpEntity entity = new HttpEntity(contentType, file);
+            byte[] binary = b.toString().getBytes(context.getEncoding());
+            entity.setSnapshot(newSnapshot(contentType, binary, binary.length,
+                    System.currentTimeMillis()));
             htmlCache.put(staticName, entity);
         }
     }
@@ -19,18 +19,21 @@ import java.io.IOException;
 
 import com.generallycloud.baseio.TimeoutException;
 import com.generallycloud.baseio.codec.protobase.ParamedProtobaseFuture;
+import com.generallycloud.baseio.codec.protobase.ProtobaseResponseCorrelator;
 import com.generallycloud.baseio.common.CloseUtil;
 import com.generallycloud.baseio.common.StringUtil;
 import com.generallycloud.baseio.component.ChannelContext;
 import com.generallycloud.baseio.component.NioSocketChannel;
+import com.generallycloud.baseio.concurrent.Promise;
 
 public class FixedChannel {
 
-    private ChannelContext      context     = null;
-    private boolean             logined     = false;
-    private NioSocketChannel    channel     = null;
-    private long                timeout     = 50000;
-    private SimpleIoEventHandle eventHandle = null;
+    private ChannelContext                                      context     = null;
+    private boolean                                             logined     = false;
+    private NioSocketChannel                                    channel     = null;
+    private ProtobaseResponseCorrelator<ParamedProtobaseFuture> correlator  = null;
+    private long                                                timeout     = 50000;
+    private SimpleIoEventHandle                                 eventHandle = null;
 
     public FixedChannel(NioSocketChannel channel) {
         update(channel);
@@ -66,6 +69,20 @@ public class FixedChannel {
 
     public ParamedProtobaseFuture request(String serviceName, String content, byte[] binary)
             throws IOException {
+        try {
+            return requestAsync(serviceName, content, binary).get(timeout);
+        } catch (TimeoutException e) {
+            CloseUtil.close(channel);
+            throw e;
+        }
+    }
+
+    /**
+     * 发送请求但不等待响应，响应通过futureId与请求关联，
+     * 同一个连接上可以同时存在多个未完成的请求
+     */
+    public Promise<ParamedProtobaseFuture> requestAsync(String serviceName, String content,
+            byte[] binary) {
         ParamedProtobaseFuture future = new ParamedProtobaseFuture(serviceName);
         if (!StringUtil.isNullOrBlank(content)) {
             future.write(content, channel.getEncoding());
@@ -73,33 +90,14 @@ public class FixedChannel {
         if (binary != null) {
             future.writeBinary(binary);
         }
-        WaiterOnFuture onReadFuture = new WaiterOnFuture();
-        waiterListen(serviceName, onReadFuture);
-        channel.flush(future);
-        // FIXME 连接丢失时叫醒我
-        if (onReadFuture.await(timeout)) {
-            CloseUtil.close(channel);
-            throw new TimeoutException("timeout");
-        }
-        return (ParamedProtobaseFuture) onReadFuture.getReadFuture();
+        return correlator.request(future, timeout);
     }
 
     public void update(NioSocketChannel channel) {
         this.channel = channel;
         this.context = channel.getContext();
         this.eventHandle = (SimpleIoEventHandle) channel.getIoEventHandle();
-    }
-
-    private void waiterListen(String serviceName, WaiterOnFuture onReadFuture) throws IOException {
-        if (onReadFuture == null) {
-            throw new IOException("empty onReadFuture");
-        }
-        OnFutureWrapper wrapper = eventHandle.getOnReadFutureWrapper(serviceName);
-        if (wrapper == null) {
-            wrapper = new OnFutureWrapper();
-            eventHandle.putOnReadFutureWrapper(serviceName, wrapper);
-        }
-        wrapper.listen(onReadFuture);
+        this.correlator = new ProtobaseResponseCorrelator<>(channel);
     }
 
     public void write(String serviceName, String content) throws IOException {
@@ -19,9 +19,11 @@ import java.io.IOException;
 import java.util.HashMap;
 import java.util.Map;
 
+import com.generallycloud.baseio.codec.protobase.ProtobaseFuture;
 import com.generallycloud.baseio.common.StringUtil;
 import com.generallycloud.baseio.component.IoEventHandle;
 import com.generallycloud.baseio.component.NioSocketChannel;
+import com.generallycloud.baseio.component.ResponseCorrelator;
 import com.generallycloud.baseio.protocol.Future;
 import com.generallycloud.baseio.protocol.NamedFuture;
 
@@ -31,6 +33,12 @@ public class SimpleIoEventHandle extends IoEventHandle {
 
     @Override
     public void accept(NioSocketChannel channel, Future future) throws Exception {
+        if (((ProtobaseFuture) future).getFutureId() > 0) {
+            ResponseCorrelator<?> correlator = ResponseCorrelator.get(channel);
+            if (correlator != null && correlator.complete(future)) {
+                return;
+            }
+        }
         NamedFuture f = (NamedFuture) future;
         OnFutureWrapper onReadFuture = listeners.get(f.getFutureName());
         if (onReadFuture != null) {
@@ -53,6 +61,14 @@ public class SimpleIoEventHandle extends IoEventHandle {
         wrapper.setListener(onReadFuture);
     }
 
+    @Override
+    public void exceptionCaught(NioSocketChannel channel, Future future, Exception ex) {
+        ResponseCorrelator<?> correlator = ResponseCorrelator.get(channel);
+        if (correlator == null || !correlator.fail(future, ex)) {
+            super.exceptionCaught(channel, future, ex);
+        }
+    }
+
     public OnFutureWrapper getOnReadFutureWrapper(String serviceName) {
         return listeners.get(serviceName);
     }
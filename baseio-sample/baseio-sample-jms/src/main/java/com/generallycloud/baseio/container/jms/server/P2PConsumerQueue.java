@@ -15,15 +15,13 @@
  */
 package com.generallycloud.baseio.container.jms.server;
 
-import java.util.ArrayList;
 import java.util.List;
 
-import com.generallycloud.baseio.concurrent.ReentrantList;
+import com.generallycloud.baseio.concurrent.CopyOnWriteArraySet;
 
 public class P2PConsumerQueue implements ConsumerQueue {
 
-    private ReentrantList<Consumer> consumers = new ReentrantList<>(
-            new ArrayList<Consumer>());
+    private CopyOnWriteArraySet<Consumer> consumers = new CopyOnWriteArraySet<>();
 
     @Override
     public int size() {
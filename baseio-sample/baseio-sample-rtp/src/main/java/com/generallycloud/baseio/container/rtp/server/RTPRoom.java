@@ -15,14 +15,13 @@
  */
 package com.generallycloud.baseio.container.rtp.server;
 
-import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.locks.ReentrantLock;
 
 import com.generallycloud.baseio.component.DatagramChannel;
 import com.generallycloud.baseio.component.Channel;
+import com.generallycloud.baseio.concurrent.CopyOnWriteArraySet;
 import com.generallycloud.baseio.concurrent.FixedAtomicInteger;
-import com.generallycloud.baseio.concurrent.ReentrantList;
 import com.generallycloud.baseio.container.rtp.RTPContext;
 import com.generallycloud.baseio.log.Logger;
 import com.generallycloud.baseio.log.LoggerFactory;
@@ -36,8 +35,8 @@ public class RTPRoom {
             .getLogger(RTPRoom.class);
 
     private RTPContext                      context;
-    private ReentrantList<DatagramChannel>  datagramChannelList = new ReentrantList<>(
-            new ArrayList<DatagramChannel>());
+    private CopyOnWriteArraySet<DatagramChannel> datagramChannelList = new CopyOnWriteArraySet<>();
+    private ReentrantLock                   lock                = new ReentrantLock();
     private RTPRoomFactory                  roomFactory;
     private int                             roomId;
     private boolean                         closed              = false;
@@ -81,7 +80,7 @@ public class RTPRoom {
             return false;
         }
 
-        ReentrantLock lock = datagramChannelList.getReentrantLock();
+        ReentrantLock lock = this.lock;
 
         lock.lock();
 
@@ -113,7 +112,7 @@ public class RTPRoom {
 
     public void leave(DatagramChannel channel) {
 
-        ReentrantLock lock = datagramChannelList.getReentrantLock();
+        ReentrantLock lock = this.lock;
 
         lock.lock();
 
@@ -0,0 +1,136 @@
+/*
+ * Copyright 2015-2017 GenerallyCloud.com
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *  
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.generallycloud.test.io.load.http11;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.Socket;
+
+import com.generallycloud.baseio.codec.http11.HttpFuture;
+import com.generallycloud.baseio.codec.http11.ServerHttpCodec;
+import com.generallycloud.baseio.common.CloseUtil;
+import com.generallycloud.baseio.component.ChannelAcceptor;
+import com.generallycloud.baseio.component.ChannelContext;
+import com.generallycloud.baseio.component.IoEventHandle;
+import com.generallycloud.baseio.component.NioEventLoopGroup;
+import com.generallycloud.baseio.component.NioSocketChannel;
+import com.generallycloud.baseio.configuration.Configuration;
+import com.generallycloud.baseio.log.LoggerFactory;
+import com.generallycloud.baseio.protocol.Future;
+
+/**
+ * 服务端每个http1.1请求分配的内存(字节)，比较回收ServerHttpFuture(httpFutureStackSize=16)
+ * 和不回收(0)的情况，客户端每次流水线发送PIPELINE个请求，只统计服务端线程(HotSpot)
+ * @author wangkai
+ *
+ */
+public class TestHttpFutureRecycleLoad {
+
+    static final int PIPELINE = 1;
+
+    static final int REQUESTS = 5000;
+
+    static final int WARMUP   = 2000;
+
+    public static void main(String[] args) throws Exception {
+        LoggerFactory.setEnableSLF4JLogger(false);
+        LoggerFactory.setEnableInfo(false);
+        for (int i = 0; i < 3; i++) {
+            test(0, 8300);
+            test(16, 8301);
+            System.out.println();
+        }
+        System.exit(0);
+    }
+
+    static void test(int stackSize, int port) throws Exception {
+        NioEventLoopGroup group = new NioEventLoopGroup(1);
+        group.setEnableMemoryPool(true);
+        ChannelContext context = new ChannelContext(new Configuration(port));
+        ChannelAcceptor acceptor = new ChannelAcceptor(context, group);
+        context.setProtocolCodec(new ServerHttpCodec(1024 * 8, 1024 * 512, stackSize));
+        context.setIoEventHandle(new IoEventHandle() {
+
+            @Override
+            public void accept(NioSocketChannel channel, Future future) throws Exception {
+                HttpFuture f = (HttpFuture) future;
+                f.setResponseHeader("X-I", f.getRequestParam("i"));
+                f.write("hello " + f.getRequestParam("i"), channel);
+                channel.flush(f);
+            }
+        });
+        acceptor.bind();
+        Socket socket = new Socket("127.0.0.1", port);
+        try {
+            socket.setTcpNoDelay(true);
+            OutputStream out = socket.getOutputStream();
+            BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+            request(out, in, WARMUP);
+            long before = allocatedBytes();
+            long startTime = System.nanoTime();
+            request(out, in, REQUESTS);
+            long time = System.nanoTime() - startTime;
+            long bytes = allocatedBytes() - before;
+            System.out.println("stack=" + stackSize + " requests=" + REQUESTS + " bytes/req="
+                    + bytes / REQUESTS + " time=" + time / 1000000 + "ms");
+        } finally {
+            CloseUtil.close(socket);
+            CloseUtil.unbind(acceptor);
+        }
+    }
+
+    static void request(OutputStream out, BufferedReader in, int count) throws Exception {
+        for (int i = 0; i < count; i += PIPELINE) {
+            StringBuilder b = new StringBuilder();
+            for (int j = i; j < i + PIPELINE; j++) {
+                b.append("GET /test?i=").append(j).append(" HTTP/1.1\r\n");
+                b.append("Host: localhost\r\nCookie: c=").append(j).append("\r\n\r\n");
+            }
+            out.write(b.toString().getBytes());
+            for (int j = i; j < i + PIPELINE; j++) {
+                int length = 0;
+                for (String line = in.readLine(); !line.isEmpty(); line = in.readLine()) {
+                    if (line.startsWith("Content-Length: ")) {
+                        length = Integer.parseInt(line.substring(16));
+                    }
+                }
+                char[] body = new char[length];
+                for (int read = 0; read < length;) {
+                    read += in.read(body, read, length - read);
+                }
+                if (!new String(body).equals("hello " + j)) {
+                    throw new IllegalStateException("bad response: " + new String(body));
+                }
+            }
+        }
+    }
+
+    // 除当前线程以外所有线程已分配的字节数
+    static long allocatedBytes() {
+        com.sun.management.ThreadMXBean mx = (com.sun.management.ThreadMXBean) ManagementFactory
+                .getThreadMXBean();
+        long bytes = 0;
+        for (Thread t : Thread.getAllStackTraces().keySet()) {
+            if (t != Thread.currentThread()) {
+                bytes += Math.max(0, mx.getThreadAllocatedBytes(t.getId()));
+            }
+        }
+        return bytes;
+    }
+
+}
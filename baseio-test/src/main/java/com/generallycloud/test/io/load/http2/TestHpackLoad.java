@@ -0,0 +1,124 @@
+/*
+ * Copyright 2015-2017 GenerallyCloud.com
+ *  
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *  
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *  
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.generallycloud.test.io.load.http2;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.generallycloud.baseio.buffer.ByteBuf;
+import com.generallycloud.baseio.buffer.UnpooledByteBufAllocator;
+import com.generallycloud.baseio.codec.http2.hpack.Decoder;
+import com.generallycloud.baseio.codec.http2.hpack.Encoder;
+import com.generallycloud.baseio.codec.http2.hpack.Http2Headers;
+import com.generallycloud.baseio.codec.http2.hpack.Http2HeadersEncoder;
+import com.generallycloud.baseio.codec.http2.hpack.Http2HeadersImpl;
+
+/**
+ * hpack编解码耗时，使用浏览器实际发送的请求头，
+ * tableSize为0时全部为literal(测试huffman和静态表)，4096时除第一个header block外基本都是索引
+ * @author wangkai
+ *
+ */
+public class TestHpackLoad {
+
+    static final String[][] CHROME  = { { ":method", "GET" },
+            { ":authority", "www.example.com" }, { ":scheme", "https" },
+            { ":path", "/static/js/app.3f9a1c.js?v=12" },
+            { "sec-ch-ua",
+                    "\"Chromium\";v=\"118\", \"Google Chrome\";v=\"118\", \"Not=A?Brand\";v=\"99\"" },
+            { "sec-ch-ua-mobile", "?0" },
+            { "user-agent",
+                    "Mozilla/5.0 (Windows NT 10.0; Win64; x64) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/118.0.0.0 Safari/537.36" },
+            { "accept",
+                    "text/html,application/xhtml+xml,application/xml;q=0.9,image/avif,image/webp,*/*;q=0.8" },
+            { "sec-fetch-site", "same-origin" }, { "sec-fetch-mode", "navigate" },
+            { "referer", "https://www.example.com/" },
+            { "accept-encoding", "gzip, deflate, br" },
+            { "accept-language", "zh-CN,zh;q=0.9,en;q=0.8" },
+            { "cookie", "a=1; sid=8f7e6d5c4b3a; theme=dark" } };
+
+    static final String[][] FIREFOX = { { ":method", "GET" }, { ":path", "/index.html" },
+            { ":authority", "www.example.com" }, { ":scheme", "https" },
+            { "user-agent",
+                    "Mozilla/5.0 (Windows NT 10.0; Win64; x64; rv:119.0) Gecko/20100101 Firefox/119.0" },
+            { "accept",
+                    "text/html,application/xhtml+xml,application/xml;q=0.9,image/avif,image/webp,*/*;q=0.8" },
+            { "accept-language", "zh-CN,zh;q=0.8,zh-TW;q=0.7,en-US;q=0.3,en;q=0.2" },
+            { "accept-encoding", "gzip, deflate, br" },
+            { "upgrade-insecure-requests", "1" }, { "sec-fetch-dest", "document" },
+            { "sec-fetch-mode", "navigate" }, { "sec-fetch-site", "none" },
+            { "sec-fetch-user", "?1" }, { "te", "trailers" } };
+
+    static final int        BLOCKS  = 1000;
+
+    static final int        ROUNDS  = 200;
+
+    public static void main(String[] args) throws Exception {
+        for (int i = 0; i < 3; i++) {
+            test("chrome ", CHROME, 0);
+            test("chrome ", CHROME, 4096);
+            test("firefox", FIREFOX, 0);
+            test("firefox", FIREFOX, 4096);
+            System.out.println();
+        }
+    }
+
+    static void test(String name, String[][] headerSet, int tableSize) throws Exception {
+        Http2Headers headers = new Http2HeadersImpl();
+        for (String[] kv : headerSet) {
+            headers.add(kv[0], kv[1]);
+        }
+        // 同一个连接上连续的BLOCKS个请求，每一轮使用新的encoder/decoder
+        List<byte[]> blocks = null;
+        long startTime = System.nanoTime();
+        for (int r = 0; r < ROUNDS; r++) {
+            blocks = encode(headers, tableSize);
+        }
+        long encodeTime = System.nanoTime() - startTime;
+        startTime = System.nanoTime();
+        for (int r = 0; r < ROUNDS; r++) {
+            decode(blocks, tableSize);
+        }
+        long decodeTime = System.nanoTime() - startTime;
+        long count = (long) ROUNDS * BLOCKS;
+        System.out.println(name + " table=" + tableSize + " block=" + blocks.get(1).length
+                + "B encode=" + encodeTime / count + "ns decode=" + decodeTime / count + "ns");
+    }
+
+    static List<byte[]> encode(Http2Headers headers, int tableSize) throws Exception {
+        List<byte[]> blocks = new ArrayList<>(BLOCKS);
+        Encoder encoder = new Encoder();
+        ByteBuf buf = UnpooledByteBufAllocator.getHeap().allocate(1024 * 4);
+        encoder.setMaxHeaderTableSize(buf, tableSize);
+        for (int i = 0; i < BLOCKS; i++) {
+            encoder.encodeHeaders(buf, headers, Http2HeadersEncoder.NEVER_SENSITIVE);
+            buf.flip();
+            blocks.add(buf.getBytes());
+            buf.clear();
+        }
+        return blocks;
+    }
+
+    static void decode(List<byte[]> blocks, int tableSize) throws Exception {
+        Decoder decoder = new Decoder();
+        decoder.setMaxHeaderTableSize(tableSize);
+        for (byte[] block : blocks) {
+            ByteBuf buf = UnpooledByteBufAllocator.getHeap().wrap(block);
+            decoder.decode(1, buf, new Http2HeadersImpl());
+        }
+    }
+
+}